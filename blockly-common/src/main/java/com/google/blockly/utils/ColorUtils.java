@@ -15,11 +15,6 @@
 
 package com.google.blockly.utils;
 
-import android.graphics.Color;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
-import android.util.Log;
-
 import java.text.ParseException;
 import java.util.regex.Pattern;
 
@@ -50,7 +45,7 @@ public class ColorUtils {
      * @return The parsed color, in {@code int} form.
      */
     public static int parseColor(
-            @Nullable String str, @Nullable float[] tempHsvArray, int defaultColor) {
+            String str, float[] tempHsvArray, int defaultColor) {
         if (str == null) {
             return defaultColor;
         }
@@ -61,7 +56,7 @@ public class ColorUtils {
         try {
             return parseColor(str, tempHsvArray);
         } catch (ParseException e) {
-            Log.w(TAG, e.toString());
+            ModelLog.w(TAG, e.toString());
             return defaultColor;
         }
     }
@@ -76,7 +71,7 @@ public class ColorUtils {
      * @return The parsed color, in {@code int} form.
      * @throws ParseException
      */
-    public static int parseColor(@NonNull String str, @Nullable float[] tempHsvArray)
+    public static int parseColor(String str, float[] tempHsvArray)
             throws ParseException {
         Integer result = null;
 
@@ -108,7 +103,7 @@ public class ColorUtils {
      * @param tempHsvArray An optional previously allocated array for HSV calculations.
      * @return The color as an ARGB {@code int}.
      */
-    public static int getBlockColorForHue(int hue, @Nullable float[] tempHsvArray) {
+    public static int getBlockColorForHue(int hue, float[] tempHsvArray) {
         hue = ((hue % 360) + 360) % 360;  // Clamp to 0-359
 
         if (tempHsvArray == null) {
@@ -117,7 +112,38 @@ public class ColorUtils {
         tempHsvArray[0] = hue;
         tempHsvArray[1] = DEFAULT_BLOCK_SATURATION;
         tempHsvArray[2] = DEFAULT_BLOCK_VALUE;
-        return Color.HSVToColor(tempHsvArray);
+        return hsvToColor(tempHsvArray);
+    }
+
+    /**
+     * Converts a hue, saturation and value to an opaque ARGB {@code int}. Produces the same result
+     * as {@code android.graphics.Color.HSVToColor(float[])}, without depending on the platform.
+     *
+     * @param hsv The hue in the range 0-360, and the saturation and value in the range 0.0-1.0.
+     * @return The color as an ARGB {@code int}.
+     */
+    public static int hsvToColor(float[] hsv) {
+        float s = Math.max(0f, Math.min(hsv[1], 1f));
+        float v = Math.max(0f, Math.min(hsv[2], 1f));
+        int vByte = roundToInt(v * 255);
+        if (s <= 1f / (1 << 12)) {
+            return argb(ALPHA_OPAQUE, vByte, vByte, vByte);
+        }
+
+        float hx = (hsv[0] < 0 || hsv[0] >= 360f) ? 0 : hsv[0] / 60;
+        float w = (float) Math.floor(hx);
+        float f = hx - w;
+        int p = roundToInt((1f - s) * v * 255);
+        int q = roundToInt((1f - (s * f)) * v * 255);
+        int t = roundToInt((1f - (s * (1f - f))) * v * 255);
+        switch ((int) w) {
+            case 0: return argb(ALPHA_OPAQUE, vByte, t, p);
+            case 1: return argb(ALPHA_OPAQUE, q, vByte, p);
+            case 2: return argb(ALPHA_OPAQUE, p, vByte, t);
+            case 3: return argb(ALPHA_OPAQUE, p, q, vByte);
+            case 4: return argb(ALPHA_OPAQUE, t, p, vByte);
+            default: return argb(ALPHA_OPAQUE, vByte, p, q);
+        }
     }
 
     /**
@@ -130,10 +156,18 @@ public class ColorUtils {
      * @return The computed blend color as an integer.
      */
     public static int blendRGB(int a, int b, float ratio) {
-        return Color.argb(ALPHA_OPAQUE,
-                clampedLerp(Color.red(a), Color.red(b), ratio),
-                clampedLerp(Color.green(a), Color.green(b), ratio),
-                clampedLerp(Color.blue(a), Color.blue(b), ratio));
+        return argb(ALPHA_OPAQUE,
+                clampedLerp((a >> 16) & 0xFF, (b >> 16) & 0xFF, ratio),
+                clampedLerp((a >> 8) & 0xFF, (b >> 8) & 0xFF, ratio),
+                clampedLerp(a & 0xFF, b & 0xFF, ratio));
+    }
+
+    /**
+     * Packs channels into an ARGB {@code int}, the same as
+     * {@code android.graphics.Color.argb(int, int, int, int)}.
+     */
+    public static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
     }
 
     /**
@@ -150,4 +184,9 @@ public class ColorUtils {
         int rawResult = a + (int)((b - a) * ratio);
         return Math.max(Math.min(rawResult, 255), 0);
     }
+
+    // Rounds the same way as Skia, which implements the platform's color conversions.
+    private static int roundToInt(float x) {
+        return (int) Math.floor(x + 0.5f);
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.utils;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging for the model classes that does not depend on {@code android.util.Log}, so code using it
+ * can run on a plain JVM. Messages go to {@link java.util.logging} by default, which Android
+ * forwards to logcat. Applications and tests may redirect them with {@link #setSink(Sink)}.
+ */
+public final class ModelLog {
+    /**
+     * Receives the messages logged by the model classes.
+     */
+    public interface Sink {
+        /**
+         * @param level The level of the message, such as {@link Level#WARNING}.
+         * @param tag The tag of the class that logged the message.
+         * @param message The message.
+         * @param error An exception to log with the message, or null.
+         */
+        void log(Level level, String tag, String message, Throwable error);
+    }
+
+    /** Writes messages to a {@link Logger} named by each message's tag. */
+    public static final Sink JAVA_LOGGING_SINK = new Sink() {
+        @Override
+        public void log(Level level, String tag, String message, Throwable error) {
+            Logger.getLogger(tag).log(level, message, error);
+        }
+    };
+
+    private static volatile Sink sSink = JAVA_LOGGING_SINK;
+
+    private ModelLog() {}
+
+    /**
+     * @param sink The sink to send messages to, or null to use {@link #JAVA_LOGGING_SINK}.
+     */
+    public static void setSink(Sink sink) {
+        sSink = sink == null ? JAVA_LOGGING_SINK : sink;
+    }
+
+    public static void i(String tag, String message) {
+        sSink.log(Level.INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        sSink.log(Level.WARNING, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable error) {
+        sSink.log(Level.WARNING, tag, message, error);
+    }
+
+    public static void e(String tag, String message) {
+        sSink.log(Level.SEVERE, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        sSink.log(Level.SEVERE, tag, message, error);
+    }
+}
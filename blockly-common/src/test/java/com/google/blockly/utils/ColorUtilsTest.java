@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link ColorUtils}. Expected colors match {@code android.graphics.Color.HSVToColor}.
+ */
+public class ColorUtilsTest {
+    @After
+    public void tearDown() {
+        ModelLog.setSink(null);
+    }
+
+    @Test
+    public void testGetBlockColorForHue() {
+        assertEquals(0xFFA65B5B, ColorUtils.DEFAULT_BLOCK_COLOR);
+        assertEquals(0xFFA65B5B, ColorUtils.getBlockColorForHue(360, null));
+        assertEquals(0xFF5BA65B, ColorUtils.getBlockColorForHue(120, new float[3]));
+        assertEquals(0xFF5B5BA6, ColorUtils.getBlockColorForHue(-120, null));
+        assertEquals(0xFF5B80A6, ColorUtils.getBlockColorForHue(210, null));
+    }
+
+    @Test
+    public void testHsvToColor() {
+        assertEquals(0xFFFFFFFF, ColorUtils.hsvToColor(new float[] {0f, 0f, 1f}));
+        assertEquals(0xFF000000, ColorUtils.hsvToColor(new float[] {90f, 1f, 0f}));
+        assertEquals(0xFFFF0000, ColorUtils.hsvToColor(new float[] {0f, 1f, 1f}));
+        assertEquals(0xFFFFFF00, ColorUtils.hsvToColor(new float[] {60f, 1f, 1f}));
+        assertEquals(0xFF00FFFF, ColorUtils.hsvToColor(new float[] {180f, 1f, 1f}));
+        assertEquals(0xFFFF00FF, ColorUtils.hsvToColor(new float[] {300f, 1f, 1f}));
+        // Out of range saturation and value are clamped.
+        assertEquals(0xFFFF0000, ColorUtils.hsvToColor(new float[] {0f, 2f, 2f}));
+    }
+
+    @Test
+    public void testParseColor() throws ParseException {
+        assertEquals(0xBB66FF, ColorUtils.parseColor("#BB66FF", null));
+        assertEquals(0xFF5BA65B, ColorUtils.parseColor("120", null));
+    }
+
+    @Test
+    public void testParseColorLogsInvalid() {
+        final List<String> warnings = new ArrayList<>();
+        ModelLog.setSink(new ModelLog.Sink() {
+            @Override
+            public void log(Level level, String tag, String message, Throwable error) {
+                assertEquals(Level.WARNING, level);
+                warnings.add(message);
+            }
+        });
+
+        assertEquals(42, ColorUtils.parseColor("#BB66FG", null, 42));
+        assertEquals(42, ColorUtils.parseColor("  ", null, 42));
+        assertEquals(42, ColorUtils.parseColor(null, null, 42));
+        assertEquals(1, warnings.size());
+    }
+
+    @Test
+    public void testBlendRGB() {
+        assertEquals(0xFF7F4020, ColorUtils.blendRGB(0x00000000, 0xFFFF8040, 0.5f));
+        assertEquals(0xFF102030, ColorUtils.blendRGB(0x80102030, 0xFFFFFFFF, 0f));
+        assertEquals(0xFFFFFFFF, ColorUtils.blendRGB(0x00000000, 0xFFFFFFFF, 2f));
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link StringUtils}.
+ */
+public class StringUtilsTest {
+    @Test
+    public void testIsEmpty() {
+        assertTrue(StringUtils.isEmpty(null));
+        assertTrue(StringUtils.isEmpty(""));
+        assertFalse(StringUtils.isEmpty(" "));
+    }
+
+    @Test
+    public void testEquals() {
+        assertTrue(StringUtils.equals(null, null));
+        assertTrue(StringUtils.equals("abc", new StringBuilder("abc")));
+        assertFalse(StringUtils.equals("abc", null));
+        assertFalse(StringUtils.equals(null, ""));
+        assertFalse(StringUtils.equals("abc", "abd"));
+        assertFalse(StringUtils.equals("abc", "ab"));
+    }
+}
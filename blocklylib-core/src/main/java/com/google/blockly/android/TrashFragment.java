@@ -170,29 +170,34 @@ public class TrashFragment extends BlockDrawerFragment {
     }
 
     /**
-     * Called by the {@link BlocklyController}, setting the list of blocks in the trash.
+     * Called by the {@link BlocklyController}, setting the list of blocks in the trash. The list is
+     * shown directly rather than copied, so trashed blocks are only loaded as they scroll into
+     * view. Changes to the list are reported with {@link #onBlockTrashed(Block)} and
+     * {@link #onBlockRemovedFromTrash(Block, int)}.
      *
-     * @param blocks The trashed blocks.
+     * @param blocks The trashed blocks, newest first.
      */
     public void setContents(List<Block> blocks) {
-        mBlockListView.setContents(blocks);
+        mBlockListView.setSharedContents(blocks);
     }
 
     /**
-     * Called by the {@link BlocklyController}, notifying when a block was added to the trash.
+     * Called by the {@link BlocklyController}, notifying when a block was added to the front of the
+     * trash.
      *
-     * @param block The block to added to the trash view.
+     * @param block The block added to the trash.
      */
     public void onBlockTrashed(Block block) {
-        mBlockListView.addBlock(0, block);
+        mBlockListView.notifyBlockInserted(0);
     }
 
     /**
      * Called by the {@link BlocklyController}, notifying when a block was removed from the trash.
      *
-     * @param block The block to remove from the trash view.
+     * @param block The block removed from the trash.
+     * @param position The former position of the block in the trash.
      */
-    public void onBlockRemovedFromTrash(Block block) {
-        mBlockListView.removeBlock(block);
+    public void onBlockRemovedFromTrash(Block block, int position) {
+        mBlockListView.notifyBlockRemoved(position);
     }
 }
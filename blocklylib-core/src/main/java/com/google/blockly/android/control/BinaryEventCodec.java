@@ -0,0 +1,663 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.google.blockly.model.WorkspacePoint;
+import com.google.blockly.utils.BlocklyXmlHelper;
+
+import org.json.JSONException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact binary wire format for streams of {@link BlocklyEvent}s, intended for collaborative
+ * sessions where the same block ids, block types and field names are sent over and over.
+ * <p/>
+ * Each stream starts with a short header carrying the format version. Strings that tend to repeat
+ * (ids, block types, element and field names) are interned into a string table scoped to the
+ * stream, so they are only sent in full the first time they are seen. The block XML of
+ * {@link BlocklyEvent.CreateEvent}s and {@link BlocklyEvent.DeleteEvent}s is sent as a tree of
+ * tokens instead of XML text. An {@link Encoder} and {@link Decoder} pair must see the same
+ * sequence of events, in order, to agree on the contents of the string table.
+ * <p/>
+ * The format carries the same attributes as {@link BlocklyEvent#toJsonString()}, plus the block
+ * XML of delete events.
+ */
+public final class BinaryEventCodec {
+    /** Version of the wire format written by {@link Encoder}. */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'B', 'L', 'K', 'E'};
+
+    // Limits that protect the decoder from corrupt or hostile streams.
+    static final int MAX_STRING_TABLE_SIZE = 1 << 14;
+    static final int MAX_STRING_BYTES = 1 << 20;
+    static final int MAX_ID_COUNT = 1 << 16;
+    static final int MAX_TREE_DEPTH = 1024;
+    static final int MAX_ATTRIBUTE_COUNT = 64;
+
+    // String references. Values above REF_LITERAL are string table indices, offset by 2.
+    private static final int REF_NULL = 0;
+    private static final int REF_LITERAL = 1;
+
+    // Block tree tokens.
+    private static final int TOKEN_TREE_END = 0;
+    private static final int TOKEN_START = 1;
+    private static final int TOKEN_TEXT = 2;
+    private static final int TOKEN_END = 3;
+
+    private static final String XML_ROOT_TAG = "xml";
+    private static final String XML_INDENT_FEATURE =
+            "http://xmlpull.org/v1/doc/features.html#indent-output";
+
+    private static final XmlPullParserFactory XML_FACTORY = createXmlFactory();
+
+    private BinaryEventCodec() {}
+
+    /**
+     * Writes events to a binary stream. Not thread-safe.
+     */
+    public static final class Encoder implements Flushable {
+        private final OutputStream mOut;
+        private final HashMap<String, Integer> mStringTable = new HashMap<>();
+        private final WorkspacePoint mTempPoint = new WorkspacePoint();
+        private final StringBuilder mTempText = new StringBuilder();
+        private XmlPullParser mParser;
+        private boolean mWroteHeader = false;
+
+        /**
+         * @param out The stream to write to. It is buffered internally, so call {@link #flush()}
+         *            when the written events need to be delivered.
+         */
+        public Encoder(OutputStream out) {
+            mOut = new BufferedOutputStream(out);
+        }
+
+        /**
+         * Writes a single event.
+         *
+         * @param event The event to serialize.
+         * @throws IOException If the stream fails or the event's block XML cannot be parsed.
+         */
+        public void write(BlocklyEvent event) throws IOException {
+            if (!mWroteHeader) {
+                mOut.write(MAGIC);
+                mOut.write(VERSION);
+                mWroteHeader = true;
+            }
+
+            int typeId = event.getTypeId();
+            mOut.write(typeId);
+            writeRef(nullIfEmpty(event.getBlockId()));
+            writeRef(nullIfEmpty(event.getGroupId()));
+            writeRef(nullIfEmpty(event.getWorkspaceId()));
+            switch (typeId) {
+                case BlocklyEvent.TYPE_CHANGE: {
+                    BlocklyEvent.ChangeEvent change = (BlocklyEvent.ChangeEvent) event;
+                    writeRef(change.getElement());
+                    writeRef(change.getFieldName());
+                    writeLiteral(change.getNewValue());
+                    break;
+                }
+                case BlocklyEvent.TYPE_CREATE: {
+                    BlocklyEvent.CreateEvent create = (BlocklyEvent.CreateEvent) event;
+                    writeBlockTree(create.getXml());
+                    writeIds(create.getIds());
+                    break;
+                }
+                case BlocklyEvent.TYPE_DELETE: {
+                    BlocklyEvent.DeleteEvent delete = (BlocklyEvent.DeleteEvent) event;
+                    writeBlockTree(delete.getXml());
+                    writeIds(delete.getIds());
+                    break;
+                }
+                case BlocklyEvent.TYPE_MOVE: {
+                    BlocklyEvent.MoveEvent move = (BlocklyEvent.MoveEvent) event;
+                    writeRef(move.getNewParentId());
+                    writeRef(move.getNewInputName());
+                    if (move.getNewWorkspacePosition(mTempPoint)) {
+                        mOut.write(1);
+                        writeVarint(zigZag(mTempPoint.x));
+                        writeVarint(zigZag(mTempPoint.y));
+                    } else {
+                        mOut.write(0);
+                    }
+                    break;
+                }
+                case BlocklyEvent.TYPE_UI: {
+                    BlocklyEvent.UIEvent ui = (BlocklyEvent.UIEvent) event;
+                    writeRef(ui.getElement());
+                    writeLiteral(ui.getNewValue());
+                    break;
+                }
+                case BlocklyEvent.TYPE_VAR_RENAME: {
+                    BlocklyEvent.VarRenameEvent rename = (BlocklyEvent.VarRenameEvent) event;
+                    writeRef(rename.getOldName());
+                    writeRef(rename.getNewName());
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown event type: " + typeId);
+            }
+        }
+
+        /**
+         * Writes all {@code events}, in order, and flushes the stream.
+         *
+         * @param events The events to serialize, usually a complete event group.
+         * @throws IOException If the stream fails or an event's block XML cannot be parsed.
+         */
+        public void write(List<BlocklyEvent> events) throws IOException {
+            int count = events.size();
+            for (int i = 0; i < count; ++i) {
+                write(events.get(i));
+            }
+            flush();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        private void writeIds(List<String> ids) throws IOException {
+            int count = ids.size();
+            writeVarint(count);
+            for (int i = 0; i < count; ++i) {
+                writeRef(ids.get(i));
+            }
+        }
+
+        /**
+         * Writes the elements of a block XML document, without the enclosing {@code <xml>} tag.
+         * Whitespace between elements is dropped. Text is only kept for elements without child
+         * elements, which is the only place Blockly XML stores text.
+         */
+        private void writeBlockTree(String xml) throws IOException {
+            if (!TextUtils.isEmpty(xml)) {
+                try {
+                    if (mParser == null) {
+                        mParser = XML_FACTORY.newPullParser();
+                    }
+                    mParser.setInput(new StringReader(xml));
+                    boolean isLeaf = false;
+                    int eventType;
+                    while ((eventType = mParser.next()) != XmlPullParser.END_DOCUMENT) {
+                        switch (eventType) {
+                            case XmlPullParser.START_TAG:
+                                mTempText.setLength(0);
+                                isLeaf = true;
+                                if (mParser.getDepth() == 1) {
+                                    break;  // The <xml> root.
+                                }
+                                writeVarint(TOKEN_START);
+                                writeRef(mParser.getName());
+                                int attributeCount = mParser.getAttributeCount();
+                                writeVarint(attributeCount);
+                                for (int i = 0; i < attributeCount; ++i) {
+                                    String name = mParser.getAttributeName(i);
+                                    writeRef(name);
+                                    if (isInternedAttribute(name)) {
+                                        writeRef(mParser.getAttributeValue(i));
+                                    } else {
+                                        writeLiteral(mParser.getAttributeValue(i));
+                                    }
+                                }
+                                break;
+                            case XmlPullParser.TEXT:
+                                mTempText.append(mParser.getText());
+                                break;
+                            case XmlPullParser.END_TAG:
+                                if (mParser.getDepth() == 1) {
+                                    break;
+                                }
+                                if (isLeaf && mTempText.length() > 0) {
+                                    writeVarint(TOKEN_TEXT);
+                                    writeLiteral(mTempText.toString());
+                                }
+                                mTempText.setLength(0);
+                                isLeaf = false;
+                                writeVarint(TOKEN_END);
+                                break;
+                        }
+                    }
+                } catch (XmlPullParserException e) {
+                    throw new IOException("Invalid block XML in event.", e);
+                }
+            }
+            writeVarint(TOKEN_TREE_END);
+        }
+
+        private void writeRef(@Nullable String str) throws IOException {
+            if (str == null) {
+                writeVarint(REF_NULL);
+                return;
+            }
+            Integer index = mStringTable.get(str);
+            if (index != null) {
+                writeVarint(index + 2);
+                return;
+            }
+            writeVarint(REF_LITERAL);
+            byte[] bytes = str.getBytes("UTF-8");
+            writeVarint(bytes.length);
+            mOut.write(bytes);
+            if (mStringTable.size() < MAX_STRING_TABLE_SIZE) {
+                mStringTable.put(str, mStringTable.size());
+            }
+        }
+
+        private void writeLiteral(@Nullable String str) throws IOException {
+            if (str == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = str.getBytes("UTF-8");
+            writeVarint(bytes.length + 1);
+            mOut.write(bytes);
+        }
+
+        private void writeVarint(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                mOut.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mOut.write(value);
+        }
+    }
+
+    /**
+     * Reads events from a binary stream written by an {@link Encoder}. Not thread-safe.
+     * <p/>
+     * Malformed input of any kind is reported as an {@link IOException}.
+     */
+    public static final class Decoder implements Closeable {
+        private final InputStream mIn;
+        private final ArrayList<String> mStringTable = new ArrayList<>();
+        private final ArrayList<String> mTagStack = new ArrayList<>();
+        private final BlocklyEvent.JsonAttributes mAttributes = new BlocklyEvent.JsonAttributes();
+        private byte[] mBuffer = new byte[64];
+        private boolean mReadHeader = false;
+
+        /**
+         * @param in The stream to read from. It is buffered internally.
+         */
+        public Decoder(InputStream in) {
+            mIn = new BufferedInputStream(in);
+        }
+
+        /**
+         * Reads the next event.
+         *
+         * @return The decoded event, or null if the stream ended cleanly before the next event.
+         * @throws IOException If the stream fails, ends in the middle of an event, has an
+         *                     unsupported version, or is otherwise malformed.
+         */
+        @Nullable
+        public BlocklyEvent read() throws IOException {
+            if (!mReadHeader) {
+                int first = mIn.read();
+                if (first == -1) {
+                    return null;
+                }
+                if (first != MAGIC[0]) {
+                    throw new IOException("Not a Blockly event stream.");
+                }
+                for (int i = 1; i < MAGIC.length; ++i) {
+                    if (readByte() != MAGIC[i]) {
+                        throw new IOException("Not a Blockly event stream.");
+                    }
+                }
+                int version = readByte();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported event stream version: " + version);
+                }
+                mReadHeader = true;
+            }
+
+            int typeId = mIn.read();
+            if (typeId == -1) {
+                return null;
+            }
+
+            BlocklyEvent.JsonAttributes attributes = mAttributes;
+            attributes.clear();
+            attributes.blockId = readRef();
+            attributes.groupId = readRef();
+            attributes.workspaceId = readRef();
+            switch (typeId) {
+                case BlocklyEvent.TYPE_CHANGE:
+                    attributes.type = BlocklyEvent.TYPENAME_CHANGE;
+                    attributes.element = readRef();
+                    attributes.name = readRef();
+                    attributes.newValue = readLiteral();
+                    break;
+                case BlocklyEvent.TYPE_CREATE:
+                    attributes.type = BlocklyEvent.TYPENAME_CREATE;
+                    attributes.xml = readBlockTree();
+                    readIds(attributes);
+                    break;
+                case BlocklyEvent.TYPE_DELETE:
+                    attributes.type = BlocklyEvent.TYPENAME_DELETE;
+                    attributes.oldValue = readBlockTree();
+                    readIds(attributes);
+                    break;
+                case BlocklyEvent.TYPE_MOVE:
+                    attributes.type = BlocklyEvent.TYPENAME_MOVE;
+                    attributes.newParentId = readRef();
+                    attributes.newInputName = readRef();
+                    int hasPosition = readByte();
+                    if (hasPosition == 1) {
+                        int x = unZigZag(readRawVarint());
+                        int y = unZigZag(readRawVarint());
+                        attributes.newCoordinate = x + "," + y;
+                    } else if (hasPosition != 0) {
+                        throw new IOException("Invalid move position flag: " + hasPosition);
+                    }
+                    break;
+                case BlocklyEvent.TYPE_UI:
+                    attributes.type = BlocklyEvent.TYPENAME_UI;
+                    attributes.element = readRef();
+                    attributes.newValue = readLiteral();
+                    break;
+                case BlocklyEvent.TYPE_VAR_RENAME:
+                    attributes.type = BlocklyEvent.TYPENAME_VAR_RENAME;
+                    attributes.oldValue = readRef();
+                    attributes.newValue = readRef();
+                    break;
+                default:
+                    throw new IOException("Unknown event type: " + typeId);
+            }
+
+            try {
+                return BlocklyEvent.fromJsonAttributes(attributes);
+            } catch (JSONException e) {
+                throw new IOException("Invalid event: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Reads all remaining events, appending them to {@code result}.
+         *
+         * @param result The list to append the decoded events to.
+         * @return The {@code result} list.
+         * @throws IOException If the stream fails or is malformed.
+         */
+        public List<BlocklyEvent> readAll(List<BlocklyEvent> result) throws IOException {
+            BlocklyEvent event;
+            while ((event = read()) != null) {
+                result.add(event);
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+
+        private void readIds(BlocklyEvent.JsonAttributes attributes) throws IOException {
+            int count = readVarint();
+            if (count > MAX_ID_COUNT) {
+                throw new IOException("Too many block ids: " + count);
+            }
+            attributes.hasIds = true;
+            attributes.ids.ensureCapacity(count);
+            for (int i = 0; i < count; ++i) {
+                attributes.ids.add(readNonNullRef());
+            }
+        }
+
+        /**
+         * Rebuilds the block XML written by {@link Encoder#writeBlockTree}, formatted the same way
+         * as {@link BlocklyXmlHelper#writeOneBlockToXml}.
+         */
+        private String readBlockTree() throws IOException {
+            int token = readVarint();
+            if (token == TOKEN_TREE_END) {
+                return "";
+            }
+            mTagStack.clear();
+            StringWriter writer = new StringWriter();
+            try {
+                XmlSerializer serializer = XML_FACTORY.newSerializer();
+                serializer.setOutput(writer);
+                serializer.setPrefix("", BlocklyXmlHelper.XML_NAMESPACE);
+                serializer.setFeature(XML_INDENT_FEATURE, true);
+                serializer.startTag(BlocklyXmlHelper.XML_NAMESPACE, XML_ROOT_TAG);
+                while (true) {
+                    switch (token) {
+                        case TOKEN_START:
+                            if (mTagStack.size() >= MAX_TREE_DEPTH) {
+                                throw new IOException("Block tree too deep.");
+                            }
+                            String tag = readXmlName();
+                            serializer.startTag(null, tag);
+                            int attributeCount = readVarint();
+                            if (attributeCount > MAX_ATTRIBUTE_COUNT) {
+                                throw new IOException("Too many attributes: " + attributeCount);
+                            }
+                            for (int i = 0; i < attributeCount; ++i) {
+                                String name = readXmlName();
+                                String value = isInternedAttribute(name)
+                                        ? readNonNullRef() : readNonNullLiteral();
+                                serializer.attribute(null, name, value);
+                            }
+                            mTagStack.add(tag);
+                            break;
+                        case TOKEN_TEXT:
+                            if (mTagStack.isEmpty()) {
+                                throw new IOException("Text outside of block tree.");
+                            }
+                            serializer.text(readNonNullLiteral());
+                            break;
+                        case TOKEN_END:
+                            if (mTagStack.isEmpty()) {
+                                throw new IOException("Unbalanced block tree.");
+                            }
+                            serializer.endTag(null, mTagStack.remove(mTagStack.size() - 1));
+                            break;
+                        default:
+                            throw new IOException("Unknown block tree token: " + token);
+                    }
+                    token = readVarint();
+                    if (token == TOKEN_TREE_END) {
+                        if (!mTagStack.isEmpty()) {
+                            throw new IOException("Unbalanced block tree.");
+                        }
+                        break;
+                    }
+                }
+                serializer.endTag(BlocklyXmlHelper.XML_NAMESPACE, XML_ROOT_TAG);
+                serializer.flush();
+            } catch (XmlPullParserException | IllegalArgumentException | IllegalStateException e) {
+                throw new IOException("Invalid block tree.", e);
+            }
+            return writer.toString();
+        }
+
+        private String readXmlName() throws IOException {
+            String name = readNonNullRef();
+            if (!isValidXmlName(name)) {
+                throw new IOException("Invalid XML name: " + name);
+            }
+            return name;
+        }
+
+        @Nullable
+        private String readRef() throws IOException {
+            int ref = readVarint();
+            if (ref == REF_NULL) {
+                return null;
+            }
+            if (ref == REF_LITERAL) {
+                String str = readUtf8(readVarint());
+                if (mStringTable.size() < MAX_STRING_TABLE_SIZE) {
+                    mStringTable.add(str);
+                }
+                return str;
+            }
+            int index = ref - 2;
+            if (index >= mStringTable.size()) {
+                throw new IOException("Unknown string reference: " + ref);
+            }
+            return mStringTable.get(index);
+        }
+
+        private String readNonNullRef() throws IOException {
+            String str = readRef();
+            if (str == null) {
+                throw new IOException("Unexpected null string.");
+            }
+            return str;
+        }
+
+        @Nullable
+        private String readLiteral() throws IOException {
+            int length = readVarint();
+            return length == 0 ? null : readUtf8(length - 1);
+        }
+
+        private String readNonNullLiteral() throws IOException {
+            String str = readLiteral();
+            if (str == null) {
+                throw new IOException("Unexpected null string.");
+            }
+            return str;
+        }
+
+        private String readUtf8(int length) throws IOException {
+            if (length > MAX_STRING_BYTES) {
+                throw new IOException("String too long: " + length);
+            }
+            if (mBuffer.length < length) {
+                mBuffer = new byte[Math.max(length, mBuffer.length * 2)];
+            }
+            int offset = 0;
+            while (offset < length) {
+                int count = mIn.read(mBuffer, offset, length - offset);
+                if (count == -1) {
+                    throw new EOFException("Unexpected end of event stream.");
+                }
+                offset += count;
+            }
+            return new String(mBuffer, 0, length, "UTF-8");
+        }
+
+        /**
+         * Reads a non-negative varint, as used for lengths, counts and references.
+         */
+        private int readVarint() throws IOException {
+            int result = readRawVarint();
+            if (result < 0) {
+                throw new IOException("Varint out of range.");
+            }
+            return result;
+        }
+
+        /**
+         * Reads a varint of at most five bytes, holding any 32 bit value.
+         */
+        private int readRawVarint() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                if (shift == 28 && (b & 0xF0) != 0) {
+                    throw new IOException("Varint out of range.");
+                }
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Varint too long.");
+        }
+
+        private int readByte() throws IOException {
+            int b = mIn.read();
+            if (b == -1) {
+                throw new EOFException("Unexpected end of event stream.");
+            }
+            return b;
+        }
+    }
+
+    /**
+     * Attribute values that are likely to repeat across events (ids, types, names and flags) are
+     * interned. Coordinates are not.
+     */
+    private static boolean isInternedAttribute(String name) {
+        return !name.equals("x") && !name.equals("y");
+    }
+
+    private static boolean isValidXmlName(String name) {
+        int length = name.length();
+        if (length == 0) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+                    || (i > 0 && ((c >= '0' && c <= '9') || c == '-' || c == '.'));
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private static String nullIfEmpty(@Nullable String str) {
+        return TextUtils.isEmpty(str) ? null : str;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static XmlPullParserFactory createXmlFactory() {
+        try {
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            return factory;
+        } catch (XmlPullParserException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
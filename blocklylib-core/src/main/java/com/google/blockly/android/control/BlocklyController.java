@@ -49,7 +49,9 @@ import com.google.blockly.model.BlocklySerializerException;
 import com.google.blockly.model.Connection;
 import com.google.blockly.model.FieldVariable;
 import com.google.blockly.model.Input;
+import com.google.blockly.model.Trash;
 import com.google.blockly.model.Workspace;
+import com.google.blockly.model.WorkspacePoint;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -57,11 +59,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Controller to coordinate the state among all the major Blockly components: Workspace, Toolbar,
  * Trash, models, and views.
+ * <p/>
+ * A controller built without a {@link BlockViewFactory} is headless: it creates no views, drag
+ * handling or other objects bound to the main thread, so it may be used to load, edit and save
+ * workspaces on a worker thread, such as in a background service. All model operations and events
+ * work the same as with views. A controller must only be used from one thread at a time.
  *
  * Note: Only public methods should call {@link #firePendingEvents()} and only Impl methods should
  * call {@link #addPendingEvent(BlocklyEvent)}. This is to make it easier to maintain events.
@@ -76,6 +86,22 @@ public class BlocklyController {
     // method calls..
     private static final boolean DEBUG_CHECK_EVENT_GROUP = true;
 
+    // Orders the connections of a bump pass left to right, so neighbor searches sweep across the
+    // cells of the connection index instead of jumping between them.
+    private static final Comparator<Connection> CONNECTION_X_ORDER = new Comparator<Connection>() {
+        @Override
+        public int compare(Connection lhs, Connection rhs) {
+            int lx = lhs.getPosition().x;
+            int rx = rhs.getPosition().x;
+            if (lx != rx) {
+                return lx < rx ? -1 : 1;
+            }
+            int ly = lhs.getPosition().y;
+            int ry = rhs.getPosition().y;
+            return ly < ry ? -1 : (ly == ry ? 0 : 1);
+        }
+    };
+
     /**
      * Callback interface for {@link BlocklyEvent}s.
      */
@@ -105,7 +131,25 @@ public class BlocklyController {
     private final ArrayList<EventsCallback> mListeners = new ArrayList<>();
     private final ArrayList<BlocklyEvent> mPendingEvents = new ArrayList<>();
     private int mPendingEventsMask = 0;
+    // Pending field change events that spell out a variable rename for callbacks that do not
+    // handle TYPE_VAR_RENAME. Callbacks that do are sent the pending events without them.
+    private final HashSet<BlocklyEvent> mRenameFieldEvents = new HashSet<>();
+    private final ArrayList<FieldVariable> mTempVariableFields = new ArrayList<>();
     private int mEventCallbackMask = 0;
+    private String mEventGroupId = null;
+    private int mEventGroupDepth = 0;
+    // Depth of nested deferred update batches. See startDeferredUpdates().
+    private int mDeferredUpdateDepth = 0;
+    private final HashSet<BlockGroup> mDeferredConnectorGroups = new HashSet<>();
+    // Depth of nested batches. See beginBatch().
+    private int mBatchDepth = 0;
+    // Depth of nested batches that roll back on failure, which record events without callbacks.
+    private int mRollbackDepth = 0;
+    // Root blocks added during the batch, whose views are built when the batch ends.
+    private final ArrayList<Block> mBatchRootBlocks = new ArrayList<>();
+    // Null unless enabled by setDispatchMetricsEnabled(true).
+    private EventDispatchMetrics mDispatchMetrics = null;
+    private long mFirstPendingEventNanos;
 
     private VirtualWorkspaceView mVirtualWorkspaceView;
     private WorkspaceView mWorkspaceView;
@@ -113,11 +157,20 @@ public class BlocklyController {
     private TrashFragment mTrashFragment = null;
     private View mTrashIcon = null;
     private ToolboxFragment mToolboxFragment = null;
-    private Dragger mDragger;
+    // Null when headless.
+    private final Dragger mDragger;
     private VariableCallback mVariableCallback = null;
 
-    // For use in bumping neighbors; instance variable only to avoid repeated allocation.
+    // Blocks whose neighbors are bumped by the next resolvePendingBumps() pass.
+    private final ArrayList<Block> mPendingBumpBlocks = new ArrayList<>();
+
+    // For use in bumping neighbors; instance variables only to avoid repeated allocation.
     private final ArrayList<Connection> mTempConnections = new ArrayList<>();
+    private final ArrayList<Connection> mBumpInferiors = new ArrayList<>();
+    private final ArrayList<Connection> mBumpSuperiors = new ArrayList<>();
+    private final HashSet<Block> mBumpVisitedBlocks = new HashSet<>();
+    private final HashSet<BlockGroup> mBumpDirtyGroups = new HashSet<>();
+    private final HashSet<BlockGroup> mBumpedGroups = new HashSet<>();
     private final ArrayList<Block> mTempBlocks = new ArrayList<>();
 
     private View.OnClickListener mDismissClickListener = new View.OnClickListener() {
@@ -197,6 +250,7 @@ public class BlocklyController {
 
         mWorkspace = new Workspace(mContext, this, mModelFactory);
         mConnectionManager = mWorkspace.getConnectionManager();
+        mConnectionManager.setCellSize(mHelper.getMaxSnapDistance());
 
         if (mViewFactory != null) {
             // TODO(#81): Check if variables are enabled/disabled
@@ -213,8 +267,21 @@ public class BlocklyController {
             });
         }
 
-        mDragger = new Dragger(this);
-        mTouchHandler = mDragger.buildSloppyBlockTouchHandler(mWorkspaceDragHandler);
+        if (mViewFactory != null) {
+            mDragger = new Dragger(this);
+            mTouchHandler = mDragger.buildSloppyBlockTouchHandler(mWorkspaceDragHandler);
+        } else {
+            mDragger = null;
+            mTouchHandler = null;
+        }
+    }
+
+    /**
+     * @return True if the controller was built without a {@link BlockViewFactory}, and so cannot
+     *         show its workspace in views.
+     */
+    public boolean isHeadless() {
+        return mViewFactory == null;
     }
 
     /**
@@ -303,6 +370,9 @@ public class BlocklyController {
         if (trashIcon == mTrashIcon) {
             return; // no-op
         }
+        if (isHeadless()) {
+            throw new IllegalStateException("Cannot set a trash icon without a BlockViewFactory.");
+        }
         mTrashIcon = trashIcon;
         mDragger.setTrashView(mTrashIcon);
     }
@@ -325,8 +395,10 @@ public class BlocklyController {
     }
 
     /**
-     * @return The {@link Dragger} managing the drag behavior in connected views.
+     * @return The {@link Dragger} managing the drag behavior in connected views, or null if the
+     *         controller is headless.
      */
+    @Nullable
     public Dragger getDragger() {
         return mDragger;
     }
@@ -483,6 +555,30 @@ public class BlocklyController {
         }
     }
 
+    /**
+     * Enables or disables recording of {@link EventDispatchMetrics} for every event group fired to
+     * the listeners. Disabling discards the recorded metrics. When disabled, dispatch only pays for
+     * a null check.
+     *
+     * @param enabled Whether to record metrics.
+     */
+    public void setDispatchMetricsEnabled(boolean enabled) {
+        if (!enabled) {
+            mDispatchMetrics = null;
+        } else if (mDispatchMetrics == null) {
+            mDispatchMetrics = new EventDispatchMetrics();
+            mFirstPendingEventNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return The event dispatch metrics, or null if not enabled.
+     */
+    @Nullable
+    public EventDispatchMetrics getDispatchMetrics() {
+        return mDispatchMetrics;
+    }
+
     public boolean removeListener(EventsCallback listener) {
         boolean found = mListeners.remove(listener);
         if (found) {
@@ -491,6 +587,144 @@ public class BlocklyController {
         return found;
     }
 
+    /**
+     * Starts a group of calls that represent a single user action, such as all the steps of a
+     * drag. Until the matching {@link #endEventGroup()}, every fired event is assigned the same
+     * group id, so listeners like {@link UndoManager} can treat the event groups as one action.
+     * Calls may be nested, in which case the outermost group id is used. The id is only created
+     * when the first event of the group is recorded, so groups without listeners do not allocate.
+     * Neighbors of connected blocks are bumped in a single pass when the outermost group ends.
+     */
+    public void startEventGroup() {
+        ++mEventGroupDepth;
+    }
+
+    /**
+     * Ends a group started by {@link #startEventGroup()}.
+     */
+    public void endEventGroup() {
+        if (mEventGroupDepth == 0) {
+            throw new IllegalStateException("No event group to end.");
+        }
+        if (mEventGroupDepth == 1 && !mPendingBumpBlocks.isEmpty()) {
+            // Bumps are reported as part of the group they resolve.
+            checkPendingEventsEmpty();
+            resolvePendingBumps();
+            firePendingEvents();
+        }
+        if (--mEventGroupDepth == 0) {
+            mEventGroupId = null;
+        }
+    }
+
+    /**
+     * Starts deferring the connector location updates, layout and event firing of controller
+     * calls, so a batch of operations such as replayed remote events pays for each only once.
+     * Neighbors are not bumped while updates are deferred, so replayed positions are kept exactly.
+     * Calls may be nested and must be matched by {@link #finishDeferredUpdates()}.
+     */
+    void startDeferredUpdates() {
+        ++mDeferredUpdateDepth;
+    }
+
+    /**
+     * Ends a batch started by {@link #startDeferredUpdates()}. When the outermost batch ends, the
+     * connector locations of all moved root groups are updated, a single layout is requested and
+     * all accumulated events are fired as one group.
+     */
+    void finishDeferredUpdates() {
+        if (mDeferredUpdateDepth == 0) {
+            throw new IllegalStateException("No deferred updates to finish.");
+        }
+        if (--mDeferredUpdateDepth > 0) {
+            return;
+        }
+        if (!mDeferredConnectorGroups.isEmpty()) {
+            for (BlockGroup group : mDeferredConnectorGroups) {
+                if (group.getParent() == mWorkspaceView) {
+                    group.updateAllConnectorLocations();
+                }
+            }
+            mDeferredConnectorGroups.clear();
+            mWorkspaceView.requestLayout();
+        }
+        firePendingEvents();
+    }
+
+    /**
+     * Starts a batch of controller calls, such as an import of many blocks. Until the matching
+     * {@link #endBatch()}, views are not built for new root blocks, connector locations and layout
+     * are not updated, neighbors are not bumped and no events are fired. When the outermost batch
+     * ends, each of these runs once for the whole batch and the events are fired as one group, so
+     * the workspace ends up the same as if the calls were made one at a time. While views are
+     * deferred, {@link #addRootBlock(Block)} returns null. Batches may be nested.
+     */
+    public void beginBatch() {
+        ++mBatchDepth;
+        startEventGroup();
+        startDeferredUpdates();
+    }
+
+    /**
+     * Ends a batch started by {@link #beginBatch()}.
+     */
+    public void endBatch() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("No batch to end.");
+        }
+        try {
+            if (mBatchDepth == 1) {
+                attachBatchViews();
+            }
+            endEventGroup();
+        } finally {
+            --mBatchDepth;
+            finishDeferredUpdates();
+        }
+    }
+
+    /**
+     * Runs {@code batch} between {@link #beginBatch()} and {@link #endBatch()}. The calls made
+     * before a failure are kept.
+     *
+     * @param batch The controller calls to run.
+     */
+    public void runBatch(Runnable batch) {
+        runBatch(batch, false);
+    }
+
+    /**
+     * Runs {@code batch} between {@link #beginBatch()} and {@link #endBatch()}.
+     *
+     * @param batch The controller calls to run.
+     * @param rollbackOnFailure Whether to revert the calls made by {@code batch} if it throws, in
+     *                          which case no events are fired for them. Events are recorded for
+     *                          the whole batch to do so, even without callbacks.
+     */
+    public void runBatch(Runnable batch, boolean rollbackOnFailure) {
+        int firstEvent = mPendingEvents.size();
+        beginBatch();
+        if (rollbackOnFailure) {
+            ++mRollbackDepth;
+        }
+        boolean succeeded = false;
+        try {
+            batch.run();
+            succeeded = true;
+        } finally {
+            try {
+                if (rollbackOnFailure) {
+                    --mRollbackDepth;
+                    if (!succeeded) {
+                        rollBackEvents(firstEvent);
+                    }
+                }
+            } finally {
+                endBatch();
+            }
+        }
+    }
+
     /**
      * Adds the provided block to the list of root blocks.  If the controller has an initialized
      * {@link WorkspaceView}, it will also create corresponding views.
@@ -524,6 +758,51 @@ public class BlocklyController {
         firePendingEvents();
     }
 
+    /**
+     * Moves a root block to a new position on the workspace.
+     *
+     * @param rootBlock The root {@link Block} to move.
+     * @param x The new workspace x coordinate of the block.
+     * @param y The new workspace y coordinate of the block.
+     */
+    public void setRootBlockPosition(Block rootBlock, int x, int y) {
+        checkPendingEventsEmpty();
+        if (rootBlock.getParentBlock() != null) {
+            throw new IllegalArgumentException("Block must be a root block.");
+        }
+
+        BlocklyEvent.MoveEvent moveEvent = hasCallback(BlocklyEvent.TYPE_MOVE)
+                ? new BlocklyEvent.MoveEvent(mWorkspace, rootBlock) : null;
+        rootBlock.setPosition(x, y);
+        BlockGroup rootBlockGroup = mHelper.getRootBlockGroup(rootBlock);
+        if (mWorkspaceView != null && rootBlockGroup != null) {
+            updateConnectorLocations(rootBlockGroup);
+        }
+        if (moveEvent != null) {
+            moveEvent.recordNew(rootBlock);
+            addPendingEvent(moveEvent);
+        }
+        firePendingEvents();
+    }
+
+    /**
+     * Fires a move event for a root block that was already repositioned outside of the controller,
+     * such as by the {@link Dragger}.
+     *
+     * @param rootBlock The root {@link Block} that was moved.
+     * @param oldPosition The workspace position of the block before it was moved.
+     */
+    public void recordRootBlockMove(Block rootBlock, WorkspacePoint oldPosition) {
+        checkPendingEventsEmpty();
+        if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+            BlocklyEvent.MoveEvent moveEvent =
+                    new BlocklyEvent.MoveEvent(mWorkspace, rootBlock, oldPosition);
+            moveEvent.recordNew(rootBlock);
+            addPendingEvent(moveEvent);
+        }
+        firePendingEvents();
+    }
+
     /**
      * Set up the {@link WorkspaceView} with this workspace's model. This method will perform the
      * following steps: <ul> <li>Set the block touch handler for the view.</li> <li>Configure the
@@ -533,6 +812,9 @@ public class BlocklyController {
      * @param wv The root workspace view to add to.
      */
     public void initWorkspaceView(final WorkspaceView wv) {
+        if (isHeadless()) {
+            throw new IllegalStateException("Cannot attach views without a BlockViewFactory.");
+        }
         if (mVirtualWorkspaceView != null) {
             // Clear the old view's references so we don't get unwanted events.
             mVirtualWorkspaceView.setOnClickListener(null);
@@ -713,20 +995,19 @@ public class BlocklyController {
     /**
      * Move all neighbors of the current block and its sub-blocks so that they don't appear to be
      * connected to the current block.  Does not do anything in headless mode (no views attached).
+     * Inside an event group, the bump is deferred until the group ends.
      *
      * @param currentBlock The {@link Block} to bump others away from.
      */
     public void bumpNeighbors(Block currentBlock) {
         checkPendingEventsEmpty();
 
-        BlockGroup rootBlockGroup = mHelper.getRootBlockGroup(currentBlock);
-        if (rootBlockGroup == null) {
+        if (mHelper.getRootBlockGroup(currentBlock) == null) {
             return; // Do nothing, as connection locations are determined by views.
         }
 
-        bumpNeighborsRecursively(currentBlock, rootBlockGroup);
-
-        rootBlockGroup.requestLayout();
+        queueBump(currentBlock);
+        firePendingEvents();
     }
 
     /**
@@ -847,6 +1128,7 @@ public class BlocklyController {
             bg.setTouchHandler(mTouchHandler);
         }
 
+        int trashPosition = mWorkspace.getTrashContents().indexOf(previouslyTrashedBlock);
         mWorkspace.addBlockFromTrash(previouslyTrashedBlock);
         if (mWorkspaceView != null) {
             if (bg == null) {
@@ -856,7 +1138,7 @@ public class BlocklyController {
             mWorkspaceView.addView(bg);
         }
         if (mTrashFragment != null) {
-            mTrashFragment.onBlockRemovedFromTrash(previouslyTrashedBlock);
+            mTrashFragment.onBlockRemovedFromTrash(previouslyTrashedBlock, trashPosition);
         }
         if (hasCallback(BlocklyEvent.TYPE_CREATE)) {
             addPendingEvent(new BlocklyEvent.CreateEvent(mWorkspace, previouslyTrashedBlock));
@@ -930,13 +1212,17 @@ public class BlocklyController {
      */
     public void resetWorkspace() {
         // Unlink the Views before wiping out the model's root list.
-        ArrayList<Block> rootBlocks = mWorkspace.getRootBlocks();
+        List<Block> rootBlocks = mWorkspace.getRootBlocks();
         for (int i = 0; i < rootBlocks.size(); ++i) {
             unlinkViews(rootBlocks.get(i));
         }
-        List<Block> trashBlocks = mWorkspace.getTrashContents();
+        // Blocks that are not loaded have no views.
+        Trash trashBlocks = mWorkspace.getTrashContents();
         for (int i = 0; i < trashBlocks.size(); i++) {
-            unlinkViews(trashBlocks.get(i));
+            Block trashBlock = trashBlocks.getIfLoaded(i);
+            if (trashBlock != null) {
+                unlinkViews(trashBlock);
+            }
         }
         mWorkspace.resetWorkspace();
         if (mWorkspaceView != null) {
@@ -970,13 +1256,16 @@ public class BlocklyController {
     private BlockGroup addRootBlockImpl(Block block, @Nullable BlockGroup bg, boolean isNewBlock) {
         mWorkspace.addRootBlock(block, isNewBlock);
         if (mWorkspaceView != null) {
-            if (bg == null) {
-                bg = mViewFactory.buildBlockGroupTree(block, mWorkspace.getConnectionManager(),
-                        mTouchHandler);
+            if (bg == null && mBatchDepth > 0) {
+                mBatchRootBlocks.add(block);  // Built by attachBatchViews().
             } else {
-                bg.setTouchHandler(mTouchHandler);
+                if (bg == null) {
+                    bg = buildBlockGroupTree(block);
+                } else {
+                    bg.setTouchHandler(mTouchHandler);
+                }
+                mWorkspaceView.addView(bg);
             }
-            mWorkspaceView.addView(bg);
         }
         if (isNewBlock && hasCallback(BlocklyEvent.TYPE_CREATE)) {
             addPendingEvent(new BlocklyEvent.CreateEvent(mWorkspace, block));
@@ -1030,8 +1319,14 @@ public class BlocklyController {
      * Implements {@link #renameVariable(String, String)}.  The following events may be added to the
      * pending events:
      * <ol>
-     *    <li>a change event for each variable field referencing the variable.</li>
+     *    <li>a variable rename event.</li>
+     *    <li>a change event for each variable field referencing the variable, only if a callback
+     *        handles {@link BlocklyEvent#TYPE_CHANGE} but not
+     *        {@link BlocklyEvent#TYPE_VAR_RENAME}.</li>
      * </ol>
+     * Callbacks that handle {@link BlocklyEvent#TYPE_VAR_RENAME} receive the rename event without
+     * the field change events. Other callbacks receive the field change events without the rename
+     * event.
      *
      * @param variable The variable to rename.
      * @param newVariable The new name for the variable.
@@ -1048,19 +1343,24 @@ public class BlocklyController {
             return variable;
         }
         newVariable = addVariableImpl(newVariable, true);
-        List<FieldVariable> varRefs = mWorkspace.getVariableRefs(variable);
-        if (varRefs != null) {
-            int count = varRefs.size();
+        boolean addFieldEvents = hasFieldOnlyCallback();
+        mTempVariableFields.clear();
+        mWorkspace.getStats().renameVariableReferences(variable, newVariable,
+                addFieldEvents ? mTempVariableFields : null);
 
-            for (int i = 0; i < count; i++) {
-                FieldVariable field = varRefs.get(i);
-                field.setVariable(newVariable);
-                BlocklyEvent.ChangeEvent change = BlocklyEvent.ChangeEvent
-                        .newFieldValueEvent(getWorkspace(), field.getBlock(), field,
-                                variable, newVariable);
-                addPendingEvent(change);
-            }
+        if (hasCallback(BlocklyEvent.TYPE_VAR_RENAME)) {
+            addPendingEvent(new BlocklyEvent.VarRenameEvent(getWorkspace(), variable, newVariable));
         }
+        int count = mTempVariableFields.size();
+        for (int i = 0; i < count; i++) {
+            FieldVariable field = mTempVariableFields.get(i);
+            BlocklyEvent.ChangeEvent change = BlocklyEvent.ChangeEvent
+                    .newFieldValueEvent(getWorkspace(), field.getBlock(), field,
+                            variable, newVariable);
+            addPendingEvent(change);
+            mRenameFieldEvents.add(change);
+        }
+        mTempVariableFields.clear();
 
         deleteVariableImpl(variable, true);
         return newVariable;
@@ -1079,7 +1379,9 @@ public class BlocklyController {
         extractBlockAsRootImpl(block, false);
         if (removeRootBlockImpl(block, true)) {
             unlinkViews(block);
-            addPendingEvent(new BlocklyEvent.DeleteEvent(getWorkspace(), block));
+            if (hasCallback(BlocklyEvent.TYPE_DELETE)) {
+                addPendingEvent(new BlocklyEvent.DeleteEvent(getWorkspace(), block));
+            }
         }
     }
 
@@ -1106,7 +1408,7 @@ public class BlocklyController {
         extractBlockAsRootImpl(block, true);
         boolean result = removeRootBlockImpl(block, true);
         unlinkViews(block);
-        if (result) {
+        if (result && hasCallback(BlocklyEvent.TYPE_DELETE)) {
             addPendingEvent(new BlocklyEvent.DeleteEvent(getWorkspace(), block));
         }
         return true;
@@ -1136,7 +1438,7 @@ public class BlocklyController {
                     mWorkspaceView.removeView(group);
                 }
             }
-            if (cleanupStats) {
+            if (cleanupStats && mDragger != null) {
                 mDragger.removeFromDraggingConnections(block);
             }
         }
@@ -1153,10 +1455,6 @@ public class BlocklyController {
      * @param toConnect The {@link Block} to connect to the statement input.
      */
     private void connectToStatementImpl(Connection parentStatementConnection, Block toConnect) {
-        // Store the state of toConnect in its original location.
-        // TODO: (#342) move the event up to the impl method
-        BlocklyEvent.MoveEvent moveEvent = new BlocklyEvent.MoveEvent(mWorkspace, toConnect);
-
         Block remainderBlock = parentStatementConnection.getTargetBlock();
         BlocklyEvent.MoveEvent remainderMove = null;
         // If there was already a block connected there.
@@ -1167,7 +1465,9 @@ public class BlocklyController {
                 remainderBlock = null;
             } else {
                 // Store the original location of the remainder.
-                remainderMove = new BlocklyEvent.MoveEvent(mWorkspace, remainderBlock);
+                if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                    remainderMove = new BlocklyEvent.MoveEvent(mWorkspace, remainderBlock);
+                }
 
                 // Disconnect the remainder and we'll reattach it below
                 parentStatementConnection.disconnect();
@@ -1180,8 +1480,6 @@ public class BlocklyController {
 
         // Connect the new block to the parent
         connectAsInput(parentStatementConnection, toConnect.getPreviousConnection());
-        moveEvent.recordNew(toConnect);
-        addPendingEvent(moveEvent);
 
         // Reconnecting the remainder must be done after connecting the parent so that the parent
         // is considered in the workspace during connection checks.
@@ -1224,6 +1522,7 @@ public class BlocklyController {
         BlockGroup inferiorBlockGroup = mHelper.getParentBlockGroup(inferior);
         Block remainderBlock = superior.getNextBlock();
         BlockGroup remainderGroup = null;
+        BlocklyEvent.MoveEvent remainderMove = null;
 
         // To splice between two blocks, just need another call to connectAfter.
         if (remainderBlock != null) {
@@ -1232,7 +1531,10 @@ public class BlocklyController {
                 removeBlockTreeImpl(remainderBlock);
                 remainderBlock = null;
             } else {
-                // Disconnect the remainder and save it for later
+                // Store the original location of the remainder, then disconnect it for later.
+                if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                    remainderMove = new BlocklyEvent.MoveEvent(mWorkspace, remainderBlock);
+                }
                 remainderGroup = (superiorBlockGroup == null) ? null :
                         superiorBlockGroup.extractBlocksAsNewGroup(remainderBlock);
                 superior.getNextConnection().disconnect();
@@ -1257,6 +1559,10 @@ public class BlocklyController {
                 // Connect the remainder
                 connectAfter(lastBlock, superiorBlockGroup, remainderBlock, remainderGroup);
             }
+            if (remainderMove != null) {
+                remainderMove.recordNew(remainderBlock);
+                addPendingEvent(remainderMove);
+            }
         }
     }
 
@@ -1282,8 +1588,7 @@ public class BlocklyController {
         superior.getNextConnection().connect(inferior.getPreviousConnection());
         if (superiorBlockGroup != null) {
             if (inferiorBlockGroup == null) {
-                inferiorBlockGroup = mViewFactory.buildBlockGroupTree(
-                        inferior, mWorkspace.getConnectionManager(), mTouchHandler);
+                inferiorBlockGroup = buildBlockGroupTree(inferior);
             }
             superiorBlockGroup.moveBlocksFrom(inferiorBlockGroup, inferior);
         }
@@ -1304,6 +1609,7 @@ public class BlocklyController {
         BlockGroup childBlockGroup = mHelper.getParentBlockGroup(child);
 
         Connection previousTargetConnection = null;
+        BlocklyEvent.MoveEvent remainderMove = null;
         if (parentConn.isConnected()) {
             previousTargetConnection = parentConn.getTargetConnection();
             // If there was a shadow block here delete it from the hierarchy and forget about it.
@@ -1311,7 +1617,11 @@ public class BlocklyController {
                 removeBlockTreeImpl(previousTargetConnection.getBlock());
                 previousTargetConnection = null;
             } else {
-                // Otherwise just disconnect for now
+                // Otherwise store the original location and just disconnect for now
+                if (hasCallback(BlocklyEvent.TYPE_MOVE)) {
+                    remainderMove = new BlocklyEvent.MoveEvent(
+                            mWorkspace, previousTargetConnection.getBlock());
+                }
                 parentConn.disconnect();
                 if (parentInputView != null) {
                     parentInputView.setConnectedBlockGroup(null);
@@ -1340,12 +1650,15 @@ public class BlocklyController {
                 // Connect the previous part
                 connectAsInput(lastInputConnection, previousTargetConnection);
             }
+            if (remainderMove != null) {
+                remainderMove.recordNew(previousTargetBlock);
+                addPendingEvent(remainderMove);
+            }
         }
 
         if (mWorkspaceView != null && parentInputView != null) {
             if (childBlockGroup == null) {
-                childBlockGroup = mViewFactory.buildBlockGroupTree(
-                        child, mWorkspace.getConnectionManager(), mTouchHandler);
+                childBlockGroup = buildBlockGroupTree(child);
             }
             parentInputView.setConnectedBlockGroup(childBlockGroup);
         }
@@ -1374,7 +1687,9 @@ public class BlocklyController {
         }
         // TODO: Document when this call valid but the root is not already part of the workspace.
         boolean isPartOfWorkspace = mWorkspace.isRootBlock(rootBlock);
-        BlocklyEvent.MoveEvent moveEvent = new BlocklyEvent.MoveEvent(getWorkspace(), block);
+        boolean recordMoves = hasCallback(BlocklyEvent.TYPE_MOVE);
+        BlocklyEvent.MoveEvent moveEvent =
+                recordMoves ? new BlocklyEvent.MoveEvent(getWorkspace(), block) : null;
         BlocklyEvent.MoveEvent remainderEvent = null;
 
         BlockView bv = mHelper.getView(block);
@@ -1385,7 +1700,9 @@ public class BlocklyController {
         BlockGroup remainderGroup = null;
         if (reattachNext && block.getNextBlock() != null) {
             remainderBlock = block.getNextBlock();
-            remainderEvent = new BlocklyEvent.MoveEvent(getWorkspace(), remainderBlock);
+            if (recordMoves) {
+                remainderEvent = new BlocklyEvent.MoveEvent(getWorkspace(), remainderBlock);
+            }
 
             remainderGroup = (bg == null) ? null :
                     bg.extractBlocksAsNewGroup(remainderBlock);
@@ -1444,8 +1761,10 @@ public class BlocklyController {
 
         // Add pending events. Order is important to prevent side effects. Send the move event for
         // the first block, then the move event for its remainder.
-        moveEvent.recordNew(block);
-        addPendingEvent(moveEvent);
+        if (moveEvent != null) {
+            moveEvent.recordNew(block);
+            addPendingEvent(moveEvent);
+        }
         if (remainderEvent != null) {
             remainderEvent.recordNew(remainderBlock);
             addPendingEvent(remainderEvent);
@@ -1474,8 +1793,16 @@ public class BlocklyController {
         }
         Block block = blockConnection.getBlock();
         Block newParentBlock = otherConnection.getBlock();
-
-        switch (blockConnection.getType()) {
+        int type = blockConnection.getType();
+        Block child = (type == Connection.CONNECTION_TYPE_OUTPUT
+                || type == Connection.CONNECTION_TYPE_PREVIOUS) ? block : newParentBlock;
+        // Store the state of the child in its original location. The event is inserted before any
+        // events for displaced or removed blocks, so it can be replayed in order.
+        BlocklyEvent.MoveEvent moveEvent = hasCallback(BlocklyEvent.TYPE_MOVE)
+                ? new BlocklyEvent.MoveEvent(mWorkspace, child) : null;
+        int moveEventIndex = mPendingEvents.size();
+
+        switch (type) {
             case Connection.CONNECTION_TYPE_OUTPUT:
                 removeRootBlockImpl(block, false);
                 connectAsInput(otherConnection, blockConnection);
@@ -1507,11 +1834,17 @@ public class BlocklyController {
             default:
                 break;
         }
+        if (moveEvent != null) {
+            moveEvent.recordNew(child);
+            addPendingEvent(moveEventIndex, moveEvent);
+        }
 
-        BlockGroup rootBlockGroup = mHelper.getRootBlockGroup(block);
-        if (rootBlockGroup != null) {
-            bumpNeighborsRecursively(block, rootBlockGroup);
-        } // otherwise we are probably running headless, without views.
+        // Replayed events are not bumped. Inside a batch, the views are built when it ends.
+        boolean replaying = mDeferredUpdateDepth > mBatchDepth;
+        if (!replaying && (mHelper.getRootBlockGroup(block) != null
+                || (mBatchDepth > 0 && mWorkspaceView != null))) {
+            queueBump(block);
+        } // otherwise we are probably running headless, without views, or replaying events.
     }
 
     /**
@@ -1525,102 +1858,304 @@ public class BlocklyController {
         Block rootBlock = impingingConnection.getBlock().getRootBlock();
         BlockGroup impingingBlockGroup = mHelper.getRootBlockGroup(rootBlock);
 
+        offsetBumpedBlock(staticConnection, impingingConnection, rootBlock);
+
+        if (mWorkspaceView != null && impingingBlockGroup != null) {
+            // Update UI
+            impingingBlockGroup.bringToFront();
+            updateConnectorLocations(impingingBlockGroup);
+        }
+    }
+
+    /**
+     * Moves a root block so that {@code impingingConnection} ends up the max snap distance away
+     * from {@code staticConnection} in both directions.
+     */
+    private void offsetBumpedBlock(Connection staticConnection, Connection impingingConnection,
+                                   Block rootBlock) {
         int maxSnapDistance = mHelper.getMaxSnapDistance();
         int dx = (staticConnection.getPosition().x + maxSnapDistance)
                 - impingingConnection.getPosition().x;
         int dy = (staticConnection.getPosition().y + maxSnapDistance)
                 - impingingConnection.getPosition().y;
         rootBlock.setPosition(rootBlock.getPosition().x + dx, rootBlock.getPosition().y + dy);
+    }
 
-        if (mWorkspaceView != null && impingingBlockGroup != null) {
-            // Update UI
-            impingingBlockGroup.bringToFront();
-            impingingBlockGroup.updateAllConnectorLocations();
+    /**
+     * Queues a block for the next {@link #resolvePendingBumps()} pass, and runs the pass right away
+     * unless an event group is open.
+     *
+     * @param block The {@link Block} to bump others away from.
+     */
+    private void queueBump(Block block) {
+        mPendingBumpBlocks.add(block);
+        if (mEventGroupDepth == 0) {
+            resolvePendingBumps();
+        }
+    }
+
+    /**
+     * Bumps the neighbors of all queued blocks and their sub-blocks in one pass. It is not
+     * responsible for firing events.
+     * <p/>
+     * The connections of the queued blocks are collected once, sorted left to right and swept
+     * against the {@link ConnectionManager}: first the unconnected previous and output connections,
+     * which move their own group away from the first neighbor found, then the high priority
+     * connections, which push their neighbors away. Every root group is moved at most once and
+     * reported by a single {@link BlocklyEvent.MoveEvent}, and all connector updates share one bulk
+     * move of the connection index.
+     */
+    private void resolvePendingBumps() {
+        if (mPendingBumpBlocks.isEmpty()) {
+            return;
+        }
+        mConnectionManager.startBulkMove();
+        try {
+            for (int i = 0; i < mPendingBumpBlocks.size(); i++) {
+                Block block = mPendingBumpBlocks.get(i);
+                BlockGroup rootBlockGroup = mHelper.getRootBlockGroup(block);
+                if (rootBlockGroup == null) {
+                    continue;  // Deleted or trashed later in the event group.
+                }
+                if (mBumpDirtyGroups.add(rootBlockGroup)) {
+                    rootBlockGroup.updateAllConnectorLocations();
+                }
+                collectBumpConnections(block);
+            }
+
+            Collections.sort(mBumpInferiors, CONNECTION_X_ORDER);
+            for (int i = 0; i < mBumpInferiors.size(); i++) {
+                Connection lowerPriority = mBumpInferiors.get(i);
+                BlockGroup rootBlockGroup = mHelper.getRootBlockGroup(lowerPriority.getBlock());
+                if (mBumpedGroups.contains(rootBlockGroup)) {
+                    continue;
+                }
+                getBumpableNeighbors(lowerPriority, mTempConnections);
+                // Bump from the first one that isn't in the same block group.
+                for (int j = 0; j < mTempConnections.size(); j++) {
+                    Connection curNeighbour = mTempConnections.get(j);
+                    if (mHelper.getRootBlockGroup(curNeighbour.getBlock()) != rootBlockGroup) {
+                        bumpGroupOnce(curNeighbour, lowerPriority, rootBlockGroup);
+                        break;
+                    }
+                }
+            }
+
+            Collections.sort(mBumpSuperiors, CONNECTION_X_ORDER);
+            for (int i = 0; i < mBumpSuperiors.size(); i++) {
+                Connection conn = mBumpSuperiors.get(i);
+                BlockGroup rootBlockGroup = mHelper.getRootBlockGroup(conn.getBlock());
+                getBumpableNeighbors(conn, mTempConnections);
+                for (int j = 0; j < mTempConnections.size(); j++) {
+                    Connection curNeighbour = mTempConnections.get(j);
+                    BlockGroup neighbourBlockGroup =
+                            mHelper.getRootBlockGroup(curNeighbour.getBlock());
+                    if (neighbourBlockGroup != null && neighbourBlockGroup != rootBlockGroup
+                            && !mBumpedGroups.contains(neighbourBlockGroup)) {
+                        bumpGroupOnce(conn, curNeighbour, neighbourBlockGroup);
+                    }
+                }
+            }
+        } finally {
+            mConnectionManager.finishBulkMove();
+            mPendingBumpBlocks.clear();
+            mBumpInferiors.clear();
+            mBumpSuperiors.clear();
+            mBumpVisitedBlocks.clear();
+            mTempConnections.clear();
+        }
+
+        if (mWorkspaceView != null
+                && (!mBumpDirtyGroups.isEmpty() || !mBumpedGroups.isEmpty())) {
             mWorkspaceView.requestLayout();
         }
+        mBumpDirtyGroups.clear();
+        mBumpedGroups.clear();
     }
 
     /**
-     * Recursive implementation of {@link #bumpNeighbors(Block)}.  It is not responsible for firing
-     * events.
-     *
-     * @param currentBlock The {@link Block} to bump others away from.
-     * @param rootBlockGroup The root {@link BlockGroup} containing {@code currentBlock}.
+     * Adds the connections of a block and its connected sub-blocks that may bump others to the
+     * lists swept by {@link #resolvePendingBumps()}. Blocks already visited by the pass are
+     * skipped, so overlapping queued blocks contribute their connections once.
      */
-    private void bumpNeighborsRecursively(Block currentBlock, BlockGroup rootBlockGroup) {
-        List<Connection> connectionsOnBlock = new ArrayList<>();
-        rootBlockGroup.updateAllConnectorLocations();
-        // Move this block before trying to bump others
-        Connection prev = currentBlock.getPreviousConnection();
+    private void collectBumpConnections(Block block) {
+        if (!mBumpVisitedBlocks.add(block)) {
+            return;
+        }
+        Connection prev = block.getPreviousConnection();
         if (prev != null && !prev.isConnected()) {
-            bumpInferior(rootBlockGroup, prev);
+            mBumpInferiors.add(prev);
         }
-        Connection out = currentBlock.getOutputConnection();
+        Connection out = block.getOutputConnection();
         if (out != null && !out.isConnected()) {
-            bumpInferior(rootBlockGroup, out);
+            mBumpInferiors.add(out);
         }
 
-        currentBlock.getAllConnections(connectionsOnBlock);
+        List<Connection> connectionsOnBlock = block.getAllConnections();
         for (int i = 0; i < connectionsOnBlock.size(); i++) {
             Connection conn = connectionsOnBlock.get(i);
             if (conn.isHighPriority()) {
+                mBumpSuperiors.add(conn);
                 if (conn.isConnected()) {
-                    bumpNeighborsRecursively(conn.getTargetBlock(), rootBlockGroup);
+                    collectBumpConnections(conn.getTargetBlock());
                 }
-                bumpConnectionNeighbors(conn, rootBlockGroup);
             }
         }
     }
 
     /**
-     * Bump the block containing {@code lowerPriority} away from the first nearby block it finds.
-     *
-     * @param rootBlockGroup The root block group of the block being bumped.
-     * @param lowerPriority The low priority connection that is the center of the current bump
-     * operation.
-     */
-    private void bumpInferior(BlockGroup rootBlockGroup, Connection lowerPriority) {
-        getBumpableNeighbors(lowerPriority, mTempConnections);
-        // Bump from the first one that isn't in the same block group.
-        for (int j = 0; j < mTempConnections.size(); j++) {
-            Connection curNeighbour = mTempConnections.get(j);
-            if (mHelper.getRootBlockGroup(curNeighbour.getBlock()) != rootBlockGroup) {
-                bumpBlockImpl(curNeighbour, lowerPriority);
+     * Bumps the root group of {@code impingingConnection} during a
+     * {@link #resolvePendingBumps()} pass, which will not move it again.
+     */
+    private void bumpGroupOnce(Connection staticConnection, Connection impingingConnection,
+                               BlockGroup impingingBlockGroup) {
+        Block rootBlock = impingingConnection.getBlock().getRootBlock();
+        BlocklyEvent.MoveEvent moveEvent = hasCallback(BlocklyEvent.TYPE_MOVE)
+                ? new BlocklyEvent.MoveEvent(mWorkspace, rootBlock) : null;
+
+        offsetBumpedBlock(staticConnection, impingingConnection, rootBlock);
+        mBumpedGroups.add(impingingBlockGroup);
+        impingingBlockGroup.bringToFront();
+        impingingBlockGroup.updateAllConnectorLocations();
+
+        if (moveEvent != null) {
+            moveEvent.recordNew(rootBlock);
+            addPendingEvent(moveEvent);
+        }
+    }
+
+    private void getBumpableNeighbors(Connection conn, List<Connection> result) {
+        int snapDistance = mHelper.getMaxSnapDistance();
+        mConnectionManager.getNeighbors(conn, snapDistance, result);
+    }
+
+    /**
+     * Updates the connector locations of a moved root group and requests a layout, or defers both
+     * until {@link #finishDeferredUpdates()}.
+     */
+    private void updateConnectorLocations(BlockGroup rootBlockGroup) {
+        if (mDeferredUpdateDepth > 0) {
+            mDeferredConnectorGroups.add(rootBlockGroup);
+            return;
+        }
+        rootBlockGroup.updateAllConnectorLocations();
+        mWorkspaceView.requestLayout();
+    }
+
+    /**
+     * Builds the views of a block tree. Inside a batch, blocks connected below the block may still
+     * have views from before they were connected to it, which are unlinked first.
+     */
+    private BlockGroup buildBlockGroupTree(Block block) {
+        if (mBatchDepth > 0) {
+            unlinkDescendantViews(block);
+        }
+        return mViewFactory.buildBlockGroupTree(block, mWorkspace.getConnectionManager(),
+                mTouchHandler);
+    }
+
+    private void unlinkDescendantViews(Block block) {
+        BlockView view = mHelper.getView(block);
+        if (view != null) {
+            BlockGroup group = mHelper.getParentBlockGroup(block);
+            if (group != null && group.getChildAt(0) == view) {
+                // The group also holds the following blocks and their children.
+                group.unlinkModel();
                 return;
             }
+            view.unlinkModel();
+        }
+        List<Input> inputs = block.getInputs();
+        for (int i = 0; i < inputs.size(); i++) {
+            Connection connection = inputs.get(i).getConnection();
+            if (connection != null && connection.getTargetBlock() != null) {
+                unlinkDescendantViews(connection.getTargetBlock());
+            }
+        }
+        if (block.getNextBlock() != null) {
+            unlinkDescendantViews(block.getNextBlock());
         }
     }
 
     /**
-     * Find all connections near a given connection and bump their blocks away.
-     *
-     * @param conn The high priority connection that is at the center of the current bump
-     * operation.
-     * @param rootBlockGroup The root block group of the block conn belongs to.
+     * Builds and attaches the views of the root blocks added during the batch that are still root
+     * blocks without views. Their connector locations are updated by finishDeferredUpdates().
      */
-    private void bumpConnectionNeighbors(Connection conn, BlockGroup rootBlockGroup) {
-        getBumpableNeighbors(conn, mTempConnections);
-        for (int j = 0; j < mTempConnections.size(); j++) {
-            Connection curNeighbour = mTempConnections.get(j);
-            BlockGroup neighbourBlockGroup = mHelper.getRootBlockGroup(
-                    curNeighbour.getBlock());
-            if (neighbourBlockGroup != rootBlockGroup) {
-                bumpBlockImpl(conn, curNeighbour);
+    private void attachBatchViews() {
+        if (mWorkspaceView != null) {
+            for (int i = 0; i < mBatchRootBlocks.size(); i++) {
+                Block block = mBatchRootBlocks.get(i);
+                if (mWorkspace.isRootBlock(block) && mHelper.getView(block) == null) {
+                    BlockGroup bg = buildBlockGroupTree(block);
+                    mWorkspaceView.addView(bg);
+                    mDeferredConnectorGroups.add(bg);
+                }
             }
         }
+        mBatchRootBlocks.clear();
     }
 
-    private void getBumpableNeighbors(Connection conn, List<Connection> result) {
-        int snapDistance = mHelper.getMaxSnapDistance();
-        mConnectionManager.getNeighbors(conn, snapDistance, result);
+    /**
+     * Reverts the pending events from {@code firstEvent} on, newest first, and discards them with
+     * the events of reverting them. Field changes that spell out a variable rename are reverted
+     * with the rename.
+     */
+    private void rollBackEvents(int firstEvent) {
+        EventApplier applier = new EventApplier(this);
+        for (int i = mPendingEvents.size() - 1; i >= firstEvent; i--) {
+            BlocklyEvent event = mPendingEvents.get(i);
+            if (!mRenameFieldEvents.contains(event)) {
+                applier.revertEvent(event);
+            }
+        }
+        List<BlocklyEvent> discarded = mPendingEvents.subList(firstEvent, mPendingEvents.size());
+        mRenameFieldEvents.removeAll(discarded);
+        discarded.clear();
+        mPendingEventsMask = 0;
+        for (int i = 0; i < mPendingEvents.size(); i++) {
+            mPendingEventsMask |= mPendingEvents.get(i).getTypeId();
+        }
+        if (mBatchDepth == 1) {
+            mPendingBumpBlocks.clear();
+        }
     }
 
     private boolean hasCallback(@BlocklyEvent.EventType int typeQueryBitMask) {
-        return (mEventCallbackMask & typeQueryBitMask) != 0;
+        int recordedTypes = (mRollbackDepth > 0)
+                ? mEventCallbackMask | EventApplier.APPLICABLE_TYPES : mEventCallbackMask;
+        return (recordedTypes & typeQueryBitMask) != 0;
+    }
+
+    /**
+     * @return True if a callback handles field change events but not variable rename events, and
+     *         so needs a change event for every field of a renamed variable.
+     */
+    private boolean hasFieldOnlyCallback() {
+        for (int i = 0; i < mListeners.size(); i++) {
+            int mask = mListeners.get(i).getTypesBitmask();
+            if ((mask & BlocklyEvent.TYPE_CHANGE) != 0
+                    && (mask & BlocklyEvent.TYPE_VAR_RENAME) == 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void addPendingEvent(BlocklyEvent event) {
-        mPendingEvents.add(event);
+        addPendingEvent(mPendingEvents.size(), event);
+    }
+
+    private void addPendingEvent(int index, BlocklyEvent event) {
+        if (mEventGroupDepth > 0) {
+            if (mEventGroupId == null) {
+                mEventGroupId = UUID.randomUUID().toString();
+            }
+            event.setGroupId(mEventGroupId);
+        }
+        if (mDispatchMetrics != null && mPendingEvents.isEmpty()) {
+            mFirstPendingEventNanos = System.nanoTime();
+        }
+        mPendingEvents.add(index, event);
         mPendingEventsMask |= event.getTypeId();
     }
 
@@ -1632,22 +2167,74 @@ public class BlocklyController {
     }
 
     private void firePendingEvents() {
+        if (mDeferredUpdateDepth > 0) {
+            return;  // Fired once by finishDeferredUpdates().
+        }
+        EventDispatchMetrics metrics = mDispatchMetrics;
+        if (metrics != null && !mPendingEvents.isEmpty()) {
+            metrics.recordQueueDepth(mPendingEvents.size());
+        }
         List<BlocklyEvent> unmodifiableEventList = null;
+        List<BlocklyEvent> compactEventList = null;
+        List<BlocklyEvent> fieldEventList = null;
         for (EventsCallback listener : mListeners) {
-            if ((mPendingEventsMask & listener.getTypesBitmask()) != 0) {
+            int mask = listener.getTypesBitmask();
+            if ((mPendingEventsMask & mask) == 0) {
+                continue;
+            }
+            List<BlocklyEvent> events;
+            if (!mRenameFieldEvents.isEmpty() && (mask & BlocklyEvent.TYPE_VAR_RENAME) != 0) {
+                if (compactEventList == null) {
+                    compactEventList = copyPendingEvents(true);
+                }
+                events = compactEventList;
+            } else if (!mRenameFieldEvents.isEmpty()) {
+                // The field change events stand in for the rename events.
+                if (fieldEventList == null) {
+                    fieldEventList = copyPendingEvents(false);
+                }
+                events = fieldEventList;
+            } else {
                 if (unmodifiableEventList == null) {
                     unmodifiableEventList = Collections.unmodifiableList(mPendingEvents);
                 }
-                listener.onEventGroup(unmodifiableEventList);
+                events = unmodifiableEventList;
+            }
+            if (metrics == null) {
+                listener.onEventGroup(events);
+            } else {
+                long startNanos = System.nanoTime();
+                listener.onEventGroup(events);
+                metrics.recordDispatch(listener, events.size(),
+                        mFirstPendingEventNanos, startNanos, System.nanoTime());
             }
         }
 
         mPendingEvents.clear();
         mPendingEventsMask = 0;
+        mRenameFieldEvents.clear();
+    }
+
+    /**
+     * @param forRenameCallbacks True to leave out the field change events of variable renames,
+     *                           false to leave out the variable rename events instead.
+     * @return An unmodifiable copy of the pending events.
+     */
+    private List<BlocklyEvent> copyPendingEvents(boolean forRenameCallbacks) {
+        List<BlocklyEvent> events = new ArrayList<>(mPendingEvents.size());
+        for (int i = 0; i < mPendingEvents.size(); i++) {
+            BlocklyEvent event = mPendingEvents.get(i);
+            boolean skip = forRenameCallbacks ? mRenameFieldEvents.contains(event)
+                    : event.getTypeId() == BlocklyEvent.TYPE_VAR_RENAME;
+            if (!skip) {
+                events.add(event);
+            }
+        }
+        return Collections.unmodifiableList(events);
     }
 
     private void checkPendingEventsEmpty() {
-        if (DEBUG_CHECK_EVENT_GROUP && !mPendingEvents.isEmpty()) {
+        if (DEBUG_CHECK_EVENT_GROUP && mDeferredUpdateDepth == 0 && !mPendingEvents.isEmpty()) {
             throw new IllegalStateException("Expecting empty mPendingEvents.");
         }
     }
@@ -1855,7 +2442,7 @@ public class BlocklyController {
          */
         public BlocklyController build() {
             if (mViewFactory == null && (mWorkspaceFragment != null || mTrashFragment != null
-                    || mToolboxFragment != null || mToolboxDrawer != null)) {
+                    || mToolboxFragment != null || mToolboxDrawer != null || mTrashIcon != null)) {
                 throw new IllegalStateException(
                         "BlockViewFactory cannot be null when using Fragments.");
             }
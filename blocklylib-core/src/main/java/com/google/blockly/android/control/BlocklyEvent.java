@@ -6,6 +6,9 @@ import android.support.annotation.Nullable;
 import android.support.annotation.StringDef;
 import android.support.v4.util.ArrayMap;
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
 import android.util.SparseArray;
 
 import com.google.blockly.model.Block;
@@ -20,14 +23,21 @@ import com.google.blockly.utils.BlocklyXmlHelper;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Base class for all Blockly events.
@@ -42,11 +52,11 @@ public abstract class BlocklyEvent {
     private static final String JSON_NEW_VALUE = "newValue";
     private static final String JSON_OLD_VALUE = "oldValue";  // Rarely used.
     private static final String JSON_TYPE = "type";
-    private static final String JSON_WORKSPACE_ID = "workspaceId"; // Rarely used.
+    private static final String JSON_WORKSPACE_ID = "workspaceId";
     private static final String JSON_XML = "xml";
 
     @IntDef(flag = true,
-            value = {TYPE_CHANGE, TYPE_CREATE, TYPE_DELETE, TYPE_MOVE, TYPE_UI})
+            value = {TYPE_CHANGE, TYPE_CREATE, TYPE_DELETE, TYPE_MOVE, TYPE_UI, TYPE_VAR_RENAME})
     @Retention(RetentionPolicy.SOURCE)
     public @interface EventType {}
 
@@ -55,17 +65,19 @@ public abstract class BlocklyEvent {
     public static final int TYPE_CHANGE = 1 << 2;
     public static final int TYPE_MOVE = 1 << 3;
     public static final int TYPE_UI = 1 << 4;
+    public static final int TYPE_VAR_RENAME = 1 << 5;
     // When adding an event type, update TYPE_ID_COUNT, TYPE_ALL, TYPE_ID_TO_NAME, and
     // TYPE_NAME_TO_ID.
-    private static final int TYPE_ID_COUNT = 5;
+    private static final int TYPE_ID_COUNT = 6;
     public static final @EventType int TYPE_ALL =
-            TYPE_CHANGE | TYPE_CREATE | TYPE_DELETE | TYPE_MOVE | TYPE_UI;
+            TYPE_CHANGE | TYPE_CREATE | TYPE_DELETE | TYPE_MOVE | TYPE_UI | TYPE_VAR_RENAME;
 
     public static final String TYPENAME_CHANGE = "change";
     public static final String TYPENAME_CREATE = "create";
     public static final String TYPENAME_DELETE = "delete";
     public static final String TYPENAME_MOVE = "move";
     public static final String TYPENAME_UI = "ui";
+    public static final String TYPENAME_VAR_RENAME = "var_rename";
 
     @StringDef({ELEMENT_COLLAPSED, ELEMENT_COMMENT, ELEMENT_DISABLED, ELEMENT_FIELD, ELEMENT_INLINE,
             ELEMENT_MUTATE})
@@ -100,12 +112,14 @@ public abstract class BlocklyEvent {
         TYPE_ID_TO_NAME.put(TYPE_DELETE, TYPENAME_DELETE);
         TYPE_ID_TO_NAME.put(TYPE_MOVE, TYPENAME_MOVE);
         TYPE_ID_TO_NAME.put(TYPE_UI, TYPENAME_UI);
+        TYPE_ID_TO_NAME.put(TYPE_VAR_RENAME, TYPENAME_VAR_RENAME);
 
         TYPE_NAME_TO_ID.put(TYPENAME_CHANGE, TYPE_CHANGE);
         TYPE_NAME_TO_ID.put(TYPENAME_CREATE, TYPE_CREATE);
         TYPE_NAME_TO_ID.put(TYPENAME_DELETE, TYPE_DELETE);
         TYPE_NAME_TO_ID.put(TYPENAME_MOVE, TYPE_MOVE);
         TYPE_NAME_TO_ID.put(TYPENAME_UI, TYPE_UI);
+        TYPE_NAME_TO_ID.put(TYPENAME_VAR_RENAME, TYPE_VAR_RENAME);
     }
 
     public static BlocklyEvent fromJson(String json) throws JSONException {
@@ -113,18 +127,88 @@ public abstract class BlocklyEvent {
     }
 
     public static BlocklyEvent fromJson(JSONObject json) throws JSONException {
-        String typename = json.getString(JSON_TYPE);
+        return fromJsonAttributes(new JsonAttributes(json));
+    }
+
+    /**
+     * Reads a JSON array of serialized events, such as written by
+     * {@link #writeJsonArray(List, Writer)}, appending each decoded event to {@code result}.
+     *
+     * @param in The source of the JSON array.
+     * @param result The list to append the decoded events to.
+     * @return The {@code result} list.
+     * @throws IOException If the stream cannot be read or is not well formed JSON.
+     * @throws JSONException If a serialized event is invalid.
+     */
+    public static List<BlocklyEvent> fromJsonArray(Reader in, List<BlocklyEvent> result)
+            throws IOException, JSONException {
+        JsonEventsReader reader = new JsonEventsReader(in);
+        while (reader.hasNext()) {
+            result.add(reader.next());
+        }
+        return result;
+    }
+
+    /**
+     * Writes {@code events} as a single JSON array to {@code out}. Each element of the array is
+     * identical to the output of {@link #toJsonString()} for that event. The writer is flushed,
+     * but not closed.
+     *
+     * @param events The events to serialize, usually a complete event group.
+     * @param out The destination of the JSON array.
+     * @throws IOException If the writer fails.
+     */
+    public static void writeJsonArray(List<BlocklyEvent> events, Writer out) throws IOException {
+        JsonWriter jsonWriter = new JsonWriter(out);
+        jsonWriter.beginArray();
+        int count = events.size();
+        for (int i = 0; i < count; ++i) {
+            events.get(i).writeJson(jsonWriter);
+        }
+        jsonWriter.endArray();
+        jsonWriter.flush();
+    }
+
+    /**
+     * Writes {@code events} as a single UTF-8 encoded JSON array to {@code out}. The stream is
+     * flushed, but not closed.
+     *
+     * @param events The events to serialize, usually a complete event group.
+     * @param out The destination of the JSON array.
+     * @throws IOException If the stream fails.
+     * @see #writeJsonArray(List, Writer)
+     */
+    public static void writeJsonArray(List<BlocklyEvent> events, OutputStream out)
+            throws IOException {
+        writeJsonArray(events, new OutputStreamWriter(out, "UTF-8"));
+    }
+
+    /**
+     * Constructs the event described by {@code attributes}.
+     *
+     * @param attributes The decoded attributes of a single event.
+     * @return The new event.
+     * @throws JSONException If the type is unknown or required attributes are missing.
+     */
+    static BlocklyEvent fromJsonAttributes(JsonAttributes attributes)
+            throws JSONException {
+        String typename = attributes.type;
+        if (typename == null) {
+            throw new JSONException(JSON_TYPE + " must be assigned.");
+        }
         switch(typename) {
             case TYPENAME_CHANGE:
-                return new ChangeEvent(json);
+                return new ChangeEvent(attributes);
             case TYPENAME_CREATE:
-                return new CreateEvent(json);
+                return new CreateEvent(attributes);
             case TYPENAME_DELETE:
-                return new DeleteEvent(json);
+                return new DeleteEvent(attributes);
             case TYPENAME_MOVE:
-                return new MoveEvent(json);
+                return new MoveEvent(attributes);
             case TYPENAME_UI:
-                return new UIEvent(json);
+                return new UIEvent(attributes);
+            case TYPENAME_VAR_RENAME:
+                return new VarRenameEvent(attributes);
 
             default:
                 throw new JSONException("Unknown event type: " + typename);
@@ -165,11 +249,22 @@ public abstract class BlocklyEvent {
      * @throws JSONException
      */
     protected BlocklyEvent(@EventType int typeId, JSONObject json) throws JSONException {
+        this(typeId, new JsonAttributes(json));
+    }
+
+    /**
+     * Constructs BlocklyEvent with base attributes assigned from decoded JSON attributes.
+     *
+     * @param typeId The type of the event. Assumed to match the type in {@code attributes}.
+     * @param attributes The decoded JSON attributes.
+     */
+    BlocklyEvent(@EventType int typeId, JsonAttributes attributes) {
         validateEventType(typeId);
         mTypeId = typeId;
-        mWorkspaceId = json.optString(JSON_WORKSPACE_ID);
-        mGroupId = json.optString(JSON_GROUP_ID);
-        mBlockId = json.optString(JSON_BLOCK_ID);
+        // Matches JSONObject.optString(..), which returns empty strings for missing attributes.
+        mWorkspaceId = emptyIfNull(attributes.workspaceId);
+        mGroupId = emptyIfNull(attributes.groupId);
+        mBlockId = emptyIfNull(attributes.blockId);
     }
 
     /**
@@ -213,29 +308,44 @@ public abstract class BlocklyEvent {
     }
 
     public String toJsonString() throws JSONException {
-        JSONStringer out = new JSONStringer();
-        out.object();
-        out.key(JSON_TYPE);
-        out.value(getTypeName());
+        StringWriter out = new StringWriter();
+        try {
+            writeJson(new JsonWriter(out));
+        } catch (IOException e) {
+            // Not expected from a StringWriter.
+            throw new JSONException("Failed to serialize event: " + e.getMessage());
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes this event as a single JSON object.
+     *
+     * @param out The JSON writer to write to.
+     * @throws IOException If the underlying writer fails.
+     */
+    void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name(JSON_TYPE).value(getTypeName());
         if (!TextUtils.isEmpty(mBlockId)) {
-            out.key(JSON_BLOCK_ID);
-            out.value(mBlockId);
+            out.name(JSON_BLOCK_ID).value(mBlockId);
         }
         if (!TextUtils.isEmpty(mGroupId)) {
-            out.key(JSON_GROUP_ID);
-            out.value(mGroupId);
+            out.name(JSON_GROUP_ID).value(mGroupId);
+        }
+        // The workspace id identifies the origin, so receivers can skip their own events.
+        if (!TextUtils.isEmpty(mWorkspaceId)) {
+            out.name(JSON_WORKSPACE_ID).value(mWorkspaceId);
         }
         writeJsonAttributes(out);
-        // Workspace id is not included to reduce size over network.
         out.endObject();
-        return out.toString();
     }
 
     protected void setGroupId(String groupId) {
         this.mGroupId = groupId;
     }
 
-    protected abstract void writeJsonAttributes(JSONStringer out) throws JSONException;
+    protected abstract void writeJsonAttributes(JsonWriter out) throws IOException;
 
     /**
      * Event fired when a property of a block changes.
@@ -372,19 +482,30 @@ public abstract class BlocklyEvent {
          * @throws JSONException
          */
         public ChangeEvent(@NonNull JSONObject json) throws JSONException {
-            super(TYPE_CHANGE, json);
+            this(new JsonAttributes(json));
+        }
+
+        /**
+         * Constructs a ChangeEvent from decoded JSON attributes.
+         *
+         * @param attributes The decoded attributes of the serialized ChangeEvent.
+         * @throws JSONException
+         */
+        ChangeEvent(@NonNull JsonAttributes attributes) throws JSONException {
+            super(TYPE_CHANGE, attributes);
             if (TextUtils.isEmpty(mBlockId)) {
                 throw new JSONException(JSON_BLOCK_ID + " must be assigned.");
             }
-            String element = json.getString(JSON_ELEMENT);
+            String element = requireAttribute(JSON_ELEMENT, attributes.element);
             try {
                 mElementChanged = validateChangeElement(element);
             } catch (IllegalArgumentException e) {
                 throw new JSONException("Invalid change element: " + element);
             }
-            mFieldName = (mElementChanged == ELEMENT_FIELD) ? json.getString(JSON_NAME) : null;
-            mOldValue = json.optString(JSON_OLD_VALUE); // Not usually serialized.
-            mNewValue = json.getString(JSON_NEW_VALUE);
+            mFieldName = (mElementChanged == ELEMENT_FIELD)
+                    ? requireAttribute(JSON_NAME, attributes.name) : null;
+            mOldValue = emptyIfNull(attributes.oldValue); // Not usually serialized.
+            mNewValue = requireAttribute(JSON_NEW_VALUE, attributes.newValue);
         }
 
         @NonNull @ChangeElement
@@ -404,15 +525,12 @@ public abstract class BlocklyEvent {
             return mNewValue;
         }
 
-        protected void writeJsonAttributes(JSONStringer out) throws JSONException {
-            out.key("element");
-            out.value(mElementChanged);
+        protected void writeJsonAttributes(JsonWriter out) throws IOException {
+            out.name(JSON_ELEMENT).value(mElementChanged);
             if (mFieldName != null) {
-                out.key("name");
-                out.value(mFieldName);
+                out.name(JSON_NAME).value(mFieldName);
             }
-            out.key("newValue");
-            out.value(mNewValue);
+            out.name(JSON_NEW_VALUE).value(mNewValue);
         }
     }
 
@@ -450,19 +568,22 @@ public abstract class BlocklyEvent {
          * @throws JSONException
          */
         public CreateEvent(JSONObject json) throws JSONException {
-            super(TYPE_CREATE, json);
-            if (mBlockId == null) {
-                throw new JSONException(JSON_BLOCK_ID + " must be assigned.");
-            }
-            mXml = json.getString(JSON_XML);
+            this(new JsonAttributes(json));
+        }
 
-            JSONArray jsonIds = json.getJSONArray("ids");
-            int count = jsonIds.length();
-            List<String> ids = new ArrayList<>(count);
-            for (int i = 0; i < count; ++i) {
-                ids.add(jsonIds.getString(i));
+        /**
+         * Constructs a CreateEvent from decoded JSON attributes.
+         *
+         * @param attributes The decoded attributes of the serialized CreateEvent.
+         * @throws JSONException
+         */
+        CreateEvent(@NonNull JsonAttributes attributes) throws JSONException {
+            super(TYPE_CREATE, attributes);
+            if (TextUtils.isEmpty(mBlockId)) {
+                throw new JSONException(JSON_BLOCK_ID + " must be assigned.");
             }
-            mIds = Collections.unmodifiableList(ids);
+            mXml = requireAttribute(JSON_XML, attributes.xml);
+            mIds = attributes.copyIds();
         }
 
         /**
@@ -480,15 +601,9 @@ public abstract class BlocklyEvent {
         }
 
         @Override
-        protected void writeJsonAttributes(JSONStringer out) throws JSONException {
-            out.key("xml");
-            out.value(mXml);
-            out.key("ids");
-            out.array();
-            for (String id : mIds) {
-                out.value(id);
-            }
-            out.endArray();
+        protected void writeJsonAttributes(JsonWriter out) throws IOException {
+            out.name(JSON_XML).value(mXml);
+            writeIds(out, mIds);
         }
     }
 
@@ -525,19 +640,23 @@ public abstract class BlocklyEvent {
          * @throws JSONException
          */
         DeleteEvent(@NonNull JSONObject json) throws JSONException {
-            super(TYPE_DELETE, json);
+            this(new JsonAttributes(json));
+        }
+
+        /**
+         * Constructs a DeleteEvent from decoded JSON attributes.
+         *
+         * @param attributes The decoded attributes of the serialized DeleteEvent.
+         * @throws JSONException
+         */
+        DeleteEvent(@NonNull JsonAttributes attributes) throws JSONException {
+            super(TYPE_DELETE, attributes);
             if (TextUtils.isEmpty(mBlockId)) {
                 throw new JSONException(TYPENAME_DELETE + " requires " + JSON_BLOCK_ID);
             }
 
-            mOldXml = json.optString(JSON_OLD_VALUE); // Not usually used.
-            JSONArray ids = json.getJSONArray(JSON_IDS);
-            int count = ids.length();
-            List<String> temp = new ArrayList<>(count);
-            for (int i = 0; i < count; ++i) {
-                temp.add(ids.getString(i));
-            }
-            mIds = Collections.unmodifiableList(temp);
+            mOldXml = emptyIfNull(attributes.oldValue); // Not usually used.
+            mIds = attributes.copyIds();
         }
 
         /**
@@ -555,13 +674,8 @@ public abstract class BlocklyEvent {
         }
 
         @Override
-        protected void writeJsonAttributes(JSONStringer out) throws JSONException {
-            out.key("ids");
-            out.array();
-            for (String id : mIds) {
-                out.value(id);
-            }
-            out.endArray();
+        protected void writeJsonAttributes(JsonWriter out) throws IOException {
+            writeIds(out, mIds);
         }
     }
 
@@ -624,6 +738,27 @@ public abstract class BlocklyEvent {
             }
         }
 
+        /**
+         * Constructs a {@link MoveEvent} for a root block that was already moved, such as during a
+         * drag.
+         *
+         * @param workspace The workspace containing the moved blocks.
+         * @param rootBlock The root block of the move.
+         * @param oldPosition The workspace position of the block before it was moved.
+         */
+        MoveEvent(@NonNull Workspace workspace, @NonNull Block rootBlock,
+                  @NonNull WorkspacePoint oldPosition) {
+            super(TYPE_MOVE, workspace.getId(), null, rootBlock.getId());
+            if (rootBlock.getParentConnection() != null) {
+                throw new IllegalArgumentException("Block must be a root block.");
+            }
+            mOldParentId = null;
+            mOldInputName = null;
+            mHasOldPosition = true;
+            mOldPositionX = oldPosition.x;
+            mOldPositionY = oldPosition.y;
+        }
+
         /**
          * Constructs a MoveEvent from the JSON serialized representation.
          *
@@ -631,7 +766,17 @@ public abstract class BlocklyEvent {
          * @throws JSONException
          */
         MoveEvent(JSONObject json) throws JSONException {
-            super(TYPE_MOVE, json);
+            this(new JsonAttributes(json));
+        }
+
+        /**
+         * Constructs a MoveEvent from decoded JSON attributes.
+         *
+         * @param attributes The decoded attributes of the serialized MoveEvent.
+         * @throws JSONException
+         */
+        MoveEvent(@NonNull JsonAttributes attributes) throws JSONException {
+            super(TYPE_MOVE, attributes);
             if (TextUtils.isEmpty(mBlockId)) {
                 throw new JSONException(TYPENAME_MOVE + " requires " + JSON_BLOCK_ID);
             }
@@ -641,8 +786,11 @@ public abstract class BlocklyEvent {
             mOldInputName = null;
             mOldPositionX = mOldPositionY = 0;
 
-            String newCoordinateStr = json.optString(JSON_NEW_COORDINATE);
-            if (newCoordinateStr != null) {
+            mNewParentId = attributes.newParentId;
+            mNewInputName = attributes.newInputName;
+
+            String newCoordinateStr = attributes.newCoordinate;
+            if (!TextUtils.isEmpty(newCoordinateStr)) {
                 // JSON coordinates are always integers, separated by a comma.
                 int comma = newCoordinateStr.indexOf(',');
                 if (comma == -1) {
@@ -656,8 +804,7 @@ public abstract class BlocklyEvent {
                     throw new JSONException(
                             "Invalid " + JSON_NEW_COORDINATE + ": " + newCoordinateStr);
                 }
-            } else {
-
+                mHasNewPosition = true;
             }
         }
 
@@ -728,20 +875,17 @@ public abstract class BlocklyEvent {
         }
 
         @Override
-        protected void writeJsonAttributes(JSONStringer out) throws JSONException {
+        protected void writeJsonAttributes(JsonWriter out) throws IOException {
             if (mNewParentId != null) {
-                out.key(JSON_NEW_PARENT_ID);
-                out.value(mNewParentId);
+                out.name(JSON_NEW_PARENT_ID).value(mNewParentId);
             }
             if (mNewInputName != null) {
-                out.key(JSON_NEW_INPUT_NAME);
-                out.value(mNewInputName);
+                out.name(JSON_NEW_INPUT_NAME).value(mNewInputName);
             }
             if (mHasNewPosition) {
-                out.key(JSON_NEW_COORDINATE);
                 StringBuilder sb = new StringBuilder();
                 sb.append(mNewPositionX).append(',').append(mNewPositionY);
-                out.value(sb.toString());
+                out.name(JSON_NEW_COORDINATE).value(sb.toString());
             }
         }
     }
@@ -814,8 +958,18 @@ public abstract class BlocklyEvent {
          * @throws JSONException
          */
         UIEvent(JSONObject json) throws JSONException {
-            super(TYPE_UI, json);
-            String element = json.getString(JSON_ELEMENT);
+            this(new JsonAttributes(json));
+        }
+
+        /**
+         * Constructs a UIEvent from decoded JSON attributes.
+         *
+         * @param attributes The decoded attributes of the serialized UIEvent.
+         * @throws JSONException
+         */
+        UIEvent(@NonNull JsonAttributes attributes) throws JSONException {
+            super(TYPE_UI, attributes);
+            String element = requireAttribute(JSON_ELEMENT, attributes.element);
             try {
                 mUiElement = validateUiElement(element);
             } catch (IllegalArgumentException e) {
@@ -824,8 +978,8 @@ public abstract class BlocklyEvent {
             if (mUiElement != ELEMENT_CATEGORY && TextUtils.isEmpty(mBlockId)) {
                 throw new JSONException("UI element " + mUiElement + " requires " + JSON_BLOCK_ID);
             }
-            this.mOldValue = json.optString(JSON_OLD_VALUE);  // Rarely used.
-            this.mNewValue = json.optString(JSON_NEW_VALUE);
+            this.mOldValue = emptyIfNull(attributes.oldValue);  // Rarely used.
+            this.mNewValue = emptyIfNull(attributes.newValue);
             if (mUiElement != ELEMENT_CATEGORY && mUiElement != ELEMENT_CLICK
                     && TextUtils.isEmpty(mNewValue)) {
                 throw new JSONException("UI element " + mUiElement + " requires " + JSON_NEW_VALUE);
@@ -845,17 +999,311 @@ public abstract class BlocklyEvent {
         }
 
         @Override
-        protected void writeJsonAttributes(JSONStringer out) throws JSONException {
-            out.key("element");
-            out.value(mUiElement);
+        protected void writeJsonAttributes(JsonWriter out) throws IOException {
+            out.name(JSON_ELEMENT).value(mUiElement);
             if (mNewValue != null) {
-                out.key("newValue");
-                out.value(mNewValue);
+                out.name(JSON_NEW_VALUE).value(mNewValue);
             }
             // Old value is not included to reduce size over network.
         }
     }
 
+    /**
+     * Event fired once when a variable is renamed. It stands in for the field value
+     * {@link ChangeEvent}s of every field referencing the variable, which are only sent to
+     * callbacks that handle {@link #TYPE_CHANGE} but not {@link #TYPE_VAR_RENAME}.
+     */
+    public static final class VarRenameEvent extends BlocklyEvent {
+        @NonNull
+        private final String mOldName;
+        @NonNull
+        private final String mNewName;
+
+        /**
+         * Constructs a {@code VarRenameEvent}.
+         *
+         * @param workspace The workspace containing the variable.
+         * @param oldName The prior name of the variable.
+         * @param newName The new name of the variable.
+         */
+        public VarRenameEvent(@NonNull Workspace workspace, @NonNull String oldName,
+                              @NonNull String newName) {
+            super(TYPE_VAR_RENAME, workspace.getId(), null, null);
+            mOldName = oldName;
+            mNewName = newName;
+        }
+
+        /**
+         * Constructs a VarRenameEvent from the JSON serialized representation.
+         *
+         * @param json The serialized VarRenameEvent.
+         * @throws JSONException
+         */
+        public VarRenameEvent(@NonNull JSONObject json) throws JSONException {
+            this(new JsonAttributes(json));
+        }
+
+        /**
+         * Constructs a VarRenameEvent from decoded JSON attributes.
+         *
+         * @param attributes The decoded attributes of the serialized VarRenameEvent.
+         * @throws JSONException
+         */
+        VarRenameEvent(@NonNull JsonAttributes attributes) throws JSONException {
+            super(TYPE_VAR_RENAME, attributes);
+            mOldName = requireAttribute(JSON_OLD_VALUE, attributes.oldValue);
+            mNewName = requireAttribute(JSON_NEW_VALUE, attributes.newValue);
+        }
+
+        @NonNull
+        public String getOldName() {
+            return mOldName;
+        }
+
+        @NonNull
+        public String getNewName() {
+            return mNewName;
+        }
+
+        @Override
+        protected void writeJsonAttributes(JsonWriter out) throws IOException {
+            // Unlike change events, the old name is needed to apply the event.
+            out.name(JSON_OLD_VALUE).value(mOldName);
+            out.name(JSON_NEW_VALUE).value(mNewName);
+        }
+    }
+
+    /**
+     * Streaming decoder for a JSON array of events, as written by
+     * {@link #writeJsonArray(List, Writer)}. Events are decoded one at a time directly from the
+     * token stream, without constructing intermediate {@link JSONObject}s.
+     */
+    public static final class JsonEventsReader implements Closeable {
+        private final JsonReader mReader;
+        private final JsonAttributes mAttributes = new JsonAttributes();
+        private boolean mStarted = false;
+        private boolean mFinished = false;
+
+        /**
+         * @param in The source of the JSON array of events.
+         */
+        public JsonEventsReader(Reader in) {
+            mReader = new JsonReader(in);
+        }
+
+        /**
+         * @return True if there is another event in the array.
+         * @throws IOException If the stream cannot be read or is not well formed JSON.
+         */
+        public boolean hasNext() throws IOException {
+            if (mFinished) {
+                return false;
+            }
+            if (!mStarted) {
+                mReader.beginArray();
+                mStarted = true;
+            }
+            if (mReader.hasNext()) {
+                return true;
+            }
+            mReader.endArray();
+            mFinished = true;
+            return false;
+        }
+
+        /**
+         * @return The next event in the array.
+         * @throws IOException If the stream cannot be read or is not well formed JSON.
+         * @throws JSONException If the serialized event is invalid.
+         * @throws NoSuchElementException If there are no more events.
+         */
+        public BlocklyEvent next() throws IOException, JSONException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            mAttributes.read(mReader);
+            return fromJsonAttributes(mAttributes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    /**
+     * Flat holder for the serialized attributes of a single event, shared by the
+     * {@link JSONObject} and streaming decoders. Missing attributes are null. Instances may be
+     * reused across events.
+     */
+    static final class JsonAttributes {
+        String type;
+        String blockId;
+        String groupId;
+        String workspaceId;
+        String element;
+        String name;
+        String newValue;
+        String oldValue;
+        String xml;
+        String newParentId;
+        String newInputName;
+        String newCoordinate;
+        boolean hasIds;
+        final ArrayList<String> ids = new ArrayList<>();
+
+        JsonAttributes() {}
+
+        JsonAttributes(JSONObject json) throws JSONException {
+            type = optAttribute(json, JSON_TYPE);
+            blockId = optAttribute(json, JSON_BLOCK_ID);
+            groupId = optAttribute(json, JSON_GROUP_ID);
+            workspaceId = optAttribute(json, JSON_WORKSPACE_ID);
+            element = optAttribute(json, JSON_ELEMENT);
+            name = optAttribute(json, JSON_NAME);
+            newValue = optAttribute(json, JSON_NEW_VALUE);
+            oldValue = optAttribute(json, JSON_OLD_VALUE);
+            xml = optAttribute(json, JSON_XML);
+            newParentId = optAttribute(json, MoveEvent.JSON_NEW_PARENT_ID);
+            newInputName = optAttribute(json, MoveEvent.JSON_NEW_INPUT_NAME);
+            newCoordinate = optAttribute(json, MoveEvent.JSON_NEW_COORDINATE);
+
+            JSONArray jsonIds = json.optJSONArray(JSON_IDS);
+            if (jsonIds != null) {
+                hasIds = true;
+                int count = jsonIds.length();
+                ids.ensureCapacity(count);
+                for (int i = 0; i < count; ++i) {
+                    ids.add(jsonIds.getString(i));
+                }
+            }
+        }
+
+        /**
+         * Replaces all values with the attributes of the next JSON object in {@code reader}.
+         *
+         * @param reader The reader, positioned at the beginning of an event object.
+         * @throws IOException If the stream cannot be read or is not well formed JSON.
+         */
+        void read(JsonReader reader) throws IOException {
+            clear();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                switch (key) {
+                    case JSON_TYPE:
+                        type = nextString(reader);
+                        break;
+                    case JSON_BLOCK_ID:
+                        blockId = nextString(reader);
+                        break;
+                    case JSON_GROUP_ID:
+                        groupId = nextString(reader);
+                        break;
+                    case JSON_WORKSPACE_ID:
+                        workspaceId = nextString(reader);
+                        break;
+                    case JSON_ELEMENT:
+                        element = nextString(reader);
+                        break;
+                    case JSON_NAME:
+                        name = nextString(reader);
+                        break;
+                    case JSON_NEW_VALUE:
+                        newValue = nextString(reader);
+                        break;
+                    case JSON_OLD_VALUE:
+                        oldValue = nextString(reader);
+                        break;
+                    case JSON_XML:
+                        xml = nextString(reader);
+                        break;
+                    case MoveEvent.JSON_NEW_PARENT_ID:
+                        newParentId = nextString(reader);
+                        break;
+                    case MoveEvent.JSON_NEW_INPUT_NAME:
+                        newInputName = nextString(reader);
+                        break;
+                    case MoveEvent.JSON_NEW_COORDINATE:
+                        newCoordinate = nextString(reader);
+                        break;
+                    case JSON_IDS:
+                        hasIds = true;
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            ids.add(nextString(reader));
+                        }
+                        reader.endArray();
+                        break;
+
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+
+        /**
+         * @return An immutable copy of the ids.
+         * @throws JSONException If no ids were present.
+         */
+        List<String> copyIds() throws JSONException {
+            if (!hasIds) {
+                throw new JSONException(JSON_IDS + " must be assigned.");
+            }
+            return Collections.unmodifiableList(new ArrayList<>(ids));
+        }
+
+        void clear() {
+            type = blockId = groupId = workspaceId = element = name = newValue = oldValue = xml =
+                    newParentId = newInputName = newCoordinate = null;
+            hasIds = false;
+            ids.clear();
+        }
+
+        private static String optAttribute(JSONObject json, String key) throws JSONException {
+            return json.isNull(key) ? null : json.getString(key);
+        }
+
+        /**
+         * Reads the next value as a string, coercing numbers and booleans in the same way as
+         * {@link JSONObject#getString(String)}.
+         */
+        private static String nextString(JsonReader reader) throws IOException {
+            JsonToken token = reader.peek();
+            if (token == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+            if (token == JsonToken.BOOLEAN) {
+                return Boolean.toString(reader.nextBoolean());
+            }
+            return reader.nextString();
+        }
+    }
+
+    private static void writeIds(JsonWriter out, List<String> ids) throws IOException {
+        out.name(JSON_IDS);
+        out.beginArray();
+        int count = ids.size();
+        for (int i = 0; i < count; ++i) {
+            out.value(ids.get(i));
+        }
+        out.endArray();
+    }
+
+    private static String emptyIfNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String requireAttribute(String key, String value) throws JSONException {
+        if (value == null) {
+            throw new JSONException(key + " must be assigned.");
+        }
+        return value;
+    }
+
 
     /**
      * Ensures {@code typeId} is a singular valid event id.
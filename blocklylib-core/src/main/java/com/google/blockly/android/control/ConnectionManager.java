@@ -15,6 +15,7 @@
 
 package com.google.blockly.android.control;
 
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.util.Pair;
 
@@ -23,6 +24,7 @@ import com.google.blockly.model.Connection;
 import com.google.blockly.model.WorkspacePoint;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -31,26 +33,140 @@ import java.util.List;
 public class ConnectionManager {
     private static final String TAG = "ConnectionManager";
 
-    private final YSortedList mPreviousConnections = new YSortedList();
-    private final YSortedList mNextConnections = new YSortedList();
-    private final YSortedList mInputConnections = new YSortedList();
-    private final YSortedList mOutputConnections = new YSortedList();
+    /**
+     * Default size of the cells used to index connections, in workspace units. This matches the
+     * default {@link com.google.blockly.android.ui.WorkspaceHelper#getMaxSnapDistance()}.
+     */
+    public static final int DEFAULT_CELL_SIZE = 24;
+
+    private static final int INITIAL_TABLE_SIZE = 16;
+    private static final int MIN_EMPTY_CELLS_TO_COMPACT = 64;
+
+    private int mCellSize = DEFAULT_CELL_SIZE;
+    // Depth of nested startBulkMove() calls.
+    private int mBulkMoveDepth = 0;
+    // Index of the connections compatible with the dragged block, or null if not dragging.
+    private DragSession mDragSession = null;
+    // State of findBestConnection(). Instance variable only to avoid allocation.
+    private final Sweep mSweep = new Sweep();
+    // Null unless enabled by setMetricsEnabled(true).
+    private ConnectionMetrics mMetrics = null;
+
+    private final SpatialIndex mPreviousConnections = new SpatialIndex();
+    private final SpatialIndex mNextConnections = new SpatialIndex();
+    private final SpatialIndex mInputConnections = new SpatialIndex();
+    private final SpatialIndex mOutputConnections = new SpatialIndex();
 
     // If updating this, also update Connection.java's OPPOSITE_TYPES array.
     // The arrays are indexed by connection type codes (conn.getType()).
-    private final YSortedList[] matchingLists = new YSortedList[]{
+    private final SpatialIndex[] matchingLists = new SpatialIndex[]{
             mPreviousConnections, mNextConnections, mInputConnections, mOutputConnections};
-    private final YSortedList[] oppositeLists = new YSortedList[]{
+    private final SpatialIndex[] oppositeLists = new SpatialIndex[]{
             mNextConnections, mPreviousConnections, mOutputConnections, mInputConnections
     };
 
     /**
-     * Figure out which list the connection belongs in; insert it.
+     * Sets the size of the cells used to index connections, re-bucketing all connections. Searches
+     * are fastest when this matches the usual search radius, such as
+     * {@link com.google.blockly.android.ui.WorkspaceHelper#getMaxSnapDistance()}.
+     *
+     * @param cellSize The cell size, in workspace units.
+     */
+    public void setCellSize(int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive.");
+        }
+        if (cellSize == mCellSize) {
+            return;
+        }
+        mCellSize = cellSize;
+        mDragSession = null;
+        for (int i = 0; i < matchingLists.length; i++) {
+            matchingLists[i].applyStagedMoves();
+            matchingLists[i].rebuild();
+        }
+    }
+
+    /**
+     * @return The size of the cells used to index connections, in workspace units.
+     */
+    public int getCellSize() {
+        return mCellSize;
+    }
+
+    /**
+     * Enables or disables recording of {@link ConnectionMetrics}. Disabling discards the recorded
+     * metrics. When disabled, indexing and searching only pay for null checks.
+     *
+     * @param enabled Whether to record metrics.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (!enabled) {
+            mMetrics = null;
+        } else if (mMetrics == null) {
+            mMetrics = new ConnectionMetrics();
+            recordIndexSizes();
+        }
+    }
+
+    /**
+     * @return The connection metrics, or null if not enabled.
+     */
+    @Nullable
+    public ConnectionMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Starts a bulk move, such as when relaying out a whole {@link
+     * com.google.blockly.android.ui.BlockGroup}. Until the matching {@link #finishBulkMove()},
+     * added and moved connections take their new positions immediately but are only re-bucketed in
+     * the index once, when the outermost bulk move finishes. Connections moved several times,
+     * as nested groups are laid out, only change cells once.
+     * <p/>
+     * Removals and searches during a bulk move apply the staged moves first, so they always see a
+     * consistent index.
+     */
+    public void startBulkMove() {
+        ++mBulkMoveDepth;
+    }
+
+    /**
+     * Finishes a bulk move started with {@link #startBulkMove()}, updating the index for all
+     * staged connections if this is the outermost bulk move.
+     */
+    public void finishBulkMove() {
+        if (mBulkMoveDepth == 0) {
+            throw new IllegalStateException("No bulk move in progress.");
+        }
+        if (--mBulkMoveDepth == 0) {
+            for (int i = 0; i < matchingLists.length; i++) {
+                matchingLists[i].applyStagedMoves();
+            }
+            if (mMetrics != null) {
+                recordIndexSizes();
+            }
+        }
+    }
+
+    /**
+     * Figure out which list the connection belongs in; insert it. During a bulk move the insertion
+     * is staged, and adding a connection twice is not detected.
      *
      * @param conn The connection to add.
      */
     public void addConnection(Connection conn) {
-        matchingLists[conn.getType()].addConnection(conn);
+        if (mBulkMoveDepth > 0) {
+            matchingLists[conn.getType()].stageConnection(conn);
+        } else {
+            matchingLists[conn.getType()].addConnection(conn);
+        }
+        if (mDragSession != null) {
+            mDragSession.addConnection(conn);
+        }
+        if (mMetrics != null) {
+            mMetrics.recordInsert(conn.getType(), matchingLists[conn.getType()].size());
+        }
     }
 
     /**
@@ -60,6 +176,12 @@ public class ConnectionManager {
      */
     public void removeConnection(Connection conn) {
         matchingLists[conn.getType()].removeConnection(conn);
+        if (mDragSession != null) {
+            mDragSession.removeConnection(conn);
+        }
+        if (mMetrics != null) {
+            mMetrics.recordRemove(conn.getType(), matchingLists[conn.getType()].size());
+        }
     }
 
     /**
@@ -83,6 +205,39 @@ public class ConnectionManager {
         mOutputConnections.clear();
         mPreviousConnections.clear();
         mNextConnections.clear();
+        mDragSession = null;
+        if (mMetrics != null) {
+            recordIndexSizes();
+        }
+    }
+
+    /**
+     * Starts a drag session for the root block of a drag. Connections that can never connect to
+     * the block's connections, due to their type, checks, or existing connections, are filtered
+     * out once, and the rest are indexed per block connection. Until
+     * {@link #finishDragSession()}, {@link #findBestConnection(Block, int, Candidate)} for this
+     * block only measures distances to the remaining candidates.
+     * <p/>
+     * The connections of the dragged group must already be removed from the manager. Connections
+     * added, moved or removed during the drag are kept up to date, but the connection state of
+     * workspace blocks is assumed not to change until the drag finishes.
+     *
+     * @param dragRoot The root block of the dragged group.
+     */
+    public void startDragSession(Block dragRoot) {
+        mDragSession = new DragSession(dragRoot);
+    }
+
+    /**
+     * Drops the index built by {@link #startDragSession(Block)}.
+     */
+    public void finishDragSession() {
+        mDragSession = null;
+    }
+
+    @VisibleForTesting
+    boolean hasDragSession() {
+        return mDragSession != null;
     }
 
     /**
@@ -98,7 +253,7 @@ public class ConnectionManager {
             // Don't offer to connect when already connected.
             return null;
         }
-        YSortedList compatibleList = oppositeLists[conn.getType()];
+        SpatialIndex compatibleList = oppositeLists[conn.getType()];
         return compatibleList.searchForClosest(conn, maxRadius);
     }
 
@@ -113,7 +268,7 @@ public class ConnectionManager {
      */
     public void getNeighbors(Connection conn, int maxRadius, List<Connection> result) {
         result.clear();
-        YSortedList compatibleList = oppositeLists[conn.getType()];
+        SpatialIndex compatibleList = oppositeLists[conn.getType()];
         compatibleList.getNeighbours(conn, maxRadius, result);
     }
 
@@ -131,10 +286,28 @@ public class ConnectionManager {
         }
         if (conn.inDragMode()) {
             conn.setPosition(newX, newY);
-        } else {
-            removeConnection(conn);
+            return;
+        }
+        if (mDragSession != null) {
+            mDragSession.removeConnection(conn);
+        }
+        if (mBulkMoveDepth > 0) {
+            matchingLists[conn.getType()].stageConnection(conn);
             conn.setPosition(newX, newY);
-            addConnection(conn);
+        } else {
+            matchingLists[conn.getType()].moveConnection(conn, newX, newY);
+        }
+        if (mDragSession != null) {
+            mDragSession.addConnection(conn);
+        }
+        if (mMetrics != null) {
+            mMetrics.recordMove();
+        }
+    }
+
+    private void recordIndexSizes() {
+        for (int type = 0; type < matchingLists.length; type++) {
+            mMetrics.recordIndexSize(type, matchingLists[type].size());
         }
     }
 
@@ -179,7 +352,22 @@ public class ConnectionManager {
         if (moving.distanceFrom(candidate) > maxRadius) {
             return false;
         }
+        return isCompatible(moving, candidate, allowShadowParent);
+    }
 
+    /**
+     * Check if the two connections can be dragged to connect to each other, regardless of
+     * distance.
+     *
+     * @param moving The connection being dragged.
+     * @param candidate A connection to check.
+     * @param allowShadowParent False if shadows should not be allowed as parents of non-shadow
+     *                          blocks, true to skip the shadow parent check.
+     *
+     * @return True if the connection is allowed, false otherwise.
+     */
+    private boolean isCompatible(Connection moving, Connection candidate,
+            boolean allowShadowParent) {
         // Type checking
         int canConnect = moving.canConnectWithReason(candidate);
         if (canConnect != Connection.CAN_CONNECT
@@ -218,7 +406,8 @@ public class ConnectionManager {
 
     /**
      * Iterate over all of the connections on the block and find the one that is closest to a valid
-     * connection on another block.
+     * connection on another block. This allocates the returned pair; use
+     * {@link #findBestConnection(Block, int, Candidate)} on paths that run every frame.
      *
      * @param block The {@link Block} whose connections to search.
      * @param radiusConnectionWS The maximum distance between viable connections in workspace units.
@@ -226,250 +415,715 @@ public class ConnectionManager {
      *     second is the closest compatible connection.
      */
     public Pair<Connection, Connection> findBestConnection(Block block, int radiusConnectionWS) {
-        // Find the connection that is closest to any connection on the block.
-        Connection potentialBlockConnection = null;
-        Connection potentialCompatibleConnection = null;
-        List<Connection> blockConnections = block.getAllConnections();
-        Connection curBlockConnection;
-        Connection curCompatibleConnection;
-
-        double maxSearchRadius = radiusConnectionWS;
-
-        for (int i = 0; i < blockConnections.size(); i++) {
-            curBlockConnection = blockConnections.get(i);
-            curCompatibleConnection =
-                    closestConnection(curBlockConnection, maxSearchRadius);
-            if (curCompatibleConnection != null) {
-                potentialBlockConnection = curBlockConnection;
-                potentialCompatibleConnection = curCompatibleConnection;
-                maxSearchRadius =
-                        potentialBlockConnection.distanceFrom(potentialCompatibleConnection);
-            }
-        }
-        if (potentialBlockConnection == null) {
+        Candidate candidate = findBestConnection(block, radiusConnectionWS, new Candidate());
+        if (candidate == null) {
             return null;
         }
-        return new Pair<>(potentialBlockConnection, potentialCompatibleConnection);
+        return new Pair<>(candidate.getBlockConnection(), candidate.getTargetConnection());
+    }
+
+    /**
+     * Iterate over all of the connections on the block and find the one that is closest to a valid
+     * connection on another block, without allocating.
+     *
+     * @param block The {@link Block} whose connections to search.
+     * @param radiusConnectionWS The maximum distance between viable connections in workspace units.
+     * @param result The {@link Candidate} to store the connections in, reused between calls.
+     * @return {@code result} if a compatible connection was found, otherwise null.
+     */
+    public Candidate findBestConnection(Block block, int radiusConnectionWS, Candidate result) {
+        long startNanos = (mMetrics == null) ? 0 : System.nanoTime();
+        Candidate best = (mDragSession != null && mDragSession.mBlock == block)
+                ? mDragSession.findBestConnection(radiusConnectionWS, result)
+                : sweep(block.getAllConnections(), radiusConnectionWS, result);
+        if (mMetrics != null) {
+            mMetrics.recordQuery(mSweep.mExamined, System.nanoTime() - startNanos);
+        }
+        return best;
+    }
+
+    /**
+     * Finds the closest pair of one of the given connections and a compatible connection in the
+     * manager, such as for all the connections of a dragged group. Each connection only searches
+     * the cells within the best distance found so far by the connections before it. The result is
+     * the same as searching for each connection in turn: when pairs are equally close, the one
+     * with the connection latest in the list wins.
+     *
+     * @param connections The connections to find a match for. Connected ones are skipped.
+     * @param radiusConnectionWS The maximum distance between viable connections in workspace units.
+     * @param result The {@link Candidate} to store the connections in, reused between calls.
+     * @return {@code result} if a compatible connection was found, otherwise null.
+     */
+    public Candidate findBestConnection(List<Connection> connections, int radiusConnectionWS,
+                                        Candidate result) {
+        long startNanos = (mMetrics == null) ? 0 : System.nanoTime();
+        Candidate best = sweep(connections, radiusConnectionWS, result);
+        if (mMetrics != null) {
+            mMetrics.recordQuery(mSweep.mExamined, System.nanoTime() - startNanos);
+        }
+        return best;
+    }
+
+    private Candidate sweep(List<Connection> connections, int radiusConnectionWS,
+                            Candidate result) {
+        mSweep.reset(radiusConnectionWS);
+        for (int type = 0; type < matchingLists.length; type++) {
+            mSweep.clearSearchers();
+            for (int i = 0; i < connections.size(); i++) {
+                Connection conn = connections.get(i);
+                if (conn.getType() == type && !conn.isConnected()) {
+                    mSweep.addSearcher(i, conn);
+                }
+            }
+            oppositeLists[type].sweep(mSweep, true);
+        }
+        return mSweep.finish(connections, result);
     }
 
     @VisibleForTesting
-    YSortedList getConnections(int connectionType) {
+    SpatialIndex getConnections(int connectionType) {
         return matchingLists[connectionType];
     }
 
     /**
-     * List of connections ordered by y position.  This is optimized
-     * for quickly finding the nearest connection when dragging a block around.
-     * Connections are not ordered by their x position and multiple connections may be at the same
-     * y position.
+     * A connection on a dragged block and the compatible connection it would connect to. Instances
+     * are mutable so callers can reuse one across frames.
+     */
+    public static final class Candidate {
+        private Connection mBlockConnection;
+        private Connection mTargetConnection;
+
+        /**
+         * Sets both connections of the candidate.
+         *
+         * @param blockConnection The connection on the searched block.
+         * @param targetConnection The compatible connection on another block.
+         */
+        public void set(Connection blockConnection, Connection targetConnection) {
+            mBlockConnection = blockConnection;
+            mTargetConnection = targetConnection;
+        }
+
+        /**
+         * @return The connection on the searched block.
+         */
+        public Connection getBlockConnection() {
+            return mBlockConnection;
+        }
+
+        /**
+         * @return The compatible connection on another block.
+         */
+        public Connection getTargetConnection() {
+            return mTargetConnection;
+        }
+    }
+
+    /**
+     * Spatial hash of connections of a single type. Connections are bucketed into square cells
+     * {@link #setCellSize(int) cellSize} workspace units wide, so adding, removing and moving a
+     * connection are O(1), and a search only visits the cells within its radius. With the cell
+     * size equal to the snap radius, a search touches at most four cells.
+     * <p/>
+     * Cells are stored in an open addressing table keyed by their packed coordinates. Cells that
+     * become empty are kept for reuse and only dropped when the table is rebuilt, which keeps
+     * steady-state drags free of allocation.
+     * <p/>
+     * Each cell keeps the positions of its connections in parallel arrays, so searches compare
+     * squared integer distances without touching the {@link Connection} objects, and only check
+     * compatibility for connections within range. Connections in the index must therefore only be
+     * moved through the {@link ConnectionManager}.
      */
     @VisibleForTesting
-    class YSortedList {
-        private final List<Connection> mConnections = new ArrayList<>();
+    class SpatialIndex {
+        private long[] mKeys;
+        private Cell[] mCells;
+        // Number of used slots in the table, including empty cells.
+        private int mCellCount;
+        private int mEmptyCellCount;
+        // Number of connections in all cells.
+        private int mSize;
+
+        // Cells overlapping the current search. Instance variable only to avoid allocation.
+        private final ArrayList<Cell> mSearchCells = new ArrayList<>();
+        // Connections added or moved during a bulk move, and the keys of the cells they were in.
+        private final ArrayList<Connection> mStagedConnections = new ArrayList<>();
+        private long[] mStagedKeys = new long[INITIAL_TABLE_SIZE];
+
+        SpatialIndex() {
+            resetTable(INITIAL_TABLE_SIZE);
+        }
 
         /**
-         * Insert the given connection into this list.
+         * Insert the given connection into this index.
          *
          * @param conn The connection to insert.
          */
         public void addConnection(Connection conn) {
-            int position = findPositionForConnection(conn);
-            if (position < mConnections.size() && conn == mConnections.get(position)) {
+            WorkspacePoint position = conn.getPosition();
+            Cell cell = getOrCreateCell(cellKey(position.x, position.y));
+            if (cell.indexOf(conn) != -1) {
                 throw new IllegalArgumentException("Already added.");
             }
-            mConnections.add(position, conn);
+            if (cell.mCount == 0) {
+                --mEmptyCellCount;
+            }
+            cell.add(conn);
+            ++mSize;
         }
 
         /**
-         * Remove the given connection from this list.
+         * Remove the given connection from this index.
          *
          * @param conn The connection to remove.
          */
         public void removeConnection(Connection conn) {
-            int removalIndex = findConnection(conn);
-            if (removalIndex != -1) {
-                mConnections.remove(removalIndex);
+            applyStagedMoves();
+            WorkspacePoint position = conn.getPosition();
+            Cell cell = getCell(cellKey(position.x, position.y));
+            if (cell == null) {
+                return;
+            }
+            int index = cell.indexOf(conn);
+            if (index != -1) {
+                removeFromCell(cell, index);
             }
         }
 
         public void clear() {
-            mConnections.clear();
+            resetTable(INITIAL_TABLE_SIZE);
+            mSize = 0;
+            mStagedConnections.clear();
         }
 
-        private boolean isInYRange(int index, int baseY, double maxRadius) {
-            int curY = mConnections.get(index).getPosition().y;
-            return (Math.abs(curY - baseY) <= maxRadius);
+        /**
+         * Moves a connection to a new position and into the matching cell, adding it if it was
+         * not in this index.
+         */
+        void moveConnection(Connection conn, int newX, int newY) {
+            WorkspacePoint position = conn.getPosition();
+            long oldKey = cellKey(position.x, position.y);
+            conn.setPosition(newX, newY);
+            relocate(conn, oldKey);
         }
 
         /**
-         * Find the given connection in the given list.
-         * Starts by doing a binary search to find the approximate location, then linearly searches
-         * nearby for the exact connection.
-         *
-         * @param conn The connection to find.
-         *
-         * @return The index of the connection, or -1 if the connection was not found.
+         * Records the cell of a connection that is about to be added or moved during a bulk move.
+         * The index is updated by {@link #applyStagedMoves()}.
          */
+        void stageConnection(Connection conn) {
+            int count = mStagedConnections.size();
+            if (count == mStagedKeys.length) {
+                mStagedKeys = Arrays.copyOf(mStagedKeys, count * 2);
+            }
+            WorkspacePoint position = conn.getPosition();
+            mStagedKeys[count] = cellKey(position.x, position.y);
+            mStagedConnections.add(conn);
+        }
+
+        /**
+         * Moves all staged connections into the cells of their current positions, in one pass.
+         */
+        void applyStagedMoves() {
+            int count = mStagedConnections.size();
+            for (int i = 0; i < count; i++) {
+                relocate(mStagedConnections.get(i), mStagedKeys[i]);
+            }
+            mStagedConnections.clear();
+        }
+
         @VisibleForTesting
-        int findConnection(Connection conn) {
-            if (mConnections.isEmpty()) {
-                return -1;
-            }
-            // Should have the right y position.
-            int bestGuess = findPositionForConnection(conn);
-            if (bestGuess >= mConnections.size()) {
-                // Not in list.
-                return -1;
-            }
-
-            int yPos = conn.getPosition().y;
-            // Walk forward and back on the y axis looking for the connection.
-            // When found, splice it out of the array.
-            int pointerMin = bestGuess;
-            int pointerMax = bestGuess + 1;
-            while (pointerMin >= 0 && mConnections.get(pointerMin).getPosition().y == yPos) {
-                if (mConnections.get(pointerMin) == conn) {
-                    return pointerMin;
-                }
-                pointerMin--;
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        @VisibleForTesting
+        int size() {
+            return mSize;
+        }
+
+        @VisibleForTesting
+        boolean contains(Connection conn) {
+            applyStagedMoves();
+            WorkspacePoint position = conn.getPosition();
+            Cell cell = getCell(cellKey(position.x, position.y));
+            return cell != null && cell.indexOf(conn) != -1;
+        }
+
+        @VisibleForTesting
+        Connection searchForClosest(Connection conn, double maxRadius) {
+            applyStagedMoves();
+            if (mSize == 0) {
+                return null;
             }
-            while (pointerMax < mConnections.size() &&
-                    mConnections.get(pointerMax).getPosition().y == yPos) {
-                if (mConnections.get(pointerMax) == conn) {
-                    return pointerMax;
+            Connection bestConnection = null;
+            long bestDistanceSquared = maxDistanceSquared(maxRadius);
+            WorkspacePoint position = conn.getPosition();
+            int x = position.x;
+            int y = position.y;
+            int radius = (int) Math.ceil(maxRadius);
+
+            gatherSearchCells(x - radius, y - radius, x + radius, y + radius);
+            for (int i = 0; i < mSearchCells.size(); i++) {
+                Cell cell = mSearchCells.get(i);
+                int[] xs = cell.mXs;
+                int[] ys = cell.mYs;
+                for (int j = 0; j < cell.mCount; j++) {
+                    long dx = (long) xs[j] - x;
+                    long dy = (long) ys[j] - y;
+                    long distanceSquared = dx * dx + dy * dy;
+                    if (distanceSquared <= bestDistanceSquared
+                            && isCompatible(conn, cell.mConnections[j], false)) {
+                        bestConnection = cell.mConnections[j];
+                        bestDistanceSquared = distanceSquared;
+                    }
                 }
-                pointerMax++;
             }
-            return -1;
+            mSearchCells.clear();
+            return bestConnection;
         }
 
         /**
-         * Finds a candidate position for inserting this connection into the given list.
-         * This will be in the correct y order but makes no guarantees about ordering in the x axis.
+         * Searches the cells around each of the sweep's searchers in turn and updates the sweep's
+         * best pair. Each search only covers the cells within the best distance found so far, so
+         * later searchers look at fewer cells once a close pair is found.
          *
-         * @param conn The connection to insert.
-         *
-         * @return The candidate index.
+         * @param checkCompatible False to only compare distances, for indices that only hold
+         *                        connections already known to be compatible.
          */
-        @VisibleForTesting
-        int findPositionForConnection(Connection conn) {
-            if (mConnections.isEmpty()) {
-                return 0;
-            }
-            int pointerMin = 0;
-            int pointerMax = mConnections.size();
-            int yPos = conn.getPosition().y;
-            while (pointerMin < pointerMax) {
-                int pointerMid = (pointerMin + pointerMax) / 2;
-                int pointerY = mConnections.get(pointerMid).getPosition().y;
-                if (pointerY < yPos) {
-                    pointerMin = pointerMid + 1;
-                } else if (pointerY > yPos) {
-                    pointerMax = pointerMid;
-                } else {
-                    pointerMin = pointerMid;
-                    break;
+        void sweep(Sweep sweep, boolean checkCompatible) {
+            applyStagedMoves();
+            if (mSize == 0) {
+                return;
+            }
+            for (int k = 0; k < sweep.mSearcherCount; k++) {
+                int x = sweep.mXs[k];
+                int y = sweep.mYs[k];
+                int searcherIndex = sweep.mIndices[k];
+                int radius = (int) Math.ceil(Math.sqrt(sweep.mBestDistanceSquared));
+                gatherSearchCells(x - radius, y - radius, x + radius, y + radius);
+                for (int i = 0; i < mSearchCells.size(); i++) {
+                    Cell cell = mSearchCells.get(i);
+                    int[] xs = cell.mXs;
+                    int[] ys = cell.mYs;
+                    for (int j = 0; j < cell.mCount; j++) {
+                        long dx = (long) xs[j] - x;
+                        long dy = (long) ys[j] - y;
+                        long distanceSquared = dx * dx + dy * dy;
+                        // Ties go to the searcher latest in the list, then to the connection
+                        // found last, matching a search per connection with a shrinking radius.
+                        if ((distanceSquared < sweep.mBestDistanceSquared
+                                || (distanceSquared == sweep.mBestDistanceSquared
+                                        && searcherIndex >= sweep.mBestIndex))
+                                && (!checkCompatible || isCompatible(
+                                        sweep.mSearchers[k], cell.mConnections[j], false))) {
+                            sweep.mBestDistanceSquared = distanceSquared;
+                            sweep.mBestIndex = searcherIndex;
+                            sweep.mBestTarget = cell.mConnections[j];
+                        }
+                    }
+                    if (mMetrics != null) {
+                        sweep.mExamined += cell.mCount;
+                    }
+                }
+                mSearchCells.clear();
+            }
+        }
+
+        /**
+         * Adds the connections in this index that are compatible with {@code moving} to
+         * {@code result}.
+         */
+        void collectCompatible(Connection moving, SpatialIndex result) {
+            applyStagedMoves();
+            for (int i = 0; i < mCells.length; i++) {
+                Cell cell = mCells[i];
+                if (cell != null) {
+                    for (int j = 0; j < cell.mCount; j++) {
+                        Connection candidate = cell.mConnections[j];
+                        if (isCompatible(moving, candidate, false)) {
+                            result.addConnection(candidate);
+                        }
+                    }
                 }
             }
-            return pointerMin;
         }
 
         @VisibleForTesting
-        Connection searchForClosest(Connection conn, double maxRadius) {
-            // Don't bother.
-            if (mConnections.isEmpty()) {
-                return null;
+        void getNeighbours(Connection conn, int maxRadius, List<Connection> neighbours) {
+            applyStagedMoves();
+            if (mSize == 0) {
+                return;
             }
+            long maxDistanceSquared = maxDistanceSquared(maxRadius);
+            WorkspacePoint position = conn.getPosition();
+            int x = position.x;
+            int y = position.y;
 
-            int baseY = conn.getPosition().y;
-            // findPositionForConnection finds an index for insertion, which is always after any
-            // block with the same y index.  We want to search both forward and back, so search
-            // on both sides of the index.
-            int closestIndex = findPositionForConnection(conn);
+            gatherSearchCells(x - maxRadius, y - maxRadius, x + maxRadius, y + maxRadius);
+            for (int i = 0; i < mSearchCells.size(); i++) {
+                Cell cell = mSearchCells.get(i);
+                int[] xs = cell.mXs;
+                int[] ys = cell.mYs;
+                for (int j = 0; j < cell.mCount; j++) {
+                    long dx = (long) xs[j] - x;
+                    long dy = (long) ys[j] - y;
+                    if (dx * dx + dy * dy > maxDistanceSquared) {
+                        continue;
+                    }
+                    Connection temp = cell.mConnections[j];
+                    // If both connections are connected, that's probably fine.  But if
+                    // either one of them is unconnected, then there could be confusion.
+                    if ((!conn.isConnected() || !temp.isConnected())
+                            && isCompatible(conn, temp, true)) {
+                        neighbours.add(temp);
+                    }
+                }
+            }
+            mSearchCells.clear();
+        }
 
-            Connection bestConnection = null;
-            double bestRadius = maxRadius;
-
-            // Walk forward and back on the y axis looking for the closest x,y point.
-            int pointerMin = closestIndex - 1;
-            while (pointerMin >= 0 && isInYRange(pointerMin, baseY, maxRadius)) {
-                Connection temp = mConnections.get(pointerMin);
-                if (isConnectionAllowed(conn, temp, bestRadius, false)) {
-                    bestConnection = temp;
-                    bestRadius = temp.distanceFrom(conn);
+        /**
+         * Re-buckets all connections, such as after the cell size changed, and drops empty cells.
+         */
+        void rebuild() {
+            ArrayList<Connection> connections = new ArrayList<>(mSize);
+            for (int i = 0; i < mCells.length; i++) {
+                Cell cell = mCells[i];
+                if (cell != null) {
+                    for (int j = 0; j < cell.mCount; j++) {
+                        connections.add(cell.mConnections[j]);
+                    }
                 }
-                pointerMin--;
             }
+            int tableSize = INITIAL_TABLE_SIZE;
+            while (tableSize < (mCellCount - mEmptyCellCount) * 2) {
+                tableSize *= 2;
+            }
+            resetTable(tableSize);
+            mSize = 0;
+            for (int i = 0; i < connections.size(); i++) {
+                addConnection(connections.get(i));
+            }
+        }
 
-            int pointerMax = closestIndex;
-            while (pointerMax < mConnections.size() && isInYRange(pointerMax, baseY, maxRadius)) {
-                Connection temp = mConnections.get(pointerMax);
-                if (isConnectionAllowed(conn, temp, bestRadius, false)) {
-                    bestConnection = temp;
-                    bestRadius = temp.distanceFrom(conn);
+        /**
+         * Adds the non-empty cells overlapping the given box to {@link #mSearchCells}, in column
+         * order, so the cells of a box within another box are visited in the same relative order.
+         */
+        private void gatherSearchCells(int left, int top, int right, int bottom) {
+            int minX = cellCoordinate(left);
+            int maxX = cellCoordinate(right);
+            int minY = cellCoordinate(top);
+            int maxY = cellCoordinate(bottom);
+            long searchCellCount = (long) (maxX - minX + 1) * (maxY - minY + 1);
+            if (searchCellCount > mCellCount - mEmptyCellCount) {
+                for (int i = 0; i < mCells.length; i++) {
+                    Cell cell = mCells[i];
+                    if (cell != null && cell.mCount > 0) {
+                        mSearchCells.add(cell);
+                    }
                 }
-                pointerMax++;
+                return;
             }
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    Cell cell = getCell(packCellKey(x, y));
+                    if (cell != null && cell.mCount > 0) {
+                        mSearchCells.add(cell);
+                    }
+                }
+            }
+        }
 
-            return bestConnection;
+        /**
+         * Moves a connection from the cell with the given key to the cell of its current
+         * position, adding it if it was not in the index. Connections staged more than once are
+         * only found in their original cell the first time, and are then already in place.
+         */
+        private void relocate(Connection conn, long oldKey) {
+            WorkspacePoint position = conn.getPosition();
+            long newKey = cellKey(position.x, position.y);
+            if (newKey != oldKey) {
+                Cell oldCell = getCell(oldKey);
+                int index = (oldCell == null) ? -1 : oldCell.indexOf(conn);
+                if (index != -1) {
+                    removeFromCell(oldCell, index);
+                }
+            }
+            Cell newCell = getOrCreateCell(newKey);
+            int index = newCell.indexOf(conn);
+            if (index == -1) {
+                if (newCell.mCount == 0) {
+                    --mEmptyCellCount;
+                }
+                newCell.add(conn);
+                ++mSize;
+            } else {
+                newCell.mXs[index] = position.x;
+                newCell.mYs[index] = position.y;
+            }
         }
 
-        @VisibleForTesting
-        void getNeighbours(Connection conn, int maxRadius, List<Connection> neighbours) {
-            // Don't bother.
-            if (mConnections.isEmpty()) {
-                return;
+        private void removeFromCell(Cell cell, int index) {
+            cell.remove(index);
+            --mSize;
+            if (cell.mCount == 0 && ++mEmptyCellCount > MIN_EMPTY_CELLS_TO_COMPACT
+                    && mEmptyCellCount * 2 > mCellCount) {
+                rebuild();
             }
+        }
 
-            int baseY = conn.getPosition().y;
-            // findPositionForConnection finds an index for insertion, which is always after any
-            // block with the same y index.  We want to search both forward and back, so search
-            // on both sides of the index.
-            int closestIndex = findPositionForConnection(conn);
-
-            // Walk forward and back on the y axis looking for the closest x,y point.
-            // If both connections are connected, that's probably fine.  But if
-            // either one of them is unconnected, then there could be confusion.
-            int pointerMin = closestIndex - 1;
-            while (pointerMin >= 0 && isInYRange(pointerMin, baseY, maxRadius)) {
-                Connection temp = mConnections.get(pointerMin);
-                if ((!conn.isConnected() || !temp.isConnected())
-                        && isConnectionAllowed(conn, temp, maxRadius, true)) {
-                    neighbours.add(temp);
+        private Cell getCell(long key) {
+            int mask = mKeys.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                Cell cell = mCells[i];
+                if (cell == null || mKeys[i] == key) {
+                    return cell;
                 }
-                pointerMin--;
             }
+        }
 
-            int pointerMax = closestIndex;
-            while (pointerMax < mConnections.size() && isInYRange(pointerMax, baseY, maxRadius)) {
-                Connection temp = mConnections.get(pointerMax);
-                if ((!conn.isConnected() || !temp.isConnected())
-                        && isConnectionAllowed(conn, temp, maxRadius, true)) {
-                    neighbours.add(temp);
+        private Cell getOrCreateCell(long key) {
+            int mask = mKeys.length - 1;
+            int i = hash(key) & mask;
+            for (; mCells[i] != null; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    return mCells[i];
                 }
-                pointerMax++;
             }
-            return;
+            if ((mCellCount + 1) * 2 > mKeys.length) {
+                // Keep the load factor under 0.5, dropping empty cells while at it.
+                rebuild();
+                if ((mCellCount + 1) * 2 > mKeys.length) {
+                    growTable();
+                }
+                return getOrCreateCell(key);
+            }
+            Cell cell = new Cell();
+            mKeys[i] = key;
+            mCells[i] = cell;
+            ++mCellCount;
+            ++mEmptyCellCount;
+            return cell;
         }
 
-        @VisibleForTesting
-        boolean isEmpty() {
-            return mConnections.isEmpty();
+        private void growTable() {
+            long[] oldKeys = mKeys;
+            Cell[] oldCells = mCells;
+            mKeys = new long[oldKeys.length * 2];
+            mCells = new Cell[oldCells.length * 2];
+            int mask = mKeys.length - 1;
+            for (int j = 0; j < oldCells.length; j++) {
+                if (oldCells[j] != null) {
+                    int i = hash(oldKeys[j]) & mask;
+                    while (mCells[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    mKeys[i] = oldKeys[j];
+                    mCells[i] = oldCells[j];
+                }
+            }
         }
 
-        @VisibleForTesting
-        int size() {
-            return mConnections.size();
+        private void resetTable(int tableSize) {
+            mKeys = new long[tableSize];
+            mCells = new Cell[tableSize];
+            mCellCount = 0;
+            mEmptyCellCount = 0;
         }
 
-        @VisibleForTesting
-        boolean contains(Connection conn) {
-            return findConnection(conn) != -1;
+        private long cellKey(int x, int y) {
+            return packCellKey(cellCoordinate(x), cellCoordinate(y));
         }
 
-        @VisibleForTesting
-        Connection get(int i) {
-            return mConnections.get(i);
+        private int cellCoordinate(int value) {
+            // Rounds towards negative infinity, so cells don't double in size around zero.
+            int cell = value / mCellSize;
+            return (value < 0 && cell * mCellSize != value) ? cell - 1 : cell;
+        }
+    }
+
+    /**
+     * Candidate connections for each connection of a dragged block, filtered for compatibility
+     * when the drag starts so each frame only measures distances.
+     */
+    private final class DragSession {
+        final Block mBlock;
+        final List<Connection> mBlockConnections;
+        // Compatible connections for each block connection, or null for connected ones.
+        final SpatialIndex[] mCandidates;
+
+        DragSession(Block block) {
+            mBlock = block;
+            mBlockConnections = block.getAllConnections();
+            mCandidates = new SpatialIndex[mBlockConnections.size()];
+            for (int i = 0; i < mCandidates.length; i++) {
+                Connection moving = mBlockConnections.get(i);
+                if (!moving.isConnected()) {
+                    mCandidates[i] = new SpatialIndex();
+                    oppositeLists[moving.getType()].collectCompatible(moving, mCandidates[i]);
+                }
+            }
+        }
+
+        void addConnection(Connection conn) {
+            for (int i = 0; i < mCandidates.length; i++) {
+                Connection moving = mBlockConnections.get(i);
+                if (mCandidates[i] != null && oppositeLists[moving.getType()]
+                        == matchingLists[conn.getType()] && isCompatible(moving, conn, false)) {
+                    mCandidates[i].addConnection(conn);
+                }
+            }
+        }
+
+        void removeConnection(Connection conn) {
+            for (int i = 0; i < mCandidates.length; i++) {
+                if (mCandidates[i] != null) {
+                    mCandidates[i].removeConnection(conn);
+                }
+            }
+        }
+
+        /**
+         * Same as {@link ConnectionManager#findBestConnection(Block, int, Candidate)} for the
+         * dragged block, using the prefiltered candidates.
+         */
+        Candidate findBestConnection(int radiusConnectionWS, Candidate result) {
+            mSweep.reset(radiusConnectionWS);
+            for (int i = 0; i < mCandidates.length; i++) {
+                if (mCandidates[i] != null) {
+                    mSweep.clearSearchers();
+                    mSweep.addSearcher(i, mBlockConnections.get(i));
+                    mCandidates[i].sweep(mSweep, false);
+                }
+            }
+            return mSweep.finish(mBlockConnections, result);
+        }
+    }
+
+    /**
+     * The connections searching an index in one {@link SpatialIndex#sweep} and the best pair found
+     * by the sweeps so far.
+     */
+    private static final class Sweep {
+        Connection[] mSearchers = new Connection[8];
+        int[] mIndices = new int[8];
+        int[] mXs = new int[8];
+        int[] mYs = new int[8];
+        int mSearcherCount;
+
+        long mBestDistanceSquared;
+        int mBestIndex;
+        Connection mBestTarget;
+        // Number of distances measured, only counted when metrics are enabled.
+        int mExamined;
+
+        void reset(double maxRadius) {
+            mExamined = 0;
+            mBestDistanceSquared = maxDistanceSquared(maxRadius);
+            mBestIndex = -1;
+            mBestTarget = null;
+        }
+
+        void clearSearchers() {
+            for (int i = 0; i < mSearcherCount; i++) {
+                mSearchers[i] = null;
+            }
+            mSearcherCount = 0;
+        }
+
+        /**
+         * @param index The position of the connection in the list passed to {@link #finish}.
+         * @param conn The connection to search with.
+         */
+        void addSearcher(int index, Connection conn) {
+            if (mSearcherCount == mSearchers.length) {
+                int size = mSearcherCount * 2;
+                mSearchers = Arrays.copyOf(mSearchers, size);
+                mIndices = Arrays.copyOf(mIndices, size);
+                mXs = Arrays.copyOf(mXs, size);
+                mYs = Arrays.copyOf(mYs, size);
+            }
+            WorkspacePoint position = conn.getPosition();
+            mSearchers[mSearcherCount] = conn;
+            mIndices[mSearcherCount] = index;
+            mXs[mSearcherCount] = position.x;
+            mYs[mSearcherCount] = position.y;
+            ++mSearcherCount;
+        }
+
+        /**
+         * Stores the best pair in {@code result} and drops references to the searched connections.
+         */
+        Candidate finish(List<Connection> connections, Candidate result) {
+            clearSearchers();
+            Connection target = mBestTarget;
+            mBestTarget = null;
+            if (target == null) {
+                result.set(null, null);
+                return null;
+            }
+            result.set(connections.get(mBestIndex), target);
+            return result;
+        }
+    }
+
+    /**
+     * @return The largest integer squared distance that is within {@code maxRadius}.
+     */
+    private static long maxDistanceSquared(double maxRadius) {
+        return (long) Math.floor(maxRadius * maxRadius);
+    }
+
+    private static long packCellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The connections in one cell of a {@link SpatialIndex}, with their positions in parallel
+     * arrays. Cells hold few connections, so they are searched linearly and removal swaps in the
+     * last connection.
+     */
+    private static final class Cell {
+        Connection[] mConnections = new Connection[4];
+        int[] mXs = new int[4];
+        int[] mYs = new int[4];
+        int mCount;
+
+        int indexOf(Connection conn) {
+            for (int i = 0; i < mCount; i++) {
+                if (mConnections[i] == conn) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void add(Connection conn) {
+            if (mCount == mConnections.length) {
+                mConnections = Arrays.copyOf(mConnections, mCount * 2);
+                mXs = Arrays.copyOf(mXs, mCount * 2);
+                mYs = Arrays.copyOf(mYs, mCount * 2);
+            }
+            WorkspacePoint position = conn.getPosition();
+            mConnections[mCount] = conn;
+            mXs[mCount] = position.x;
+            mYs[mCount] = position.y;
+            ++mCount;
+        }
+
+        void remove(int index) {
+            --mCount;
+            mConnections[index] = mConnections[mCount];
+            mXs[index] = mXs[mCount];
+            mYs[index] = mYs[mCount];
+            mConnections[mCount] = null;
         }
     }
 }
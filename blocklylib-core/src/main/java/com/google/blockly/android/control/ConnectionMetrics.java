@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.model.Connection;
+
+/**
+ * Counters and timers of the work done by a {@link ConnectionManager} to index connections and
+ * find connections to snap to, enabled with
+ * {@link WorkspaceStats#setConnectionMetricsEnabled(boolean)}.
+ * <p/>
+ * Metrics are recorded on the UI thread and may be polled from any thread. Histogram getters
+ * return copies.
+ */
+public class ConnectionMetrics {
+    private static final int CONNECTION_TYPE_COUNT = 4;
+
+    private final int[] mIndexSizes = new int[CONNECTION_TYPE_COUNT];
+    private long mInsertCount;
+    private long mRemoveCount;
+    private long mMoveCount;
+    private final EventDispatchMetrics.Histogram mCandidatesExamined =
+            new EventDispatchMetrics.Histogram();
+    private final EventDispatchMetrics.Histogram mQueryLatency =
+            new EventDispatchMetrics.Histogram();
+
+    ConnectionMetrics() {
+    }
+
+    /**
+     * @param connectionType The connection type, such as {@link Connection#CONNECTION_TYPE_NEXT}.
+     * @return The number of connections of that type in the index when last updated.
+     */
+    public synchronized int getIndexSize(int connectionType) {
+        return mIndexSizes[connectionType];
+    }
+
+    /**
+     * @return The number of connections added to the index.
+     */
+    public synchronized long getInsertCount() {
+        return mInsertCount;
+    }
+
+    /**
+     * @return The number of connections removed from the index.
+     */
+    public synchronized long getRemoveCount() {
+        return mRemoveCount;
+    }
+
+    /**
+     * @return The number of times a connection in the index changed position.
+     */
+    public synchronized long getMoveCount() {
+        return mMoveCount;
+    }
+
+    /**
+     * @return The distribution of the number of connections whose distance was measured by each
+     *         search for a connection to snap to.
+     */
+    public synchronized EventDispatchMetrics.Histogram getCandidatesExamined() {
+        return new EventDispatchMetrics.Histogram(mCandidatesExamined);
+    }
+
+    /**
+     * @return The distribution of the time taken by each search for a connection to snap to, in
+     *         nanoseconds.
+     */
+    public synchronized EventDispatchMetrics.Histogram getQueryLatency() {
+        return new EventDispatchMetrics.Histogram(mQueryLatency);
+    }
+
+    /**
+     * Clears all counters and histograms. Index sizes are kept.
+     */
+    public synchronized void reset() {
+        mInsertCount = mRemoveCount = mMoveCount = 0;
+        mCandidatesExamined.clear();
+        mQueryLatency.clear();
+    }
+
+    synchronized void recordInsert(int connectionType, int indexSize) {
+        ++mInsertCount;
+        mIndexSizes[connectionType] = indexSize;
+    }
+
+    synchronized void recordRemove(int connectionType, int indexSize) {
+        ++mRemoveCount;
+        mIndexSizes[connectionType] = indexSize;
+    }
+
+    synchronized void recordMove() {
+        ++mMoveCount;
+    }
+
+    synchronized void recordIndexSize(int connectionType, int indexSize) {
+        mIndexSizes[connectionType] = indexSize;
+    }
+
+    synchronized void recordQuery(int candidatesExamined, long latencyNanos) {
+        mCandidatesExamined.record(candidatesExamined);
+        mQueryLatency.record(latencyNanos);
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.BlocklyParserException;
+import com.google.blockly.model.Connection;
+import com.google.blockly.model.Field;
+import com.google.blockly.model.Input;
+import com.google.blockly.model.Workspace;
+import com.google.blockly.model.WorkspacePoint;
+import com.google.blockly.utils.BlocklyXmlHelper;
+
+import java.util.List;
+
+/**
+ * Applies {@link BlocklyEvent}s, such as those decoded from another device with
+ * {@link BlocklyEvent#fromJson(String)}, to the workspace of a {@link BlocklyController}.
+ * <p/>
+ * Each call to {@link #applyBatch(List)} is a single transaction: connector locations are updated
+ * and layout is requested once for the whole batch, and the resulting events are fired to the
+ * controller's listeners as one group. Blocks are not bumped while replaying, so the workspace
+ * ends up with the same positions as the source.
+ * <p/>
+ * Events that originated from this workspace are skipped, and listeners wrapped with
+ * {@link #filterEchoes(BlocklyController.EventsCallback)} do not see the events produced by
+ * applying a batch, so they are not sent back to where they came from.
+ */
+public class EventApplier {
+    private static final String TAG = "EventApplier";
+
+    /** Event types that change the workspace and can be applied. */
+    public static final int APPLICABLE_TYPES = BlocklyEvent.TYPE_CREATE
+            | BlocklyEvent.TYPE_DELETE | BlocklyEvent.TYPE_MOVE | BlocklyEvent.TYPE_CHANGE
+            | BlocklyEvent.TYPE_VAR_RENAME;
+
+    private final BlocklyController mController;
+    private final Workspace mWorkspace;
+    private final BlockFactory mBlockFactory;
+    private final boolean mTrashDeletedBlocks;
+
+    private final WorkspacePoint mTempPoint = new WorkspacePoint();
+
+    // True while a batch is applied, including when its events are fired.
+    private boolean mApplying = false;
+
+    /**
+     * Creates an applier for the given controller. Deleted blocks are removed without being added
+     * to the trash.
+     *
+     * @param controller The controller of the workspace to apply events to.
+     */
+    public EventApplier(BlocklyController controller) {
+        this(controller, false);
+    }
+
+    /**
+     * @param controller The controller of the workspace to apply events to.
+     * @param trashDeletedBlocks Whether deleted root blocks are moved to the trash.
+     */
+    EventApplier(BlocklyController controller, boolean trashDeletedBlocks) {
+        mController = controller;
+        mWorkspace = controller.getWorkspace();
+        mBlockFactory = controller.getBlockFactory();
+        mTrashDeletedBlocks = trashDeletedBlocks;
+    }
+
+    /**
+     * Applies a batch of events in order as a single transaction. UI events, events of other types
+     * not in {@link #APPLICABLE_TYPES} and events from this workspace are skipped. Events that
+     * refer to missing blocks or connections are logged and skipped.
+     * <p/>
+     * Events are recognized as coming from this workspace by their workspace id, which both
+     * {@link BlocklyEvent#toJsonString()} and {@link BinaryEventCodec} carry over the wire.
+     *
+     * @param events The events to apply.
+     * @return The number of events applied.
+     */
+    public int applyBatch(List<BlocklyEvent> events) {
+        if (mApplying) {
+            throw new IllegalStateException("Cannot apply a batch from an echoed event.");
+        }
+        String localWorkspaceId = mWorkspace.getId();
+        int applied = 0;
+        mApplying = true;
+        mController.startDeferredUpdates();
+        try {
+            int count = events.size();
+            for (int i = 0; i < count; ++i) {
+                BlocklyEvent event = events.get(i);
+                if ((event.getTypeId() & APPLICABLE_TYPES) == 0
+                        || localWorkspaceId.equals(event.getWorkspaceId())) {
+                    continue;
+                }
+                applyEvent(event);
+                ++applied;
+            }
+        } finally {
+            try {
+                mController.finishDeferredUpdates();
+            } finally {
+                mApplying = false;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * @return True while a batch is being applied, including while its events are fired.
+     */
+    public boolean isApplying() {
+        return mApplying;
+    }
+
+    /**
+     * Wraps a callback so it is not called for the events produced by {@link #applyBatch(List)},
+     * such as a callback that sends local events to other devices.
+     *
+     * @param callback The callback to wrap.
+     * @return The callback to register with the controller.
+     */
+    public BlocklyController.EventsCallback filterEchoes(
+            final BlocklyController.EventsCallback callback) {
+        return new BlocklyController.EventsCallback() {
+            @Override
+            public int getTypesBitmask() {
+                return callback.getTypesBitmask();
+            }
+
+            @Override
+            public void onEventGroup(List<BlocklyEvent> events) {
+                if (!mApplying) {
+                    callback.onEventGroup(events);
+                }
+            }
+        };
+    }
+
+    /**
+     * Applies the state of the workspace from after {@code event}.
+     */
+    void applyEvent(BlocklyEvent event) {
+        switch (event.getTypeId()) {
+            case BlocklyEvent.TYPE_CREATE:
+                restoreBlock(event.getBlockId(), ((BlocklyEvent.CreateEvent) event).getXml());
+                break;
+            case BlocklyEvent.TYPE_DELETE:
+                removeBlock(event.getBlockId(), mTrashDeletedBlocks);
+                break;
+            case BlocklyEvent.TYPE_MOVE: {
+                BlocklyEvent.MoveEvent move = (BlocklyEvent.MoveEvent) event;
+                moveBlock(move.getBlockId(), move.getNewParentId(), move.getNewInputName(),
+                        move.getNewWorkspacePosition(mTempPoint) ? mTempPoint : null);
+                break;
+            }
+            case BlocklyEvent.TYPE_CHANGE: {
+                BlocklyEvent.ChangeEvent change = (BlocklyEvent.ChangeEvent) event;
+                changeBlock(change, change.getNewValue());
+                break;
+            }
+            case BlocklyEvent.TYPE_VAR_RENAME: {
+                BlocklyEvent.VarRenameEvent rename = (BlocklyEvent.VarRenameEvent) event;
+                renameVariable(rename.getOldName(), rename.getNewName());
+                break;
+            }
+        }
+    }
+
+    /**
+     * Restores the state of the workspace from before {@code event}.
+     */
+    void revertEvent(BlocklyEvent event) {
+        switch (event.getTypeId()) {
+            case BlocklyEvent.TYPE_CREATE:
+                removeBlock(event.getBlockId(), false);
+                break;
+            case BlocklyEvent.TYPE_DELETE:
+                restoreBlock(event.getBlockId(), ((BlocklyEvent.DeleteEvent) event).getXml());
+                break;
+            case BlocklyEvent.TYPE_MOVE: {
+                BlocklyEvent.MoveEvent move = (BlocklyEvent.MoveEvent) event;
+                moveBlock(move.getBlockId(), move.getOldParentId(), move.getOldInputName(),
+                        move.getOldWorkspacePosition(mTempPoint) ? mTempPoint : null);
+                break;
+            }
+            case BlocklyEvent.TYPE_CHANGE: {
+                BlocklyEvent.ChangeEvent change = (BlocklyEvent.ChangeEvent) event;
+                changeBlock(change, change.getOldValue());
+                break;
+            }
+            case BlocklyEvent.TYPE_VAR_RENAME: {
+                BlocklyEvent.VarRenameEvent rename = (BlocklyEvent.VarRenameEvent) event;
+                renameVariable(rename.getNewName(), rename.getOldName());
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return The block with the given id, if it is currently part of the workspace.
+     */
+    @Nullable
+    private Block findWorkspaceBlock(String blockId) {
+        Block block = mBlockFactory.getBlockById(blockId);
+        if (block == null || !mWorkspace.isRootBlock(block.getRootBlock())) {
+            return null;
+        }
+        return block;
+    }
+
+    /**
+     * Adds a block tree back to the workspace as a root block. The original block instance is
+     * reused when it still exists, so it keeps its identity and id. Otherwise it is rebuilt from
+     * {@code xml}.
+     */
+    private void restoreBlock(String blockId, String xml) {
+        Block block = mBlockFactory.getBlockById(blockId);
+        if (block != null) {
+            if (mWorkspace.isRootBlock(block.getRootBlock())) {
+                return;  // Already restored, such as a shadow recreated by a move.
+            }
+            if (block.getParentBlock() != null) {
+                Log.w(TAG, "Cannot restore block " + blockId + " attached to a removed block.");
+                return;
+            }
+            if (mWorkspace.getTrashContents().contains(block)) {
+                mController.addBlockFromTrash(block);
+            } else {
+                mController.addRootBlock(block);
+            }
+            return;
+        }
+
+        if (TextUtils.isEmpty(xml)) {
+            Log.w(TAG, "No XML to restore block " + blockId);
+            return;
+        }
+        try {
+            mController.addRootBlock(BlocklyXmlHelper.loadOneBlockFromXml(xml, mBlockFactory));
+        } catch (BlocklyParserException | IllegalArgumentException e) {
+            Log.w(TAG, "Failed to restore block " + blockId, e);
+        }
+    }
+
+    /**
+     * Removes a block tree from the workspace, if present.
+     *
+     * @param toTrash Whether a non-shadow root block should be moved to the trash.
+     */
+    private void removeBlock(String blockId, boolean toTrash) {
+        Block block = findWorkspaceBlock(blockId);
+        if (block == null) {
+            return;
+        }
+        if (toTrash && block.getParentBlock() == null && !block.isShadow()) {
+            mController.trashRootBlockIgnoringDeletable(block);
+        } else {
+            mController.removeBlockTree(block);
+        }
+    }
+
+    /**
+     * Connects a block to the given parent input (or next connection if {@code inputName} is null)
+     * or, when {@code parentId} is null, moves it to {@code position} as a root block.
+     */
+    private void moveBlock(String blockId, @Nullable String parentId, @Nullable String inputName,
+                           @Nullable WorkspacePoint position) {
+        Block block = findWorkspaceBlock(blockId);
+        if (block == null) {
+            return;
+        }
+        if (parentId != null) {
+            Block parent = findWorkspaceBlock(parentId);
+            if (parent == null) {
+                return;
+            }
+            Connection target;
+            if (inputName != null) {
+                Input input = parent.getInputByName(inputName);
+                target = (input == null) ? null : input.getConnection();
+            } else {
+                target = parent.getNextConnection();
+            }
+            if (target == null) {
+                Log.w(TAG, "Missing connection " + inputName + " on block " + parentId);
+                return;
+            }
+            if (block.getParentConnection() == target) {
+                return;
+            }
+            Connection blockConnection = (target.getType() == Connection.CONNECTION_TYPE_INPUT)
+                    ? block.getOutputConnection() : block.getPreviousConnection();
+            if (blockConnection == null) {
+                Log.w(TAG, "Block " + blockId + " cannot connect to " + parentId);
+                return;
+            }
+            if (block.getParentBlock() != null) {
+                mController.extractBlockAsRoot(block);
+            }
+            mController.connect(blockConnection, target);
+        } else if (position != null) {
+            if (block.getParentBlock() != null) {
+                mController.extractBlockAsRoot(block);
+            }
+            mController.setRootBlockPosition(block, position.x, position.y);
+        }
+    }
+
+    private void changeBlock(BlocklyEvent.ChangeEvent change, String value) {
+        Block block = findWorkspaceBlock(change.getBlockId());
+        if (block == null) {
+            return;
+        }
+        switch (change.getElement()) {
+            case BlocklyEvent.ELEMENT_FIELD:
+                Field field = block.getFieldByName(change.getFieldName());
+                if (field != null) {
+                    field.setFromString(value);
+                }
+                break;
+            case BlocklyEvent.ELEMENT_COLLAPSED:
+                block.setCollapsed(Boolean.parseBoolean(value));
+                break;
+            case BlocklyEvent.ELEMENT_COMMENT:
+                block.setComment(value);
+                break;
+            case BlocklyEvent.ELEMENT_DISABLED:
+                block.setDisabled(Boolean.parseBoolean(value));
+                break;
+            case BlocklyEvent.ELEMENT_INLINE:
+                block.setInputsInline(Boolean.parseBoolean(value));
+                break;
+            default:
+                Log.w(TAG, "Unsupported change element: " + change.getElement());
+                break;
+        }
+    }
+
+    /**
+     * Renames a variable and every field referencing it, if the variable exists.
+     */
+    private void renameVariable(String oldName, String newName) {
+        if (!mWorkspace.getVariableNameManager().contains(oldName)) {
+            Log.w(TAG, "Cannot rename missing variable " + oldName);
+            return;
+        }
+        mController.renameVariable(oldName, newName);
+    }
+}
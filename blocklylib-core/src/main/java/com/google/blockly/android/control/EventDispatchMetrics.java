@@ -0,0 +1,249 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Metrics of how {@link BlocklyController} delivers events to its
+ * {@link BlocklyController.EventsCallback}s, enabled with
+ * {@link BlocklyController#setDispatchMetricsEnabled(boolean)}.
+ * <p/>
+ * Events are recorded on the UI thread and may be polled from any thread. All getters return
+ * copies, so telemetry can read them without racing the next dispatch.
+ */
+public class EventDispatchMetrics {
+    private final IdentityHashMap<BlocklyController.EventsCallback, ListenerMetrics> mListeners =
+            new IdentityHashMap<>();
+    private final Histogram mQueueDepth = new Histogram();
+    private final Histogram mDeliveryLatency = new Histogram();
+
+    EventDispatchMetrics() {
+    }
+
+    /**
+     * @return The metrics of each listener that has received events, in no particular order.
+     */
+    public synchronized List<ListenerMetrics> getListenerMetrics() {
+        List<ListenerMetrics> result = new ArrayList<>(mListeners.size());
+        for (ListenerMetrics metrics : mListeners.values()) {
+            result.add(new ListenerMetrics(metrics));
+        }
+        return result;
+    }
+
+    /**
+     * @return The distribution of the number of pending events fired in each group.
+     */
+    public synchronized Histogram getQueueDepth() {
+        return new Histogram(mQueueDepth);
+    }
+
+    /**
+     * @return The distribution of the time from the first event of a group being recorded to the
+     *         group being delivered to each listener, in nanoseconds.
+     */
+    public synchronized Histogram getDeliveryLatency() {
+        return new Histogram(mDeliveryLatency);
+    }
+
+    /**
+     * Clears all recorded metrics.
+     */
+    public synchronized void reset() {
+        mListeners.clear();
+        mQueueDepth.clear();
+        mDeliveryLatency.clear();
+    }
+
+    synchronized void recordQueueDepth(int eventCount) {
+        mQueueDepth.record(eventCount);
+    }
+
+    /**
+     * Records the delivery of one event group to a listener.
+     *
+     * @param listener The listener that received the group.
+     * @param eventCount The number of events in the group.
+     * @param firstEventNanos When the first event of the group was recorded.
+     * @param startNanos When the listener was called.
+     * @param endNanos When the listener returned.
+     */
+    synchronized void recordDispatch(BlocklyController.EventsCallback listener, int eventCount,
+                                     long firstEventNanos, long startNanos, long endNanos) {
+        ListenerMetrics metrics = mListeners.get(listener);
+        if (metrics == null) {
+            metrics = new ListenerMetrics(listener.getClass().getName());
+            mListeners.put(listener, metrics);
+        }
+        ++metrics.mGroupCount;
+        metrics.mEventCount += eventCount;
+        metrics.mDispatchTime.record(endNanos - startNanos);
+        mDeliveryLatency.record(startNanos - firstEventNanos);
+    }
+
+    /**
+     * The events delivered to one listener and the time it spent handling them.
+     */
+    public static final class ListenerMetrics {
+        private final String mName;
+        private final Histogram mDispatchTime;
+        private long mGroupCount;
+        private long mEventCount;
+
+        private ListenerMetrics(String name) {
+            mName = name;
+            mDispatchTime = new Histogram();
+        }
+
+        private ListenerMetrics(ListenerMetrics other) {
+            mName = other.mName;
+            mDispatchTime = new Histogram(other.mDispatchTime);
+            mGroupCount = other.mGroupCount;
+            mEventCount = other.mEventCount;
+        }
+
+        /**
+         * @return The class name of the listener.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return The number of event groups delivered to the listener.
+         */
+        public long getGroupCount() {
+            return mGroupCount;
+        }
+
+        /**
+         * @return The total number of events in all groups delivered to the listener.
+         */
+        public long getEventCount() {
+            return mEventCount;
+        }
+
+        /**
+         * @return The distribution of the time spent in each call to the listener, in
+         *         nanoseconds.
+         */
+        public Histogram getDispatchTime() {
+            return mDispatchTime;
+        }
+    }
+
+    /**
+     * A histogram of non-negative values with power of two buckets, so recording never allocates.
+     * Percentiles are accurate to within a factor of two, which is enough to tell a 1ms listener
+     * from a 10ms one.
+     */
+    public static final class Histogram {
+        // Bucket i holds values with i significant bits, i.e. in [2^(i-1), 2^i).
+        private static final int BUCKET_COUNT = 65;
+
+        private final long[] mBuckets = new long[BUCKET_COUNT];
+        private long mCount;
+        private long mTotal;
+        private long mMax;
+
+        Histogram() {
+        }
+
+        Histogram(Histogram other) {
+            System.arraycopy(other.mBuckets, 0, mBuckets, 0, BUCKET_COUNT);
+            mCount = other.mCount;
+            mTotal = other.mTotal;
+            mMax = other.mMax;
+        }
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;  // nanoTime() is monotonic, but guard against clock misuse.
+            }
+            ++mBuckets[64 - Long.numberOfLeadingZeros(value)];
+            ++mCount;
+            mTotal += value;
+            if (value > mMax) {
+                mMax = value;
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                mBuckets[i] = 0;
+            }
+            mCount = mTotal = mMax = 0;
+        }
+
+        /**
+         * @return The number of recorded values.
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return The sum of all recorded values.
+         */
+        public long getTotal() {
+            return mTotal;
+        }
+
+        /**
+         * @return The largest recorded value, or 0 if none.
+         */
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * @return The mean of the recorded values, or 0 if none.
+         */
+        public double getMean() {
+            return mCount == 0 ? 0 : (double) mTotal / mCount;
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket that contains it, capped by the
+         * largest recorded value.
+         *
+         * @param percentile The percentile, from 0 to 100.
+         * @return The estimated value, or 0 if nothing was recorded.
+         */
+        public long getPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+            }
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    long upperBound = (i == 0) ? 0
+                            : (i == 64) ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upperBound, mMax);
+                }
+            }
+            return mMax;
+        }
+    }
+}
@@ -18,18 +18,23 @@ package com.google.blockly.android.control;
 import android.database.DataSetObservable;
 import android.support.v4.util.SimpleArrayMap;
 
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Utility functions for handling variable and procedure names.
  */
 public abstract class NameManager extends DataSetObservable {
-    // Regular expression with two groups.  The first lazily looks for any sequence of characters
-    // and the second looks for one or more numbers.  So foo2 -> (foo, 2).  f222 -> (f, 222).
-    private static final Pattern mRegEx = Pattern.compile("^(.*?)(\\d+)$");
+    // Numeric suffixes at or above this are not indexed, to bound the size of each BitSet.
+    private static final int MAX_INDEXED_SUFFIX = 1 << 16;
+
     protected final SimpleArrayMap<String, String> mUsedNames;
+    // Maps the base of each used name that ends in a number to the numbers in use with that base.
+    // A name is split into a base and the longest run of trailing digits, so foo2 -> (foo, 2) and
+    // f222 -> (f, 222). Only numbers without leading zeros are indexed, as those are the only ones
+    // generateUniqueName() creates.
+    private final HashMap<String, BitSet> mUsedSuffixes = new HashMap<>();
 
     public NameManager() {
         mUsedNames = new SimpleArrayMap<>();
@@ -45,19 +50,21 @@ public abstract class NameManager extends DataSetObservable {
      * @return A unique name.
      */
     public String generateUniqueName(String name, boolean addName) {
-        while (mUsedNames.containsKey(name.toLowerCase())) {
-            Matcher matcher = mRegEx.matcher(name);
-            if (matcher.matches()) {
-                name = matcher.group(1) + (Integer.parseInt(matcher.group(2)) + 1);
+        name = name.toLowerCase();
+        if (mUsedNames.containsKey(name)) {
+            int digitsStart = getSuffixStart(name);
+            if (digitsStart == name.length()) {
+                name = findUnusedName(name, 2);
             } else {
-                name = name + "2";
+                name = findUnusedName(name.substring(0, digitsStart),
+                        Integer.parseInt(name.substring(digitsStart)) + 1);
             }
         }
         if (addName) {
-            mUsedNames.put(name.toLowerCase(), "UNUSED");
+            putName(name);
             notifyChanged();
         }
-        return name.toLowerCase();
+        return name;
     }
 
     /**
@@ -104,7 +111,7 @@ public abstract class NameManager extends DataSetObservable {
      * @param name The name to add.
      */
     public void addName(String name) {
-        if (mUsedNames.put(name.toLowerCase(), "UNUSED") == null) {
+        if (putName(name.toLowerCase())) {
             notifyChanged();
         }
     }
@@ -122,6 +129,7 @@ public abstract class NameManager extends DataSetObservable {
     public void clearUsedNames() {
         if (mUsedNames.size() != 0) {
             mUsedNames.clear();
+            mUsedSuffixes.clear();
             notifyChanged();
         }
     }
@@ -132,14 +140,90 @@ public abstract class NameManager extends DataSetObservable {
      * @param toRemove The name to remove.
      */
     public boolean remove(String toRemove) {
-        String result = mUsedNames.remove(toRemove.toLowerCase());
+        toRemove = toRemove.toLowerCase();
+        String result = mUsedNames.remove(toRemove);
         if (result != null) {
+            int digitsStart = getSuffixStart(toRemove);
+            int suffix = parseIndexedSuffix(toRemove, digitsStart);
+            if (suffix >= 0) {
+                BitSet suffixes = mUsedSuffixes.get(toRemove.substring(0, digitsStart));
+                if (suffixes != null) {
+                    suffixes.clear(suffix);
+                }
+            }
             notifyChanged();
             return true;
         }
         return false;
     }
 
+    /**
+     * Adds a lowercase name to the used names and indexes its numeric suffix, if any. Does not
+     * notify observers.
+     *
+     * @return True if the name was not already used.
+     */
+    private boolean putName(String name) {
+        if (mUsedNames.put(name, "UNUSED") != null) {
+            return false;
+        }
+        int digitsStart = getSuffixStart(name);
+        int suffix = parseIndexedSuffix(name, digitsStart);
+        if (suffix >= 0) {
+            String base = name.substring(0, digitsStart);
+            BitSet suffixes = mUsedSuffixes.get(base);
+            if (suffixes == null) {
+                suffixes = new BitSet();
+                mUsedSuffixes.put(base, suffixes);
+            }
+            suffixes.set(suffix);
+        }
+        return true;
+    }
+
+    /**
+     * @return The first unused name made of {@code base} followed by a number of at least
+     *         {@code firstSuffix}.
+     */
+    private String findUnusedName(String base, int firstSuffix) {
+        int suffix = firstSuffix;
+        BitSet suffixes = mUsedSuffixes.get(base);
+        if (suffixes != null && suffix < MAX_INDEXED_SUFFIX) {
+            suffix = suffixes.nextClearBit(suffix);
+        }
+        // Only needed past the indexed range, or if names were added through getUsedNames().
+        String name = base + suffix;
+        while (mUsedNames.containsKey(name)) {
+            name = base + (++suffix);
+        }
+        return name;
+    }
+
+    /**
+     * @return The index of the first of the trailing digits of the name, or its length if it does
+     *         not end in a digit.
+     */
+    private static int getSuffixStart(String name) {
+        int start = name.length();
+        while (start > 0 && name.charAt(start - 1) >= '0' && name.charAt(start - 1) <= '9') {
+            --start;
+        }
+        return start;
+    }
+
+    /**
+     * @return The number formed by the trailing digits of the name, or -1 if there are none, they
+     *         have a leading zero or the number is too large to be indexed.
+     */
+    private static int parseIndexedSuffix(String name, int digitsStart) {
+        int length = name.length() - digitsStart;
+        if (length == 0 || length > 5 || (length > 1 && name.charAt(digitsStart) == '0')) {
+            return -1;
+        }
+        int suffix = Integer.parseInt(name.substring(digitsStart));
+        return suffix < MAX_INDEXED_SUFFIX ? suffix : -1;
+    }
+
     public static final class ProcedureNameManager extends NameManager {
 
         @Override
@@ -152,6 +236,9 @@ public abstract class NameManager extends DataSetObservable {
     public static final class VariableNameManager extends NameManager {
         private static final String LETTERS = "ijkmnopqrstuvwxyzabcdefgh"; // no 'l', start at i.
         private String mVariablePrefix;
+        // Every letter is used with each suffix below this one, so generateVariableName() starts
+        // here. Lowered again when a name is removed.
+        private int mFirstFreeSuffix = 1;
 
         @Override
         public String generateExternalName(Set<String> reservedWords, String baseName) {
@@ -181,7 +268,7 @@ public abstract class NameManager extends DataSetObservable {
          */
         public String generateVariableName(boolean addName) {
             String newName;
-            int suffix = 1;
+            int suffix = mFirstFreeSuffix;
             while (true) {
                 for (int i = 0; i < LETTERS.length(); i++) {
                     newName = Character.toString(LETTERS.charAt(i));
@@ -190,14 +277,40 @@ public abstract class NameManager extends DataSetObservable {
                     }
                     if (!mUsedNames.containsKey(newName)) {
                         if (addName) {
-                            mUsedNames.put(newName, "UNUSED");
-                            notifyChanged();
+                            addName(newName);
                         }
                         return newName;
                     }
                 }
                 suffix++;
+                mFirstFreeSuffix = suffix;
             }
         }
+
+        @Override
+        public boolean remove(String toRemove) {
+            if (!super.remove(toRemove)) {
+                return false;
+            }
+            // Names generated by generateVariableName() are a letter followed by no suffix or a
+            // suffix of at least 2.
+            toRemove = toRemove.toLowerCase();
+            if (!toRemove.isEmpty() && LETTERS.indexOf(toRemove.charAt(0)) >= 0) {
+                int suffix = 1;
+                if (toRemove.length() > 1) {
+                    suffix = getSuffixStart(toRemove) == 1 ? parseIndexedSuffix(toRemove, 1) : -1;
+                }
+                if (suffix >= 1 && suffix < mFirstFreeSuffix) {
+                    mFirstFreeSuffix = suffix;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void clearUsedNames() {
+            super.clearUsedNames();
+            mFirstFreeSuffix = 1;
+        }
     }
 }
@@ -15,24 +15,53 @@
 
 package com.google.blockly.android.control;
 
+import android.support.annotation.IntDef;
+import android.support.annotation.Nullable;
 import android.support.v4.util.SimpleArrayMap;
 
 import com.google.blockly.model.Block;
 import com.google.blockly.model.Field;
 import com.google.blockly.model.FieldInput;
+import com.google.blockly.model.Input;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Manages procedure definitions, references and names.
+ * <p/>
+ * Block types are classified once per type, and the position of a type's name field is
+ * remembered, so classifying a block and reading its procedure name do not search its fields.
+ * Definitions and references are indexed in both directions: from a procedure name to its
+ * definition and call blocks, and from each call block to the name it calls. Which definition
+ * contains each call block is not tracked; see {@link #findRecursion(String)}.
  */
 public class ProcedureManager {
     public static final String PROCEDURE_DEFINITION_PREFIX = "procedure_def";
     public static final String PROCEDURE_REFERENCE_PREFIX = "procedure_call";
 
+    public static final int KIND_NONE = 0;
+    public static final int KIND_DEFINITION = 1;
+    public static final int KIND_REFERENCE = 2;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({KIND_NONE, KIND_DEFINITION, KIND_REFERENCE})
+    public @interface BlockKind {}
+
+    private static final String NAME_FIELD = "name";
+
     private final SimpleArrayMap<String, List<Block>> mProcedureReferences = new SimpleArrayMap<>();
     private final SimpleArrayMap<String, Block> mProcedureDefinitions = new SimpleArrayMap<>();
+    // Reverse indexes of the two maps above, by block identity.
+    private final IdentityHashMap<Block, String> mReferencedNames = new IdentityHashMap<>();
+    private final IdentityHashMap<Block, String> mDefinedNames = new IdentityHashMap<>();
+    private final HashMap<String, TypeInfo> mTypeInfo = new HashMap<>();
     private final NameManager mProcedureNameManager = new NameManager.ProcedureNameManager();
 
 
@@ -40,6 +69,24 @@ public class ProcedureManager {
         return mProcedureReferences.get(functionName);
     }
 
+    /**
+     * @param reference A block calling a procedure.
+     * @return The definition of the procedure called by the block, or null if the block is not a
+     *         known reference.
+     */
+    @Nullable
+    public Block getDefinition(Block reference) {
+        String procedureName = mReferencedNames.get(reference);
+        return procedureName == null ? null : mProcedureDefinitions.get(procedureName);
+    }
+
+    /**
+     * @return The number of procedures defined.
+     */
+    public int getProcedureCount() {
+        return mProcedureDefinitions.size();
+    }
+
     public boolean containsDefinition(Block block) {
         return mProcedureDefinitions.containsKey(getProcedureName(block));
     }
@@ -50,13 +97,26 @@ public class ProcedureManager {
      * @return True if the block is referenced one or more times.
      */
     public boolean hasReferences(Block block) {
-        return (mProcedureReferences.get(getProcedureName(block)) != null
-                && !mProcedureReferences.get(getProcedureName(block)).isEmpty());
+        List<Block> references = mProcedureReferences.get(getProcedureName(block));
+        return references != null && !references.isEmpty();
+    }
+
+    /**
+     * Classifies a block by its type. Each type is classified once.
+     *
+     * @param block The block to classify.
+     * @return {@link #KIND_DEFINITION}, {@link #KIND_REFERENCE} or {@link #KIND_NONE}.
+     */
+    @BlockKind
+    public int getBlockKind(Block block) {
+        return getTypeInfo(block.getType()).mKind;
     }
 
     public void clear() {
         mProcedureDefinitions.clear();
         mProcedureReferences.clear();
+        mReferencedNames.clear();
+        mDefinedNames.clear();
         mProcedureNameManager.clearUsedNames();
     }
 
@@ -71,6 +131,7 @@ public class ProcedureManager {
         String procedureName = getProcedureName(block);
         if (mProcedureReferences.containsKey(procedureName)) {
             mProcedureReferences.get(procedureName).add(block);
+            mReferencedNames.put(block, procedureName);
         } else {
             throw new IllegalStateException(
                     "Tried to add a reference to a procedure that has not been defined.");
@@ -85,7 +146,10 @@ public class ProcedureManager {
      * @throws IllegalStateException if the referenced procedure has not been defined..
      */
     public void removeReference(Block block) {
-        String procedureName = getProcedureName(block);
+        String procedureName = mReferencedNames.remove(block);
+        if (procedureName == null) {
+            procedureName = getProcedureName(block);
+        }
         if (mProcedureReferences.containsKey(procedureName)) {
             mProcedureReferences.get(procedureName).remove(block);
         } else {
@@ -94,6 +158,15 @@ public class ProcedureManager {
         }
     }
 
+    /**
+     * @param block A block that may be a procedure definition or reference.
+     * @return True if the block was added with {@link #addDefinition(Block)} or
+     *         {@link #addReference(Block)} and not removed since.
+     */
+    public boolean isTracked(Block block) {
+        return mDefinedNames.containsKey(block) || mReferencedNames.containsKey(block);
+    }
+
     /**
      * Adds a block containing a procedure definition to the managed list.  If a procedure
      * by that name is already defined, creates a new unique name for the procedure and renames the
@@ -112,6 +185,7 @@ public class ProcedureManager {
         }
         mProcedureDefinitions.put(procedureName, block);
         mProcedureReferences.put(procedureName, new ArrayList<Block>());
+        mDefinedNames.put(block, procedureName);
         mProcedureNameManager.addName(procedureName);
     }
 
@@ -124,11 +198,17 @@ public class ProcedureManager {
      * @return A list of Blocks that referred to the procedure defined by block.
      */
     public List<Block> removeDefinition(Block block) {
-        String procedureName = getProcedureName(block);
+        String procedureName = mDefinedNames.remove(block);
+        if (procedureName == null) {
+            procedureName = getProcedureName(block);
+        }
         if (mProcedureDefinitions.containsKey(procedureName)) {
             List<Block> retval = mProcedureReferences.get(procedureName);
+            for (int i = 0; i < retval.size(); i++) {
+                mReferencedNames.remove(retval.get(i));
+            }
             mProcedureReferences.remove(procedureName);
-            mProcedureDefinitions.remove(procedureName);
+            mDefinedNames.remove(mProcedureDefinitions.remove(procedureName));
             mProcedureNameManager.remove(procedureName);
             return retval;
         } else {
@@ -137,6 +217,101 @@ public class ProcedureManager {
         }
     }
 
+    /**
+     * Renames a procedure, updating the name field of its definition and of every reference to it.
+     * Only the definition and its references are visited.
+     *
+     * @param oldName The current name of the procedure.
+     * @param newName The new name of the procedure.
+     * @throws IllegalArgumentException If there is no procedure named {@code oldName}, or the new
+     *         name is already used.
+     */
+    public void renameProcedure(String oldName, String newName) {
+        Block definition = mProcedureDefinitions.get(oldName);
+        if (definition == null) {
+            throw new IllegalArgumentException("No procedure named \"" + oldName + "\".");
+        }
+        if (oldName.equals(newName)) {
+            return;
+        }
+        if (mProcedureDefinitions.containsKey(newName)) {
+            throw new IllegalArgumentException("Procedure \"" + newName + "\" already exists.");
+        }
+        List<Block> references = mProcedureReferences.remove(oldName);
+        mProcedureDefinitions.remove(oldName);
+        mProcedureNameManager.remove(oldName);
+
+        mProcedureDefinitions.put(newName, definition);
+        mProcedureReferences.put(newName, references);
+        mDefinedNames.put(definition, newName);
+        mProcedureNameManager.addName(newName);
+        setProcedureName(definition, newName);
+        for (int i = 0; i < references.size(); i++) {
+            Block reference = references.get(i);
+            mReferencedNames.put(reference, newName);
+            setProcedureName(reference, newName);
+        }
+    }
+
+    /**
+     * Finds a chain of calls that leads from a procedure back to itself. A call belongs to the
+     * definition at the root of its block tree when this is called, so calls may be moved between
+     * definitions without updating the manager. This is a full rebuild on demand: the graph of
+     * which procedures each definition calls is recomputed on every call, by walking from each
+     * tracked reference to the root of its block tree, and is not cached.
+     *
+     * @param procedureName The name of the procedure to check.
+     * @return The names of the procedures along the cycle, starting and ending with
+     *         {@code procedureName}, or an empty list if the procedure is not recursive.
+     */
+    public List<String> findRecursion(String procedureName) {
+        if (!mProcedureDefinitions.containsKey(procedureName)) {
+            return Collections.emptyList();
+        }
+        // Callees of each definition, found from the enclosing definition of each reference.
+        HashMap<String, List<String>> callees = new HashMap<>();
+        for (Map.Entry<Block, String> entry : mReferencedNames.entrySet()) {
+            String callerName = mDefinedNames.get(entry.getKey().getRootBlock());
+            if (callerName != null) {
+                List<String> names = callees.get(callerName);
+                if (names == null) {
+                    names = new ArrayList<>();
+                    callees.put(callerName, names);
+                }
+                names.add(entry.getValue());
+            }
+        }
+
+        // Depth first search, remembering how each procedure was reached.
+        HashMap<String, String> reachedFrom = new HashMap<>();
+        ArrayList<String> stack = new ArrayList<>();
+        stack.add(procedureName);
+        while (!stack.isEmpty()) {
+            String caller = stack.remove(stack.size() - 1);
+            List<String> names = callees.get(caller);
+            if (names == null) {
+                continue;
+            }
+            for (int i = 0; i < names.size(); i++) {
+                String callee = names.get(i);
+                if (callee.equals(procedureName)) {
+                    ArrayList<String> cycle = new ArrayList<>();
+                    cycle.add(procedureName);
+                    for (String name = caller; name != null; name = reachedFrom.get(name)) {
+                        cycle.add(name);
+                    }
+                    Collections.reverse(cycle);
+                    return cycle;
+                }
+                if (!reachedFrom.containsKey(callee)) {
+                    reachedFrom.put(callee, caller);
+                    stack.add(callee);
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
     public static boolean isReference(Block block) {
         return block.getType().startsWith(PROCEDURE_REFERENCE_PREFIX);
     }
@@ -145,8 +320,8 @@ public class ProcedureManager {
         return block.getType().startsWith(PROCEDURE_DEFINITION_PREFIX);
     }
 
-    private static String getProcedureName(Block block) {
-        Field nameField = block.getFieldByName("name");
+    private String getProcedureName(Block block) {
+        Field nameField = getNameField(block);
         if (nameField != null) {
             return ((FieldInput) nameField).getText();
         } else {
@@ -155,8 +330,8 @@ public class ProcedureManager {
         }
     }
 
-    private static void setProcedureName(Block block, String newName) {
-        Field nameField = block.getFieldByName("name");
+    private void setProcedureName(Block block, String newName) {
+        Field nameField = getNameField(block);
         if (nameField != null) {
             ((FieldInput) nameField).setText(newName);
         } else {
@@ -164,4 +339,63 @@ public class ProcedureManager {
                     "Procedure definition block with no procedure name.");
         }
     }
+
+    /**
+     * Finds the name field at the position remembered for the block's type, and only searches the
+     * block's fields if it is not there.
+     */
+    @Nullable
+    private Field getNameField(Block block) {
+        TypeInfo info = getTypeInfo(block.getType());
+        List<Input> inputs = block.getInputs();
+        if (info.mNameInput >= 0 && info.mNameInput < inputs.size()) {
+            List<Field> fields = inputs.get(info.mNameInput).getFields();
+            if (info.mNameField < fields.size()) {
+                Field field = fields.get(info.mNameField);
+                if (NAME_FIELD.equalsIgnoreCase(field.getName())) {
+                    return field;
+                }
+            }
+        }
+        for (int i = 0; i < inputs.size(); i++) {
+            List<Field> fields = inputs.get(i).getFields();
+            for (int j = 0; j < fields.size(); j++) {
+                if (NAME_FIELD.equalsIgnoreCase(fields.get(j).getName())) {
+                    info.mNameInput = i;
+                    info.mNameField = j;
+                    return fields.get(j);
+                }
+            }
+        }
+        return null;
+    }
+
+    private TypeInfo getTypeInfo(String type) {
+        TypeInfo info = mTypeInfo.get(type);
+        if (info == null) {
+            int kind = KIND_NONE;
+            if (type.startsWith(PROCEDURE_DEFINITION_PREFIX)) {
+                kind = KIND_DEFINITION;
+            } else if (type.startsWith(PROCEDURE_REFERENCE_PREFIX)) {
+                kind = KIND_REFERENCE;
+            }
+            info = new TypeInfo(kind);
+            mTypeInfo.put(type, info);
+        }
+        return info;
+    }
+
+    /**
+     * What is known about a block type: its kind, and where its name field was last found.
+     */
+    private static final class TypeInfo {
+        @BlockKind
+        final int mKind;
+        int mNameInput = -1;
+        int mNameField = -1;
+
+        TypeInfo(@BlockKind int kind) {
+            mKind = kind;
+        }
+    }
 }
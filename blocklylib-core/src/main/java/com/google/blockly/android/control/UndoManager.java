@@ -0,0 +1,404 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Undo and redo history for a {@link BlocklyController}, built from the controller's event groups.
+ * <p/>
+ * Each step stores the events of one user action, which are invertible deltas: the old and new
+ * values of changes, the old and new parent or position of moves, and the XML captured by creates
+ * and deletes. Undoing or redoing a step only touches the blocks named by its events, so the cost
+ * is proportional to the size of the step, not the size of the workspace.
+ * <p/>
+ * Event groups that share a group id (see {@link BlocklyController#startEventGroup()}), such as
+ * all the steps of a drag, are recorded as a single step. Consecutive edits of the same field
+ * within {@link #TEXT_EDIT_MERGE_WINDOW_MS} are also merged into one step. The estimated memory
+ * of all steps is kept under a configurable budget by evicting the oldest steps.
+ */
+public class UndoManager implements BlocklyController.EventsCallback {
+    private static final String TAG = "UndoManager";
+
+    /** Default memory budget for all undo and redo steps, in bytes. */
+    public static final int DEFAULT_MEMORY_BUDGET = 1 << 20;
+    /** Maximum time between edits of the same field that are merged into one step. */
+    public static final long TEXT_EDIT_MERGE_WINDOW_MS = 1000;
+
+    // Rough memory overhead of each recorded event and step, excluding strings.
+    private static final int EVENT_OVERHEAD_BYTES = 64;
+    private static final int STEP_OVERHEAD_BYTES = 64;
+
+    private final BlocklyController mController;
+    private final EventApplier mApplier;
+
+    // The most recent step is last in both.
+    private final ArrayDeque<Step> mUndoSteps = new ArrayDeque<>();
+    private final ArrayDeque<Step> mRedoSteps = new ArrayDeque<>();
+
+    private int mMemoryBudget;
+    private int mMemoryUsage = 0;
+    // True while undoing or redoing, to avoid recording the resulting events.
+    private boolean mApplying = false;
+    // Whether new events may be merged into the last undo step. False after undo or redo.
+    private boolean mCanMerge = false;
+
+    /**
+     * Creates an undo manager with the {@link #DEFAULT_MEMORY_BUDGET} and registers it with the
+     * controller.
+     *
+     * @param controller The controller to record and apply events.
+     */
+    public UndoManager(BlocklyController controller) {
+        this(controller, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates an undo manager and registers it with the controller.
+     *
+     * @param controller The controller to record and apply events.
+     * @param memoryBudget The maximum estimated memory for all steps, in bytes.
+     */
+    public UndoManager(BlocklyController controller, int memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive.");
+        }
+        mController = controller;
+        mApplier = new EventApplier(controller, true);
+        mMemoryBudget = memoryBudget;
+        controller.addCallback(this);
+    }
+
+    @Override
+    public int getTypesBitmask() {
+        return EventApplier.APPLICABLE_TYPES;
+    }
+
+    @Override
+    public void onEventGroup(List<BlocklyEvent> events) {
+        if (mApplying) {
+            return;
+        }
+
+        int count = events.size();
+        Step lastStep = mCanMerge ? mUndoSteps.peekLast() : null;
+        if (lastStep != null && count == 1
+                && lastStep.mergeFieldEdit(events.get(0), SystemClock.uptimeMillis())) {
+            clearRedo();
+            trimToBudget();
+            return;
+        }
+
+        Step step = null;
+        String groupId = count == 0 ? null : events.get(0).getGroupId();
+        if (lastStep != null && !TextUtils.isEmpty(groupId) && groupId.equals(lastStep.mGroupId)) {
+            step = lastStep;  // Continuation of the same user action.
+        }
+        boolean isNewStep = false;
+        for (int i = 0; i < count; ++i) {
+            BlocklyEvent event = events.get(i);
+            if ((event.getTypeId() & getTypesBitmask()) == 0) {
+                continue;
+            }
+            if (step == null) {
+                step = new Step(groupId);
+                isNewStep = true;
+            }
+            step.add(event);
+        }
+        if (step == null) {
+            return;  // No events of interest.
+        }
+        step.mTimestamp = SystemClock.uptimeMillis();
+        if (isNewStep) {
+            mUndoSteps.addLast(step);
+        }
+        clearRedo();
+        mCanMerge = true;
+        trimToBudget();
+    }
+
+    /**
+     * @return True if there is a step to undo.
+     */
+    public boolean canUndo() {
+        return !mUndoSteps.isEmpty();
+    }
+
+    /**
+     * @return True if there is a step to redo.
+     */
+    public boolean canRedo() {
+        return !mRedoSteps.isEmpty();
+    }
+
+    /**
+     * Reverts the most recent step, applying the old state of each of its events in reverse order.
+     *
+     * @return True if a step was undone.
+     */
+    public boolean undo() {
+        Step step = mUndoSteps.pollLast();
+        if (step == null) {
+            return false;
+        }
+        mApplying = true;
+        try {
+            mController.startDeferredUpdates();
+            try {
+                for (int i = step.mEvents.size() - 1; i >= 0; --i) {
+                    mApplier.revertEvent(step.mEvents.get(i));
+                }
+            } finally {
+                mController.finishDeferredUpdates();
+            }
+        } finally {
+            mApplying = false;
+        }
+        mRedoSteps.addLast(step);
+        mCanMerge = false;
+        return true;
+    }
+
+    /**
+     * Reapplies the most recently undone step, applying the new state of each of its events in
+     * order.
+     *
+     * @return True if a step was redone.
+     */
+    public boolean redo() {
+        Step step = mRedoSteps.pollLast();
+        if (step == null) {
+            return false;
+        }
+        mApplying = true;
+        try {
+            mController.startDeferredUpdates();
+            try {
+                int count = step.mEvents.size();
+                for (int i = 0; i < count; ++i) {
+                    mApplier.applyEvent(step.mEvents.get(i));
+                }
+            } finally {
+                mController.finishDeferredUpdates();
+            }
+        } finally {
+            mApplying = false;
+        }
+        mUndoSteps.addLast(step);
+        mCanMerge = false;
+        return true;
+    }
+
+    /**
+     * Discards all undo and redo steps, such as after loading a new workspace.
+     */
+    public void clear() {
+        mUndoSteps.clear();
+        mRedoSteps.clear();
+        mMemoryUsage = 0;
+        mCanMerge = false;
+    }
+
+    /**
+     * Discards all steps and stops listening to the controller.
+     */
+    public void release() {
+        clear();
+        mController.removeListener(this);
+    }
+
+    /**
+     * @return The maximum estimated memory for all steps, in bytes.
+     */
+    public int getMemoryBudget() {
+        return mMemoryBudget;
+    }
+
+    /**
+     * Sets the maximum estimated memory for all steps, evicting the oldest steps if necessary.
+     *
+     * @param memoryBudget The new budget, in bytes.
+     */
+    public void setMemoryBudget(int memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive.");
+        }
+        mMemoryBudget = memoryBudget;
+        trimToBudget();
+    }
+
+    /**
+     * @return The estimated memory used by all undo and redo steps, in bytes.
+     */
+    public int getMemoryUsage() {
+        return mMemoryUsage;
+    }
+
+    /**
+     * @return The number of steps that can be undone.
+     */
+    public int getUndoStepCount() {
+        return mUndoSteps.size();
+    }
+
+    /**
+     * @return The number of steps that can be redone.
+     */
+    public int getRedoStepCount() {
+        return mRedoSteps.size();
+    }
+
+    private void clearRedo() {
+        while (!mRedoSteps.isEmpty()) {
+            mMemoryUsage -= mRedoSteps.pollFirst().mSize;
+        }
+    }
+
+    /**
+     * Evicts the oldest undo steps, and then the furthest redo steps, until the estimated memory
+     * usage is within budget.
+     */
+    private void trimToBudget() {
+        while (mMemoryUsage > mMemoryBudget && !mUndoSteps.isEmpty()) {
+            mMemoryUsage -= mUndoSteps.pollFirst().mSize;
+            if (mUndoSteps.isEmpty()) {
+                mCanMerge = false;
+            }
+        }
+        while (mMemoryUsage > mMemoryBudget && !mRedoSteps.isEmpty()) {
+            mMemoryUsage -= mRedoSteps.pollFirst().mSize;
+        }
+    }
+
+    private static int estimateSize(BlocklyEvent event) {
+        int chars = length(event.getBlockId()) + length(event.getGroupId());
+        switch (event.getTypeId()) {
+            case BlocklyEvent.TYPE_CREATE: {
+                BlocklyEvent.CreateEvent create = (BlocklyEvent.CreateEvent) event;
+                chars += length(create.getXml()) + length(create.getIds());
+                break;
+            }
+            case BlocklyEvent.TYPE_DELETE: {
+                BlocklyEvent.DeleteEvent delete = (BlocklyEvent.DeleteEvent) event;
+                chars += length(delete.getXml()) + length(delete.getIds());
+                break;
+            }
+            case BlocklyEvent.TYPE_MOVE: {
+                BlocklyEvent.MoveEvent move = (BlocklyEvent.MoveEvent) event;
+                chars += length(move.getOldParentId()) + length(move.getOldInputName())
+                        + length(move.getNewParentId()) + length(move.getNewInputName());
+                break;
+            }
+            case BlocklyEvent.TYPE_CHANGE: {
+                BlocklyEvent.ChangeEvent change = (BlocklyEvent.ChangeEvent) event;
+                chars += length(change.getFieldName()) + length(change.getOldValue())
+                        + length(change.getNewValue());
+                break;
+            }
+            case BlocklyEvent.TYPE_VAR_RENAME: {
+                BlocklyEvent.VarRenameEvent rename = (BlocklyEvent.VarRenameEvent) event;
+                chars += length(rename.getOldName()) + length(rename.getNewName());
+                break;
+            }
+        }
+        return EVENT_OVERHEAD_BYTES + 2 * chars;
+    }
+
+    private static int length(@Nullable String str) {
+        return (str == null) ? 0 : str.length();
+    }
+
+    private static int length(List<String> ids) {
+        int chars = 0;
+        int count = ids.size();
+        for (int i = 0; i < count; ++i) {
+            chars += ids.get(i).length() + EVENT_OVERHEAD_BYTES / 4;
+        }
+        return chars;
+    }
+
+    /**
+     * @return True if both events are ungrouped edits of the same field.
+     */
+    private static boolean isSameFieldEdit(BlocklyEvent a, BlocklyEvent b) {
+        if (!isFieldEdit(a) || !isFieldEdit(b)) {
+            return false;
+        }
+        return a.getBlockId().equals(b.getBlockId()) && TextUtils.equals(
+                ((BlocklyEvent.ChangeEvent) a).getFieldName(),
+                ((BlocklyEvent.ChangeEvent) b).getFieldName());
+    }
+
+    private static boolean isFieldEdit(BlocklyEvent event) {
+        return event.getTypeId() == BlocklyEvent.TYPE_CHANGE
+                && TextUtils.isEmpty(event.getGroupId())
+                && BlocklyEvent.ELEMENT_FIELD.equals(
+                        ((BlocklyEvent.ChangeEvent) event).getElement());
+    }
+
+    /**
+     * The events of one undoable user action.
+     */
+    private final class Step {
+        final String mGroupId;
+        final ArrayList<BlocklyEvent> mEvents = new ArrayList<>();
+        int mSize = STEP_OVERHEAD_BYTES;
+        long mTimestamp;
+
+        Step(@Nullable String groupId) {
+            mGroupId = groupId;
+            mMemoryUsage += mSize;
+        }
+
+        void add(BlocklyEvent event) {
+            int size = estimateSize(event);
+            mEvents.add(event);
+            mSize += size;
+            mMemoryUsage += size;
+        }
+
+        /**
+         * Merges a field edit into this step if the step only contains recent edits of the same
+         * field. Only the first and latest edits are kept, which are enough to undo to the
+         * original value and redo to the latest value.
+         *
+         * @return True if the edit was merged.
+         */
+        boolean mergeFieldEdit(BlocklyEvent event, long now) {
+            int count = mEvents.size();
+            if (count > 2 || now - mTimestamp > TEXT_EDIT_MERGE_WINDOW_MS
+                    || !isSameFieldEdit(mEvents.get(0), event)
+                    || !isSameFieldEdit(mEvents.get(count - 1), event)) {
+                return false;
+            }
+            if (mEvents.size() == 2) {
+                int size = estimateSize(mEvents.remove(1));
+                mSize -= size;
+                mMemoryUsage -= size;
+            }
+            add(event);
+            mTimestamp = now;
+            return true;
+        }
+    }
+}
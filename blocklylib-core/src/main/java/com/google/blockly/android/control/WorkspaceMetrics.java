@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.model.Connection;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the size and shape of a workspace, taken with
+ * {@link WorkspaceStats#updateMetrics()}. Snapshots may be read and logged from any thread.
+ */
+public final class WorkspaceMetrics {
+    private final int mBlockCount;
+    private final Map<String, Integer> mBlockCountsByType;
+    private final int mMaxNestingDepth;
+    private final int mLongestStatementChain;
+    private final int[] mConnectionCounts;
+    private final int mVariableCount;
+    private final int mProcedureCount;
+    private final long mEstimatedBytes;
+
+    WorkspaceMetrics(int blockCount, Map<String, Integer> blockCountsByType, int maxNestingDepth,
+                     int longestStatementChain, int[] connectionCounts, int variableCount,
+                     int procedureCount, long estimatedBytes) {
+        mBlockCount = blockCount;
+        mBlockCountsByType = Collections.unmodifiableMap(blockCountsByType);
+        mMaxNestingDepth = maxNestingDepth;
+        mLongestStatementChain = longestStatementChain;
+        mConnectionCounts = connectionCounts.clone();
+        mVariableCount = variableCount;
+        mProcedureCount = procedureCount;
+        mEstimatedBytes = estimatedBytes;
+    }
+
+    /**
+     * @return The number of blocks in the workspace, not including the trash.
+     */
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+
+    /**
+     * @return The number of blocks of each type in the workspace.
+     */
+    public Map<String, Integer> getBlockCountsByType() {
+        return mBlockCountsByType;
+    }
+
+    /**
+     * @return The largest number of blocks nested in each other's inputs, counting the outermost
+     *         block. Blocks following each other in a statement sequence have the same depth.
+     */
+    public int getMaxNestingDepth() {
+        return mMaxNestingDepth;
+    }
+
+    /**
+     * @return The largest number of blocks connected one after another by next connections.
+     */
+    public int getLongestStatementChain() {
+        return mLongestStatementChain;
+    }
+
+    /**
+     * @param connectionType The connection type, such as {@link Connection#CONNECTION_TYPE_NEXT}.
+     * @return The number of connections of that type on blocks in the workspace.
+     */
+    public int getConnectionCount(int connectionType) {
+        return mConnectionCounts[connectionType];
+    }
+
+    /**
+     * @return The number of variables referenced in the workspace.
+     */
+    public int getVariableCount() {
+        return mVariableCount;
+    }
+
+    /**
+     * @return The number of procedures defined in the workspace.
+     */
+    public int getProcedureCount() {
+        return mProcedureCount;
+    }
+
+    /**
+     * @return A rough estimate of the memory held by the workspace's blocks, inputs, fields and
+     *         connections, in bytes. Views are not included.
+     */
+    public long getEstimatedBytes() {
+        return mEstimatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkspaceMetrics{blocks=" + mBlockCount
+                + ", types=" + mBlockCountsByType.size()
+                + ", maxDepth=" + mMaxNestingDepth
+                + ", longestChain=" + mLongestStatementChain
+                + ", previous=" + getConnectionCount(Connection.CONNECTION_TYPE_PREVIOUS)
+                + ", next=" + getConnectionCount(Connection.CONNECTION_TYPE_NEXT)
+                + ", input=" + getConnectionCount(Connection.CONNECTION_TYPE_INPUT)
+                + ", output=" + getConnectionCount(Connection.CONNECTION_TYPE_OUTPUT)
+                + ", variables=" + mVariableCount
+                + ", procedures=" + mProcedureCount
+                + ", estimatedBytes=" + mEstimatedBytes + "}";
+    }
+}
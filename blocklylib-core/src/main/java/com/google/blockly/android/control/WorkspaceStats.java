@@ -15,32 +15,67 @@
 
 package com.google.blockly.android.control;
 
+import android.support.annotation.Nullable;
 import android.support.v4.util.SimpleArrayMap;
 
 import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockQuery;
 import com.google.blockly.model.Connection;
 import com.google.blockly.model.Field;
 import com.google.blockly.model.FieldVariable;
 import com.google.blockly.model.Input;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Tracks information about the Workspace that we want fast access to.
  */
 public class WorkspaceStats {
+    // Rough heap sizes of model objects, for WorkspaceMetrics.getEstimatedBytes().
+    private static final int BLOCK_BYTES = 256;
+    private static final int INPUT_BYTES = 64;
+    private static final int FIELD_BYTES = 96;
+    private static final int CONNECTION_BYTES = 96;
 
-    // Maps from variable/procedure names to the blocks/fields where they are referenced.
+    // Maps from variable/procedure names to the blocks/fields where they are referenced. Each list
+    // is a VariableReferenceList, so references are added and removed in constant time.
     private final SimpleArrayMap<String, List<FieldVariable>> mVariableReferences =
             new SimpleArrayMap<>();
+    // Index of every block whose stats were collected, by id and by type.
+    private final HashMap<String, Block> mBlocksById = new HashMap<>();
+    private final HashMap<String, LinkedHashSet<Block>> mBlocksByType = new HashMap<>();
+    // Optional indexes of blocks by field value, keyed by the lower case field name.
+    private final HashMap<String, FieldIndex> mFieldIndexes = new HashMap<>();
+    // Procedure calls whose definition is not in the workspace, such as a call restored from the
+    // trash after its definition was deleted. They are tracked once the definition is added.
+    private final ArrayList<Block> mOrphanedProcedureCalls = new ArrayList<>();
+    // Counts kept as blocks are indexed, for WorkspaceMetrics.
+    private final int[] mConnectionCounts = new int[4];
+    private long mEstimatedBytes = 0;
+    private volatile WorkspaceMetrics mMetrics = null;
     private final NameManager mVariableNameManager;
     private final ProcedureManager mProcedureManager;
     private final ConnectionManager mConnectionManager;
+    // True while renameVariableReferences() updates fields, whose references are already moved.
+    private boolean mRenamingVariable = false;
 
     private final Field.Observer mVariableObserver = new Field.Observer() {
         @Override
         public void onValueChanged(Field field, String oldVar, String newVar) {
+            if (mRenamingVariable) {
+                return;
+            }
             FieldVariable varField = (FieldVariable) field;
             List<FieldVariable> list = mVariableReferences.get(oldVar);
             if (list != null) {
@@ -52,13 +87,22 @@ public class WorkspaceStats {
             }
             list = mVariableReferences.get(newVar);
             if (list == null) {
-                list = new ArrayList<>();
+                list = new VariableReferenceList();
                 mVariableReferences.put(newVar, list);
                 mVariableNameManager.addName(newVar);
             }
             list.add(varField);
         }
     };
+    private final Field.Observer mIndexedFieldObserver = new Field.Observer() {
+        @Override
+        public void onValueChanged(Field field, String oldValue, String newValue) {
+            FieldIndex index = mFieldIndexes.get(getIndexKey(field.getName()));
+            if (index != null) {
+                index.update(field, newValue);
+            }
+        }
+    };
     private final List<Connection> mTempConnecitons = new ArrayList<>();
 
     public WorkspaceStats(NameManager variableManager, ProcedureManager procedureManager,
@@ -76,6 +120,194 @@ public class WorkspaceStats {
         return mVariableReferences;
     }
 
+    /**
+     * Moves every reference to a variable to a new name and updates the referencing fields. The
+     * list of references is moved as a whole, so the fields' other observers, such as their views,
+     * are the only per-field cost.
+     *
+     * @param oldName The variable to rename.
+     * @param newName The new name of the variable.
+     * @param renamedFields An optional list to append the updated fields to.
+     */
+    public void renameVariableReferences(String oldName, String newName,
+                                         @Nullable List<FieldVariable> renamedFields) {
+        int index = mVariableReferences.indexOfKey(oldName);
+        if (index < 0) {
+            return;
+        }
+        List<FieldVariable> references = mVariableReferences.removeAt(index);
+        List<FieldVariable> existing = mVariableReferences.get(newName);
+        if (existing == null) {
+            mVariableReferences.put(newName, references);
+            mVariableNameManager.addName(newName);
+        }
+        mRenamingVariable = true;
+        try {
+            int count = references.size();
+            for (int i = 0; i < count; i++) {
+                FieldVariable field = references.get(i);
+                field.setVariable(newName);
+                if (existing != null) {
+                    existing.add(field);
+                }
+                if (renamedFields != null) {
+                    renamedFields.add(field);
+                }
+            }
+        } finally {
+            mRenamingVariable = false;
+        }
+    }
+
+    /**
+     * @param id The id of the block to find.
+     * @return The block with the given id, or null if there is no such block in the workspace.
+     */
+    @Nullable
+    public Block getBlockById(String id) {
+        return mBlocksById.get(id);
+    }
+
+    /**
+     * @param type The block type to look up.
+     * @return An unmodifiable view of the blocks of the given type in the workspace, in the order
+     *         they were added.
+     */
+    public Set<Block> getBlocksOfType(String type) {
+        Set<Block> blocks = mBlocksByType.get(type);
+        return blocks == null
+                ? Collections.<Block>emptySet() : Collections.unmodifiableSet(blocks);
+    }
+
+    /**
+     * Indexes blocks by the value of the fields with the given name, so queries with conditions on
+     * that field do not need to visit every block. The index covers the blocks already in the
+     * workspace and is kept up to date as blocks are added, removed or edited. Field names are
+     * matched ignoring case, as in {@link Block#getFieldByName(String)}.
+     *
+     * @param fieldName The name of the fields to index.
+     */
+    public void addFieldIndex(String fieldName) {
+        String key = getIndexKey(fieldName);
+        if (key == null || mFieldIndexes.containsKey(key)) {
+            return;
+        }
+        FieldIndex index = new FieldIndex();
+        mFieldIndexes.put(key, index);
+        for (Block block : mBlocksById.values()) {
+            List<Input> inputs = block.getInputs();
+            for (int i = 0; i < inputs.size(); i++) {
+                List<Field> fields = inputs.get(i).getFields();
+                for (int j = 0; j < fields.size(); j++) {
+                    Field field = fields.get(j);
+                    if (key.equals(getIndexKey(field.getName())) && index.add(field)) {
+                        field.registerObserver(mIndexedFieldObserver);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops indexing the fields with the given name.
+     *
+     * @param fieldName The name passed to {@link #addFieldIndex(String)}.
+     */
+    public void removeFieldIndex(String fieldName) {
+        FieldIndex index = mFieldIndexes.remove(getIndexKey(fieldName));
+        if (index != null) {
+            index.clear(mIndexedFieldObserver);
+        }
+    }
+
+    /**
+     * Finds the blocks in the workspace that match a query. The candidates are taken from the
+     * smallest set available from the indexes: the blocks with an indexed field value, the blocks
+     * of the query's type, or the blocks with an indexed field value accepted by a predicate.
+     * Without any of these, the descendants of the query's ancestor or every block is tested.
+     *
+     * @param query The query to run.
+     * @param resultList An optional list to add the results to. This object will be returned if
+     *                   not null.
+     * @return The list of matching blocks.
+     */
+    public List<Block> findBlocks(BlockQuery query, @Nullable List<Block> resultList) {
+        if (resultList == null) {
+            resultList = new ArrayList<>();
+        }
+        for (Block block : getCandidates(query)) {
+            if (query.matches(block)) {
+                resultList.add(block);
+            }
+        }
+        return resultList;
+    }
+
+    /**
+     * Takes a new {@link WorkspaceMetrics} snapshot. Block, connection, variable and procedure
+     * counts and the size estimate are kept up to date as blocks are added and removed, so they
+     * cost O(number of block types) to copy. Blocks can be connected without their stats being
+     * collected again, so the nesting depth and statement chain length are measured by walking
+     * the blocks. Call this on the thread that changes the workspace; the snapshot can then be
+     * read from any thread with {@link #getMetrics()}.
+     *
+     * @return The new snapshot.
+     */
+    public WorkspaceMetrics updateMetrics() {
+        HashMap<String, Integer> countsByType = new HashMap<>(mBlocksByType.size());
+        for (Map.Entry<String, LinkedHashSet<Block>> entry : mBlocksByType.entrySet()) {
+            countsByType.put(entry.getKey(), entry.getValue().size());
+        }
+        int maxDepth = 0;
+        int longestChain = 0;
+        for (Block block : mBlocksById.values()) {
+            if (block.getParentBlock() == null) {
+                long shape = measureShape(block);
+                maxDepth = Math.max(maxDepth, (int) (shape >> 32));
+                longestChain = Math.max(longestChain, (int) shape);
+            }
+        }
+        int variableCount = 0;
+        for (int i = 0; i < mVariableReferences.size(); i++) {
+            if (!mVariableReferences.valueAt(i).isEmpty()) {
+                ++variableCount;
+            }
+        }
+        WorkspaceMetrics metrics = new WorkspaceMetrics(mBlocksById.size(), countsByType, maxDepth,
+                longestChain, mConnectionCounts, variableCount,
+                mProcedureManager.getProcedureCount(), mEstimatedBytes);
+        mMetrics = metrics;
+        return metrics;
+    }
+
+    /**
+     * @return The last snapshot taken by {@link #updateMetrics()}, or null if none was taken. Safe
+     *         to call from any thread.
+     */
+    @Nullable
+    public WorkspaceMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Enables or disables recording of {@link ConnectionMetrics} by the workspace's
+     * {@link ConnectionManager}: index sizes, index updates, and the cost of searches for
+     * connections to snap to. Disabled by default.
+     *
+     * @param enabled Whether to record metrics.
+     */
+    public void setConnectionMetricsEnabled(boolean enabled) {
+        mConnectionManager.setMetricsEnabled(enabled);
+    }
+
+    /**
+     * @return The connection metrics, or null if not enabled.
+     */
+    @Nullable
+    public ConnectionMetrics getConnectionMetrics() {
+        return mConnectionManager.getMetrics();
+    }
+
     /**
      * Walks through a block and records all Connections, variable references, procedure
      * definitions and procedure calls.
@@ -85,6 +317,7 @@ public class WorkspaceStats {
      * block.
      */
     public void collectStats(Block block, boolean recursive) {
+        addToIndex(block);
         for (int i = 0; i < block.getInputs().size(); i++) {
             Input in = block.getInputs().get(i);
             addConnection(in.getConnection(), recursive);
@@ -92,13 +325,14 @@ public class WorkspaceStats {
             // Variables and references to them.
             for (int j = 0; j < in.getFields().size(); j++) {
                 Field field = in.getFields().get(j);
+                addToFieldIndex(field);
                 if (field.getType() == Field.TYPE_VARIABLE) {
                     FieldVariable var = (FieldVariable) field;
                     var.registerObserver(mVariableObserver);
                     if (mVariableReferences.containsKey(var.getVariable())) {
                         mVariableReferences.get(var.getVariable()).add(var);
                     } else {
-                        List<FieldVariable> references = new ArrayList<>();
+                        List<FieldVariable> references = new VariableReferenceList();
                         references.add(var);
                         mVariableReferences.put(var.getVariable(), references);
                     }
@@ -114,14 +348,20 @@ public class WorkspaceStats {
         addConnection(block.getOutputConnection(), false);
 
         // Procedures
-        if (mProcedureManager.isDefinition(block)) {
+        int procedureKind = mProcedureManager.getBlockKind(block);
+        if (procedureKind == ProcedureManager.KIND_DEFINITION) {
             mProcedureManager.addDefinition(block);
+            adoptOrphanedProcedureCalls();
         }
         // TODO (fenichel): Procedure calls will only work when mutations work.
         // The mutation will change the name of the block.  I believe that means name field,
         // not type.
-        if (mProcedureManager.isReference(block)) {
-            mProcedureManager.addReference(block);
+        if (procedureKind == ProcedureManager.KIND_REFERENCE) {
+            if (mProcedureManager.containsDefinition(block)) {
+                mProcedureManager.addReference(block);
+            } else {
+                mOrphanedProcedureCalls.add(block);
+            }
         }
     }
 
@@ -130,19 +370,53 @@ public class WorkspaceStats {
      * These changes will be reflected in the externally owned connection and procedure manager.
      */
     public void clear() {
+        // Indexed fields are kept, but emptied.
+        for (FieldIndex index : mFieldIndexes.values()) {
+            index.clear(mIndexedFieldObserver);
+        }
         mVariableReferences.clear();
+        mBlocksById.clear();
+        mBlocksByType.clear();
+        Arrays.fill(mConnectionCounts, 0);
+        mEstimatedBytes = 0;
         mProcedureManager.clear();
+        mOrphanedProcedureCalls.clear();
         mVariableNameManager.clearUsedNames();
         mConnectionManager.clear();
     }
 
+    /**
+     * Adds the orphaned procedure calls whose definition is now in the workspace as references.
+     */
+    private void adoptOrphanedProcedureCalls() {
+        for (int i = mOrphanedProcedureCalls.size() - 1; i >= 0; i--) {
+            Block call = mOrphanedProcedureCalls.get(i);
+            if (mProcedureManager.containsDefinition(call)) {
+                mOrphanedProcedureCalls.remove(i);
+                mProcedureManager.addReference(call);
+            }
+        }
+    }
+
     /**
      * Remove all the stats associated with this block and its descendents. This will remove all
-     * connections from the ConnectionManager and dereference any variables in the tree.
+     * connections from the ConnectionManager and dereference any variables and procedures in the
+     * tree.
      *
      * @param block The starting block to cleanup stats for.
      */
     public void cleanupStats(Block block) {
+        removeFromIndex(block);
+        if (mProcedureManager.isTracked(block)) {
+            if (mProcedureManager.getBlockKind(block) == ProcedureManager.KIND_DEFINITION) {
+                // Calls left in the workspace are tracked again if the definition is restored.
+                mOrphanedProcedureCalls.addAll(mProcedureManager.removeDefinition(block));
+            } else {
+                mProcedureManager.removeReference(block);
+            }
+        } else if (!mOrphanedProcedureCalls.isEmpty()) {
+            mOrphanedProcedureCalls.remove(block);
+        }
         block.getAllConnections(mTempConnecitons);
         for (int i = 0; i < mTempConnecitons.size(); i++) {
             mConnectionManager.removeConnection(mTempConnecitons.get(i));
@@ -154,8 +428,17 @@ public class WorkspaceStats {
             List<Field> fields = input.getFields();
             for (int j = 0; j < fields.size(); j++) {
                 Field field = fields.get(j);
+                FieldIndex index = mFieldIndexes.get(getIndexKey(field.getName()));
+                if (index != null && index.remove(field)) {
+                    field.unregisterObserver(mIndexedFieldObserver);
+                }
                 if (field instanceof FieldVariable) {
-                    mVariableReferences.get(((FieldVariable)field).getVariable()).remove(field);
+                    List<FieldVariable> references =
+                            mVariableReferences.get(((FieldVariable) field).getVariable());
+                    // Unregister so stats can be collected again if the block is restored.
+                    if (references != null && references.remove(field)) {
+                        field.unregisterObserver(mVariableObserver);
+                    }
                 }
             }
             if (input.getConnection() != null && input.getConnection().getTargetBlock() != null) {
@@ -167,6 +450,146 @@ public class WorkspaceStats {
         }
     }
 
+    private void addToIndex(Block block) {
+        mBlocksById.put(block.getId(), block);
+        LinkedHashSet<Block> blocks = mBlocksByType.get(block.getType());
+        if (blocks == null) {
+            blocks = new LinkedHashSet<>();
+            mBlocksByType.put(block.getType(), blocks);
+        }
+        if (blocks.add(block)) {
+            countBlock(block, 1);
+        }
+    }
+
+    private void removeFromIndex(Block block) {
+        if (mBlocksById.get(block.getId()) == block) {
+            mBlocksById.remove(block.getId());
+        }
+        LinkedHashSet<Block> blocks = mBlocksByType.get(block.getType());
+        if (blocks != null && blocks.remove(block)) {
+            countBlock(block, -1);
+            if (blocks.isEmpty()) {
+                mBlocksByType.remove(block.getType());
+            }
+        }
+    }
+
+    /**
+     * Adds or subtracts a block's connections and estimated size from the metrics counts.
+     *
+     * @param sign 1 to add the block, -1 to remove it.
+     */
+    private void countBlock(Block block, int sign) {
+        List<Connection> connections = block.getAllConnections();
+        for (int i = 0; i < connections.size(); i++) {
+            mConnectionCounts[connections.get(i).getType()] += sign;
+        }
+        long bytes = BLOCK_BYTES + CONNECTION_BYTES * connections.size();
+        List<Input> inputs = block.getInputs();
+        for (int i = 0; i < inputs.size(); i++) {
+            bytes += INPUT_BYTES + FIELD_BYTES * inputs.get(i).getFields().size();
+        }
+        mEstimatedBytes += sign * bytes;
+    }
+
+    /**
+     * Measures the block tree under a root block, following statement sequences iteratively.
+     *
+     * @return The nesting depth in the upper 32 bits and the longest statement chain in the lower
+     *         32 bits.
+     */
+    private static long measureShape(Block root) {
+        int maxDepth = 0;
+        int longestChain = 0;
+        int chain = 0;
+        for (Block block = root; block != null; block = block.getNextBlock()) {
+            ++chain;
+            List<Input> inputs = block.getInputs();
+            for (int i = 0; i < inputs.size(); i++) {
+                Block child = inputs.get(i).getConnectedBlock();
+                if (child != null) {
+                    long shape = measureShape(child);
+                    maxDepth = Math.max(maxDepth, (int) (shape >> 32));
+                    longestChain = Math.max(longestChain, (int) shape);
+                }
+            }
+        }
+        return ((long) (maxDepth + 1) << 32) | Math.max(longestChain, chain);
+    }
+
+    private void addToFieldIndex(Field field) {
+        FieldIndex index = mFieldIndexes.get(getIndexKey(field.getName()));
+        if (index != null && index.add(field)) {
+            field.registerObserver(mIndexedFieldObserver);
+        }
+    }
+
+    private Collection<Block> getCandidates(BlockQuery query) {
+        Collection<Block> candidates = null;
+        if (query.getType() != null) {
+            candidates = getBlocksOfType(query.getType());
+        }
+        FieldIndex predicateIndex = null;
+        BlockQuery.FieldCondition predicateCondition = null;
+        List<BlockQuery.FieldCondition> conditions = query.getFieldConditions();
+        for (int i = 0; i < conditions.size(); i++) {
+            BlockQuery.FieldCondition condition = conditions.get(i);
+            FieldIndex index = mFieldIndexes.get(getIndexKey(condition.getFieldName()));
+            if (index == null) {
+                continue;
+            }
+            if (condition.getPredicate() == null) {
+                Collection<Block> blocks = index.getBlocks(condition.getValue());
+                if (candidates == null || blocks.size() < candidates.size()) {
+                    candidates = blocks;
+                }
+            } else if (predicateIndex == null
+                    || index.getValueCount() < predicateIndex.getValueCount()) {
+                predicateIndex = index;
+                predicateCondition = condition;
+            }
+        }
+        // Testing each distinct value is cheaper than testing each block.
+        if (predicateIndex != null
+                && (candidates == null || predicateIndex.getValueCount() < candidates.size())) {
+            candidates = predicateIndex.getBlocks(predicateCondition);
+        }
+        if (candidates != null) {
+            return candidates;
+        }
+        Block ancestor = query.getAncestor();
+        if (ancestor != null) {
+            List<Block> descendants = new ArrayList<>();
+            if (mBlocksById.get(ancestor.getId()) == ancestor) {
+                addDescendants(ancestor, descendants);
+            }
+            return descendants;
+        }
+        return mBlocksById.values();
+    }
+
+    private static void addDescendants(Block block, List<Block> descendants) {
+        List<Input> inputs = block.getInputs();
+        for (int i = 0; i < inputs.size(); i++) {
+            Connection conn = inputs.get(i).getConnection();
+            if (conn != null && conn.getTargetBlock() != null) {
+                descendants.add(conn.getTargetBlock());
+                addDescendants(conn.getTargetBlock(), descendants);
+            }
+        }
+        Block next = block.getNextBlock();
+        if (next != null) {
+            descendants.add(next);
+            addDescendants(next, descendants);
+        }
+    }
+
+    @Nullable
+    private static String getIndexKey(@Nullable String fieldName) {
+        return fieldName == null ? null : fieldName.toLowerCase(Locale.US);
+    }
+
     private void addConnection(Connection conn, boolean recursive) {
         if (conn != null) {
             mConnectionManager.addConnection(conn);
@@ -178,4 +601,166 @@ public class WorkspaceStats {
             }
         }
     }
+
+    /**
+     * The blocks with a field of one name, by the field's serialized value. Each field is mapped to
+     * the value it is filed under, so updates do not depend on the old value reported by the
+     * field, and a field is only indexed once.
+     */
+    private static final class FieldIndex {
+        private final HashMap<String, LinkedHashSet<Block>> mBlocksByValue = new HashMap<>();
+        private final IdentityHashMap<Field, String> mFieldValues = new IdentityHashMap<>();
+
+        /**
+         * @return True if the field was added, false if it was already indexed.
+         */
+        boolean add(Field field) {
+            if (mFieldValues.containsKey(field)) {
+                return false;
+            }
+            String value = field.getSerializedValue();
+            mFieldValues.put(field, value);
+            addBlock(value, field.getBlock());
+            return true;
+        }
+
+        /**
+         * @return True if the field was removed, false if it was not indexed.
+         */
+        boolean remove(Field field) {
+            if (!mFieldValues.containsKey(field)) {
+                return false;
+            }
+            removeBlock(mFieldValues.remove(field), field.getBlock());
+            return true;
+        }
+
+        void update(Field field, String newValue) {
+            if (mFieldValues.containsKey(field)) {
+                removeBlock(mFieldValues.put(field, newValue), field.getBlock());
+                addBlock(newValue, field.getBlock());
+            }
+        }
+
+        void clear(Field.Observer observer) {
+            for (Field field : mFieldValues.keySet()) {
+                field.unregisterObserver(observer);
+            }
+            mFieldValues.clear();
+            mBlocksByValue.clear();
+        }
+
+        int getValueCount() {
+            return mBlocksByValue.size();
+        }
+
+        Collection<Block> getBlocks(String value) {
+            Set<Block> blocks = mBlocksByValue.get(value);
+            return blocks == null ? Collections.<Block>emptySet() : blocks;
+        }
+
+        Collection<Block> getBlocks(BlockQuery.FieldCondition condition) {
+            LinkedHashSet<Block> blocks = new LinkedHashSet<>();
+            for (Map.Entry<String, LinkedHashSet<Block>> entry : mBlocksByValue.entrySet()) {
+                if (condition.matches(entry.getKey())) {
+                    blocks.addAll(entry.getValue());
+                }
+            }
+            return blocks;
+        }
+
+        private void addBlock(String value, Block block) {
+            LinkedHashSet<Block> blocks = mBlocksByValue.get(value);
+            if (blocks == null) {
+                blocks = new LinkedHashSet<>();
+                mBlocksByValue.put(value, blocks);
+            }
+            blocks.add(block);
+        }
+
+        private void removeBlock(String value, Block block) {
+            LinkedHashSet<Block> blocks = mBlocksByValue.get(value);
+            if (blocks != null && blocks.remove(block) && blocks.isEmpty()) {
+                mBlocksByValue.remove(value);
+            }
+        }
+    }
+
+    /**
+     * The fields referencing one variable. Fields are indexed by identity, so adding, finding and
+     * removing a reference takes constant time however often the variable is used. Removing a
+     * reference moves the last one into its place, so the order of the list is not preserved.
+     * Adding a field that is already in the list has no effect.
+     */
+    private static final class VariableReferenceList extends AbstractList<FieldVariable> {
+        private final ArrayList<FieldVariable> mFields = new ArrayList<>();
+        private final IdentityHashMap<FieldVariable, Integer> mIndices = new IdentityHashMap<>();
+
+        @Override
+        public FieldVariable get(int index) {
+            return mFields.get(index);
+        }
+
+        @Override
+        public int size() {
+            return mFields.size();
+        }
+
+        @Override
+        public boolean add(FieldVariable field) {
+            if (mIndices.containsKey(field)) {
+                return false;
+            }
+            mIndices.put(field, mFields.size());
+            mFields.add(field);
+            ++modCount;
+            return true;
+        }
+
+        @Override
+        public boolean contains(Object field) {
+            return mIndices.containsKey(field);
+        }
+
+        @Override
+        public int indexOf(Object field) {
+            Integer index = mIndices.get(field);
+            return index == null ? -1 : index;
+        }
+
+        @Override
+        public int lastIndexOf(Object field) {
+            return indexOf(field);
+        }
+
+        @Override
+        public boolean remove(Object field) {
+            Integer index = mIndices.remove(field);
+            if (index == null) {
+                return false;
+            }
+            int last = mFields.size() - 1;
+            FieldVariable moved = mFields.remove(last);
+            if (index != last) {
+                mFields.set(index, moved);
+                mIndices.put(moved, index);
+            }
+            ++modCount;
+            return true;
+        }
+
+        @Override
+        public FieldVariable remove(int index) {
+            FieldVariable field = mFields.get(index);
+            remove(field);
+            return field;
+        }
+
+        @Override
+        public void clear() {
+            mFields.clear();
+            mIndices.clear();
+            ++modCount;
+        }
+    }
 }
@@ -75,6 +75,16 @@ public abstract class AbstractBlockView<InputView extends com.google.blockly.and
     protected final ViewPoint mTempConnectionPosition = new ViewPoint();
     protected final WorkspacePoint mTempWorkspacePoint = new WorkspacePoint();
 
+    // Set when the view may have moved or changed shape since its connector locations were last
+    // updated. See updateConnectorLocations(ViewPoint).
+    private boolean mConnectorsDirty = true;
+    // Workspace position of the block when its connector locations were last updated.
+    private final WorkspacePoint mConnectorsBlockPosition = new WorkspacePoint();
+    // Virtual view position of this view during updateConnectorLocations(ViewPoint), passed on to
+    // child block groups so they do not walk up the view tree.
+    private final ViewPoint mConnectorsViewPosition = new ViewPoint();
+    private final ViewPoint mTempChildGroupPosition = new ViewPoint();
+
     // Currently highlighted connection.
     @Nullable protected Connection mHighlightedConnection = null;
 
@@ -203,6 +213,12 @@ public abstract class AbstractBlockView<InputView extends com.google.blockly.and
         return mWorkspaceView;
     }
 
+    @Override
+    @Nullable
+    public ConnectionManager getConnectionManager() {
+        return mConnectionManager;
+    }
+
     /**
      * @return The closest view tree ancestor that is a BlockGroup.
      */
@@ -220,12 +236,39 @@ public abstract class AbstractBlockView<InputView extends com.google.blockly.and
     /**
      * Updates the locations of the connections based on their offsets within the {@link BlockView},
      * based upon the view's position within the  {@link WorkspaceView}.  Often used when the block
-     * has moved but not changed shape, such as after a drag.
+     * has moved but not changed shape, such as after a drag. This block's connectors are always
+     * updated; those of child blocks only if they moved or changed shape.
      */
     @Override
     public void updateConnectorLocations() {
+        mConnectorsDirty = true;
+        updateConnectorLocations(null);
+    }
+
+    @Override
+    public void requestLayout() {
+        mConnectorsDirty = true;
+        super.requestLayout();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mConnectorsDirty = true;
+    }
+
+    /**
+     * Updates the connector locations of this block and the blocks connected to its inputs, if
+     * this view moved or changed shape since the last update. A view that did neither is skipped
+     * with all of its descendants, since any change below it would have requested a layout of this
+     * view too.
+     *
+     * @param viewPosition The virtual view coordinates of this view, as computed by the parent
+     *                     {@link BlockGroup}, or null to compute them from the view tree if needed.
+     */
+    void updateConnectorLocations(@Nullable ViewPoint viewPosition) {
         // Ensure we have the right block location before we update the connections.
-        updateBlockPosition();
+        boolean hasViewPosition = updateBlockPosition(viewPosition);
 
         // Connection location is only important when we are attached to a WorkspaceView that can
         // interact with other connections.  BlockViews outside the WorkspaceView, such as those in
@@ -235,6 +278,9 @@ public abstract class AbstractBlockView<InputView extends com.google.blockly.and
         }
 
         final WorkspacePoint blockWorkspacePosition = mBlock.getPosition();
+        if (!mConnectorsDirty && mConnectorsBlockPosition.equals(blockWorkspacePosition)) {
+            return;
+        }
 
         final Connection previousConnection = mBlock.getPreviousConnection();
         if (previousConnection != null) {
@@ -266,10 +312,17 @@ public abstract class AbstractBlockView<InputView extends com.google.blockly.and
                 mConnectionManager.moveConnectionTo(
                         connection, blockWorkspacePosition, mTempWorkspacePoint);
                 if (connection.isConnected()) {
-                    inputView.getConnectedBlockGroup().updateAllConnectorLocations();
+                    BlockGroup childGroup = inputView.getConnectedBlockGroup();
+                    childGroup.updateAllConnectorLocations(
+                            hasViewPosition && getChildGroupPosition(childGroup)
+                                    ? mTempChildGroupPosition : null);
                 }
             }
         }
+
+        mConnectorsBlockPosition.setFrom(blockWorkspacePosition);
+        // A pending layout may still change the connector offsets.
+        mConnectorsDirty = isLayoutRequested();
     }
 
     /**
@@ -420,14 +473,59 @@ public abstract class AbstractBlockView<InputView extends com.google.blockly.and
 
     /**
      * Update the position of the block in workspace coordinates based on the view's location.
+     *
+     * @param viewPosition The virtual view coordinates of this view, or null if not known.
+     * @return True if {@link #mConnectorsViewPosition} holds the virtual view coordinates of this
+     *         view.
      */
-    private void updateBlockPosition() {
+    private boolean updateBlockPosition(@Nullable ViewPoint viewPosition) {
         // Only update the block position if it isn't a top level block.
         if (mBlock.getPreviousBlock() != null
                 || (mBlock.getOutputConnection() != null
                 && mBlock.getOutputConnection().getTargetBlock() != null)) {
-            mHelper.getWorkspaceCoordinates(this, mTempWorkspacePoint);
+            if (viewPosition == null) {
+                mHelper.getVirtualViewCoordinates(this, mConnectorsViewPosition);
+            } else {
+                mConnectorsViewPosition.setFrom(viewPosition);
+            }
+            int x = mConnectorsViewPosition.x;
+            if (mHelper.useRtl()) {
+                // Same as WorkspaceHelper.getWorkspaceCoordinates(): the block position is the
+                // top-right corner of the view.
+                mConnectorsViewPosition.x += getMeasuredWidth();
+            }
+            mHelper.virtualViewToWorkspaceCoordinates(mConnectorsViewPosition, mTempWorkspacePoint);
+            mConnectorsViewPosition.x = x;
             mBlock.setPosition(mTempWorkspacePoint.x, mTempWorkspacePoint.y);
+            return true;
+        }
+        if (viewPosition != null) {
+            mConnectorsViewPosition.setFrom(viewPosition);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Computes the virtual view coordinates of a child block group into
+     * {@link #mTempChildGroupPosition}, from those of this view.
+     *
+     * @return False if the group is not a descendant of this view.
+     */
+    private boolean getChildGroupPosition(View childGroup) {
+        int x = mConnectorsViewPosition.x;
+        int y = mConnectorsViewPosition.y;
+        View view = childGroup;
+        while (view != this) {
+            x += view.getLeft();
+            y += view.getTop();
+            ViewParent parent = view.getParent();
+            if (!(parent instanceof View)) {
+                return false;
+            }
+            view = (View) parent;
         }
+        mTempChildGroupPosition.set(x, y);
+        return true;
     }
 }
@@ -16,8 +16,10 @@
 package com.google.blockly.android.ui;
 
 import android.content.Context;
+import android.support.annotation.Nullable;
 import android.view.View;
 
+import com.google.blockly.android.control.ConnectionManager;
 import com.google.blockly.model.Block;
 import com.google.blockly.model.WorkspacePoint;
 
@@ -31,6 +33,8 @@ public class BlockGroup extends NonPropagatingViewGroup {
     private final WorkspaceHelper mWorkspaceHelper;
 
     private int mNextBlockVerticalOffset;
+    // Virtual view position of the child being updated by updateAllConnectorLocations(ViewPoint).
+    private final ViewPoint mTempChildPosition = new ViewPoint();
 
     /**
      * Creates a BlockGroup to wrap one or more BlockViews. App developers should not call this
@@ -192,16 +196,60 @@ public class BlockGroup extends NonPropagatingViewGroup {
     }
 
     /**
-     * Force every {@link BlockView} in this group to recalculate the locations of its
-     * connections; used to return the views and models to a consistent state after a drag.
+     * Brings the connection locations of every {@link BlockView} in this group up to date; used to
+     * return the views and models to a consistent state after a drag. Blocks that have not moved
+     * or changed shape since the last update are skipped. The connections of the whole group,
+     * including nested groups, are moved in one bulk update of the {@link ConnectionManager}.
      */
     public void updateAllConnectorLocations() {
+        ViewPoint position = null;
+        if (getParent() instanceof WorkspaceView) {
+            // Root groups are positioned directly in virtual view coordinates.
+            position = mTempChildPosition;
+            position.set(getLeft(), getTop());
+        }
+        updateAllConnectorLocations(position);
+    }
+
+    /**
+     * Same as {@link #updateAllConnectorLocations()}, but computes the positions of nested blocks
+     * from the given position of this group rather than by walking up the view tree.
+     *
+     * @param groupPosition The virtual view coordinates of this group, or null if not known.
+     */
+    void updateAllConnectorLocations(@Nullable ViewPoint groupPosition) {
         int childCount = getChildCount();
-        for (int i = 0; i < childCount; i++) {
-            View child = getChildAt(i);
-            BlockView childBlockView = (BlockView) child;
-            childBlockView.updateConnectorLocations();
-            child.invalidate();
+        if (childCount == 0) {
+            return;
+        }
+        int groupX = groupPosition == null ? 0 : groupPosition.x;
+        int groupY = groupPosition == null ? 0 : groupPosition.y;
+        // Views outside a workspace, such as in a toolbox, may not have a connection manager.
+        ConnectionManager connectionManager =
+                ((BlockView) getChildAt(0)).getConnectionManager();
+        if (connectionManager != null) {
+            connectionManager.startBulkMove();
+        }
+        try {
+            for (int i = 0; i < childCount; i++) {
+                View child = getChildAt(i);
+                BlockView childBlockView = (BlockView) child;
+                if (childBlockView instanceof AbstractBlockView) {
+                    ViewPoint childPosition = null;
+                    if (groupPosition != null) {
+                        childPosition = mTempChildPosition;
+                        childPosition.set(groupX + child.getLeft(), groupY + child.getTop());
+                    }
+                    ((AbstractBlockView) childBlockView).updateConnectorLocations(childPosition);
+                } else {
+                    childBlockView.updateConnectorLocations();
+                }
+                child.invalidate();
+            }
+        } finally {
+            if (connectionManager != null) {
+                connectionManager.finishBulkMove();
+            }
         }
     }
 
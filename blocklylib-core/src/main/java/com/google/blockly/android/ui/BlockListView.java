@@ -28,6 +28,7 @@ import android.widget.FrameLayout;
 import com.google.blockly.android.control.BlocklyController;
 import com.google.blockly.android.control.ConnectionManager;
 import com.google.blockly.model.Block;
+import com.google.blockly.model.Trash;
 import com.google.blockly.model.Workspace;
 import com.google.blockly.model.WorkspacePoint;
 
@@ -56,7 +57,9 @@ public class BlockListView extends RecyclerView {
                                           WorkspacePoint initialBlockPosition);
     }
 
-    private final ArrayList<Block> mBlocks = new ArrayList<>();
+    private List<Block> mBlocks = new ArrayList<>();
+    // Whether mBlocks is owned by the caller of setSharedContents().
+    private boolean mSharedContents = false;
     private final Adapter mAdapter = new Adapter();
 
     private final WorkspacePoint mTempWorkspacePoint = new WorkspacePoint();
@@ -99,7 +102,7 @@ public class BlockListView extends RecyclerView {
 
             // Do not hold any blocks if the controller is unset.
             int priorBlockCount = mBlocks.size();
-            mBlocks.clear();
+            clearContents();
             mAdapter.notifyItemRangeRemoved(0, priorBlockCount-1);
         } else {
             mHelper = controller.getWorkspaceHelper();
@@ -123,17 +126,53 @@ public class BlockListView extends RecyclerView {
     }
 
     public void setContents(List<Block> blocks) {
-        mBlocks.clear();
+        clearContents();
         mBlocks.addAll(blocks);
 
         mAdapter.notifyDataSetChanged();
     }
 
+    /**
+     * Shows {@code blocks} directly instead of a copy. Blocks are only read from the list when they
+     * are bound to a view, so a list that loads blocks on demand, such as the workspace's
+     * {@link Trash}, only loads the blocks scrolled into view. The owner of the list reports
+     * changes to it with {@link #notifyBlockInserted(int)} and {@link #notifyBlockRemoved(int)}.
+     *
+     * @param blocks The blocks to show.
+     */
+    public void setSharedContents(List<Block> blocks) {
+        mBlocks = blocks;
+        mSharedContents = true;
+
+        mAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Updates the views after a block was inserted into the list set by
+     * {@link #setSharedContents(List)}.
+     *
+     * @param position The position of the new block.
+     */
+    public void notifyBlockInserted(int position) {
+        mAdapter.notifyItemInserted(position);
+    }
+
+    /**
+     * Updates the views after a block was removed from the list set by
+     * {@link #setSharedContents(List)}.
+     *
+     * @param position The former position of the removed block.
+     */
+    public void notifyBlockRemoved(int position) {
+        mAdapter.notifyItemRemoved(position);
+    }
+
     public void addBlock(Block block) {
         addBlock(mBlocks.size(), block);
     }
 
     public void addBlock(int insertPostion, Block block) {
+        checkContentsOwned();
         if (insertPostion < 0 || insertPostion > mBlocks.size()) {
             throw new IllegalArgumentException("Invalid position.");
         }
@@ -142,11 +181,29 @@ public class BlockListView extends RecyclerView {
     }
 
     public void removeBlock(Block block) {
+        checkContentsOwned();
         int position = mBlocks.indexOf(block);
         mBlocks.remove(position);
         mAdapter.notifyItemRemoved(position);
     }
 
+    private void clearContents() {
+        if (mSharedContents) {
+            // Never modify the owner's list.
+            mBlocks = new ArrayList<>();
+            mSharedContents = false;
+        } else {
+            mBlocks.clear();
+        }
+    }
+
+    private void checkContentsOwned() {
+        if (mSharedContents) {
+            throw new IllegalStateException(
+                    "Shared contents are changed by their owner, not the BlockListView.");
+        }
+    }
+
     private static class ViewHolder extends RecyclerView.ViewHolder {
         final FrameLayout mContainer;
         BlockGroup bg = null;  // Root of the currently attach block views.
@@ -23,6 +23,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
 
+import com.google.blockly.android.control.ConnectionManager;
 import com.google.blockly.model.Block;
 import com.google.blockly.model.Connection;
 import com.google.blockly.model.Input;
@@ -64,6 +65,13 @@ public interface BlockView {
      */
     WorkspaceView getWorkspaceView();
 
+    /**
+     * @return The {@link ConnectionManager} updated when this view's connections move, or null if
+     *         the view is not part of a workspace.
+     */
+    @Nullable
+    ConnectionManager getConnectionManager();
+
     /**
      * Sets the {@link BlockTouchHandler} to use on this and all subviews.
      *
@@ -24,7 +24,6 @@ import android.support.annotation.Size;
 import android.support.annotation.VisibleForTesting;
 import android.support.v4.view.MotionEventCompat;
 import android.util.Log;
-import android.util.Pair;
 import android.view.DragEvent;
 import android.view.MotionEvent;
 import android.view.View;
@@ -115,6 +114,9 @@ public class Dragger {
     private final int[] mTempScreenCoord2 = new int[2];
     private final ViewPoint mTempViewPoint = new ViewPoint();
     private final WorkspacePoint mTempWorkspacePoint = new WorkspacePoint();
+    // Reused by findBestConnection(..) so the connection search in each frame does not allocate.
+    private final ConnectionManager.Candidate mConnectionCandidate =
+            new ConnectionManager.Candidate();
 
     private Handler mMainHandler;
     private final BlocklyController mController;
@@ -316,11 +318,12 @@ public class Dragger {
         if (mHighlightedBlockView != null) {
             mHighlightedBlockView.setHighlightedConnection(null);
         }
-        Pair<Connection, Connection> connectionCandidate =
+        ConnectionManager.Candidate connectionCandidate =
                 findBestConnection(mPendingDrag.getRootDraggedBlock());
         if (connectionCandidate != null) {
-            mHighlightedBlockView = mHelper.getView(connectionCandidate.second.getBlock());
-            mHighlightedBlockView.setHighlightedConnection(connectionCandidate.second);
+            Connection target = connectionCandidate.getTargetConnection();
+            mHighlightedBlockView = mHelper.getView(target.getBlock());
+            mHighlightedBlockView.setHighlightedConnection(target);
         }
 
         mPendingDrag.getDragGroup().requestLayout();
@@ -332,10 +335,17 @@ public class Dragger {
     void maybeConnectDragGroup() {
         Block dragRoot = mPendingDrag.getRootDraggedBlock();
 
+        // The block was repositioned directly during the drag.
+        WorkspacePoint originalPosition = mPendingDrag.getOriginalBlockPosition();
+        if (!originalPosition.equals(dragRoot.getPosition())) {
+            mController.recordRootBlockMove(dragRoot, originalPosition);
+        }
+
         // Maybe snap to connections.
-        Pair<Connection, Connection> connectionCandidate = findBestConnection(dragRoot);
+        ConnectionManager.Candidate connectionCandidate = findBestConnection(dragRoot);
         if (connectionCandidate != null) {
-            mController.connect(connectionCandidate.first, connectionCandidate.second);
+            mController.connect(connectionCandidate.getBlockConnection(),
+                    connectionCandidate.getTargetConnection());
             // .connect(..) includes bumping block within snap distance of the new location.
         } else {
             // Even if no connection is found, still bump any neighbors within snap distance of the
@@ -350,19 +360,20 @@ public class Dragger {
      */
     // TODO(305): Revert actions when behavior == FINISH_BEHAVIOR_REVERT
     private void finishDragging(@FinishDragBehavior int behavior) {
+        mConnectionManager.finishDragSession();
         if (behavior == FINISH_BEHAVIOR_DROP || behavior == FINISH_BEHAVIOR_REVERT) {
-            // Update the drag group so that everything that has been changed will be properly
-            // invalidated. Also, update the positions of all of the connections that were impacted
-            // by the move and add them back to the manager. All of the connection locations will be
-            // set relative to their block views immediately after this loop.  For now we just want
-            // to unset drag mode and add the connections back to the list; 0, 0 is a cheap place to
-            // put them.
-            // Dragged connections may be empty, especially if the
-            for (int i = 0; i < mDraggedConnections.size(); i++) {
-                Connection cur = mDraggedConnections.get(i);
-                cur.setPosition(0, 0);
-                cur.setDragMode(false);
-                mConnectionManager.addConnection(cur);
+            // Add the dragged connections back to the manager. Their positions were kept up to date
+            // during the drag, so they are added where they are, in one bulk update, rather than
+            // piling into one spot until the next layout moves them.
+            mConnectionManager.startBulkMove();
+            try {
+                for (int i = 0; i < mDraggedConnections.size(); i++) {
+                    Connection cur = mDraggedConnections.get(i);
+                    cur.setDragMode(false);
+                    mConnectionManager.addConnection(cur);
+                }
+            } finally {
+                mConnectionManager.finishBulkMove();
             }
         }
         mDraggedConnections.clear();
@@ -377,7 +388,19 @@ public class Dragger {
             if (blockView != null) {
                 ((View) blockView).setPressed(false);
             } // else, trashing or similar manipulation made the view disappear.
+            PendingDrag finished = mPendingDrag;
             mPendingDrag = null;
+            endEventGroup(finished);
+        }
+    }
+
+    /**
+     * Ends the event group started for a drag, if any. A tap or a drag that never started does not
+     * open a group.
+     */
+    private void endEventGroup(PendingDrag pendingDrag) {
+        if (pendingDrag.clearEventGroupStarted()) {
+            mController.endEventGroup();
         }
     }
 
@@ -425,7 +448,9 @@ public class Dragger {
         if (mPendingDrag != null) {
             matchesPending = mPendingDrag.isMatchAndProcessed(event, touchedView);
             if (!matchesPending && !mPendingDrag.isAlive()) {
-                mPendingDrag = null;  // Was a part of previous gesture. Delete.
+                // Was a part of previous gesture, such as a drag whose drop never arrived. Delete.
+                endEventGroup(mPendingDrag);
+                mPendingDrag = null;
             }
         }
 
@@ -554,6 +579,10 @@ public class Dragger {
                         return; // Ignore.  Probably being handled by a child view.
                     }
 
+                    // All model changes of the drag share one event group, from extracting
+                    // the dragged block through the drop.
+                    mController.startEventGroup();
+                    pendingDrag.markEventGroupStarted();
                     dragGroupCreator.run();
                     boolean dragStarted = pendingDrag.isDragging();
                     if (dragStarted) {
@@ -565,12 +594,14 @@ public class Dragger {
 
                         Block rootBlock = dragGroup.getFirstBlock();
                         removeDraggedConnectionsFromConnectionManager(rootBlock);
+                        mConnectionManager.startDragSession(rootBlock);
                         ClipData clipData = ClipData.newPlainText(
                                 WorkspaceView.BLOCK_GROUP_CLIP_DATA_LABEL, "");
                         dragGroup.startDrag(clipData,
                                 new View.DragShadowBuilder(), null, 0);
                     } else {
                         mPendingDrag = null;
+                        endEventGroup(pendingDrag);
                     }
                 }
             });
@@ -660,7 +691,8 @@ public class Dragger {
         mPendingDrag.getDragGroup().requestLayout();
     }
 
-    private Pair<Connection, Connection> findBestConnection(Block block) {
-        return mConnectionManager.findBestConnection(block, mHelper.getMaxSnapDistance());
+    private ConnectionManager.Candidate findBestConnection(Block block) {
+        return mConnectionManager.findBestConnection(
+                block, mHelper.getMaxSnapDistance(), mConnectionCandidate);
     }
 }
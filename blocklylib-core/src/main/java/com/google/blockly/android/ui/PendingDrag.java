@@ -65,6 +65,8 @@ public final class PendingDrag {
     private long mLatestEventTime;
     private boolean mAlive = true;
     private boolean mClicked;
+    // Whether the Dragger started an event group for this drag, which it must end.
+    private boolean mEventGroupStarted;
 
     /**
      * Constructs a new PendingDrag that, if accepted by the DragHandler, begins with the
@@ -221,6 +223,24 @@ public final class PendingDrag {
         return mClicked;
     }
 
+    /**
+     * Records that the {@link Dragger} started an event group for this drag.
+     */
+    void markEventGroupStarted() {
+        mEventGroupStarted = true;
+    }
+
+    /**
+     * Clears the mark set by {@link #markEventGroupStarted()}, so the group is ended only once.
+     *
+     * @return True if an event group was started for this drag and has not been ended.
+     */
+    boolean clearEventGroupStarted() {
+        boolean started = mEventGroupStarted;
+        mEventGroupStarted = false;
+        return started;
+    }
+
     /**
      * Compares if {@code event} on {@code touchedView} is a continuation of the event stream
      * tracked by this PendingDrag.  This includes whether the event stream has had sufficient
@@ -135,11 +135,12 @@ public class WorkspaceHelper {
      * Convenience method for {@link BlockViewFactory#getView(Block)}.
      *
      * @param block The Block to view.
-     * @return The view that was constructed for a given Block object, if any.
+     * @return The view that was constructed for a given Block object, if any. Always null without
+     *         a {@link BlockViewFactory}, such as for a headless controller.
      */
     @Nullable
     public BlockView getView(Block block) {
-        return mViewFactory.getView(block);
+        return (mViewFactory == null) ? null : mViewFactory.getView(block);
     }
 
     /**
@@ -16,9 +16,9 @@
 package com.google.blockly.model;
 
 import android.support.annotation.Nullable;
-import android.text.TextUtils;
 
 import com.google.blockly.utils.ColorUtils;
+import com.google.blockly.utils.StringUtils;
 
 import org.xmlpull.v1.XmlSerializer;
 
@@ -764,7 +764,7 @@ public class Block {
     /*package*/
     static List<String> tokenizeMessage(String message) {
         ArrayList<String> result = new ArrayList<>();
-        if (TextUtils.isEmpty(message)) {
+        if (StringUtils.isEmpty(message)) {
             return result;
         }
         boolean foundPercent = false;
@@ -792,7 +792,7 @@ public class Block {
                     continue;
                 } else {
                     String potentialText = message.substring(lastSplit, lastPercent).trim();
-                    if (!TextUtils.isEmpty(potentialText)) {
+                    if (!StringUtils.isEmpty(potentialText)) {
                         result.add(potentialText);
                     }
                     result.add(message.substring(lastPercent, i));
@@ -805,13 +805,13 @@ public class Block {
             // We have remaining pieces to split
             if (lastPercent > lastSplit) {
                 String potentialText = message.substring(lastSplit, lastPercent).trim();
-                if (!TextUtils.isEmpty(potentialText)) {
+                if (!StringUtils.isEmpty(potentialText)) {
                     result.add(potentialText);
                 }
                 result.add(message.substring(lastPercent, message.length()));
             } else {
                 String potentialText = message.substring(lastSplit, message.length()).trim();
-                if (!TextUtils.isEmpty(potentialText)) {
+                if (!StringUtils.isEmpty(potentialText)) {
                     result.add(potentialText);
                 }
             }
@@ -18,11 +18,11 @@ package com.google.blockly.model;
 import android.content.Context;
 import android.content.res.Resources;
 import android.support.annotation.Nullable;
-import android.text.TextUtils;
-import android.util.Log;
 
 import com.google.blockly.utils.BlockLoadingException;
 import com.google.blockly.utils.ColorUtils;
+import com.google.blockly.utils.ModelLog;
+import com.google.blockly.utils.StringUtils;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -96,7 +96,7 @@ public class BlockFactory {
      */
     public void addBlockTemplate(Block block) {
         if (mBlockTemplates.containsKey(block.getType())) {
-            Log.i(TAG, "Replacing block: " + block.getType());
+            ModelLog.i(TAG, "Replacing block: " + block.getType());
         }
         mBlockTemplates.put(block.getType(), new Block.Builder(block).build());
     }
@@ -138,7 +138,7 @@ public class BlockFactory {
 
         // Existing instance not found.  Constructing a new one.
         if (!mBlockTemplates.containsKey(prototypeName)) {
-            Log.w(TAG, "Block " + prototypeName + " not found.");
+            ModelLog.w(TAG, "Block " + prototypeName + " not found.");
             return null;
         }
         Block.Builder builder = new Block.Builder(mBlockTemplates.get(prototypeName));
@@ -150,6 +150,40 @@ public class BlockFactory {
         return block;
     }
 
+    /**
+     * Finds a block previously obtained from this factory, including blocks loaded from XML.
+     *
+     * @param uuid The id of the block.
+     * @return The block with the given id, or null if it does not exist or was garbage collected.
+     */
+    @Nullable
+    public Block getBlockById(String uuid) {
+        WeakReference<Block> ref = mBlockRefs.get(uuid);
+        return (ref == null) ? null : ref.get();
+    }
+
+    /**
+     * Registers {@code block} and all of its descendants, so they can be found via
+     * {@link #getBlockById(String)} after {@link #clearPriorBlockReferences()}.
+     *
+     * @param block The root of the blocks to register.
+     */
+    void addBlockReferences(Block block) {
+        mBlockRefs.put(block.getId(), new WeakReference<>(block));
+        List<Input> inputs = block.getInputs();
+        int inputCount = inputs.size();
+        for (int i = 0; i < inputCount; ++i) {
+            Block connectedBlock = inputs.get(i).getConnectedBlock();
+            if (connectedBlock != null) {
+                addBlockReferences(connectedBlock);
+            }
+        }
+        Block next = block.getNextBlock();
+        if (next != null) {
+            addBlockReferences(next);
+        }
+    }
+
     /**
      * @return The list of known blocks that can be created.
      */
@@ -212,7 +246,7 @@ public class BlockFactory {
      * @throws BlockLoadingException if the json is malformed.
      */
     public Block fromJson(String type, JSONObject json) throws BlockLoadingException {
-        if (TextUtils.isEmpty(type)) {
+        if (StringUtils.isEmpty(type)) {
             throw new IllegalArgumentException("Block type may not be null or empty.");
         }
         if (json == null) {
@@ -310,7 +344,7 @@ public class BlockFactory {
                     }
                     while (element != null) {
                         String elementType = element.optString("type");
-                        if (TextUtils.isEmpty(elementType)) {
+                        if (StringUtils.isEmpty(elementType)) {
                             throw new BlockLoadingException("No type for arg %" + index);
                         }
 
@@ -325,13 +359,13 @@ public class BlockFactory {
                             break;
                         } else {
                             // Try getting the fallback block if it exists
-                            Log.w(TAG, "Unknown element type: " + elementType);
+                            ModelLog.w(TAG, "Unknown element type: " + elementType);
                             element = element.optJSONObject("alt");
                         }
                     }
                 } else {
                     token = token.replace("%%", "%").trim();
-                    if (!TextUtils.isEmpty(token)) {
+                    if (!StringUtils.isEmpty(token)) {
                         fields.add(new FieldLabel(null, token));
                     }
                 }
@@ -404,7 +438,7 @@ public class BlockFactory {
             case Field.TYPE_DROPDOWN_STRING:
                 field = FieldDropdown.fromJson(json);
                 String fieldName = field.getName();
-                if (!TextUtils.isEmpty(blockType) && !TextUtils.isEmpty(fieldName)) {
+                if (!StringUtils.isEmpty(blockType) && !StringUtils.isEmpty(fieldName)) {
                     // While block type names should be unique, if there is a collision, the latest
                     // block and its option type wins.
                     mDropdownOptions.put(
@@ -419,7 +453,7 @@ public class BlockFactory {
                 field = FieldNumber.fromJson(json);
                 break;
             default:
-                Log.w(TAG, "Unknown field type.");
+                ModelLog.w(TAG, "Unknown field type.");
                 break;
         }
         return field;
@@ -693,7 +727,7 @@ public class BlockFactory {
             for (int i = 0; i < blocks.length(); i++) {
                 JSONObject block = blocks.getJSONObject(i);
                 String type = block.optString("type");
-                if (!TextUtils.isEmpty(type)) {
+                if (!StringUtils.isEmpty(type)) {
                     mBlockTemplates.put(type, fromJson(type, block));
                     ++blockAddedCount;
                 } else {
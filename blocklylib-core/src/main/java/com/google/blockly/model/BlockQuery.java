@@ -0,0 +1,232 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.annotation.Nullable;
+
+import com.google.blockly.utils.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A query for the blocks in a {@link Workspace} that match a block type, field values and
+ * ancestors. All conditions of a query must match. Run queries with
+ * {@link Workspace#findBlocks(BlockQuery, List)}.
+ * <p/>
+ * Conditions on fields named with {@link Workspace#addFieldIndex(String)} are answered from the
+ * index, so a lookup of an exact field value costs time proportional to the number of results.
+ */
+public class BlockQuery {
+    /**
+     * Tests the value of a field.
+     */
+    public interface ValuePredicate {
+        /**
+         * @param value The field's value, in serialized string form.
+         * @return True if the value matches.
+         */
+        boolean matches(String value);
+    }
+
+    /**
+     * A condition on the value of the field with a given name. Matches either one value, or the
+     * values accepted by a {@link ValuePredicate}.
+     */
+    public static final class FieldCondition {
+        private final String mFieldName;
+        private final String mValue;
+        private final ValuePredicate mPredicate;
+
+        private FieldCondition(String fieldName, String value, ValuePredicate predicate) {
+            mFieldName = fieldName;
+            mValue = value;
+            mPredicate = predicate;
+        }
+
+        /**
+         * @return The name of the field to test.
+         */
+        public String getFieldName() {
+            return mFieldName;
+        }
+
+        /**
+         * @return The value the field must have, or null if a predicate is used instead.
+         */
+        @Nullable
+        public String getValue() {
+            return mValue;
+        }
+
+        /**
+         * @return The predicate the field's value must match, or null if an exact value is used.
+         */
+        @Nullable
+        public ValuePredicate getPredicate() {
+            return mPredicate;
+        }
+
+        /**
+         * @param value A field value, in serialized string form.
+         * @return True if the value satisfies this condition.
+         */
+        public boolean matches(String value) {
+            return mPredicate == null ? StringUtils.equals(mValue, value) : mPredicate.matches(value);
+        }
+    }
+
+    private final String mType;
+    private final List<FieldCondition> mFieldConditions;
+    private final Block mAncestor;
+    private final String mAncestorType;
+
+    private BlockQuery(Builder builder) {
+        mType = builder.mType;
+        mFieldConditions = Collections.unmodifiableList(
+                new ArrayList<>(builder.mFieldConditions));
+        mAncestor = builder.mAncestor;
+        mAncestorType = builder.mAncestorType;
+    }
+
+    /**
+     * @return The type of the blocks to find, or null to match any type.
+     */
+    @Nullable
+    public String getType() {
+        return mType;
+    }
+
+    /**
+     * @return The conditions on field values, in the order they were added.
+     */
+    public List<FieldCondition> getFieldConditions() {
+        return mFieldConditions;
+    }
+
+    /**
+     * @return The block the results must descend from, or null.
+     */
+    @Nullable
+    public Block getAncestor() {
+        return mAncestor;
+    }
+
+    /**
+     * @return The type of a block the results must descend from, or null.
+     */
+    @Nullable
+    public String getAncestorType() {
+        return mAncestorType;
+    }
+
+    /**
+     * Tests a block against every condition of this query. Fields are found with
+     * {@link Block#getFieldByName(String)} and ancestors with {@link Block#getParentBlock()}, so
+     * the blocks before a block in a statement sequence count as its ancestors.
+     *
+     * @param block The block to test.
+     * @return True if the block matches the query.
+     */
+    public boolean matches(Block block) {
+        if (mType != null && !mType.equals(block.getType())) {
+            return false;
+        }
+        for (int i = 0; i < mFieldConditions.size(); i++) {
+            FieldCondition condition = mFieldConditions.get(i);
+            Field field = block.getFieldByName(condition.getFieldName());
+            if (field == null || !condition.matches(field.getSerializedValue())) {
+                return false;
+            }
+        }
+        if (mAncestor == null && mAncestorType == null) {
+            return true;
+        }
+        boolean foundAncestor = mAncestor == null;
+        boolean foundAncestorType = mAncestorType == null;
+        Block parent = block.getParentBlock();
+        while (parent != null && !(foundAncestor && foundAncestorType)) {
+            foundAncestor |= parent == mAncestor;
+            foundAncestorType |= parent.getType().equals(mAncestorType);
+            parent = parent.getParentBlock();
+        }
+        return foundAncestor && foundAncestorType;
+    }
+
+    /**
+     * Builder for {@link BlockQuery}. A builder with no conditions matches every block.
+     */
+    public static class Builder {
+        private String mType;
+        private final List<FieldCondition> mFieldConditions = new ArrayList<>();
+        private Block mAncestor;
+        private String mAncestorType;
+
+        /**
+         * @param type The type of the blocks to find, or null to match any type.
+         */
+        public Builder setType(@Nullable String type) {
+            mType = type;
+            return this;
+        }
+
+        /**
+         * Requires the field with the given name to have the given value.
+         *
+         * @param fieldName The name of the field.
+         * @param value The value, in serialized string form.
+         */
+        public Builder addFieldValue(String fieldName, String value) {
+            mFieldConditions.add(new FieldCondition(fieldName, value, null));
+            return this;
+        }
+
+        /**
+         * Requires the field with the given name to have a value accepted by the predicate.
+         *
+         * @param fieldName The name of the field.
+         * @param predicate The test for the field's value.
+         */
+        public Builder addFieldPredicate(String fieldName, ValuePredicate predicate) {
+            if (predicate == null) {
+                throw new IllegalArgumentException("Predicate may not be null.");
+            }
+            mFieldConditions.add(new FieldCondition(fieldName, null, predicate));
+            return this;
+        }
+
+        /**
+         * @param ancestor The block the results must descend from, or null.
+         */
+        public Builder setAncestor(@Nullable Block ancestor) {
+            mAncestor = ancestor;
+            return this;
+        }
+
+        /**
+         * @param type The type of a block the results must descend from, or null.
+         */
+        public Builder setAncestorType(@Nullable String type) {
+            mAncestorType = type;
+            return this;
+        }
+
+        public BlockQuery build() {
+            return new BlockQuery(this);
+        }
+    }
+}
@@ -18,10 +18,10 @@ package com.google.blockly.model;
 import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
-import android.text.TextUtils;
-import android.util.Log;
 
 import com.google.blockly.android.ui.InputView;
+import com.google.blockly.utils.ModelLog;
+import com.google.blockly.utils.StringUtils;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -391,7 +391,7 @@ public class Connection implements Cloneable {
         // n^2 approach should be fine.
         for (int i = 0; i < mConnectionChecks.length; i++) {
             for (int j = 0; j < target.mConnectionChecks.length; j++) {
-                if (TextUtils.equals(mConnectionChecks[i], target.mConnectionChecks[j])) {
+                if (StringUtils.equals(mConnectionChecks[i], target.mConnectionChecks[j])) {
                     return true;
                 }
             }
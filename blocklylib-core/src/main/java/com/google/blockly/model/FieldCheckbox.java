@@ -15,9 +15,8 @@
 
 package com.google.blockly.model;
 
-import android.text.TextUtils;
-
 import com.google.blockly.utils.BlockLoadingException;
+import com.google.blockly.utils.StringUtils;
 
 import org.json.JSONObject;
 
@@ -34,7 +33,7 @@ public final class FieldCheckbox extends Field {
 
     public static FieldCheckbox fromJson(JSONObject json) throws BlockLoadingException {
         String name = json.optString("name");
-        if (TextUtils.isEmpty(name)) {
+        if (StringUtils.isEmpty(name)) {
             throw new BlockLoadingException("field_checkbox \"name\" attribute must not be empty.");
         }
 
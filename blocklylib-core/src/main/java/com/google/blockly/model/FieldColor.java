@@ -16,9 +16,9 @@
 package com.google.blockly.model;
 
 import android.graphics.Color;
-import android.text.TextUtils;
 
 import com.google.blockly.utils.BlockLoadingException;
+import com.google.blockly.utils.StringUtils;
 
 import org.json.JSONObject;
 
@@ -41,13 +41,13 @@ public final class FieldColor extends Field {
 
     public static FieldColor fromJson(JSONObject json) throws BlockLoadingException {
         String name = json.optString("name");
-        if (TextUtils.isEmpty(name)) {
+        if (StringUtils.isEmpty(name)) {
             throw new BlockLoadingException("field_colour \"name\" attribute must not be empty.");
         }
         int color = DEFAULT_COLOR;
 
         String colourString = json.optString("colour");
-        if (!TextUtils.isEmpty(colourString)) {
+        if (!StringUtils.isEmpty(colourString)) {
             color = Color.parseColor(colourString);
         }
         return new FieldColor(name, color);
@@ -16,10 +16,10 @@
 package com.google.blockly.model;
 
 import android.support.annotation.VisibleForTesting;
-import android.text.TextUtils;
-import android.util.Log;
 
 import com.google.blockly.utils.BlockLoadingException;
+import com.google.blockly.utils.ModelLog;
+import com.google.blockly.utils.StringUtils;
 
 import org.json.JSONObject;
 
@@ -58,12 +58,12 @@ public final class FieldDate extends Field {
 
     public static FieldDate fromJson(JSONObject json) throws BlockLoadingException {
         String name = json.optString("name");
-        if (TextUtils.isEmpty(name)) {
+        if (StringUtils.isEmpty(name)) {
             throw new BlockLoadingException("field_date \"name\" attribute must not be empty.");
         }
         FieldDate field = new FieldDate(name);
         String dateStr = json.optString("date");
-        if (!TextUtils.isEmpty(dateStr) && !field.setFromString(dateStr)) {
+        if (!StringUtils.isEmpty(dateStr) && !field.setFromString(dateStr)) {
             throw new BlockLoadingException("Unable to parse date: " + dateStr);
         }
         return field;
@@ -82,7 +82,7 @@ public final class FieldDate extends Field {
             setDate(date);
             return true;
         } catch (ParseException e) {
-            Log.e(TAG, "Unable to parse date " + text, e);
+            ModelLog.e(TAG, "Unable to parse date " + text, e);
             return false;
         }
     }
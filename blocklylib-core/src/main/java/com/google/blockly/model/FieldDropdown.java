@@ -18,9 +18,9 @@ package com.google.blockly.model;
 import android.database.Observable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.text.TextUtils;
 
 import com.google.blockly.utils.BlockLoadingException;
+import com.google.blockly.utils.StringUtils;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -44,11 +44,11 @@ public final class FieldDropdown extends Field {
         public final String displayName;
 
         public Option(String value, String displayName) {
-            if (TextUtils.isEmpty(value)) {
+            if (StringUtils.isEmpty(value)) {
                 throw new IllegalArgumentException("Dropdown option value cannot be null or empty");
             }
             this.value = value;
-            this.displayName = TextUtils.isEmpty(displayName) ? value : displayName;
+            this.displayName = StringUtils.isEmpty(displayName) ? value : displayName;
         }
     }
 
@@ -110,7 +110,7 @@ public final class FieldDropdown extends Field {
             int count = mOptionList.size();
             for (int i = 0; i < count; ++i) {
                 Option option = mOptionList.get(i);
-                if (TextUtils.equals(value, option.value)) {
+                if (StringUtils.equals(value, option.value)) {
                     return i;
                 }
             }
@@ -195,7 +195,7 @@ public final class FieldDropdown extends Field {
      */
     public static FieldDropdown fromJson(JSONObject json) throws BlockLoadingException {
         String name = json.optString("name");
-        if (TextUtils.isEmpty(name)) {
+        if (StringUtils.isEmpty(name)) {
             throw new BlockLoadingException("field_dropdown \"name\" attribute must not be empty.");
         }
 
@@ -216,7 +216,7 @@ public final class FieldDropdown extends Field {
                     try {
                         String displayName = option.getString(0);
                         String value = option.getString(1);
-                        if (TextUtils.isEmpty(value)) {
+                        if (StringUtils.isEmpty(value)) {
                             throw new BlockLoadingException("Option values may not be empty");
                         }
                         optionList.add(new Option(value, displayName));
@@ -15,7 +15,7 @@
 
 package com.google.blockly.model;
 
-import android.text.TextUtils;
+import com.google.blockly.utils.StringUtils;
 
 import org.json.JSONObject;
 
@@ -95,7 +95,7 @@ public final class FieldImage extends Field {
      * @param height The display height of the image in dips.
      */
     public void setImage(String src, int width, int height) {
-        if (!TextUtils.equals(mSrc, src) || mWidth != width || mHeight != height) {
+        if (!StringUtils.equals(mSrc, src) || mWidth != width || mHeight != height) {
             mSrc = src;
             mWidth = width;
             mHeight = height;
@@ -15,9 +15,8 @@
 
 package com.google.blockly.model;
 
-import android.text.TextUtils;
-
 import com.google.blockly.utils.BlockLoadingException;
+import com.google.blockly.utils.StringUtils;
 
 import org.json.JSONObject;
 
@@ -34,7 +33,7 @@ public final class FieldInput extends Field {
 
     public static FieldInput fromJson(JSONObject json) throws BlockLoadingException {
         String name = json.optString("name");
-        if (TextUtils.isEmpty(name)) {
+        if (StringUtils.isEmpty(name)) {
             throw new BlockLoadingException("field_input \"name\" attribute must not be empty.");
         }
         // TODO: consider replacing default text with string resource
@@ -65,7 +64,7 @@ public final class FieldInput extends Field {
      * @param text The text to replace the field content with.
      */
     public void setText(String text) {
-        if (!TextUtils.equals(text, mText)) {
+        if (!StringUtils.equals(text, mText)) {
             String oldText = mText;
             mText = text;
             fireValueChanged(oldText, text);
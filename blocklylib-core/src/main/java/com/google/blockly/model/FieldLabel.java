@@ -15,7 +15,7 @@
 
 package com.google.blockly.model;
 
-import android.text.TextUtils;
+import com.google.blockly.utils.StringUtils;
 
 import org.json.JSONObject;
 
@@ -55,7 +55,7 @@ public final class FieldLabel extends Field {
      * {@link FieldInput} instead.
      */
     public void setText(String text) {
-        if (!TextUtils.equals(text, mText)) {
+        if (!StringUtils.equals(text, mText)) {
             mText = text;
         }
     }
@@ -15,11 +15,10 @@
 
 package com.google.blockly.model;
 
-import android.text.TextUtils;
-import android.util.Log;
-
 import com.google.blockly.android.control.BlocklyEvent.ChangeEvent;
 import com.google.blockly.utils.BlockLoadingException;
+import com.google.blockly.utils.ModelLog;
+import com.google.blockly.utils.StringUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -200,20 +199,20 @@ public final class FieldNumber extends Field {
      */
     @Override
     public boolean setFromString(String text) {
-        if (TextUtils.isEmpty(text)) {
-            Log.e(TAG, "text was empty" + (text == null ? "(null)" : ""));
+        if (StringUtils.isEmpty(text)) {
+            ModelLog.e(TAG, "text was empty" + (text == null ? "(null)" : ""));
             return false;
         }
         try {
             double value = Double.parseDouble(text);
             if (Double.isNaN(value)) {
-                Log.e(TAG, "Value cannot be NaN");
+                ModelLog.e(TAG, "Value cannot be NaN");
                 return false;
             }
             setValue(value);
             return true;
         } catch (NumberFormatException e) {
-            Log.e(TAG, "Not a number: \"" + text + "\"");
+            ModelLog.e(TAG, "Not a number: \"" + text + "\"");
             return false;
         }
     }
@@ -15,9 +15,8 @@
 
 package com.google.blockly.model;
 
-import android.text.TextUtils;
-
 import com.google.blockly.utils.BlockLoadingException;
+import com.google.blockly.utils.StringUtils;
 
 import org.json.JSONObject;
 
@@ -34,7 +33,7 @@ public final class FieldVariable extends Field {
 
     public static FieldVariable fromJson(JSONObject json) throws BlockLoadingException {
         String name = json.optString("name");
-        if (TextUtils.isEmpty(name)) {
+        if (StringUtils.isEmpty(name)) {
             throw new BlockLoadingException("field_variable \"name\" attribute must not be empty.");
         }
         return new FieldVariable(name, json.optString("variable", "item"));
@@ -47,7 +46,7 @@ public final class FieldVariable extends Field {
 
     @Override
     public boolean setFromString(String text) {
-        if (TextUtils.isEmpty(text)) {
+        if (StringUtils.isEmpty(text)) {
             return false;
         }
         setVariable(text);
@@ -15,11 +15,10 @@
 
 package com.google.blockly.model;
 
-import android.text.TextUtils;
-import android.util.Log;
-
 import com.google.blockly.android.ToolboxFragment;
 import com.google.blockly.utils.ColorUtils;
+import com.google.blockly.utils.ModelLog;
+import com.google.blockly.utils.StringUtils;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -133,15 +132,15 @@ public class ToolboxCategory {
         result.mCategoryName = parser.getAttributeValue("", "name");
         result.mCustomType = parser.getAttributeValue("", "custom");
         result.mIsVariableCategory = result.mCustomType != null
-                && TextUtils.equals("VARIABLE", result.mCustomType.toUpperCase());
+                && StringUtils.equals("VARIABLE", result.mCustomType.toUpperCase());
         result.mIsFunctionCategory = result.mCustomType != null
-                && TextUtils.equals("FUNCTION", result.mCustomType.toUpperCase());
+                && StringUtils.equals("FUNCTION", result.mCustomType.toUpperCase());
         String colourAttr = parser.getAttributeValue("", "colour");
-        if (!TextUtils.isEmpty(colourAttr)) {
+        if (!StringUtils.isEmpty(colourAttr)) {
             try {
                 result.mColor = ColorUtils.parseColor(colourAttr, TEMP_IO_THREAD_FLOAT_ARRAY);
             } catch (ParseException e) {
-                Log.w(TAG, "Invalid toolbox category colour \"" + colourAttr + "\"");
+                ModelLog.w(TAG, "Invalid toolbox category colour \"" + colourAttr + "\"");
             }
         }
         int eventType = parser.next();
@@ -0,0 +1,392 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.annotation.Nullable;
+
+import com.google.blockly.utils.BlocklyXmlHelper;
+import com.google.blockly.utils.ModelLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The root blocks in a {@link Workspace}'s trash, newest first.
+ * <p/>
+ * By default every trashed block is kept in memory. With a spill file set by
+ * {@link #setSpillFile(File)}, the trash keeps at most the number of blocks and bytes of XML set by
+ * {@link #setMemoryLimits(int, long)} in memory, and writes the least recently used blocks to the
+ * file as compressed XML. A written block is read back when it is requested with
+ * {@link #get(int)}, such as when the trash list scrolls to it, or when it is restored to the
+ * workspace. Blocks that are still referenced elsewhere, such as by a view, are reused rather than
+ * read back.
+ * <p/>
+ * {@link #contains(Object)}, {@link #indexOf(Object)} and {@link #remove(Object)} find blocks by
+ * id, so they do not read blocks back from the file.
+ */
+public class Trash extends AbstractList<Block> {
+    private static final String TAG = "Trash";
+
+    private final BlockFactory mBlockFactory;
+
+    // Oldest first, so trashing a block appends to the list.
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private final HashMap<String, Entry> mEntriesById = new HashMap<>();
+    // The entries with blocks in memory, least recently used first.
+    private final LinkedHashSet<Entry> mLoadedEntries = new LinkedHashSet<>();
+    private long mLoadedBytes = 0;
+
+    private int mMaxLoadedEntries = Integer.MAX_VALUE;
+    private long mMaxLoadedBytes = Long.MAX_VALUE;
+    private File mSpillFile = null;
+    private RandomAccessFile mSpillStore = null;
+    private int mSpilledEntryCount = 0;
+
+    Trash(BlockFactory blockFactory) {
+        mBlockFactory = blockFactory;
+    }
+
+    /**
+     * Sets how many blocks are kept in memory when a spill file is set. Sizes are measured as the
+     * length of the blocks' XML.
+     *
+     * @param maxBlocks The maximum number of root blocks to keep in memory.
+     * @param maxBytes The maximum total size of the blocks kept in memory, or
+     *                 {@link Long#MAX_VALUE} to not measure block sizes.
+     */
+    public void setMemoryLimits(int maxBlocks, long maxBytes) {
+        if (maxBlocks < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Trash memory limits must be positive.");
+        }
+        mMaxLoadedEntries = maxBlocks;
+        mMaxLoadedBytes = maxBytes;
+        if (maxBytes != Long.MAX_VALUE) {
+            for (Entry entry : mLoadedEntries) {
+                measure(entry);
+            }
+        }
+        enforceLimits(null);
+    }
+
+    /**
+     * Sets the file blocks are written to when the trash holds more than its memory limits. The
+     * previous contents of the file are discarded. Setting the file to null reads every written
+     * block back into memory.
+     *
+     * @param spillFile The file to write trashed blocks to, such as a file in the application's
+     *                  cache directory, or null to keep all blocks in memory.
+     */
+    public void setSpillFile(@Nullable File spillFile) {
+        if (mSpillStore != null) {
+            for (int i = 0; i < mEntries.size(); i++) {
+                load(mEntries.get(i));
+            }
+            closeSpillStore();
+        }
+        mSpillFile = spillFile;
+        enforceLimits(null);
+    }
+
+    @Override
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Gets a trashed block, reading it back from the spill file if needed. This may write other
+     * blocks to the file to stay within the memory limits.
+     *
+     * @param index The position of the block in the trash, newest first.
+     * @return The trashed block.
+     * @throws BlocklyParserException If the block could not be read back.
+     */
+    @Override
+    public Block get(int index) {
+        Entry entry = mEntries.get(toEntryIndex(index));
+        Block block = load(entry);
+        enforceLimits(entry);
+        return block;
+    }
+
+    /**
+     * @param index The position of the block in the trash, newest first.
+     * @return The trashed block if it is in memory, or null if it would have to be read back from
+     *         the spill file.
+     */
+    @Nullable
+    public Block getIfLoaded(int index) {
+        Entry entry = mEntries.get(toEntryIndex(index));
+        return entry.mBlock != null ? entry.mBlock : mBlockFactory.getBlockById(entry.mBlockId);
+    }
+
+    @Override
+    public void add(int index, Block block) {
+        if (index < 0 || index > mEntries.size()) {
+            throw new IndexOutOfBoundsException("Invalid trash position " + index);
+        }
+        if (mEntriesById.containsKey(block.getId())) {
+            throw new IllegalArgumentException("Block is already in the trash.");
+        }
+        Entry entry = new Entry(block);
+        mEntries.add(mEntries.size() - index, entry);
+        mEntriesById.put(block.getId(), entry);
+        addLoaded(entry);
+        ++modCount;
+        enforceLimits(entry);
+    }
+
+    @Override
+    public Block remove(int index) {
+        Entry entry = mEntries.get(toEntryIndex(index));
+        Block block = load(entry);
+        removeEntry(entry);
+        return block;
+    }
+
+    @Override
+    public boolean remove(Object block) {
+        Entry entry = findEntry(block);
+        if (entry == null) {
+            return false;
+        }
+        removeEntry(entry);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object block) {
+        return findEntry(block) != null;
+    }
+
+    @Override
+    public int indexOf(Object block) {
+        Entry entry = findEntry(block);
+        if (entry == null) {
+            return -1;
+        }
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            if (mEntries.get(i) == entry) {
+                return toEntryIndex(i);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object block) {
+        return indexOf(block);
+    }
+
+    @Override
+    public void clear() {
+        mEntries.clear();
+        mEntriesById.clear();
+        mLoadedEntries.clear();
+        mLoadedBytes = 0;
+        mSpilledEntryCount = 0;
+        truncateSpillStore();
+        ++modCount;
+    }
+
+    // Converts between positions newest first and positions in mEntries. The conversion is its
+    // own inverse.
+    private int toEntryIndex(int index) {
+        return mEntries.size() - 1 - index;
+    }
+
+    @Nullable
+    private Entry findEntry(Object block) {
+        if (!(block instanceof Block)) {
+            return null;
+        }
+        return mEntriesById.get(((Block) block).getId());
+    }
+
+    private void removeEntry(Entry entry) {
+        mEntries.remove(entry);
+        mEntriesById.remove(entry.mBlockId);
+        if (mLoadedEntries.remove(entry)) {
+            mLoadedBytes -= Math.max(entry.mSize, 0);
+        }
+        if (entry.mFileOffset >= 0 && --mSpilledEntryCount == 0) {
+            truncateSpillStore();
+        }
+        ++modCount;
+    }
+
+    private Block load(Entry entry) {
+        if (entry.mBlock != null) {
+            // Mark as recently used.
+            mLoadedEntries.remove(entry);
+            mLoadedEntries.add(entry);
+            return entry.mBlock;
+        }
+        Block block = mBlockFactory.getBlockById(entry.mBlockId);
+        if (block == null) {
+            block = readBlock(entry);
+        }
+        entry.mBlock = block;
+        addLoaded(entry);
+        return block;
+    }
+
+    private void addLoaded(Entry entry) {
+        if (mMaxLoadedBytes != Long.MAX_VALUE) {
+            measure(entry);
+        }
+        mLoadedEntries.add(entry);
+        mLoadedBytes += Math.max(entry.mSize, 0);
+    }
+
+    private void measure(Entry entry) {
+        if (entry.mSize >= 0) {
+            return;
+        }
+        try {
+            entry.mSize = BlocklyXmlHelper.writeOneBlockToXml(entry.mBlock).length();
+            if (mLoadedEntries.contains(entry)) {
+                mLoadedBytes += entry.mSize;
+            }
+        } catch (BlocklySerializerException e) {
+            ModelLog.w(TAG, "Could not measure trashed block " + entry.mBlockId, e);
+        }
+    }
+
+    /**
+     * Writes the least recently used blocks to the spill file until the blocks in memory are within
+     * the limits.
+     *
+     * @param keep An entry that must stay in memory, or null.
+     */
+    private void enforceLimits(@Nullable Entry keep) {
+        if (mSpillFile == null) {
+            return;
+        }
+        Iterator<Entry> iter = mLoadedEntries.iterator();
+        while (iter.hasNext() && (mLoadedEntries.size() > mMaxLoadedEntries
+                || mLoadedBytes > mMaxLoadedBytes)) {
+            Entry entry = iter.next();
+            if (entry == keep) {
+                continue;
+            }
+            try {
+                writeBlock(entry);
+            } catch (IOException | BlocklySerializerException e) {
+                ModelLog.w(TAG, "Could not write trashed blocks to " + mSpillFile, e);
+                return;
+            }
+            iter.remove();
+            mLoadedBytes -= Math.max(entry.mSize, 0);
+            entry.mBlock = null;
+        }
+    }
+
+    private void writeBlock(Entry entry) throws IOException, BlocklySerializerException {
+        if (entry.mFileOffset >= 0) {
+            return;  // Unchanged copy already in the file.
+        }
+        String xml = BlocklyXmlHelper.writeOneBlockToXml(entry.mBlock);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(xml.length() / 4);
+        DeflaterOutputStream deflater = new DeflaterOutputStream(bytes);
+        deflater.write(xml.getBytes("UTF-8"));
+        deflater.close();
+
+        RandomAccessFile store = getSpillStore();
+        long offset = store.length();
+        store.seek(offset);
+        store.write(bytes.toByteArray());
+        entry.mFileOffset = offset;
+        entry.mFileLength = bytes.size();
+        entry.mSize = xml.length();
+        ++mSpilledEntryCount;
+    }
+
+    private Block readBlock(Entry entry) {
+        try {
+            byte[] bytes = new byte[entry.mFileLength];
+            RandomAccessFile store = getSpillStore();
+            store.seek(entry.mFileOffset);
+            store.readFully(bytes);
+            InputStream is = new InflaterInputStream(new ByteArrayInputStream(bytes));
+            Block block = BlocklyXmlHelper.loadOneBlockFromXml(is, mBlockFactory);
+            if (block == null) {
+                throw new BlocklyParserException("No block in trash file for " + entry.mBlockId);
+            }
+            return block;
+        } catch (IOException e) {
+            throw new BlocklyParserException(e);
+        }
+    }
+
+    private RandomAccessFile getSpillStore() throws IOException {
+        if (mSpillStore == null) {
+            mSpillStore = new RandomAccessFile(mSpillFile, "rw");
+            mSpillStore.setLength(0);
+        }
+        return mSpillStore;
+    }
+
+    private void truncateSpillStore() {
+        if (mSpillStore != null) {
+            try {
+                mSpillStore.setLength(0);
+            } catch (IOException e) {
+                ModelLog.w(TAG, "Could not truncate " + mSpillFile, e);
+            }
+        }
+    }
+
+    private void closeSpillStore() {
+        try {
+            mSpillStore.close();
+        } catch (IOException e) {
+            ModelLog.w(TAG, "Could not close " + mSpillFile, e);
+        }
+        mSpillStore = null;
+        mSpilledEntryCount = 0;
+        for (int i = 0; i < mEntries.size(); i++) {
+            mEntries.get(i).mFileOffset = -1;
+        }
+    }
+
+    /**
+     * A trashed root block, either in memory or in the spill file.
+     */
+    private static final class Entry {
+        final String mBlockId;
+        Block mBlock;
+        // Length of the block's XML, or -1 if not measured.
+        int mSize = -1;
+        long mFileOffset = -1;
+        int mFileLength;
+
+        Entry(Block block) {
+            mBlockId = block.getId();
+            mBlock = block;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package com.google.blockly.model;
 
 import android.content.Context;
+import android.support.annotation.Nullable;
 import android.support.v4.util.SimpleArrayMap;
 
 import com.google.blockly.android.control.BlocklyController;
@@ -28,9 +29,13 @@ import com.google.blockly.utils.BlocklyXmlHelper;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -45,14 +50,16 @@ public class Workspace {
     private BlockFactory mBlockFactory;
     private String mId;
 
-    private final ArrayList<Block> mRootBlocks = new ArrayList<>();
+    // Root blocks in the order they were added, with constant time membership tests and removal.
+    private final LinkedHashSet<Block> mRootBlocks = new LinkedHashSet<>();
+    private final RootBlockList mRootBlockList = new RootBlockList();
     private final ProcedureManager mProcedureManager = new ProcedureManager();
     private final NameManager mVariableNameManager = new NameManager.VariableNameManager();
     private final ConnectionManager mConnectionManager = new ConnectionManager();
     private final WorkspaceStats mStats =
             new WorkspaceStats(mVariableNameManager, mProcedureManager,
                     mConnectionManager);
-    private final List<Block> mDeletedBlocks = new LinkedList<>();
+    private final Trash mDeletedBlocks;
     private ToolboxCategory mToolboxCategory;
 
     private List<Connection> mTempConnections = new ArrayList<>();
@@ -74,6 +81,7 @@ public class Workspace {
         mContext = context;
         mController = controller;
         mBlockFactory = factory;
+        mDeletedBlocks = new Trash(factory);
         mId = UUID.randomUUID().toString();
     }
 
@@ -95,10 +103,10 @@ public class Workspace {
         if (block.getPreviousBlock() != null) {
             throw new IllegalArgumentException("Root blocks may not have a previous block");
         }
-        if (mRootBlocks.contains(block)) {
+        if (!mRootBlocks.add(block)) {
             throw new IllegalArgumentException("Block is already a root block.");
         }
-        mRootBlocks.add(block);
+        mRootBlockList.onRootBlocksChanged();
         if (isNewBlock) {
             mStats.collectStats(block, true);
         }
@@ -114,6 +122,9 @@ public class Workspace {
      */
     public boolean removeRootBlock(Block block, boolean cleanupStats) {
         boolean foundAndRemoved = mRootBlocks.remove(block);
+        if (foundAndRemoved) {
+            mRootBlockList.onRootBlocksChanged();
+        }
         if (foundAndRemoved && cleanupStats) {
             mStats.cleanupStats(block);
         }
@@ -143,6 +154,17 @@ public class Workspace {
             throw new IllegalArgumentException("trashedBlock not found in mDeletedBlocks");
         }
         mRootBlocks.add(trashedBlock);
+        mRootBlockList.onRootBlocksChanged();
+        // Stats were cleaned up when the block was trashed.
+        mStats.collectStats(trashedBlock, true);
+    }
+
+    /**
+     * @return The stats kept about the blocks in this workspace, including its
+     *         {@link WorkspaceStats#updateMetrics() metrics}.
+     */
+    public WorkspaceStats getStats() {
+        return mStats;
     }
 
     /**
@@ -206,8 +228,14 @@ public class Workspace {
         }
 
         mRootBlocks.addAll(newBlocks);
-        for (int i = 0; i < mRootBlocks.size(); i++) {
-            mStats.collectStats(mRootBlocks.get(i), true /* recursive */);
+        mRootBlockList.onRootBlocksChanged();
+        for (int i = 0; i < newBlocks.size(); i++) {
+            // Resetting the workspace forgot the newly loaded blocks, too.
+            mBlockFactory.addBlockReferences(newBlocks.get(i));
+        }
+        List<Block> rootBlocks = getRootBlocks();
+        for (int i = 0; i < rootBlocks.size(); i++) {
+            mStats.collectStats(rootBlocks.get(i), true /* recursive */);
         }
     }
 
@@ -255,6 +283,65 @@ public class Workspace {
         return refs == null ? 0 : refs.size();
     }
 
+    /**
+     * @param id The id of the block to find.
+     * @return The block in this workspace with the given id, or null if there is none. Blocks in
+     *         the trash are not included.
+     */
+    @Nullable
+    public Block getBlockById(String id) {
+        return mStats.getBlockById(id);
+    }
+
+    /**
+     * Gets all blocks of the given type in this workspace, not including blocks in the trash.
+     *
+     * @param type The block type to look up.
+     * @param resultList An optional list to put the results in. This object will be returned if not
+     *                   null.
+     * @return A list of all blocks of the given type, in the order they were added.
+     */
+    public List<Block> getBlocksOfType(String type, @Nullable List<Block> resultList) {
+        Set<Block> blocks = mStats.getBlocksOfType(type);
+        if (resultList == null) {
+            resultList = new ArrayList<>(blocks.size());
+        }
+        resultList.addAll(blocks);
+        return resultList;
+    }
+
+    /**
+     * Indexes blocks by the value of the fields with the given name, so {@link BlockQuery}s with
+     * conditions on that field do not visit every block. The index is kept up to date as blocks
+     * are added, removed and edited, and is kept when the workspace is reset.
+     *
+     * @param fieldName The name of the fields to index, such as a procedure name field.
+     */
+    public void addFieldIndex(String fieldName) {
+        mStats.addFieldIndex(fieldName);
+    }
+
+    /**
+     * Stops indexing the fields with the given name.
+     *
+     * @param fieldName The name passed to {@link #addFieldIndex(String)}.
+     */
+    public void removeFieldIndex(String fieldName) {
+        mStats.removeFieldIndex(fieldName);
+    }
+
+    /**
+     * Finds the blocks in this workspace that match a query, not including blocks in the trash.
+     *
+     * @param query The query to run.
+     * @param resultList An optional list to put the results in. This object will be returned if not
+     *                   null.
+     * @return A list of the blocks matching the query.
+     */
+    public List<Block> findBlocks(BlockQuery query, @Nullable List<Block> resultList) {
+        return mStats.findBlocks(query, resultList);
+    }
+
     /**
      * Gets all blocks that are using the specified variable.
      *
@@ -268,9 +355,17 @@ public class Workspace {
         if (resultList == null) {
             resultList = new ArrayList<>();
         }
+        if (refs == null) {
+            return resultList;
+        }
+        // Block does not override equals(), so an identity map matches List.contains() in O(1).
+        IdentityHashMap<Block, Boolean> found = new IdentityHashMap<>();
+        for (int i = 0; i < resultList.size(); i++) {
+            found.put(resultList.get(i), Boolean.TRUE);
+        }
         for (int i = 0; i < refs.size(); i++) {
             Block block = refs.get(i).getBlock();
-            if (!resultList.contains(block)) {
+            if (found.put(block, Boolean.TRUE) == null) {
                 resultList.add(block);
             }
         }
@@ -294,7 +389,7 @@ public class Workspace {
      * @throws BlocklySerializerException if there was a failure while serializing.
      */
     public void serializeToXml(OutputStream os) throws BlocklySerializerException {
-        BlocklyXmlHelper.writeToXml(mRootBlocks, os);
+        BlocklyXmlHelper.writeToXml(getRootBlocks(), os);
     }
 
     /**
@@ -304,6 +399,7 @@ public class Workspace {
     public void resetWorkspace() {
         mBlockFactory.clearPriorBlockReferences();
         mRootBlocks.clear();
+        mRootBlockList.onRootBlocksChanged();
         mStats.clear();
         mDeletedBlocks.clear();
     }
@@ -316,16 +412,57 @@ public class Workspace {
         return mToolboxCategory;
     }
 
-    public List<Block> getTrashContents() {
+    /**
+     * @return The blocks in the trash, newest first. Use the returned {@link Trash} to limit how
+     *         many trashed blocks are kept in memory.
+     */
+    public Trash getTrashContents() {
         return mDeletedBlocks;
     }
 
-
-    public ArrayList<Block> getRootBlocks() {
-        return mRootBlocks;
+    /**
+     * @return A live, read-only list of the root blocks, in the order they were added.
+     */
+    public List<Block> getRootBlocks() {
+        return mRootBlockList;
     }
 
     public boolean isRootBlock(Block block) {
         return mRootBlocks.contains(block);
     }
+
+    /**
+     * Read-only view of {@link #mRootBlocks}. Reads by index use an array copy of the set, which is
+     * rebuilt on the first read after the root blocks change, so removing a root block takes
+     * constant time.
+     */
+    private final class RootBlockList extends AbstractList<Block> implements RandomAccess {
+        private Block[] mBlocks = null;
+
+        void onRootBlocksChanged() {
+            mBlocks = null;
+            ++modCount;
+        }
+
+        @Override
+        public Block get(int index) {
+            if (index < 0 || index >= mRootBlocks.size()) {
+                throw new IndexOutOfBoundsException("Invalid root block index " + index);
+            }
+            if (mBlocks == null) {
+                mBlocks = mRootBlocks.toArray(new Block[mRootBlocks.size()]);
+            }
+            return mBlocks[index];
+        }
+
+        @Override
+        public int size() {
+            return mRootBlocks.size();
+        }
+
+        @Override
+        public boolean contains(Object block) {
+            return mRootBlocks.contains(block);
+        }
+    }
 }
@@ -44,7 +44,7 @@ import java.util.List;
  * parsers and serializers as needed.
  */
 public final class BlocklyXmlHelper {
-    private static final String XML_NAMESPACE = "http://www.w3.org/1999/xhtml";
+    public static final String XML_NAMESPACE = "http://www.w3.org/1999/xhtml";
     private static final XmlPullParserFactory mParserFactory = createParseFactory();
 
     private BlocklyXmlHelper() {
@@ -0,0 +1,230 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.android.MockitoAndroidTestCase;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.Field;
+import com.google.blockly.model.Workspace;
+import com.google.blockly.model.WorkspacePoint;
+
+import org.mockito.Mock;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link BinaryEventCodec}.
+ */
+public class BinaryEventCodecTest extends MockitoAndroidTestCase {
+    private static final String BLOCK_TYPE = "controls_whileUntil";
+    private static final String BLOCK_ID = "block";
+    private static final String FIELD_NAME = "MODE";
+    private static final String WORKSPACE_ID = "workspace";
+
+    @Mock Workspace mMockWorkspace;
+
+    BlockFactory mBlockFactory;
+    Block mBlock;
+    Field mField;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        mBlockFactory = new BlockFactory(getContext(),
+                new int[]{com.google.blockly.android.R.raw.test_blocks});
+        mBlock = mBlockFactory.obtainBlock(BLOCK_TYPE, BLOCK_ID);
+        mField = mBlock.getFieldByName(FIELD_NAME);
+        mBlock.setPosition(-12, 345);
+
+        Mockito.when(mMockWorkspace.getId()).thenReturn(WORKSPACE_ID);
+    }
+
+    public void testRoundTrip() throws Exception {
+        List<BlocklyEvent> events = createEvents();
+        List<BlocklyEvent> decoded = decode(encode(events));
+        assertEquals(events.size(), decoded.size());
+        for (int i = 0; i < decoded.size(); ++i) {
+            assertEquals(WORKSPACE_ID, decoded.get(i).getWorkspaceId());
+        }
+
+        BlocklyEvent.CreateEvent create = (BlocklyEvent.CreateEvent) events.get(0);
+        BlocklyEvent.CreateEvent decodedCreate = (BlocklyEvent.CreateEvent) decoded.get(0);
+        assertEquals(BLOCK_ID, decodedCreate.getBlockId());
+        assertEquals(create.getXml(), decodedCreate.getXml());
+        assertEquals(create.getIds(), decodedCreate.getIds());
+
+        BlocklyEvent.ChangeEvent decodedChange = (BlocklyEvent.ChangeEvent) decoded.get(1);
+        assertEquals(BlocklyEvent.ELEMENT_FIELD, decodedChange.getElement());
+        assertEquals(BLOCK_ID, decodedChange.getBlockId());
+        assertEquals(FIELD_NAME, decodedChange.getFieldName());
+        assertEquals("WHILE", decodedChange.getNewValue());
+
+        BlocklyEvent.MoveEvent decodedMove = (BlocklyEvent.MoveEvent) decoded.get(2);
+        WorkspacePoint position = new WorkspacePoint();
+        assertTrue(decodedMove.getNewWorkspacePosition(position));
+        assertEquals(new WorkspacePoint(-12, 345), position);
+        assertNull(decodedMove.getNewParentId());
+
+        BlocklyEvent.UIEvent decodedUi = (BlocklyEvent.UIEvent) decoded.get(3);
+        assertEquals(BlocklyEvent.ELEMENT_CATEGORY, decodedUi.getElement());
+        assertEquals("Loops", decodedUi.getNewValue());
+
+        BlocklyEvent.DeleteEvent delete = (BlocklyEvent.DeleteEvent) events.get(4);
+        BlocklyEvent.DeleteEvent decodedDelete = (BlocklyEvent.DeleteEvent) decoded.get(4);
+        assertEquals(delete.getXml(), decodedDelete.getXml());
+        assertEquals(delete.getIds(), decodedDelete.getIds());
+    }
+
+    public void testRoundTrip_multipleWrites() throws Exception {
+        List<BlocklyEvent> events = createEvents();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEventCodec.Encoder encoder = new BinaryEventCodec.Encoder(out);
+        encoder.write(events);
+        encoder.write(events);
+
+        List<BlocklyEvent> decoded = decode(out.toByteArray());
+        assertEquals(events.size() * 2, decoded.size());
+        for (int i = 0; i < events.size(); ++i) {
+            assertEquals(events.get(i).toJsonString(), decoded.get(i).toJsonString());
+            assertEquals(events.get(i).toJsonString(),
+                    decoded.get(i + events.size()).toJsonString());
+        }
+    }
+
+    public void testStringTable_smallerThanJson() throws Exception {
+        List<BlocklyEvent> events = createEvents();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEventCodec.Encoder encoder = new BinaryEventCodec.Encoder(out);
+        encoder.write(events);
+        int firstSize = out.size();
+        encoder.write(events);
+        int secondSize = out.size() - firstSize;
+
+        // Repeated ids, types and names are sent as references the second time.
+        assertTrue(secondSize < firstSize);
+
+        StringWriter json = new StringWriter();
+        BlocklyEvent.writeJsonArray(events, json);
+        assertTrue(firstSize < json.toString().getBytes("UTF-8").length);
+    }
+
+    public void testEmptyStream() throws Exception {
+        BinaryEventCodec.Decoder decoder =
+                new BinaryEventCodec.Decoder(new ByteArrayInputStream(new byte[0]));
+        assertNull(decoder.read());
+    }
+
+    public void testUnsupportedVersion() throws Exception {
+        byte[] bytes = encode(createEvents());
+        bytes[4] = (byte) (BinaryEventCodec.VERSION + 1);
+        try {
+            decode(bytes);
+            fail("Expected IOException for unsupported version.");
+        } catch (IOException e) {
+            // expected
+        }
+
+        bytes[0] = 'X';
+        try {
+            decode(bytes);
+            fail("Expected IOException for missing header.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testTruncatedStream() throws Exception {
+        List<BlocklyEvent> events = createEvents();
+        byte[] bytes = encode(events);
+        for (int length = 1; length < bytes.length; ++length) {
+            List<BlocklyEvent> decoded;
+            try {
+                decoded = decode(Arrays.copyOf(bytes, length));
+            } catch (IOException e) {
+                continue;  // Expected for truncations within an event.
+            }
+            // Truncations between events decode the events before the cut.
+            assertTrue("Truncated to " + length + " bytes, decoded " + decoded.size(),
+                    decoded.size() < events.size());
+            for (int i = 0; i < decoded.size(); ++i) {
+                assertEquals(events.get(i).getTypeId(), decoded.get(i).getTypeId());
+            }
+        }
+    }
+
+    public void testFuzz() throws Exception {
+        Random random = new Random(42);
+        byte[] valid = encode(createEvents());
+        for (int i = 0; i < 2000; ++i) {
+            byte[] bytes;
+            if (i % 2 == 0) {
+                // Mutations of a valid stream, keeping the header most of the time.
+                bytes = valid.clone();
+                int mutations = 1 + random.nextInt(4);
+                for (int j = 0; j < mutations; ++j) {
+                    int index = 5 + random.nextInt(bytes.length - 5);
+                    bytes[index] = (byte) random.nextInt(256);
+                }
+            } else {
+                // Random garbage after a valid header.
+                bytes = new byte[5 + random.nextInt(64)];
+                random.nextBytes(bytes);
+                System.arraycopy(valid, 0, bytes, 0, 5);
+            }
+            try {
+                decode(bytes);
+            } catch (IOException e) {
+                // Malformed input must only ever surface as an IOException.
+            }
+        }
+    }
+
+    private List<BlocklyEvent> createEvents() throws Exception {
+        List<BlocklyEvent> events = new ArrayList<>();
+        events.add(new BlocklyEvent.CreateEvent(mMockWorkspace, mBlock));
+        events.add(BlocklyEvent.ChangeEvent.newFieldValueEvent(
+                mMockWorkspace, mBlock, mField, "UNTIL", "WHILE"));
+        BlocklyEvent.MoveEvent move = new BlocklyEvent.MoveEvent(mMockWorkspace, mBlock);
+        move.recordNew(mBlock);
+        events.add(move);
+        events.add(BlocklyEvent.fromJson(
+                "{\"type\":\"ui\",\"element\":\"category\",\"newValue\":\"Loops\"}"));
+        events.add(new BlocklyEvent.DeleteEvent(mMockWorkspace, mBlock));
+        return events;
+    }
+
+    private static byte[] encode(List<BlocklyEvent> events) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryEventCodec.Encoder(out).write(events);
+        return out.toByteArray();
+    }
+
+    private static List<BlocklyEvent> decode(byte[] bytes) throws IOException {
+        BinaryEventCodec.Decoder decoder =
+                new BinaryEventCodec.Decoder(new ByteArrayInputStream(bytes));
+        return decoder.readAll(new ArrayList<BlocklyEvent>());
+    }
+}
@@ -188,6 +188,12 @@ public class BlocklyControllerTest extends MockitoAndroidTestCase {
         assertFalse(mWorkspace.isRootBlock(source));
         assertSame(target, sourceConnection.getTargetBlock());
 
+        // Validate the move event.
+        BlocklyEvent lastEvent = mEventsFired.get(mEventsFired.size() - 1);
+        assertEquals(BlocklyEvent.TYPE_MOVE, lastEvent.getTypeId());
+        assertEquals(source.getId(), lastEvent.getBlockId());
+        assertEquals(target.getId(), ((BlocklyEvent.MoveEvent) lastEvent).getNewParentId());
+
         if (withViews) {
             // Validate view changes
             BlockGroup targetGroup = mHelper.getParentBlockGroup(target);
@@ -277,6 +283,35 @@ public class BlocklyControllerTest extends MockitoAndroidTestCase {
         }
     }
 
+    public void testConnect_bumpDeferredToEndOfEventGroup() {
+        Block target = mBlockFactory.obtainBlock("simple_input_output", "target");
+        Block tail = mBlockFactory.obtainBlock("simple_input_output", "tail");
+        Block source = mBlockFactory.obtainBlock("output_no_input", "source");
+        target.getOnlyValueInput().getConnection().connect(tail.getOutputConnection());
+        mController.addRootBlock(target);
+        mController.addRootBlock(source);
+        mController.initWorkspaceView(mWorkspaceView);
+        fakeOnAttachToWindow(target, source);
+
+        mController.startEventGroup();
+        mController.connect(
+                source.getOutputConnection(), target.getOnlyValueInput().getConnection());
+        assertTrue(mWorkspace.isRootBlock(tail));
+        String groupId = mEventsFired.get(mEventsFired.size() - 1).getGroupId();
+        assertNotNull(groupId);
+        int eventCount = mEventsFired.size();
+        mController.endEventGroup();
+
+        // The bump pass moves tail once, reported as one move in the same group.
+        assertTrue(mHelper.getMaxSnapDistance() <=
+                tail.getOutputConnection().distanceFrom(source.getOutputConnection()));
+        assertEquals(eventCount + 1, mEventsFired.size());
+        BlocklyEvent bumpEvent = mEventsFired.get(eventCount);
+        assertEquals(BlocklyEvent.TYPE_MOVE, bumpEvent.getTypeId());
+        assertEquals(tail.getId(), bumpEvent.getBlockId());
+        assertEquals(groupId, bumpEvent.getGroupId());
+    }
+
     public void testConnect_outputToInputBumpMultipleInputs_headless() {
         testConnect_outputToInputBumpMultipleInputs(false);
     }
@@ -1070,6 +1105,149 @@ public class BlocklyControllerTest extends MockitoAndroidTestCase {
         }
     }
 
+    public void testRunBatch_headless() {
+        testRunBatch(false);
+    }
+
+    public void testRunBatch_withViews() {
+        testRunBatch(true);
+    }
+
+    private void testRunBatch(boolean withViews) {
+        final Block target = mBlockFactory.obtainBlock("simple_input_output", "batchTarget");
+        final Block source = mBlockFactory.obtainBlock("output_no_input", "batchSource");
+        if (withViews) {
+            mController.initWorkspaceView(mWorkspaceView);
+        }
+        mEventsFired.clear();
+
+        mController.runBatch(new Runnable() {
+            @Override
+            public void run() {
+                mController.addRootBlock(target);
+                mController.addRootBlock(source);
+                mController.connect(source.getOutputConnection(),
+                        target.getOnlyValueInput().getConnection());
+                assertTrue(mEventsFired.isEmpty());
+                assertNull(mHelper.getView(target));
+            }
+        });
+
+        assertTrue(mWorkspace.isRootBlock(target));
+        assertFalse(mWorkspace.isRootBlock(source));
+        assertSame(target, source.getParentBlock());
+
+        // Create, create and move, fired as one group.
+        assertEquals(3, mEventsFired.size());
+        String groupId = mEventsFired.get(0).getGroupId();
+        assertNotNull(groupId);
+        for (int i = 0; i < mEventsFired.size(); i++) {
+            assertEquals(groupId, mEventsFired.get(i).getGroupId());
+        }
+        assertEquals(BlocklyEvent.TYPE_MOVE, mEventsFired.get(2).getTypeId());
+
+        if (withViews) {
+            assertNotNull(mHelper.getView(target));
+            assertNotNull(mHelper.getView(source));
+            assertSame(mHelper.getRootBlockGroup(target), mHelper.getRootBlockGroup(source));
+        }
+    }
+
+    public void testRunBatch_rollback() {
+        final Block existing = mBlockFactory.obtainBlock("simple_input_output", "existing");
+        final Block added = mBlockFactory.obtainBlock("output_no_input", "added");
+        mController.addRootBlock(existing);
+        mController.removeListener(mCallback);
+
+        try {
+            mController.runBatch(new Runnable() {
+                @Override
+                public void run() {
+                    mController.addRootBlock(added);
+                    mController.connect(added.getOutputConnection(),
+                            existing.getOnlyValueInput().getConnection());
+                    throw new IllegalStateException("Import failed");
+                }
+            }, true);
+            fail("Expected the batch to throw.");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        assertTrue(mWorkspace.isRootBlock(existing));
+        assertNull(existing.getOnlyValueInput().getConnection().getTargetBlock());
+        assertFalse(mWorkspace.isRootBlock(added));
+        assertNull(mWorkspace.getBlockById("added"));
+
+        // The controller is usable after the rollback.
+        mEventsFired.clear();
+        mController.addCallback(mCallback);
+        mController.addRootBlock(added);
+        assertEquals(1, mEventsFired.size());
+    }
+
+    public void testHeadlessOnWorkerThread() throws InterruptedException {
+        final List<BlocklyEvent> events = new ArrayList<>();
+        final Throwable[] failure = new Throwable[1];
+        // The worker thread has no Looper, so this fails if any view or drag object is created.
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BlocklyController controller = new BlocklyController.Builder(getContext())
+                            .addBlockDefinitions(R.raw.test_blocks)
+                            .build();
+                    assertTrue(controller.isHeadless());
+                    assertNull(controller.getDragger());
+                    controller.addCallback(new BlocklyController.EventsCallback() {
+                        @Override
+                        public int getTypesBitmask() {
+                            return BlocklyEvent.TYPE_ALL;
+                        }
+
+                        @Override
+                        public void onEventGroup(List<BlocklyEvent> group) {
+                            events.addAll(group);
+                        }
+                    });
+
+                    BlockFactory factory = controller.getBlockFactory();
+                    Block target = factory.obtainBlock("simple_input_output", "target");
+                    Block source = factory.obtainBlock("output_no_input", "source");
+                    assertNull(controller.addRootBlock(target));
+                    controller.addRootBlock(source);
+                    controller.connect(source.getOutputConnection(),
+                            target.getOnlyValueInput().getConnection());
+                    assertSame(target, source.getParentBlock());
+                    controller.extractBlockAsRoot(source);
+                    assertNull(source.getParentBlock());
+                    controller.trashRootBlock(source);
+                    assertFalse(controller.getWorkspace().isRootBlock(source));
+
+                    controller.addVariable("var1");
+                    controller.renameVariable("var1", "var2");
+                    assertTrue(controller.getWorkspace().getVariableNameManager()
+                            .contains("var2"));
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        });
+        worker.start();
+        worker.join();
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+
+        int[] expectedTypes = {BlocklyEvent.TYPE_CREATE, BlocklyEvent.TYPE_CREATE,
+                BlocklyEvent.TYPE_MOVE, BlocklyEvent.TYPE_MOVE, BlocklyEvent.TYPE_DELETE,
+                BlocklyEvent.TYPE_VAR_RENAME};
+        assertEquals(expectedTypes.length, events.size());
+        for (int i = 0; i < expectedTypes.length; i++) {
+            assertEquals(expectedTypes[i], events.get(i).getTypeId());
+        }
+    }
+
     public void testVariableCallback_onCreate() {
         NameManager.VariableNameManager nameManager =
                 (NameManager.VariableNameManager) mController.getWorkspace()
@@ -1129,6 +1307,51 @@ public class BlocklyControllerTest extends MockitoAndroidTestCase {
         assertEquals(2, nameManager.size());
     }
 
+    public void testRenameVariable_events() {
+        final List<BlocklyEvent> changeEvents = new ArrayList<>();
+        mController.addCallback(new BlocklyController.EventsCallback() {
+            @Override
+            public int getTypesBitmask() {
+                return BlocklyEvent.TYPE_CHANGE;
+            }
+
+            @Override
+            public void onEventGroup(List<BlocklyEvent> events) {
+                changeEvents.addAll(events);
+            }
+        });
+        mController.addVariable("var1");
+        Block get1 = mBlockFactory.obtainBlock("get_variable", "get1");
+        Block get2 = mBlockFactory.obtainBlock("get_variable", "get2");
+        ((FieldVariable) get1.getFieldByName("variable")).setVariable("var1");
+        ((FieldVariable) get2.getFieldByName("variable")).setVariable("var1");
+        mController.addRootBlock(get1);
+        mController.addRootBlock(get2);
+        mEventsFired.clear();
+        changeEvents.clear();
+
+        assertEquals("var2", mController.renameVariable("var1", "var2"));
+        assertEquals("var2", ((FieldVariable) get1.getFieldByName("variable")).getVariable());
+        assertEquals("var2", ((FieldVariable) get2.getFieldByName("variable")).getVariable());
+        assertEquals(0, mWorkspace.getVariableRefs("var1").size());
+        assertEquals(2, mWorkspace.getVariableRefs("var2").size());
+
+        // Callbacks that handle renames get a single event.
+        assertEquals(1, mEventsFired.size());
+        BlocklyEvent.VarRenameEvent rename = (BlocklyEvent.VarRenameEvent) mEventsFired.get(0);
+        assertEquals("var1", rename.getOldName());
+        assertEquals("var2", rename.getNewName());
+
+        // Callbacks that only handle change events get one for each field.
+        assertEquals(2, changeEvents.size());
+        for (int i = 0; i < changeEvents.size(); i++) {
+            BlocklyEvent.ChangeEvent change = (BlocklyEvent.ChangeEvent) changeEvents.get(i);
+            assertEquals(BlocklyEvent.ELEMENT_FIELD, change.getElement());
+            assertEquals("var1", change.getOldValue());
+            assertEquals("var2", change.getNewValue());
+        }
+    }
+
     public void testVariableCallback_onRemove() {
         NameManager.VariableNameManager nameManager =
                 (NameManager.VariableNameManager) mController.getWorkspace()
@@ -0,0 +1,244 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.google.blockly.model.Block;
+import com.google.blockly.model.Connection;
+import com.google.blockly.model.WorkspacePoint;
+
+import java.util.Random;
+
+/**
+ * Benchmarks {@link ConnectionManager} adds, moves and searches at increasing workspace sizes, and
+ * checks the search results against a brute force search.
+ */
+@LargeTest
+public class ConnectionManagerBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "ConnectionBenchmark";
+
+    private static final int SNAP_RADIUS = 48;
+    private static final int SEARCHES = 1000;
+    private static final int MOVES = 1000;
+
+    public void testBenchmark1k() {
+        runBenchmark(1000);
+    }
+
+    public void testBenchmark10k() {
+        runBenchmark(10000);
+    }
+
+    public void testBenchmark100k() {
+        runBenchmark(100000);
+    }
+
+    /**
+     * Compares per-frame drag queries against the live index and a drag session, with half of the
+     * connections on screen incompatible with the dragged block.
+     */
+    public void testDragSessionQuery10k() {
+        int count = 10000;
+        int extent = (int) Math.sqrt(count) * 40;
+        Random random = new Random(count);
+        ConnectionManager manager = new ConnectionManager();
+        manager.setCellSize(SNAP_RADIUS);
+        for (int i = 0; i < count; i++) {
+            Connection conn = new Connection(Connection.CONNECTION_TYPE_INPUT,
+                    new String[]{i % 2 == 0 ? "Number" : "String"});
+            conn.setBlock(new Block.Builder("test").build());
+            conn.setPosition(random.nextInt(extent), random.nextInt(extent));
+            manager.addConnection(conn);
+        }
+        Block dragged = new Block.Builder("dragged").setOutput(
+                new Connection(Connection.CONNECTION_TYPE_OUTPUT, new String[]{"Number"})).build();
+        Connection output = dragged.getOutputConnection();
+        output.setDragMode(true);
+
+        int[] xs = new int[SEARCHES];
+        int[] ys = new int[SEARCHES];
+        for (int i = 0; i < SEARCHES; i++) {
+            xs[i] = random.nextInt(extent);
+            ys[i] = random.nextInt(extent);
+        }
+        ConnectionManager.Candidate candidate = new ConnectionManager.Candidate();
+        Connection[] liveResults = new Connection[SEARCHES];
+        long start = System.nanoTime();
+        for (int i = 0; i < SEARCHES; i++) {
+            output.setPosition(xs[i], ys[i]);
+            manager.findBestConnection(dragged, SNAP_RADIUS, candidate);
+            liveResults[i] = candidate.getTargetConnection();
+        }
+        long liveNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        manager.startDragSession(dragged);
+        long sessionStartNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < SEARCHES; i++) {
+            output.setPosition(xs[i], ys[i]);
+            manager.findBestConnection(dragged, SNAP_RADIUS, candidate);
+            Connection result = candidate.getTargetConnection();
+            if (liveResults[i] == null) {
+                assertNull(result);
+            } else {
+                assertNotNull(result);
+                assertEquals(liveResults[i].distanceFrom(output), result.distanceFrom(output),
+                        1e-9);
+            }
+        }
+        long sessionNanos = System.nanoTime() - start;
+        manager.finishDragSession();
+
+        Log.i(TAG, count + " connections: live query " + (liveNanos / SEARCHES)
+                + "ns/frame, drag session query " + (sessionNanos / SEARCHES)
+                + "ns/frame, session start " + (sessionStartNanos / 1000) + "us");
+    }
+
+    /**
+     * Compares scanning cells of packed positions against checking each {@link Connection} with
+     * {@link ConnectionManager#isConnectionAllowed}, which follows pointers and takes a square
+     * root for every candidate. Cells are made large so each search scans every connection.
+     */
+    public void testScan10k() {
+        int count = 10000;
+        int extent = 2000;
+        int scans = 200;
+        Random random = new Random(count);
+        ConnectionManager manager = new ConnectionManager();
+        manager.setCellSize(extent);
+        Connection[] connections = new Connection[count];
+        for (int i = 0; i < count; i++) {
+            connections[i] = new Connection(Connection.CONNECTION_TYPE_PREVIOUS, null);
+            connections[i].setBlock(new Block.Builder("test").build());
+            connections[i].setPosition(random.nextInt(extent), random.nextInt(extent));
+            manager.addConnection(connections[i]);
+        }
+        ConnectionManager.SpatialIndex index =
+                manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
+        Connection target = new Connection(Connection.CONNECTION_TYPE_NEXT, null);
+        target.setBlock(new Block.Builder("test").build());
+
+        Connection[] found = new Connection[scans];
+        long indexNanos = 0;
+        long pointerNanos = 0;
+        for (int i = 0; i < scans; i++) {
+            target.setPosition(random.nextInt(extent), random.nextInt(extent));
+            long start = System.nanoTime();
+            found[i] = index.searchForClosest(target, SNAP_RADIUS);
+            indexNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Connection closest = null;
+            double bestRadius = SNAP_RADIUS;
+            for (int j = 0; j < count; j++) {
+                if (manager.isConnectionAllowed(target, connections[j], bestRadius, false)) {
+                    closest = connections[j];
+                    bestRadius = closest.distanceFrom(target);
+                }
+            }
+            pointerNanos += System.nanoTime() - start;
+
+            if (closest == null) {
+                assertNull(found[i]);
+            } else {
+                assertNotNull(found[i]);
+                assertEquals(bestRadius, found[i].distanceFrom(target), 1e-9);
+            }
+        }
+
+        Log.i(TAG, count + " connections: packed scan " + (indexNanos / scans)
+                + "ns/search, per-connection scan " + (pointerNanos / scans) + "ns/search");
+    }
+
+    private void runBenchmark(int count) {
+        // Spread connections over a square with roughly the density of a busy workspace.
+        int extent = (int) Math.sqrt(count) * 40;
+        Random random = new Random(count);
+        ConnectionManager manager = new ConnectionManager();
+        manager.setCellSize(SNAP_RADIUS);
+        Connection[] connections = new Connection[count];
+        Block block = new Block.Builder("test").build();
+        for (int i = 0; i < count; i++) {
+            connections[i] = new Connection(Connection.CONNECTION_TYPE_PREVIOUS, null);
+            connections[i].setBlock(block);
+            connections[i].setPosition(random.nextInt(extent), random.nextInt(extent));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            manager.addConnection(connections[i]);
+        }
+        long addNanos = System.nanoTime() - start;
+
+        WorkspacePoint offset = new WorkspacePoint(0, 0);
+        WorkspacePoint position = new WorkspacePoint();
+        start = System.nanoTime();
+        for (int i = 0; i < MOVES; i++) {
+            Connection conn = connections[random.nextInt(count)];
+            position.set(conn.getPosition().x + random.nextInt(2 * SNAP_RADIUS) - SNAP_RADIUS,
+                    conn.getPosition().y + random.nextInt(2 * SNAP_RADIUS) - SNAP_RADIUS);
+            manager.moveConnectionTo(conn, position, offset);
+        }
+        long moveNanos = System.nanoTime() - start;
+
+        ConnectionManager.SpatialIndex index =
+                manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
+        Connection[] targets = new Connection[SEARCHES];
+        Connection[] found = new Connection[SEARCHES];
+        Block targetBlock = new Block.Builder("test").build();
+        for (int i = 0; i < SEARCHES; i++) {
+            targets[i] = new Connection(Connection.CONNECTION_TYPE_NEXT, null);
+            targets[i].setBlock(targetBlock);
+            targets[i].setPosition(random.nextInt(extent), random.nextInt(extent));
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < SEARCHES; i++) {
+            found[i] = index.searchForClosest(targets[i], SNAP_RADIUS);
+        }
+        long searchNanos = System.nanoTime() - start;
+
+        for (int i = 0; i < SEARCHES; i++) {
+            Connection expected = bruteForceClosest(connections, targets[i]);
+            if (expected == null) {
+                assertNull(found[i]);
+            } else {
+                assertNotNull(found[i]);
+                assertEquals(expected.distanceFrom(targets[i]),
+                        found[i].distanceFrom(targets[i]), 1e-9);
+            }
+        }
+
+        Log.i(TAG, count + " connections: add " + (addNanos / count) + "ns/op, move "
+                + (moveNanos / MOVES) + "ns/op, search " + (searchNanos / SEARCHES) + "ns/op");
+    }
+
+    private static Connection bruteForceClosest(Connection[] connections, Connection target) {
+        Connection closest = null;
+        double bestDistance = SNAP_RADIUS;
+        for (Connection conn : connections) {
+            double distance = conn.distanceFrom(target);
+            if (distance <= bestDistance) {
+                closest = conn;
+                bestDistance = distance;
+            }
+        }
+        return closest;
+    }
+}
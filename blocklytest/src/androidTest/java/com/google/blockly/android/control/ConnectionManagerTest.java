@@ -15,6 +15,7 @@
 
 package com.google.blockly.android.control;
 
+import android.os.Debug;
 import android.test.AndroidTestCase;
 
 import com.google.blockly.model.Block;
@@ -24,6 +25,7 @@ import com.google.blockly.model.WorkspacePoint;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Tests for {@link ConnectionManager}
@@ -81,6 +83,54 @@ public class ConnectionManagerTest extends AndroidTestCase {
         assertEquals(moveY + offsetY, conn.getPosition().y);
     }
 
+    public void testBulkMove() {
+        WorkspacePoint offset = new WorkspacePoint(0, 0);
+        Connection[] connections = new Connection[20];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = createConnection(i * 100, 0, Connection.CONNECTION_TYPE_PREVIOUS,
+                    false);
+            manager.addConnection(connections[i]);
+        }
+        Connection added = createConnection(-500, -500, Connection.CONNECTION_TYPE_PREVIOUS,
+                false);
+        Connection removed = connections[0];
+
+        manager.startBulkMove();
+        manager.startBulkMove();
+        for (int i = 0; i < connections.length; i++) {
+            // Move each connection several times, as nested groups are laid out.
+            manager.moveConnectionTo(connections[i], new WorkspacePoint(i * 100, 500), offset);
+            manager.moveConnectionTo(connections[i], new WorkspacePoint(i * 100, 1000), offset);
+            // Positions are updated immediately.
+            assertEquals(1000, connections[i].getPosition().y);
+        }
+        manager.addConnection(added);
+        manager.finishBulkMove();
+        // Back to the original cell.
+        manager.moveConnectionTo(connections[1], new WorkspacePoint(100, 0), offset);
+        manager.removeConnection(removed);
+        manager.finishBulkMove();
+
+        ConnectionManager.SpatialIndex index =
+                manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
+        assertEquals(connections.length, index.size());
+        assertFalse(index.contains(removed));
+        assertTrue(index.contains(added));
+        assertEquals(connections[1], searchList(index, 100, 0, 5));
+        for (int i = 2; i < connections.length; i++) {
+            assertTrue(index.contains(connections[i]));
+            assertEquals(connections[i], searchList(index, i * 100, 1000, 5));
+        }
+        assertNull(searchList(index, 0, 1000, 5));
+
+        try {
+            manager.finishBulkMove();
+            fail("Finishing a bulk move that was not started should throw.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
     public void testIsConnectionAllowed() {
         // Two connections of opposite types near each other
         Connection one = createConnection(5 /* x */, 10 /* y */, Connection.CONNECTION_TYPE_INPUT,
@@ -142,24 +192,34 @@ public class ConnectionManagerTest extends AndroidTestCase {
         assertTrue(manager.isConnectionAllowed(four, six, 1000.0, true));
     }
 
-    // Test YSortedList
-    public void testFindPosition() {
-        ConnectionManager.YSortedList list =
+    // Test SpatialIndex
+    public void testAddRemove() {
+        ConnectionManager.SpatialIndex index =
                 manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
-        list.addConnection(createConnection(0, 0, Connection.CONNECTION_TYPE_PREVIOUS, false));
-        list.addConnection(createConnection(0, 1, Connection.CONNECTION_TYPE_PREVIOUS, false));
-        list.addConnection(createConnection(0, 2, Connection.CONNECTION_TYPE_PREVIOUS, false));
-        list.addConnection(createConnection(0, 4, Connection.CONNECTION_TYPE_PREVIOUS, false));
-        list.addConnection(createConnection(0, 5, Connection.CONNECTION_TYPE_PREVIOUS, false));
-
-        assertEquals(5, list.size());
-        Connection conn = createConnection(0, 3, Connection.CONNECTION_TYPE_PREVIOUS, false);
-        assertEquals(3, list.findPositionForConnection(conn));
+        Connection conn = createConnection(-30, 45, Connection.CONNECTION_TYPE_PREVIOUS, false);
+        index.addConnection(conn);
+        assertEquals(1, index.size());
+        assertTrue(index.contains(conn));
+
+        try {
+            index.addConnection(conn);
+            fail("Adding a connection twice should throw.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        index.removeConnection(conn);
+        assertTrue(index.isEmpty());
+        assertFalse(index.contains(conn));
+
+        // Removing a connection that is not present does nothing.
+        index.removeConnection(conn);
+        assertTrue(index.isEmpty());
     }
 
-    // Test YSortedList
+    // Test SpatialIndex
     public void testFind() {
-        ConnectionManager.YSortedList previous = manager.getConnections(
+        ConnectionManager.SpatialIndex previous = manager.getConnections(
                 Connection.CONNECTION_TYPE_PREVIOUS);
         for (int i = 0; i < 10; i++) {
             previous.addConnection(createConnection(i, 0, Connection.CONNECTION_TYPE_PREVIOUS,
@@ -170,50 +230,66 @@ public class ConnectionManagerTest extends AndroidTestCase {
 
         Connection conn = createConnection(3, 3, Connection.CONNECTION_TYPE_PREVIOUS, false);
         previous.addConnection(conn);
-        assertEquals(conn, previous.get(previous.findConnection(conn)));
+        assertTrue(previous.contains(conn));
 
         conn = createConnection(3, 3, Connection.CONNECTION_TYPE_PREVIOUS, false);
-        assertEquals(-1, previous.findConnection(conn));
+        assertFalse(previous.contains(conn));
     }
 
-    public void testOrdered() {
-        ConnectionManager.YSortedList list = manager.getConnections(
-                Connection.CONNECTION_TYPE_PREVIOUS);
-        for (int i = 0; i < 10; i++) {
-            list.addConnection(createConnection(0, 9 - i, Connection.CONNECTION_TYPE_PREVIOUS,
-                    false));
-        }
+    // Test SpatialIndex
+    public void testMoveAcrossCells() {
+        manager.setCellSize(10);
+        Connection conn = createConnection(0, 0, Connection.CONNECTION_TYPE_PREVIOUS, false);
+        manager.addConnection(conn);
+        ConnectionManager.SpatialIndex index =
+                manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
 
-        for (int i = 0; i < 10; i++) {
-            assertEquals(i, list.get(i).getPosition().y);
+        // Move across cell boundaries, including negative cells.
+        int[][] positions = {{5, 5}, {15, 5}, {-1, -1}, {-10, -10}, {-11, 9}, {1000, -1000}};
+        for (int[] position : positions) {
+            manager.moveConnectionTo(conn, new WorkspacePoint(position[0], position[1]),
+                    new WorkspacePoint(0, 0));
+            assertTrue(index.contains(conn));
+            assertEquals(1, index.size());
+            assertEquals(conn, searchList(index, position[0] + 3, position[1] - 3, 5));
         }
 
-        // quasi-random
-        int[] xCoords = {-29, -47, -77, 2, 43, 34, -59, -52, -90, -36, -91, 38, 87, -20, 60, 4, -57,
-                65, -37, -81, 57, 58, -96, 1, 67, -79, 34, 93, -90, -99, -62, 4, 11, -36, -51, -72,
-                3, -50, -24, -45, -92, -38, 37, 24, -47, -73, 79, -20, 99, 43, -10, -87, 19, 35,
-                -62, -36, 49, 86, -24, -47, -89, 33, -44, 25, -73, -91, 85, 6, 0, 89, -94, 36, -35,
-                84, -9, 96, -21, 52, 10, -95, 7, -67, -70, 62, 9, -40, -95, -9, -94, 55, 57, -96,
-                55, 8, -48, -57, -87, 81, 23, 65};
-        int[] yCoords = {-81, 82, 5, 47, 30, 57, -12, 28, 38, 92, -25, -20, 23, -51, 73, -90, 8, 28,
-                -51, -15, 81, -60, -6, -16, 77, -62, -42, -24, 35, 95, -46, -7, 61, -16, 14, 91, 57,
-                -38, 27, -39, 92, 47, -98, 11, -33, -72, 64, 38, -64, -88, -35, -59, -76, -94, 45,
-                -25, -100, -95, 63, -97, 45, 98, 99, 34, 27, 52, -18, -45, 66, -32, -38, 70, -73,
-                -23, 5, -2, -13, -9, 48, 74, -97, -11, 35, -79, -16, -77, 83, -57, -53, 35, -44,
-                100, -27, -15, 5, 39, 33, -19, -20, -95};
-        for (int i = 0; i < xCoords.length; i++) {
-            list.addConnection(createConnection(xCoords[i], yCoords[i], Connection.CONNECTION_TYPE_PREVIOUS,
-                    false));
-        }
+        // Changing the cell size re-buckets existing connections.
+        manager.setCellSize(7);
+        assertTrue(index.contains(conn));
+        assertEquals(conn, searchList(index, 1000, -1000, 1));
+    }
 
-        for (int i = 1; i < xCoords.length; i++) {
-            assertTrue(list.get(i).getPosition().y >= list.get(i - 1).getPosition().y);
+    // Test SpatialIndex
+    public void testManyCells() {
+        ConnectionManager.SpatialIndex index =
+                manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Connection conn = createConnection(
+                    (i % 25) * 50, (i / 25) * 50, Connection.CONNECTION_TYPE_PREVIOUS, false);
+            connections.add(conn);
+            index.addConnection(conn);
         }
+        assertEquals(500, index.size());
+        for (int i = 0; i < connections.size(); i += 2) {
+            index.removeConnection(connections.get(i));
+        }
+        assertEquals(250, index.size());
+        for (int i = 0; i < connections.size(); i++) {
+            assertEquals(i % 2 == 1, index.contains(connections.get(i)));
+        }
+        Connection expected = connections.get(27);
+        assertEquals(expected, searchList(index, expected.getPosition().x + 5,
+                expected.getPosition().y, 20));
+        // A radius covering every cell still finds the connection.
+        assertEquals(expected, searchList(index, expected.getPosition().x + 5,
+                expected.getPosition().y, 100000));
     }
 
-    // Test YSortedList
+    // Test SpatialIndex
     public void testSearchForClosest() {
-        ConnectionManager.YSortedList list =
+        ConnectionManager.SpatialIndex list =
                 manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
 
         // search an empty list
@@ -223,18 +299,18 @@ public class ConnectionManagerTest extends AndroidTestCase {
         assertEquals(null, searchList(list, 0, 0, 5));
         list.clear();
 
+        Connection[] connections = new Connection[10];
         for (int i = 0; i < 10; i++) {
-            list.addConnection(createConnection(0, i, Connection.CONNECTION_TYPE_PREVIOUS, false));
+            connections[i] = createConnection(0, i, Connection.CONNECTION_TYPE_PREVIOUS, false);
+            list.addConnection(connections[i]);
         }
 
-        // should be at 0, 9
-        Connection last = list.get(list.size() - 1);
-        // correct connection is last in list; many connections in radius
-        assertEquals(last, searchList(list, 0, 10, 15));
+        // correct connection is at 0, 9; many connections in radius
+        assertEquals(connections[9], searchList(list, 0, 10, 15));
         // Nothing nearby.
         assertEquals(null, searchList(list, 100, 100, 3));
-        // first in list, exact match
-        assertEquals(list.get(0), searchList(list, 0, 0, 0));
+        // exact match
+        assertEquals(connections[0], searchList(list, 0, 0, 0));
 
         list.addConnection(createConnection(6, 6, Connection.CONNECTION_TYPE_PREVIOUS, false));
         list.addConnection(createConnection(5, 5, Connection.CONNECTION_TYPE_PREVIOUS, false));
@@ -246,36 +322,38 @@ public class ConnectionManagerTest extends AndroidTestCase {
 
     public void testGetNeighbours() {
 
-        ConnectionManager.YSortedList list =
+        ConnectionManager.SpatialIndex list =
                 manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
 
         // Search an empty list
         assertTrue(getNeighbourHelper(list, 10 /* x */, 10 /* y */, 100 /* radius */).isEmpty());
 
         // Make a list
+        Connection[] connections = new Connection[10];
         for (int i = 0; i < 10; i++) {
-            list.addConnection(createConnection(0, i, Connection.CONNECTION_TYPE_PREVIOUS, false));
+            connections[i] = createConnection(0, i, Connection.CONNECTION_TYPE_PREVIOUS, false);
+            list.addConnection(connections[i]);
         }
 
         // Test block belongs at beginning
         List<Connection> result = getNeighbourHelper(list, 0, 0, 4);
         assertEquals(5, result.size());
         for (int i = 0; i < result.size(); i++) {
-            assertTrue(result.contains(list.get(i)));
+            assertTrue(result.contains(connections[i]));
         }
 
         // Test block belongs at middle
         result = getNeighbourHelper(list, 0, 4, 2);
         assertEquals(5, result.size());
         for (int i = 0; i < result.size(); i++) {
-            assertTrue(result.contains(list.get(i + 2)));
+            assertTrue(result.contains(connections[i + 2]));
         }
 
         // Test block belongs at end
         result = getNeighbourHelper(list, 0, 9, 4);
         assertEquals(5, result.size());
         for (int i = 0; i < result.size(); i++) {
-            assertTrue(result.contains(list.get(i + 5)));
+            assertTrue(result.contains(connections[i + 5]));
         }
 
         // Test block has no neighbours due to being out of range in the x direction
@@ -291,7 +369,233 @@ public class ConnectionManagerTest extends AndroidTestCase {
         assertTrue(result.isEmpty());
     }
 
-    private List<Connection> getNeighbourHelper(ConnectionManager.YSortedList list, int x, int y,
+    public void testFindBestConnection() {
+        Block dragged = new Block.Builder("dragged")
+                .setPrevious(new Connection(Connection.CONNECTION_TYPE_PREVIOUS, null)).build();
+        dragged.getPreviousConnection().setPosition(0, 0);
+        Connection near = createConnection(5, 5, Connection.CONNECTION_TYPE_NEXT, false);
+        Connection far = createConnection(0, 100, Connection.CONNECTION_TYPE_NEXT, false);
+        manager.addConnection(near);
+        manager.addConnection(far);
+
+        ConnectionManager.Candidate candidate = new ConnectionManager.Candidate();
+        assertSame(candidate, manager.findBestConnection(dragged, 25, candidate));
+        assertSame(dragged.getPreviousConnection(), candidate.getBlockConnection());
+        assertSame(near, candidate.getTargetConnection());
+
+        dragged.getPreviousConnection().setPosition(200, 0);
+        assertNull(manager.findBestConnection(dragged, 25, candidate));
+        assertNull(candidate.getTargetConnection());
+    }
+
+    public void testFindBestConnection_matchesSearchPerConnection() {
+        Block dragged = new Block.Builder("dragged")
+                .setPrevious(new Connection(Connection.CONNECTION_TYPE_PREVIOUS, null))
+                .setNext(new Connection(Connection.CONNECTION_TYPE_NEXT, null))
+                .addInput(new Input.InputValue("A", "", null))
+                .addInput(new Input.InputValue("B", "", null))
+                .addInput(new Input.InputStatement("C", "", null))
+                .build();
+        List<Connection> draggedConnections = dragged.getAllConnections();
+        Random random = new Random(42);
+        int[] types = {Connection.CONNECTION_TYPE_NEXT, Connection.CONNECTION_TYPE_PREVIOUS,
+                Connection.CONNECTION_TYPE_OUTPUT};
+        for (int i = 0; i < 300; i++) {
+            manager.addConnection(createConnection(random.nextInt(400), random.nextInt(400),
+                    types[i % types.length], false));
+        }
+
+        ConnectionManager.Candidate candidate = new ConnectionManager.Candidate();
+        for (int trial = 0; trial < 100; trial++) {
+            int x = random.nextInt(400);
+            int y = random.nextInt(400);
+            for (int i = 0; i < draggedConnections.size(); i++) {
+                draggedConnections.get(i).setPosition(x, y + i * 20);
+            }
+
+            Connection expectedBlockConnection = null;
+            Connection expectedTarget = null;
+            double radius = 25;
+            for (int i = 0; i < draggedConnections.size(); i++) {
+                Connection target = manager.closestConnection(draggedConnections.get(i), radius);
+                if (target != null) {
+                    expectedBlockConnection = draggedConnections.get(i);
+                    expectedTarget = target;
+                    radius = expectedBlockConnection.distanceFrom(target);
+                }
+            }
+
+            manager.findBestConnection(dragged, 25, candidate);
+            if (expectedTarget == null) {
+                assertNull(candidate.getTargetConnection());
+            } else {
+                assertEquals(expectedBlockConnection.distanceFrom(expectedTarget),
+                        candidate.getBlockConnection().distanceFrom(
+                                candidate.getTargetConnection()), 1e-9);
+            }
+        }
+    }
+
+    public void testFindBestConnection_tiesGoToLaterConnection() {
+        Block dragged = new Block.Builder("dragged")
+                .setPrevious(new Connection(Connection.CONNECTION_TYPE_PREVIOUS, null))
+                .setNext(new Connection(Connection.CONNECTION_TYPE_NEXT, null))
+                .build();
+        dragged.getPreviousConnection().setPosition(0, 0);
+        dragged.getNextConnection().setPosition(0, 100);
+        // Equally far from each connection: 3-4-5 and 5-0.
+        Connection forPrevious = createConnection(3, 4, Connection.CONNECTION_TYPE_NEXT, false);
+        Connection forNext = createConnection(5, 100, Connection.CONNECTION_TYPE_PREVIOUS, false);
+        manager.addConnection(forPrevious);
+        manager.addConnection(forNext);
+
+        List<Connection> draggedConnections = dragged.getAllConnections();
+        int nextIndex = draggedConnections.indexOf(dragged.getNextConnection());
+        int previousIndex = draggedConnections.indexOf(dragged.getPreviousConnection());
+        ConnectionManager.Candidate candidate = new ConnectionManager.Candidate();
+        manager.findBestConnection(dragged, 25, candidate);
+        if (nextIndex > previousIndex) {
+            assertSame(forNext, candidate.getTargetConnection());
+        } else {
+            assertSame(forPrevious, candidate.getTargetConnection());
+        }
+    }
+
+    public void testMetrics() {
+        assertNull(manager.getMetrics());
+        manager.addConnection(createConnection(0, 0, Connection.CONNECTION_TYPE_NEXT, false));
+        manager.setMetricsEnabled(true);
+        ConnectionMetrics metrics = manager.getMetrics();
+        assertEquals(1, metrics.getIndexSize(Connection.CONNECTION_TYPE_NEXT));
+
+        Connection near = createConnection(5, 5, Connection.CONNECTION_TYPE_NEXT, false);
+        manager.addConnection(near);
+        manager.moveConnectionTo(near, new WorkspacePoint(3, 4), new WorkspacePoint(0, 0));
+        Connection other = createConnection(0, 0, Connection.CONNECTION_TYPE_INPUT, false);
+        manager.addConnection(other);
+        manager.removeConnection(other);
+        assertEquals(2, metrics.getInsertCount());
+        assertEquals(1, metrics.getRemoveCount());
+        assertEquals(1, metrics.getMoveCount());
+        assertEquals(2, metrics.getIndexSize(Connection.CONNECTION_TYPE_NEXT));
+        assertEquals(0, metrics.getIndexSize(Connection.CONNECTION_TYPE_INPUT));
+
+        Block dragged = new Block.Builder("dragged")
+                .setPrevious(new Connection(Connection.CONNECTION_TYPE_PREVIOUS, null)).build();
+        dragged.getPreviousConnection().setPosition(0, 0);
+        ConnectionManager.Candidate candidate = new ConnectionManager.Candidate();
+        manager.findBestConnection(dragged, 25, candidate);
+        assertEquals(1, metrics.getQueryLatency().getCount());
+        assertEquals(2, metrics.getCandidatesExamined().getMax());
+
+        metrics.reset();
+        assertEquals(0, metrics.getInsertCount());
+        assertEquals(0, metrics.getQueryLatency().getCount());
+        manager.setMetricsEnabled(false);
+        assertNull(manager.getMetrics());
+    }
+
+    public void testFindBestConnection_tallStackSearchesWithinBestDistance() {
+        // A tall stack with a target next to each connection, and one exactly on the first.
+        List<Connection> stack = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            stack.add(createConnection(0, i * 48, Connection.CONNECTION_TYPE_PREVIOUS, false));
+            manager.addConnection(
+                    createConnection(12, i * 48, Connection.CONNECTION_TYPE_NEXT, false));
+        }
+        Connection exact = createConnection(0, 0, Connection.CONNECTION_TYPE_NEXT, false);
+        manager.addConnection(exact);
+        manager.setMetricsEnabled(true);
+
+        ConnectionManager.Candidate candidate = new ConnectionManager.Candidate();
+        manager.findBestConnection(stack, 25, candidate);
+        assertSame(stack.get(0), candidate.getBlockConnection());
+        assertSame(exact, candidate.getTargetConnection());
+        // After the exact match each connection only looks at its own cell, instead of every
+        // target along the stack.
+        assertTrue(manager.getMetrics().getCandidatesExamined().getMax() <= 2 * stack.size());
+    }
+
+    public void testDragSession() {
+        Block dragged = new Block.Builder("dragged").setOutput(
+                new Connection(Connection.CONNECTION_TYPE_OUTPUT, new String[]{"Number"})).build();
+        Connection output = dragged.getOutputConnection();
+        output.setDragMode(true);
+        output.setPosition(0, 0);
+        Connection string = createCheckedInput(2, 0, "String");
+        Connection number = createCheckedInput(10, 0, "Number");
+        manager.addConnection(string);
+        manager.addConnection(number);
+
+        manager.startDragSession(dragged);
+        assertTrue(manager.hasDragSession());
+        ConnectionManager.Candidate candidate = new ConnectionManager.Candidate();
+        assertNotNull(manager.findBestConnection(dragged, 25, candidate));
+        assertSame(number, candidate.getTargetConnection());
+
+        // Connections added and moved during the drag are kept up to date.
+        Connection closer = createCheckedInput(5, 0, "Number");
+        manager.addConnection(closer);
+        manager.findBestConnection(dragged, 25, candidate);
+        assertSame(closer, candidate.getTargetConnection());
+        manager.moveConnectionTo(closer, new WorkspacePoint(100, 100), new WorkspacePoint(0, 0));
+        manager.findBestConnection(dragged, 25, candidate);
+        assertSame(number, candidate.getTargetConnection());
+        manager.removeConnection(number);
+        assertNull(manager.findBestConnection(dragged, 25, candidate));
+
+        // Dragging to the moved connection finds it.
+        output.setPosition(95, 100);
+        manager.findBestConnection(dragged, 25, candidate);
+        assertSame(closer, candidate.getTargetConnection());
+
+        manager.finishDragSession();
+        assertFalse(manager.hasDragSession());
+        manager.findBestConnection(dragged, 25, candidate);
+        assertSame(closer, candidate.getTargetConnection());
+    }
+
+    // Covers only the connection search each drag frame runs, with and without a drag session.
+    // Moving and drawing the dragged views, and dropping and bumping blocks, are not measured.
+    @SuppressWarnings("deprecation")  // Debug has no other per-thread allocation counter.
+    public void testFindBestConnection_searchDoesNotAllocate() {
+        Block dragged = new Block.Builder("dragged")
+                .setPrevious(new Connection(Connection.CONNECTION_TYPE_PREVIOUS, null)).build();
+        Connection draggedConnection = dragged.getPreviousConnection();
+        draggedConnection.setDragMode(true);
+        for (int i = 0; i < 10; i++) {
+            manager.addConnection(
+                    createConnection(0, i * 20, Connection.CONNECTION_TYPE_NEXT, false));
+        }
+        ConnectionManager.Candidate candidate = new ConnectionManager.Candidate();
+        manager.findBestConnection(dragged, 25, candidate);  // Warm up.
+        assertEquals(0, countSearchAllocations(dragged, candidate));
+        assertNotNull(candidate.getTargetConnection());
+
+        manager.startDragSession(dragged);
+        manager.findBestConnection(dragged, 25, candidate);  // Warm up.
+        assertEquals(0, countSearchAllocations(dragged, candidate));
+        assertNotNull(candidate.getTargetConnection());
+        manager.finishDragSession();
+    }
+
+    @SuppressWarnings("deprecation")
+    private int countSearchAllocations(Block dragged, ConnectionManager.Candidate candidate) {
+        Connection draggedConnection = dragged.getPreviousConnection();
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int frame = 0; frame < 100; frame++) {
+                draggedConnection.setPosition(frame % 7, frame * 2);
+                manager.findBestConnection(dragged, 25, candidate);
+            }
+            return Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private List<Connection> getNeighbourHelper(ConnectionManager.SpatialIndex list, int x, int y,
                                                 int radius) {
         List<Connection> result = new ArrayList<>();
         list.getNeighbours(createConnection(x, y, Connection.CONNECTION_TYPE_NEXT, false), radius, result);
@@ -299,11 +603,18 @@ public class ConnectionManagerTest extends AndroidTestCase {
     }
 
     // Helper
-    private Connection searchList(ConnectionManager.YSortedList list, int x, int y, int radius) {
+    private Connection searchList(ConnectionManager.SpatialIndex list, int x, int y, int radius) {
         return list.searchForClosest(createConnection(x, y, Connection.CONNECTION_TYPE_NEXT, false),
                 radius);
     }
 
+    private Connection createCheckedInput(int x, int y, String check) {
+        Connection conn = new Connection(Connection.CONNECTION_TYPE_INPUT, new String[]{check});
+        conn.setPosition(x, y);
+        conn.setBlock(new Block.Builder("test").build());
+        return conn;
+    }
+
     private Connection createConnection(int x, int y, int type, boolean shadow) {
         Connection conn = new Connection(type, null);
         conn.setPosition(x, y);
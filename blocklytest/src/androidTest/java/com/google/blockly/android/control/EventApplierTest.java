@@ -0,0 +1,206 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.android.MockitoAndroidTestCase;
+import com.google.blockly.android.R;
+import com.google.blockly.android.testui.TestableBlockViewFactory;
+import com.google.blockly.android.ui.WorkspaceHelper;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.Field;
+import com.google.blockly.model.WorkspacePoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link EventApplier}.
+ */
+public class EventApplierTest extends MockitoAndroidTestCase {
+    BlocklyController mSourceController;
+    BlocklyController mController;
+    EventApplier mApplier;
+
+    // Events fired by the source controller, in order.
+    List<BlocklyEvent> mSourceEvents = new ArrayList<>();
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        mSourceController = createController();
+        mSourceController.addCallback(new RecordingCallback(mSourceEvents));
+        mController = createController();
+        mApplier = new EventApplier(mController);
+    }
+
+    public void testApplyBatch() {
+        Block target = mSourceController.getBlockFactory()
+                .obtainBlock("statement_no_input", "target");
+        Block source = mSourceController.getBlockFactory()
+                .obtainBlock("statement_no_input", "source");
+        target.setPosition(10, 20);
+        mSourceController.addRootBlock(target);
+        mSourceController.addRootBlock(source);
+        mSourceController.connect(source.getPreviousConnection(), target.getNextConnection());
+        mSourceController.setRootBlockPosition(target, 30, 40);
+
+        assertEquals(mSourceEvents.size(), mApplier.applyBatch(mSourceEvents));
+
+        Block mirroredTarget = mController.getBlockFactory().getBlockById("target");
+        Block mirroredSource = mController.getBlockFactory().getBlockById("source");
+        assertNotNull(mirroredTarget);
+        assertNotNull(mirroredSource);
+        assertEquals(1, mController.getWorkspace().getRootBlocks().size());
+        assertTrue(mController.getWorkspace().isRootBlock(mirroredTarget));
+        assertSame(mirroredTarget, mirroredSource.getParentBlock());
+        assertEquals(new WorkspacePoint(30, 40), mirroredTarget.getPosition());
+    }
+
+    public void testApplyBatch_changeAndDelete() {
+        Block block = mSourceController.getBlockFactory().obtainBlock("math_number", "num");
+        mSourceController.addRootBlock(block);
+        Field field = block.getFieldByName("NUM");
+        field.setFromString("42");
+        mSourceEvents.add(BlocklyEvent.ChangeEvent.newFieldValueEvent(
+                mSourceController.getWorkspace(), block, field, "0", "42"));
+
+        mApplier.applyBatch(mSourceEvents);
+        Block mirrored = mController.getBlockFactory().getBlockById("num");
+        assertEquals("42", mirrored.getFieldByName("NUM").getSerializedValue());
+
+        mSourceEvents.clear();
+        mSourceController.removeBlockTree(block);
+        mApplier.applyBatch(mSourceEvents);
+        assertTrue(mController.getWorkspace().getRootBlocks().isEmpty());
+        assertTrue(mController.getWorkspace().getTrashContents().isEmpty());
+    }
+
+    public void testApplyBatch_firesOneGroup() {
+        List<BlocklyEvent> local = new ArrayList<>();
+        RecordingCallback callback = new RecordingCallback(local);
+        mController.addCallback(callback);
+
+        for (int i = 0; i < 5; ++i) {
+            mSourceController.addRootBlock(mSourceController.getBlockFactory()
+                    .obtainBlock("statement_no_input", "block" + i));
+        }
+        mApplier.applyBatch(mSourceEvents);
+
+        assertEquals(1, callback.mGroupCount);
+        assertEquals(5, local.size());
+        assertFalse(mApplier.isApplying());
+    }
+
+    public void testEchoSuppression() {
+        List<BlocklyEvent> sent = new ArrayList<>();
+        RecordingCallback sender = new RecordingCallback(sent);
+        mController.addCallback(mApplier.filterEchoes(sender));
+
+        // Events applied from a remote batch are not sent back.
+        mSourceController.addRootBlock(mSourceController.getBlockFactory()
+                .obtainBlock("statement_no_input", "remote"));
+        mApplier.applyBatch(mSourceEvents);
+        assertEquals(0, sender.mGroupCount);
+        assertNotNull(mController.getBlockFactory().getBlockById("remote"));
+
+        // Local events are sent, and are ignored when they come back.
+        Block local = mController.getBlockFactory().obtainBlock("statement_no_input", "local");
+        mController.addRootBlock(local);
+        assertEquals(1, sender.mGroupCount);
+        assertEquals(0, mApplier.applyBatch(new ArrayList<>(sent)));
+        assertEquals(2, mController.getWorkspace().getRootBlocks().size());
+    }
+
+    public void testEchoSuppression_overWire() throws Exception {
+        List<BlocklyEvent> sent = new ArrayList<>();
+        mController.addCallback(new RecordingCallback(sent));
+        mController.addRootBlock(
+                mController.getBlockFactory().obtainBlock("statement_no_input", "local"));
+        mSourceController.addRootBlock(mSourceController.getBlockFactory()
+                .obtainBlock("statement_no_input", "remote"));
+
+        // Both codecs carry the workspace id, so local events are recognized when echoed back.
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        new BinaryEventCodec.Encoder(binary).write(sent);
+        List<BlocklyEvent> decoded = new BinaryEventCodec.Decoder(
+                new ByteArrayInputStream(binary.toByteArray()))
+                .readAll(new ArrayList<BlocklyEvent>());
+        assertEquals(mController.getWorkspace().getId(), decoded.get(0).getWorkspaceId());
+        assertEquals(0, mApplier.applyBatch(decoded));
+
+        StringWriter json = new StringWriter();
+        BlocklyEvent.writeJsonArray(sent, json);
+        decoded = BlocklyEvent.fromJsonArray(
+                new StringReader(json.toString()), new ArrayList<BlocklyEvent>());
+        assertEquals(0, mApplier.applyBatch(decoded));
+
+        // Events from another workspace are still applied after the same round trip.
+        json = new StringWriter();
+        BlocklyEvent.writeJsonArray(mSourceEvents, json);
+        decoded = BlocklyEvent.fromJsonArray(
+                new StringReader(json.toString()), new ArrayList<BlocklyEvent>());
+        assertEquals(1, mApplier.applyBatch(decoded));
+        assertNotNull(mController.getWorkspace().getBlockById("remote"));
+    }
+
+    public void testApplyBatch_skipsMissingBlocks() {
+        Block block = mSourceController.getBlockFactory()
+                .obtainBlock("statement_no_input", "block");
+        mSourceController.addRootBlock(block);
+        mSourceEvents.clear();
+        mSourceController.setRootBlockPosition(block, 5, 5);
+
+        // The create event was never applied, so the move has no block to act on.
+        mApplier.applyBatch(mSourceEvents);
+        assertTrue(mController.getWorkspace().getRootBlocks().isEmpty());
+        assertEquals(0, mApplier.applyBatch(Collections.<BlocklyEvent>emptyList()));
+    }
+
+    private BlocklyController createController() {
+        WorkspaceHelper helper = new WorkspaceHelper(getContext());
+        return new BlocklyController.Builder(getContext())
+                .setWorkspaceHelper(helper)
+                .setBlockViewFactory(new TestableBlockViewFactory(getContext(), helper))
+                .addBlockDefinitions(R.raw.test_blocks)
+                .build();
+    }
+
+    private static class RecordingCallback implements BlocklyController.EventsCallback {
+        final List<BlocklyEvent> mEvents;
+        int mGroupCount = 0;
+
+        RecordingCallback(List<BlocklyEvent> events) {
+            mEvents = events;
+        }
+
+        @Override
+        public int getTypesBitmask() {
+            return BlocklyEvent.TYPE_ALL;
+        }
+
+        @Override
+        public void onEventGroup(List<BlocklyEvent> events) {
+            ++mGroupCount;
+            mEvents.addAll(events);
+        }
+    }
+}
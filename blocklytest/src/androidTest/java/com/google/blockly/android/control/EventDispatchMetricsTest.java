@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.os.SystemClock;
+
+import com.google.blockly.android.MockitoAndroidTestCase;
+import com.google.blockly.android.R;
+import com.google.blockly.android.testui.TestableBlockViewFactory;
+import com.google.blockly.android.ui.WorkspaceHelper;
+import com.google.blockly.model.Block;
+
+import java.util.List;
+
+/**
+ * Tests for {@link EventDispatchMetrics}.
+ */
+public class EventDispatchMetricsTest extends MockitoAndroidTestCase {
+    BlocklyController mController;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        WorkspaceHelper helper = new WorkspaceHelper(getContext());
+        mController = new BlocklyController.Builder(getContext())
+                .setWorkspaceHelper(helper)
+                .setBlockViewFactory(new TestableBlockViewFactory(getContext(), helper))
+                .addBlockDefinitions(R.raw.test_blocks)
+                .build();
+    }
+
+    public void testDisabledByDefault() {
+        assertNull(mController.getDispatchMetrics());
+        mController.setDispatchMetricsEnabled(true);
+        assertNotNull(mController.getDispatchMetrics());
+        mController.setDispatchMetricsEnabled(false);
+        assertNull(mController.getDispatchMetrics());
+    }
+
+    public void testPerListenerMetrics() {
+        mController.setDispatchMetricsEnabled(true);
+        mController.addCallback(new SlowCallback());
+        mController.addCallback(new MoveOnlyCallback());
+
+        Block block = mController.getBlockFactory().obtainBlock("statement_no_input", "block");
+        mController.addRootBlock(block);
+        mController.setRootBlockPosition(block, 10, 10);
+        mController.setRootBlockPosition(block, 20, 20);
+
+        EventDispatchMetrics metrics = mController.getDispatchMetrics();
+        List<EventDispatchMetrics.ListenerMetrics> listeners = metrics.getListenerMetrics();
+        assertEquals(2, listeners.size());
+        for (EventDispatchMetrics.ListenerMetrics listener : listeners) {
+            if (listener.getName().equals(SlowCallback.class.getName())) {
+                assertEquals(3, listener.getGroupCount());
+                assertEquals(3, listener.getEventCount());
+                assertTrue(listener.getDispatchTime().getMax() >= 2000000);
+                assertTrue(listener.getDispatchTime().getPercentile(50) >= 1000000);
+            } else {
+                assertEquals(MoveOnlyCallback.class.getName(), listener.getName());
+                assertEquals(2, listener.getGroupCount());
+            }
+        }
+        assertEquals(3, metrics.getQueueDepth().getCount());
+        assertEquals(1, metrics.getQueueDepth().getMax());
+        assertEquals(5, metrics.getDeliveryLatency().getCount());
+
+        metrics.reset();
+        assertTrue(metrics.getListenerMetrics().isEmpty());
+        assertEquals(0, metrics.getQueueDepth().getCount());
+    }
+
+    public void testHistogramPercentiles() {
+        EventDispatchMetrics.Histogram histogram = new EventDispatchMetrics.Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getTotal());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+
+        // Buckets are powers of two, so percentiles are within a factor of two.
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 50 && median < 100);
+        assertEquals(100, histogram.getPercentile(100));
+        assertEquals(1, histogram.getPercentile(0));
+    }
+
+    private static class SlowCallback implements BlocklyController.EventsCallback {
+        @Override
+        public int getTypesBitmask() {
+            return BlocklyEvent.TYPE_ALL;
+        }
+
+        @Override
+        public void onEventGroup(List<BlocklyEvent> events) {
+            SystemClock.sleep(2);
+        }
+    }
+
+    private static class MoveOnlyCallback implements BlocklyController.EventsCallback {
+        @Override
+        public int getTypesBitmask() {
+            return BlocklyEvent.TYPE_MOVE;
+        }
+
+        @Override
+        public void onEventGroup(List<BlocklyEvent> events) {
+        }
+    }
+}
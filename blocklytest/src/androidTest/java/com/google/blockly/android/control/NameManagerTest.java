@@ -41,6 +41,30 @@ public class NameManagerTest extends AndroidTestCase {
         assertEquals("223", mNameManager.generateUniqueName("222", true /* addName */));
     }
 
+    public void testGenerateUniqueName_reusesFreedNames() {
+        for (int i = 0; i < 500; i++) {
+            mNameManager.generateUniqueName("Item", true /* addName */);
+        }
+        assertTrue(mNameManager.contains("item"));
+        assertTrue(mNameManager.contains("item500"));
+        assertEquals("item501", mNameManager.generateUniqueName("item", false /* addName */));
+        assertEquals("item501", mNameManager.generateUniqueName("ITEM42", false /* addName */));
+
+        mNameManager.remove("Item42");
+        mNameManager.remove("item7");
+        assertEquals("item7", mNameManager.generateUniqueName("item", true /* addName */));
+        assertEquals("item42", mNameManager.generateUniqueName("item", true /* addName */));
+        assertEquals("item501", mNameManager.generateUniqueName("item", true /* addName */));
+
+        // Leading zeros are kept for unused names and dropped when incrementing.
+        assertEquals("item07", mNameManager.generateUniqueName("item07", true /* addName */));
+        assertEquals("item502", mNameManager.generateUniqueName("item07", false /* addName */));
+
+        mNameManager.clearUsedNames();
+        assertEquals("item", mNameManager.generateUniqueName("item", true /* addName */));
+        assertEquals("item2", mNameManager.generateUniqueName("item", true /* addName */));
+    }
+
     public void testCaseInsensitive() {
         String name1 = mNameManager.generateUniqueName("string", true /* addName */);
         String name2 = mNameManager.generateUniqueName("String", true /* addName */);
@@ -79,6 +103,23 @@ public class NameManagerTest extends AndroidTestCase {
         assertEquals("k2", nameManager.generateVariableName(true /* addName */));
     }
 
+    public void testGenerateVariableName_reusesFreedNames() {
+        NameManager.VariableNameManager nameManager = new NameManager.VariableNameManager();
+        for (int i = 0; i < 75; i++) {
+            nameManager.generateVariableName(true /* addName */);
+        }
+        assertEquals("i4", nameManager.generateVariableName(false /* addName */));
+
+        nameManager.remove("K2");
+        assertEquals("k2", nameManager.generateVariableName(true /* addName */));
+        nameManager.remove("m");
+        assertEquals("m", nameManager.generateVariableName(true /* addName */));
+        assertEquals("i4", nameManager.generateVariableName(true /* addName */));
+
+        nameManager.clearUsedNames();
+        assertEquals("i", nameManager.generateVariableName(true /* addName */));
+    }
+
     public void testRemove() {
         mNameManager.addName("foo");
         assertTrue(mNameManager.contains("FOO"));
@@ -18,10 +18,12 @@ package com.google.blockly.android.control;
 import android.test.AndroidTestCase;
 
 import com.google.blockly.model.Block;
+import com.google.blockly.model.Connection;
 import com.google.blockly.model.Field;
 import com.google.blockly.model.FieldInput;
 import com.google.blockly.model.Input;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -155,4 +157,66 @@ public class ProcedureManagerTest extends AndroidTestCase {
             // expected
         }
     }
+
+    public void testRenameProcedure() {
+        Block definitionA = buildProcedureBlock(ProcedureManager.PROCEDURE_DEFINITION_PREFIX, "a");
+        Block definitionB = buildProcedureBlock(ProcedureManager.PROCEDURE_DEFINITION_PREFIX, "b");
+        Block callB = buildProcedureBlock(ProcedureManager.PROCEDURE_REFERENCE_PREFIX, "b");
+        Block otherCallB = buildProcedureBlock(ProcedureManager.PROCEDURE_REFERENCE_PREFIX, "b");
+        mProcedureManager.addDefinition(definitionA);
+        mProcedureManager.addDefinition(definitionB);
+        mProcedureManager.addReference(callB);
+        mProcedureManager.addReference(otherCallB);
+        assertEquals(ProcedureManager.KIND_REFERENCE, mProcedureManager.getBlockKind(callB));
+        assertSame(definitionB, mProcedureManager.getDefinition(callB));
+
+        mProcedureManager.renameProcedure("b", "c");
+        assertNull(mProcedureManager.getReferences("b"));
+        assertEquals(2, mProcedureManager.getReferences("c").size());
+        assertSame(definitionB, mProcedureManager.getDefinition(otherCallB));
+        assertEquals("c", ((FieldInput) definitionB.getFieldByName("name")).getText());
+        assertEquals("c", ((FieldInput) callB.getFieldByName("name")).getText());
+        assertEquals("c", ((FieldInput) otherCallB.getFieldByName("name")).getText());
+
+        try {
+            mProcedureManager.renameProcedure("c", "a");
+            fail("Renaming to an existing procedure name should be an error");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    public void testFindRecursion() {
+        Block definitionA = buildProcedureBlock(ProcedureManager.PROCEDURE_DEFINITION_PREFIX, "a");
+        Block definitionB = buildProcedureBlock(ProcedureManager.PROCEDURE_DEFINITION_PREFIX, "b");
+        Block callA = buildProcedureBlock(ProcedureManager.PROCEDURE_REFERENCE_PREFIX, "a");
+        Block callB = buildProcedureBlock(ProcedureManager.PROCEDURE_REFERENCE_PREFIX, "b");
+        mProcedureManager.addDefinition(definitionA);
+        mProcedureManager.addDefinition(definitionB);
+        mProcedureManager.addReference(callA);
+        mProcedureManager.addReference(callB);
+        assertTrue(mProcedureManager.findRecursion("a").isEmpty());
+
+        // a calls b, and b calls a.
+        definitionA.getOnlyValueInput().getConnection().connect(callB.getOutputConnection());
+        assertTrue(mProcedureManager.findRecursion("a").isEmpty());
+        definitionB.getOnlyValueInput().getConnection().connect(callA.getOutputConnection());
+        assertEquals(Arrays.asList("a", "b", "a"), mProcedureManager.findRecursion("a"));
+        assertEquals(Arrays.asList("b", "a", "b"), mProcedureManager.findRecursion("b"));
+
+        callA.getOutputConnection().disconnect();
+        assertTrue(mProcedureManager.findRecursion("b").isEmpty());
+    }
+
+    private static Block buildProcedureBlock(String prefix, String name) {
+        Input nameInput = new Input.InputDummy("name input", Input.ALIGN_LEFT);
+        nameInput.add(new FieldInput("name", name));
+        Block.Builder builder = new Block.Builder(prefix + "test").addInput(nameInput);
+        if (prefix.equals(ProcedureManager.PROCEDURE_DEFINITION_PREFIX)) {
+            builder.addInput(new Input.InputValue("body", Input.ALIGN_LEFT, null));
+        } else {
+            builder.setOutput(new Connection(Connection.CONNECTION_TYPE_OUTPUT, null));
+        }
+        return builder.build();
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.android.MockitoAndroidTestCase;
+import com.google.blockly.android.R;
+import com.google.blockly.android.testui.TestableBlockViewFactory;
+import com.google.blockly.android.ui.WorkspaceHelper;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.Field;
+import com.google.blockly.model.Workspace;
+import com.google.blockly.model.WorkspacePoint;
+
+import java.util.Collections;
+
+/**
+ * Tests for {@link UndoManager}.
+ */
+public class UndoManagerTest extends MockitoAndroidTestCase {
+    BlocklyController mController;
+    BlockFactory mBlockFactory;
+    Workspace mWorkspace;
+    UndoManager mUndoManager;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        WorkspaceHelper helper = new WorkspaceHelper(getContext());
+        mController = new BlocklyController.Builder(getContext())
+                .setWorkspaceHelper(helper)
+                .setBlockViewFactory(new TestableBlockViewFactory(getContext(), helper))
+                .addBlockDefinitions(R.raw.test_blocks)
+                .build();
+        mBlockFactory = mController.getBlockFactory();
+        mWorkspace = mController.getWorkspace();
+        mUndoManager = new UndoManager(mController);
+    }
+
+    public void testUndoRedoCreate() {
+        Block block = mBlockFactory.obtainBlock("statement_no_input", "block");
+        mController.addRootBlock(block);
+        assertTrue(mUndoManager.canUndo());
+        assertFalse(mUndoManager.canRedo());
+
+        assertTrue(mUndoManager.undo());
+        assertFalse(mWorkspace.isRootBlock(block));
+        assertFalse(mUndoManager.canUndo());
+        assertTrue(mUndoManager.canRedo());
+
+        assertTrue(mUndoManager.redo());
+        assertTrue(mWorkspace.isRootBlock(block));
+        assertTrue(mUndoManager.canUndo());
+        assertFalse(mUndoManager.canRedo());
+    }
+
+    public void testUndoRedoTrash() {
+        Block block = mBlockFactory.obtainBlock("statement_no_input", "block");
+        mController.addRootBlock(block);
+        mController.trashRootBlock(block);
+        assertEquals(2, mUndoManager.getUndoStepCount());
+
+        mUndoManager.undo();
+        assertTrue(mWorkspace.isRootBlock(block));
+        assertFalse(mWorkspace.getTrashContents().contains(block));
+
+        mUndoManager.redo();
+        assertFalse(mWorkspace.isRootBlock(block));
+        assertTrue(mWorkspace.getTrashContents().contains(block));
+    }
+
+    public void testUndoRedoConnect() {
+        Block target = mBlockFactory.obtainBlock("statement_no_input", "target");
+        Block source = mBlockFactory.obtainBlock("statement_no_input", "source");
+        source.setPosition(100, 200);
+        mController.addRootBlock(target);
+        mController.addRootBlock(source);
+
+        mController.connect(source.getPreviousConnection(), target.getNextConnection());
+        assertSame(target, source.getParentBlock());
+
+        mUndoManager.undo();
+        assertNull(source.getParentBlock());
+        assertTrue(mWorkspace.isRootBlock(source));
+        assertEquals(new WorkspacePoint(100, 200), source.getPosition());
+
+        mUndoManager.redo();
+        assertSame(target, source.getParentBlock());
+        assertFalse(mWorkspace.isRootBlock(source));
+    }
+
+    public void testEventGroupIsOneStep() {
+        Block target = mBlockFactory.obtainBlock("statement_no_input", "target");
+        Block source = mBlockFactory.obtainBlock("statement_no_input", "source");
+        mController.addRootBlock(target);
+        mController.addRootBlock(source);
+        mController.connect(source.getPreviousConnection(), target.getNextConnection());
+        int steps = mUndoManager.getUndoStepCount();
+
+        // Simulates a drag: extract, then move.
+        mController.startEventGroup();
+        mController.extractBlockAsRoot(source);
+        mController.setRootBlockPosition(source, 300, 400);
+        mController.endEventGroup();
+        assertEquals(steps + 1, mUndoManager.getUndoStepCount());
+
+        mUndoManager.undo();
+        assertSame(target, source.getParentBlock());
+
+        mUndoManager.redo();
+        assertNull(source.getParentBlock());
+        assertEquals(new WorkspacePoint(300, 400), source.getPosition());
+    }
+
+    public void testFieldEditsMerged() {
+        Block block = mBlockFactory.obtainBlock("math_number", "block");
+        mController.addRootBlock(block);
+        Field field = block.getFieldByName("NUM");
+        String original = field.getSerializedValue();
+        int steps = mUndoManager.getUndoStepCount();
+
+        editField(block, field, "1");
+        editField(block, field, "12");
+        editField(block, field, "123");
+        assertEquals(steps + 1, mUndoManager.getUndoStepCount());
+
+        mUndoManager.undo();
+        assertEquals(original, field.getSerializedValue());
+
+        mUndoManager.redo();
+        assertEquals("123", field.getSerializedValue());
+    }
+
+    public void testNewActionClearsRedo() {
+        Block block = mBlockFactory.obtainBlock("statement_no_input", "block");
+        mController.addRootBlock(block);
+        mUndoManager.undo();
+        assertTrue(mUndoManager.canRedo());
+
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "other"));
+        assertFalse(mUndoManager.canRedo());
+    }
+
+    public void testMemoryBudgetEvictsOldest() {
+        Block first = mBlockFactory.obtainBlock("statement_no_input", "block0");
+        mController.addRootBlock(first);
+        int stepSize = mUndoManager.getMemoryUsage();
+        mUndoManager.setMemoryBudget(stepSize * 3);
+
+        for (int i = 1; i < 10; ++i) {
+            mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "block" + i));
+            assertTrue(mUndoManager.getMemoryUsage() <= mUndoManager.getMemoryBudget());
+        }
+        assertEquals(3, mUndoManager.getUndoStepCount());
+
+        while (mUndoManager.undo()) {}
+        // The oldest step was evicted, so the first block cannot be removed by undo.
+        assertTrue(mWorkspace.isRootBlock(first));
+        assertEquals(7, mWorkspace.getRootBlocks().size());
+    }
+
+    public void testRelease() {
+        mUndoManager.release();
+        mController.addRootBlock(mBlockFactory.obtainBlock("statement_no_input", "block"));
+        assertFalse(mUndoManager.canUndo());
+    }
+
+    private void editField(Block block, Field field, String value) {
+        String oldValue = field.getSerializedValue();
+        field.setFromString(value);
+        mUndoManager.onEventGroup(Collections.<BlocklyEvent>singletonList(
+                BlocklyEvent.ChangeEvent.newFieldValueEvent(
+                        mWorkspace, block, field, oldValue, field.getSerializedValue())));
+    }
+}
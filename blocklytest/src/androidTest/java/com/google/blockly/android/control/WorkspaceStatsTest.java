@@ -24,7 +24,9 @@ import com.google.blockly.model.FieldInput;
 import com.google.blockly.model.FieldVariable;
 import com.google.blockly.model.Input;
 
-import static org.mockito.Mockito.mock;
+import java.util.List;
+
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -42,7 +44,7 @@ public class WorkspaceStatsTest extends InstrumentationTestCase {
         System.setProperty(
                 "dexmaker.dexcache",
                 getInstrumentation().getTargetContext().getCacheDir().getPath());
-        mMockProcedureManager = mock(ProcedureManager.class);
+        mMockProcedureManager = spy(new ProcedureManager());
         mFieldInput = new Input.InputDummy("name input", Input.ALIGN_LEFT);
         Field field = new FieldInput("name", "nameid");
         field.setFromString("new procedure");
@@ -79,6 +81,33 @@ public class WorkspaceStatsTest extends InstrumentationTestCase {
         verify(mMockProcedureManager).addReference(procedureReference);
     }
 
+    // Mirrors trashing a call, trashing its definition, then restoring the call from the trash.
+    public void testRestoreOrphanedProcedureCall() {
+        Block definition = buildProcedureBlock(ProcedureManager.PROCEDURE_DEFINITION_PREFIX);
+        Block call = buildProcedureBlock(ProcedureManager.PROCEDURE_REFERENCE_PREFIX);
+        mStats.collectStats(definition, false);
+        mStats.collectStats(call, false);
+
+        mStats.cleanupStats(call);
+        mStats.cleanupStats(definition);
+        mStats.collectStats(call, false);
+        assertFalse(mMockProcedureManager.isTracked(call));
+
+        // The call is tracked again once its definition is restored.
+        mStats.collectStats(definition, false);
+        assertSame(definition, mMockProcedureManager.getDefinition(call));
+        assertTrue(mMockProcedureManager.getReferences("proc").contains(call));
+
+        // Calls left behind by a deleted definition are tracked again the same way.
+        mStats.cleanupStats(definition);
+        assertFalse(mMockProcedureManager.isTracked(call));
+        mStats.collectStats(definition, false);
+        assertSame(definition, mMockProcedureManager.getDefinition(call));
+
+        mStats.cleanupStats(call);
+        assertFalse(mMockProcedureManager.isTracked(call));
+    }
+
     public void testCollectVariableStats() {
         Block.Builder blockBuilder = new Block.Builder("test");
 
@@ -95,6 +124,36 @@ public class WorkspaceStatsTest extends InstrumentationTestCase {
                 mStats.getVariableReferences().get("variable name").get(0));
     }
 
+    public void testVariableReferencesRemoveAndRename() {
+        FieldVariable[] fields = new FieldVariable[3];
+        Block[] blocks = new Block[3];
+        for (int i = 0; i < fields.length; i++) {
+            Input input = new Input.InputDummy("input", Input.ALIGN_LEFT);
+            fields[i] = new FieldVariable("field " + i, "id" + i);
+            fields[i].setFromString("x");
+            input.add(fields[i]);
+            blocks[i] = new Block.Builder("test").addInput(input).build();
+            mStats.collectStats(blocks[i], false);
+        }
+        List<FieldVariable> refs = mStats.getVariableReferences().get("x");
+        assertEquals(3, refs.size());
+
+        // Collecting the same block again does not add duplicate references.
+        mStats.collectStats(blocks[0], false);
+        assertEquals(3, refs.size());
+
+        mStats.cleanupStats(blocks[0]);
+        assertEquals(2, refs.size());
+        assertFalse(refs.contains(fields[0]));
+        assertTrue(refs.contains(fields[1]));
+        assertTrue(refs.contains(fields[2]));
+
+        fields[1].setFromString("y");
+        assertEquals(1, refs.size());
+        assertSame(fields[2], refs.get(0));
+        assertSame(fields[1], mStats.getVariableReferences().get("y").get(0));
+    }
+
     public void testCollectConnectionStatsRecursive() {
         // Make sure we're only recursing on next and input connections, not output or previous.
         Block.Builder blockBuilder = new Block.Builder("first block");
@@ -135,4 +194,13 @@ public class WorkspaceStatsTest extends InstrumentationTestCase {
     public void testRemoveConnection() {
         // TODO(fenichel): Implement in next CL.
     }
+
+    private static Block buildProcedureBlock(String typePrefix) {
+        Input input = new Input.InputDummy("name input", Input.ALIGN_LEFT);
+        Field field = new FieldInput("name", "proc");
+        input.add(field);
+        Block.Builder blockBuilder = new Block.Builder(typePrefix + "test");
+        blockBuilder.addInput(input);
+        return blockBuilder.build();
+    }
 }
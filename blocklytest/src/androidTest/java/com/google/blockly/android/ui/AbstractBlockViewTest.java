@@ -24,11 +24,17 @@ import com.google.blockly.android.R;
 import com.google.blockly.android.control.ConnectionManager;
 import com.google.blockly.model.Block;
 import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.WorkspacePoint;
 
 import org.mockito.Mock;
+import org.mockito.Mockito;
 
 import java.util.ArrayList;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.times;
+
 
 /**
  * Tests for {@link AbstractBlockView}.
@@ -71,6 +77,41 @@ public class AbstractBlockViewTest extends MockitoAndroidTestCase {
         assertSame(mEmptyBlock, blockView.getBlock());
     }
 
+    // Verify connectors are only recomputed after the view moved or requested a layout.
+    public void testUpdateConnectorLocations_skipsUnchangedViews() {
+        Block block = mBlockFactory.obtainBlock("statement_no_input", "statement_id");
+        AbstractBlockView blockView = makeBlockView(block);
+        blockView.mWorkspaceView = mMockWorkspaceView;
+        blockView.measure(0, 0);
+        blockView.layout(0, 0, 10, 10);
+
+        blockView.updateConnectorLocations(null);
+        verifyPreviousConnectorMoves(block, 1);
+
+        // Neither moved nor changed shape.
+        blockView.updateConnectorLocations(null);
+        verifyPreviousConnectorMoves(block, 1);
+
+        block.setPosition(20, 30);
+        blockView.updateConnectorLocations(null);
+        verifyPreviousConnectorMoves(block, 2);
+
+        blockView.requestLayout();
+        blockView.layout(0, 0, 10, 10);
+        blockView.updateConnectorLocations(null);
+        verifyPreviousConnectorMoves(block, 3);
+
+        // The public method always updates the block's own connectors.
+        blockView.updateConnectorLocations();
+        verifyPreviousConnectorMoves(block, 4);
+    }
+
+    private void verifyPreviousConnectorMoves(Block block, int count) {
+        Mockito.verify(mMockConnectionManager, times(count)).moveConnectionTo(
+                same(block.getPreviousConnection()), any(WorkspacePoint.class),
+                any(WorkspacePoint.class));
+    }
+
     // Make a BlockView for the given Block and default mock objects otherwise.
     @NonNull
     private AbstractBlockView makeBlockView(Block block) {
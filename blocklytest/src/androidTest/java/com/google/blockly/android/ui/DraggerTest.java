@@ -22,13 +22,13 @@ import android.content.Context;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.support.annotation.Nullable;
-import android.util.Pair;
 import android.view.DragEvent;
 import android.view.MotionEvent;
 
 import com.google.blockly.android.MockitoAndroidTestCase;
 import com.google.blockly.android.R;
 import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.android.control.BlocklyEvent;
 import com.google.blockly.android.control.ConnectionManager;
 import com.google.blockly.android.ui.vertical.VerticalBlockViewFactory;
 import com.google.blockly.model.Block;
@@ -44,6 +44,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -87,6 +88,7 @@ public class DraggerTest extends MockitoAndroidTestCase {
     private Dragger mDragger;
     private BlockTouchHandler mTouchHandler;
     private BlockFactory mBlockFactory;
+    private BlocklyController mController;  // Real controller, for tests of event groups.
 
     // Drag gesture state variables
     Block mTouchedBlock;
@@ -184,15 +186,19 @@ public class DraggerTest extends MockitoAndroidTestCase {
                 "simple_input_output", "first block");
         mTargetBlock = mBlockFactory.obtainBlock("output_no_input", "second block");
 
-        Mockito.when(mMockConnectionManager.findBestConnection(Matchers.same(mTouchedBlock), anyInt()))
-                .thenReturn(Pair.create(mTouchedBlock.getOnlyValueInput().getConnection(),
-                        mTargetBlock.getOutputConnection()));
+        ConnectionManager.Candidate candidate = new ConnectionManager.Candidate();
+        candidate.set(mTouchedBlock.getOnlyValueInput().getConnection(),
+                mTargetBlock.getOutputConnection());
+        Mockito.when(mMockConnectionManager.findBestConnection(Matchers.same(mTouchedBlock),
+                anyInt(), any(ConnectionManager.Candidate.class)))
+                .thenReturn(candidate);
 
         setupDrag();
         dragBlockToTarget();
 
         Mockito.verify(mMockConnectionManager, atLeastOnce())
-                .findBestConnection(Matchers.same(mTouchedBlock), anyInt());
+                .findBestConnection(Matchers.same(mTouchedBlock), anyInt(),
+                        any(ConnectionManager.Candidate.class));
         Mockito.verify(mMockController).connect(
                 mTouchedBlock.getOnlyValueInput().getConnection(),
                 mTargetBlock.getOutputConnection());
@@ -205,14 +211,16 @@ public class DraggerTest extends MockitoAndroidTestCase {
                 "simple_input_output", "first block");
         mTargetBlock = mBlockFactory.obtainBlock("output_no_input", "second block");
 
-        Mockito.when(mMockConnectionManager.findBestConnection(any(Block.class), anyInt()))
+        Mockito.when(mMockConnectionManager.findBestConnection(any(Block.class), anyInt(),
+                any(ConnectionManager.Candidate.class)))
                 .thenReturn(null);
 
         setupDrag();
         dragBlockToTarget();
 
         Mockito.verify(mMockConnectionManager, atLeastOnce())
-                .findBestConnection(Matchers.same(mTouchedBlock), anyInt());
+                .findBestConnection(Matchers.same(mTouchedBlock), anyInt(),
+                        any(ConnectionManager.Candidate.class));
         Mockito.verify(mMockController, never())
                 .connect(any(Connection.class), any(Connection.class));
     }
@@ -273,6 +281,106 @@ public class DraggerTest extends MockitoAndroidTestCase {
         }
     }
 
+    // A tap never starts a drag, so finishing it must not end an event group.
+    public void testTapWithController() {
+        final List<BlocklyEvent> events = setupControllerDrag();
+
+        dragTouch();
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                long time = mDragStartTime + 10L;
+                MotionEvent me = MotionEvent.obtain(
+                        mDragStartTime, time, MotionEvent.ACTION_UP, 0, 0, 0);
+                mDragger.onTouchBlockImpl(
+                        Dragger.DRAG_MODE_SLOPPY, mDragHandler, mTouchedView, me, false);
+            }
+        }, TIMEOUT);
+
+        assertEquals(0, mDragGroupCreatorCallCount);
+        assertNextEventUngrouped(events);
+    }
+
+    // A drag that never receives its drop is discarded by the next gesture, which must end the
+    // drag's event group.
+    public void testDragWithoutDropWithController() {
+        final List<BlocklyEvent> events = setupControllerDrag();
+
+        dragTouch();
+        dragMove();
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                long time = mDragStartTime + 1000L;
+                MotionEvent me =
+                        MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, 0, 0, 0);
+                mDragger.onTouchBlockImpl(
+                        Dragger.DRAG_MODE_SLOPPY, mDragHandler, mTouchedView, me, false);
+            }
+        }, TIMEOUT);
+
+        assertNextEventUngrouped(events);
+    }
+
+    /**
+     * Replaces the mock controller's {@link Dragger} with one using a real
+     * {@link BlocklyController}, so event groups are checked, and sets up blocks to drag.
+     *
+     * @return The list the controller's create events will be added to.
+     */
+    private List<BlocklyEvent> setupControllerDrag() {
+        final List<BlocklyEvent> events = new ArrayList<>();
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                mController = new BlocklyController.Builder(mMockContext)
+                        .setWorkspaceHelper(mWorkspaceHelper)
+                        .addBlockDefinitions(R.raw.test_blocks)
+                        .build();
+                mController.addCallback(new BlocklyController.EventsCallback() {
+                    @Override
+                    public int getTypesBitmask() {
+                        return BlocklyEvent.TYPE_CREATE;
+                    }
+
+                    @Override
+                    public void onEventGroup(List<BlocklyEvent> eventGroup) {
+                        events.addAll(eventGroup);
+                    }
+                });
+                mDragger = new Dragger(mController);
+                mDragger.setWorkspaceView(mWorkspaceView);
+                mTouchHandler = mDragger.buildSloppyBlockTouchHandler(mDragHandler);
+
+                BlockFactory factory = mController.getBlockFactory();
+                mTouchedBlock = mDraggedBlock =
+                        factory.obtainBlock("simple_input_output", "first block");
+                mTargetBlock = factory.obtainBlock("output_no_input", "second block");
+                mController.addRootBlock(mDraggedBlock);
+                mController.addRootBlock(mTargetBlock);
+                setupDrag();
+            }
+        }, TIMEOUT);
+        events.clear();
+        return events;
+    }
+
+    /**
+     * Adds a block with the controller and checks its create event is not part of a group left
+     * open by the gesture.
+     */
+    private void assertNextEventUngrouped(List<BlocklyEvent> events) {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                mController.addRootBlock(
+                        mController.getBlockFactory().obtainBlock("output_no_input", "third"));
+            }
+        }, TIMEOUT);
+        assertEquals(1, events.size());
+        assertNull(events.get(0).getGroupId());
+    }
+
     private void setupDrag() {
         if (mTouchedBlock == null || mDraggedBlock == null || mTargetBlock == null) {
             throw new IllegalStateException("Blocks must not be null");
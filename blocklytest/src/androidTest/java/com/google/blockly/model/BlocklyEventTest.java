@@ -5,11 +5,18 @@ import com.google.blockly.android.MockitoAndroidTestCase;
 import com.google.blockly.android.control.BlocklyEvent;
 import com.google.blockly.utils.BlocklyXmlHelper;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Unit tests for {@link BlocklyEvent} classes.
  */
@@ -120,7 +127,7 @@ public class BlocklyEventTest extends MockitoAndroidTestCase {
         BlocklyEvent.ChangeEvent deserializedEvent =
                 (BlocklyEvent.ChangeEvent) BlocklyEvent.fromJson(json);
         assertEquals(event.getTypeName(), deserializedEvent.getTypeName());
-        // Workspace ids are not serialized.
+        assertEquals(WORKSPACE_ID, deserializedEvent.getWorkspaceId());
         // Group id is assigned by the BlocklyController, not tested here.
         assertEquals(element, deserializedEvent.getElement());
         assertEquals(BLOCK_ID, deserializedEvent.getBlockId());
@@ -146,7 +153,7 @@ public class BlocklyEventTest extends MockitoAndroidTestCase {
         BlocklyEvent.CreateEvent deserializedEvent =
                 (BlocklyEvent.CreateEvent) BlocklyEvent.fromJson(json);
         assertEquals(event.getTypeName(), deserializedEvent.getTypeName());
-        // Workspace ids are not serialized.
+        assertEquals(WORKSPACE_ID, deserializedEvent.getWorkspaceId());
         // Group id is assigned by the BlocklyController, not tested here.
         assertEquals(BLOCK_ID, deserializedEvent.getBlockId());
         assertEquals(1, deserializedEvent.getIds().size());
@@ -159,4 +166,69 @@ public class BlocklyEventTest extends MockitoAndroidTestCase {
         assertEquals(BLOCK_TYPE, mBlock.getType());
         assertEquals(NEW_POSITION, mBlock.getPosition());
     }
+
+    public void testJsonArray() throws Exception {
+        BlocklyEvent.ChangeEvent changeEvent = BlocklyEvent.ChangeEvent.newFieldValueEvent(
+                mMockWorkspace, mBlock, mField, "UNTIL", "WHILE");
+        BlocklyEvent.CreateEvent createEvent = new BlocklyEvent.CreateEvent(mMockWorkspace, mBlock);
+        List<BlocklyEvent> events = Arrays.asList(changeEvent, createEvent);
+
+        StringWriter out = new StringWriter();
+        BlocklyEvent.writeJsonArray(events, out);
+
+        // Each array element must be wire compatible with the per-event serialization.
+        JSONArray json = new JSONArray(out.toString());
+        assertEquals(2, json.length());
+        assertEquals(new JSONObject(changeEvent.toJsonString()).toString(),
+                json.getJSONObject(0).toString());
+        assertEquals(new JSONObject(createEvent.toJsonString()).toString(),
+                json.getJSONObject(1).toString());
+
+        List<BlocklyEvent> decoded = BlocklyEvent.fromJsonArray(
+                new StringReader(out.toString()), new ArrayList<BlocklyEvent>());
+        assertEquals(2, decoded.size());
+
+        BlocklyEvent.ChangeEvent decodedChange = (BlocklyEvent.ChangeEvent) decoded.get(0);
+        assertEquals(BlocklyEvent.ELEMENT_FIELD, decodedChange.getElement());
+        assertEquals(BLOCK_ID, decodedChange.getBlockId());
+        assertEquals(FIELD_NAME, decodedChange.getFieldName());
+        assertEquals("WHILE", decodedChange.getNewValue());
+
+        BlocklyEvent.CreateEvent decodedCreate = (BlocklyEvent.CreateEvent) decoded.get(1);
+        assertEquals(BLOCK_ID, decodedCreate.getBlockId());
+        assertEquals(createEvent.getXml(), decodedCreate.getXml());
+        assertEquals(createEvent.getIds(), decodedCreate.getIds());
+    }
+
+    public void testJsonArray_skipsUnknownAttributes() throws Exception {
+        String json = "[{\"type\":\"ui\",\"element\":\"category\",\"newValue\":\"Loops\","
+                + "\"extra\":{\"nested\":[1,2,3]}},"
+                + "{\"type\":\"change\",\"blockId\":\"" + BLOCK_ID + "\","
+                + "\"element\":\"collapsed\",\"newValue\":true}]";
+        BlocklyEvent.JsonEventsReader reader =
+                new BlocklyEvent.JsonEventsReader(new StringReader(json));
+
+        assertTrue(reader.hasNext());
+        BlocklyEvent.UIEvent uiEvent = (BlocklyEvent.UIEvent) reader.next();
+        assertEquals(BlocklyEvent.ELEMENT_CATEGORY, uiEvent.getElement());
+        assertEquals("Loops", uiEvent.getNewValue());
+
+        assertTrue(reader.hasNext());
+        BlocklyEvent.ChangeEvent changeEvent = (BlocklyEvent.ChangeEvent) reader.next();
+        assertEquals(BlocklyEvent.ELEMENT_COLLAPSED, changeEvent.getElement());
+        assertEquals("true", changeEvent.getNewValue());
+
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+    public void testJsonArray_invalidEvent() throws Exception {
+        String json = "[{\"type\":\"change\",\"element\":\"field\"}]";
+        try {
+            BlocklyEvent.fromJsonArray(new StringReader(json), new ArrayList<BlocklyEvent>());
+            fail("Expected JSONException for ChangeEvent without blockId.");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
 }
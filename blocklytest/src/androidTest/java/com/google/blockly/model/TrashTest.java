@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2016 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.test.AndroidTestCase;
+
+import com.google.blockly.android.R;
+import com.google.blockly.android.control.BlocklyController;
+
+import java.io.File;
+
+/**
+ * Tests for {@link Trash}.
+ */
+public class TrashTest extends AndroidTestCase {
+    private BlocklyController mController;
+    private Workspace mWorkspace;
+    private Trash mTrash;
+    private File mSpillFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        BlocklyController.Builder builder = new BlocklyController.Builder(getContext());
+        builder.addBlockDefinitions(R.raw.test_blocks);
+        mController = builder.build();
+        mWorkspace = mController.getWorkspace();
+        mTrash = mWorkspace.getTrashContents();
+        mSpillFile = File.createTempFile("trash", null, getContext().getCacheDir());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTrash.setSpillFile(null);
+        mSpillFile.delete();
+        super.tearDown();
+    }
+
+    public void testNewestFirst() {
+        Block first = trashNewBlock("first");
+        Block second = trashNewBlock("second");
+
+        assertEquals(2, mTrash.size());
+        assertSame(second, mTrash.get(0));
+        assertSame(first, mTrash.get(1));
+        assertEquals(1, mTrash.indexOf(first));
+        assertTrue(mTrash.contains(second));
+        assertEquals(0, mSpillFile.length());
+    }
+
+    public void testSpillAndReload() {
+        mTrash.setSpillFile(mSpillFile);
+        mTrash.setMemoryLimits(1, Long.MAX_VALUE);
+        Block first = trashNewBlock("first");
+        trashNewBlock("second");
+        Block third = trashNewBlock("third");
+
+        assertEquals(3, mTrash.size());
+        assertTrue(mSpillFile.length() > 0);
+        assertSame(third, mTrash.getIfLoaded(0));
+        assertEquals(2, mTrash.indexOf(first));
+
+        // Forget the live blocks so spilled blocks are read back from the file.
+        mController.getBlockFactory().clearPriorBlockReferences();
+        assertNull(mTrash.getIfLoaded(2));
+        Block reloaded = mTrash.get(2);
+        assertNotSame(first, reloaded);
+        assertEquals("first", reloaded.getId());
+        assertEquals("statement_no_input", reloaded.getType());
+
+        mController.addBlockFromTrash(reloaded);
+        assertEquals(2, mTrash.size());
+        assertTrue(mWorkspace.isRootBlock(reloaded));
+        assertSame(reloaded, mWorkspace.getBlockById("first"));
+
+        mController.resetWorkspace();
+        assertEquals(0, mTrash.size());
+        assertEquals(0, mSpillFile.length());
+    }
+
+    public void testByteLimit() {
+        Block first = trashNewBlock("first");
+        mTrash.setSpillFile(mSpillFile);
+        assertEquals(0, mSpillFile.length());
+
+        // Too small for any block, so all but the newest are written to the file.
+        mTrash.setMemoryLimits(Integer.MAX_VALUE, 1);
+        trashNewBlock("second");
+        assertTrue(mSpillFile.length() > 0);
+        assertSame(first, mTrash.get(1));
+    }
+
+    private Block trashNewBlock(String id) {
+        Block block = mController.getBlockFactory().obtainBlock("statement_no_input", id);
+        mController.addRootBlock(block);
+        mController.trashRootBlock(block);
+        return block;
+    }
+}
@@ -18,9 +18,12 @@ import android.test.AndroidTestCase;
 
 import com.google.blockly.android.R;
 import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.android.control.WorkspaceMetrics;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Tests for {@link Workspace}.
@@ -36,6 +39,7 @@ public class WorkspaceTest extends AndroidTestCase {
 
     public static final String EMPTY_WORKSPACE =
             "\r\n<xml xmlns=\"http://www.w3.org/1999/xhtml\" />";
+    private BlocklyController mController;
     private Workspace mWorkspace;
 
     @Override
@@ -43,8 +47,8 @@ public class WorkspaceTest extends AndroidTestCase {
         // TODO(#84): Move test_blocks.json to the test app's resources.
         BlocklyController.Builder builder = new BlocklyController.Builder(getContext());
         builder.addBlockDefinitions(R.raw.test_blocks);
-        BlocklyController controller = builder.build();
-        mWorkspace = controller.getWorkspace();
+        mController = builder.build();
+        mWorkspace = mController.getWorkspace();
     }
 
     public void testSimpleXmlParsing() {
@@ -71,6 +75,161 @@ public class WorkspaceTest extends AndroidTestCase {
         }
     }
 
+    public void testBlockIndex() {
+        BlockFactory factory = mController.getBlockFactory();
+        Block first = factory.obtainBlock("statement_no_input", "first");
+        Block second = factory.obtainBlock("statement_no_input", "second");
+        Block other = factory.obtainBlock("simple_input_output", "other");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        mController.addRootBlock(other);
+        mController.connect(second.getPreviousConnection(), first.getNextConnection());
+
+        assertSame(first, mWorkspace.getBlockById("first"));
+        assertSame(second, mWorkspace.getBlockById("second"));
+        assertNull(mWorkspace.getBlockById("missing"));
+        assertEquals(2, mWorkspace.getBlocksOfType("statement_no_input", null).size());
+        assertEquals(1, mWorkspace.getBlocksOfType("simple_input_output", null).size());
+        assertTrue(mWorkspace.getBlocksOfType("missing", null).isEmpty());
+        assertTrue(mWorkspace.isRootBlock(first));
+        assertFalse(mWorkspace.isRootBlock(second));
+
+        // Trashing removes the whole tree from the index.
+        mController.trashRootBlock(first);
+        assertFalse(mWorkspace.isRootBlock(first));
+        assertNull(mWorkspace.getBlockById("first"));
+        assertNull(mWorkspace.getBlockById("second"));
+        assertTrue(mWorkspace.getBlocksOfType("statement_no_input", null).isEmpty());
+        assertSame(other, mWorkspace.getBlockById("other"));
+
+        mController.addBlockFromTrash(first);
+        assertTrue(mWorkspace.isRootBlock(first));
+        assertSame(second, mWorkspace.getBlockById("second"));
+        assertEquals(2, mWorkspace.getBlocksOfType("statement_no_input", null).size());
+
+        mController.resetWorkspace();
+        assertFalse(mWorkspace.isRootBlock(first));
+        assertNull(mWorkspace.getBlockById("other"));
+    }
+
+    public void testRootBlockOrder() {
+        BlockFactory factory = mController.getBlockFactory();
+        Block[] blocks = new Block[5];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = factory.obtainBlock("statement_no_input", "block" + i);
+            mWorkspace.addRootBlock(blocks[i], true);
+        }
+        List<Block> rootBlocks = mWorkspace.getRootBlocks();
+        assertEquals(5, rootBlocks.size());
+        assertSame(blocks[2], rootBlocks.get(2));
+
+        // The list is live, and keeps the order blocks were added in.
+        assertTrue(mWorkspace.removeRootBlock(blocks[1], false));
+        assertTrue(mWorkspace.removeRootBlock(blocks[3], false));
+        assertFalse(mWorkspace.removeRootBlock(blocks[3], false));
+        assertEquals(Arrays.asList(blocks[0], blocks[2], blocks[4]), rootBlocks);
+        mWorkspace.addRootBlock(blocks[1], false);
+        assertEquals(Arrays.asList(blocks[0], blocks[2], blocks[4], blocks[1]), rootBlocks);
+        assertTrue(rootBlocks.contains(blocks[1]));
+        assertFalse(rootBlocks.contains(blocks[3]));
+    }
+
+    public void testFindBlocks() {
+        BlockFactory factory = mController.getBlockFactory();
+        Block first = factory.obtainBlock("statement_value_input", "first");
+        Block second = factory.obtainBlock("statement_value_input", "second");
+        Block big = factory.obtainBlock("test_number", "big");
+        Block bigToo = factory.obtainBlock("test_number", "bigToo");
+        Block small = factory.obtainBlock("test_number", "small");
+        ((FieldNumber) big.getFieldByName("NUM")).setValue(150);
+        ((FieldNumber) bigToo.getFieldByName("NUM")).setValue(150);
+        ((FieldNumber) small.getFieldByName("NUM")).setValue(5);
+        mWorkspace.addFieldIndex("NUM");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        mController.addRootBlock(big);
+        mController.addRootBlock(bigToo);
+        mController.addRootBlock(small);
+        mController.connect(second.getPreviousConnection(), first.getNextConnection());
+        mController.connect(big.getOutputConnection(),
+                first.getInputByName("value").getConnection());
+        mController.connect(bigToo.getOutputConnection(),
+                second.getInputByName("value").getConnection());
+
+        BlockQuery overHundred = new BlockQuery.Builder()
+                .setType("test_number")
+                .addFieldPredicate("NUM", new BlockQuery.ValuePredicate() {
+                    @Override
+                    public boolean matches(String value) {
+                        return Double.parseDouble(value) > 100;
+                    }
+                })
+                .build();
+        List<Block> results = mWorkspace.findBlocks(overHundred, null);
+        assertEquals(2, results.size());
+        assertTrue(results.contains(big));
+        assertTrue(results.contains(bigToo));
+
+        String bigValue = big.getFieldByName("NUM").getSerializedValue();
+        results = mWorkspace.findBlocks(
+                new BlockQuery.Builder().addFieldValue("NUM", bigValue).build(), null);
+        assertEquals(2, results.size());
+        results = mWorkspace.findBlocks(new BlockQuery.Builder()
+                .addFieldValue("NUM", bigValue).setAncestor(second).build(), null);
+        assertEquals(1, results.size());
+        assertSame(bigToo, results.get(0));
+        results = mWorkspace.findBlocks(
+                new BlockQuery.Builder().setAncestorType("statement_value_input").build(), null);
+        assertEquals(3, results.size());
+        assertFalse(results.contains(first));
+
+        // Edits and removals update the index.
+        ((FieldNumber) small.getFieldByName("NUM")).setValue(200);
+        assertEquals(3, mWorkspace.findBlocks(overHundred, null).size());
+        mController.trashRootBlock(first);
+        results = mWorkspace.findBlocks(overHundred, null);
+        assertEquals(1, results.size());
+        assertSame(small, results.get(0));
+        mController.addBlockFromTrash(first);
+        assertEquals(3, mWorkspace.findBlocks(overHundred, null).size());
+
+        // Queries give the same results without the index.
+        mWorkspace.removeFieldIndex("NUM");
+        assertEquals(3, mWorkspace.findBlocks(overHundred, null).size());
+        assertEquals(5, mWorkspace.findBlocks(new BlockQuery.Builder().build(), null).size());
+    }
+
+    public void testMetrics() {
+        BlockFactory factory = mController.getBlockFactory();
+        Block first = factory.obtainBlock("statement_value_input", "first");
+        Block second = factory.obtainBlock("statement_value_input", "second");
+        Block number = factory.obtainBlock("test_number", "number");
+        mController.addRootBlock(first);
+        mController.addRootBlock(second);
+        mController.addRootBlock(number);
+        mController.connect(second.getPreviousConnection(), first.getNextConnection());
+        mController.connect(number.getOutputConnection(),
+                second.getInputByName("value").getConnection());
+
+        WorkspaceMetrics metrics = mWorkspace.getStats().updateMetrics();
+        assertSame(metrics, mWorkspace.getStats().getMetrics());
+        assertEquals(3, metrics.getBlockCount());
+        assertEquals(Integer.valueOf(2),
+                metrics.getBlockCountsByType().get("statement_value_input"));
+        assertEquals(2, metrics.getMaxNestingDepth());
+        assertEquals(2, metrics.getLongestStatementChain());
+        assertEquals(2, metrics.getConnectionCount(Connection.CONNECTION_TYPE_INPUT));
+        assertEquals(1, metrics.getConnectionCount(Connection.CONNECTION_TYPE_OUTPUT));
+        assertTrue(metrics.getEstimatedBytes() > 0);
+
+        mController.trashRootBlock(first);
+        metrics = mWorkspace.getStats().updateMetrics();
+        assertEquals(0, metrics.getBlockCount());
+        assertEquals(0, metrics.getMaxNestingDepth());
+        assertEquals(0, metrics.getConnectionCount(Connection.CONNECTION_TYPE_INPUT));
+        assertEquals(0, metrics.getEstimatedBytes());
+    }
+
     public void testSerialization() throws BlocklySerializerException {
         ByteArrayOutputStream os = new ByteArrayOutputStream();
         mWorkspace.serializeToXml(os);